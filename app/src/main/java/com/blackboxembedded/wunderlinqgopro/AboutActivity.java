@@ -28,6 +28,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.text.method.LinkMovementMethod;
+import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
@@ -35,7 +36,9 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -78,44 +81,82 @@ public class AboutActivity extends AppCompatActivity {
         btSendLogs.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                // Get current date
-                Calendar cal = Calendar.getInstance();
-                Date date = cal.getTime();
-                SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd-HH:mm");
-                String curdatetime = formatter.format(date);
-                //Send file(s) using email
-                Intent emailIntent = new Intent(Intent.ACTION_SEND);
-                emailIntent.setType("text/plain");
-                String[] to;
-                to = new String[]{getString(R.string.sendlogs_email)};
-                emailIntent.putExtra(Intent.EXTRA_EMAIL, to);
-                //Convert from paths to Android friendly Parcelable Uri's
-                File outputFile = new File(getApplicationContext().getExternalFilesDir(null), "wunderlinq-gopro.log");
-                if(outputFile.exists()) {
-                    emailIntent.putExtra(Intent.EXTRA_STREAM, FileProvider.getUriForFile(AboutActivity.this, "com.blackboxembedded.wunderlinqgopro.fileprovider", outputFile));
-                }
-                emailIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.sendlogs_subject) + " " + curdatetime);
-                emailIntent.putExtra(Intent.EXTRA_TEXT, "App Version: " + BuildConfig.VERSION_NAME + "\n"
-                        + "Android Version: " + Build.VERSION.RELEASE + "\n"
-                        + "Manufacturer, Model: " + Build.MANUFACTURER + ", " + Build.MODEL + "\n"
-                        + getString(R.string.sendlogs_body));
-                emailIntent.setType("message/rfc822");
-                emailIntent.setFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                startActivity(Intent.createChooser(emailIntent, getString(R.string.sendlogs_intent_title)));
-                SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(AboutActivity.this);
-                SharedPreferences.Editor editor = sharedPrefs.edit();
-                editor.putBoolean("prefDebugLogging", false);
-                editor.apply();
+                // Render the binary trace off the UI thread, then hand the text to the mail app
+                final File traceFile = new File(getApplicationContext().getExternalFilesDir(null), TraceLog.FILE_NAME);
+                final File outputFile = new File(getApplicationContext().getExternalFilesDir(null), "wunderlinq-gopro.log");
+                final File captureFile = new File(getApplicationContext().getExternalFilesDir(null), DeviceScanActivity.CAPTURE_FILE_NAME);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        BluetoothLeService.stopCapture();
+                        try {
+                            TraceLog.export(traceFile, outputFile);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Unable to export trace: " + e.toString());
+                        }
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                sendLogs(outputFile, captureFile);
+                            }
+                        });
+                    }
+                }).start();
             }
 
         });
 
+        Button btDiagnostics = findViewById(R.id.btDiagnostics);
+        btDiagnostics.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                startActivity(new Intent(AboutActivity.this, DiagnosticsActivity.class));
+            }
+        });
+
         ActionBar actionBar = getSupportActionBar();
         if (actionBar != null) {
             actionBar.setDisplayHomeAsUpEnabled(true);
         }
     }
 
+    private void sendLogs(File outputFile, File captureFile) {
+        // Get current date
+        Calendar cal = Calendar.getInstance();
+        Date date = cal.getTime();
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd-HH:mm");
+        String curdatetime = formatter.format(date);
+        //Send file(s) using email
+        Intent emailIntent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        emailIntent.setType("text/plain");
+        String[] to;
+        to = new String[]{getString(R.string.sendlogs_email)};
+        emailIntent.putExtra(Intent.EXTRA_EMAIL, to);
+        //Convert from paths to Android friendly Parcelable Uri's
+        ArrayList<Uri> uris = new ArrayList<>();
+        if(outputFile.exists()) {
+            uris.add(FileProvider.getUriForFile(AboutActivity.this, "com.blackboxembedded.wunderlinqgopro.fileprovider", outputFile));
+        }
+        if(captureFile.exists()) {
+            uris.add(FileProvider.getUriForFile(AboutActivity.this, "com.blackboxembedded.wunderlinqgopro.fileprovider", captureFile));
+        }
+        emailIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+        emailIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.sendlogs_subject) + " " + curdatetime);
+        emailIntent.putExtra(Intent.EXTRA_TEXT, "App Version: " + BuildConfig.VERSION_NAME + "\n"
+                + "Android Version: " + Build.VERSION.RELEASE + "\n"
+                + "Manufacturer, Model: " + Build.MANUFACTURER + ", " + Build.MODEL + "\n"
+                + getString(R.string.sendlogs_body));
+        emailIntent.setType("message/rfc822");
+        emailIntent.setFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(emailIntent, getString(R.string.sendlogs_intent_title)));
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(AboutActivity.this);
+        SharedPreferences.Editor editor = sharedPrefs.edit();
+        editor.putBoolean("prefDebugLogging", false);
+        editor.apply();
+        ProtocolLog.setEnabled(false);
+        TraceLog.close();
+    }
+
     @Override
     public void recreate() {
         super.recreate();
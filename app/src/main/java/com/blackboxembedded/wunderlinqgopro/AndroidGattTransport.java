@@ -0,0 +1,304 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GattTransport} on top of the framework's {@link BluetoothGatt}.
+ *
+ * The framework calls back on a binder thread. Every callback is handed to the scheduler,
+ * the BLE thread, so GATT operations and their results are handled in one place and in
+ * order. Values are taken from the characteristic before the hop, the framework reuses it.
+ */
+public class AndroidGattTransport implements GattTransport {
+    private final static String TAG = "BLE";
+
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString(GattAttributes.CLIENT_CHARACTERISTIC_CONFIG);
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final Scheduler scheduler;
+    private final Map<UUID, BluetoothGattCharacteristic> characteristics = new ConcurrentHashMap<>();
+    private volatile BluetoothGatt gatt;
+    private volatile Callback callback;
+
+    public AndroidGattTransport(Context context, BluetoothDevice device, Scheduler scheduler) {
+        this.context = context;
+        this.device = device;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void connect(Callback callback) {
+        this.callback = callback;
+        gatt = device.connectGatt(context, false, mGattCallback);
+    }
+
+    @Override
+    public void disconnect() {
+        BluetoothGatt current = gatt;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        BluetoothGatt current = gatt;
+        gatt = null;
+        callback = null;
+        characteristics.clear();
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        BluetoothGatt current = gatt;
+        return current != null && current.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean discoverServices() {
+        BluetoothGatt current = gatt;
+        return current != null && current.discoverServices();
+    }
+
+    @Override
+    public int getProperties(UUID uuid) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        return (characteristic == null) ? 0 : characteristic.getProperties();
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID uuid) {
+        BluetoothGatt current = gatt;
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        return current != null && characteristic != null && current.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID uuid, byte[] value, BluetoothLeService.WriteType writeType) {
+        BluetoothGatt current = gatt;
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        if (current == null || characteristic == null) {
+            return false;
+        }
+        switch (writeType) {
+            case WITHOUT_RESPONSE:
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                break;
+            case SIGNED:
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_SIGNED);
+                break;
+            default:
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                break;
+        }
+        characteristic.setValue(value);
+        return current.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean setNotify(UUID uuid, boolean enable) {
+        BluetoothGatt current = gatt;
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        if (current == null || characteristic == null) {
+            return false;
+        }
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor == null) {
+            Log.e(TAG, String.format("ERROR: Could not get CCC descriptor for characteristic %s", uuid));
+            return false;
+        }
+        byte[] value;
+        if (!enable) {
+            value = BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+        } else if ((characteristic.getProperties() & PROPERTY_NOTIFY) != 0) {
+            value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        } else {
+            value = BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        }
+        // First set notification for Gatt object
+        if (!current.setCharacteristicNotification(characteristic, enable)) {
+            Log.e(TAG, String.format("ERROR: setCharacteristicNotification failed for descriptor: %s", descriptor.getUuid()));
+        }
+        // Then write to descriptor
+        descriptor.setValue(value);
+        return current.writeDescriptor(descriptor);
+    }
+
+    private void bondDevice() {
+        try {
+            Class class1 = Class.forName("android.bluetooth.BluetoothDevice");
+            Method createBondMethod = class1.getMethod("createBond");
+            Boolean returnValue = (Boolean) createBondMethod.invoke(device);
+            Log.d(TAG,"Pair initates status-->" + returnValue);
+        } catch (Exception e) {
+            Log.d(TAG,"Exception Pair" + e.getMessage());
+        }
+    }
+
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, final int status, final int newState) {
+            if (newState != BluetoothProfile.STATE_CONNECTED && newState != BluetoothProfile.STATE_CONNECTING
+                    && newState != BluetoothProfile.STATE_DISCONNECTING) {
+                characteristics.clear();
+            }
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current == null) {
+                        return;
+                    }
+                    switch (newState) {
+                        case BluetoothProfile.STATE_CONNECTED:
+                            current.onConnectionStateChange(status, BluetoothLeService.STATE_CONNECTED);
+                            break;
+                        case BluetoothProfile.STATE_CONNECTING:
+                            current.onConnectionStateChange(status, BluetoothLeService.STATE_CONNECTING);
+                            break;
+                        case BluetoothProfile.STATE_DISCONNECTING:
+                            current.onConnectionStateChange(status, BluetoothLeService.STATE_DISCONNECTING);
+                            break;
+                        default:
+                            current.onConnectionStateChange(status, BluetoothLeService.STATE_DISCONNECTED);
+                            break;
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, final int mtu, final int status) {
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current != null) {
+                        current.onMtuChanged(mtu, status);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, final int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                for (BluetoothGattService service : gatt.getServices()) {
+                    for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                        characteristics.put(characteristic.getUuid(), characteristic);
+                    }
+                }
+            } else if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION ||
+                    status == BluetoothGatt.GATT_INSUFFICIENT_ENCRYPTION) {
+                bondDevice();
+            }
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current != null) {
+                        current.onServicesDiscovered(status);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, final int status) {
+            if (!CLIENT_CHARACTERISTIC_CONFIG.equals(descriptor.getUuid())) {
+                return;
+            }
+            byte[] value = descriptor.getValue();
+            final boolean enabled = value != null && value.length > 0 && value[0] != 0;
+            final UUID uuid = descriptor.getCharacteristic().getUuid();
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current != null) {
+                        current.onNotifyChanged(uuid, enabled, status);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, final int status) {
+            final UUID uuid = characteristic.getUuid();
+            final byte[] value = characteristic.getValue();
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current != null) {
+                        current.onCharacteristicWrite(uuid, value, status);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, final int status) {
+            final UUID uuid = characteristic.getUuid();
+            final byte[] value = characteristic.getValue();
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current != null) {
+                        current.onCharacteristicRead(uuid, value, status);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            final UUID uuid = characteristic.getUuid();
+            final byte[] value = characteristic.getValue();
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback current = callback;
+                    if (current != null) {
+                        current.onCharacteristicChanged(uuid, value);
+                    }
+                }
+            });
+        }
+    };
+}
@@ -0,0 +1,164 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A single GATT operation queued on the {@link CommandEngine}.
+ */
+public abstract class BleCommand {
+
+    /**
+     * Lanes are served round-robin so one busy characteristic cannot starve the others.
+     * CONTROL (descriptor writes) is always served first.
+     */
+    public enum Lane {
+        CONTROL,
+        COMMAND,
+        SETTING,
+        QUERY
+    }
+
+    /**
+     * Scheduling class. The engine always serves the highest priority lane head first and
+     * pulls back lower priority work that was handed to the BLE thread but has not started.
+     */
+    public enum Priority {
+        // Shutter and HiLight
+        HIGH,
+        // Mode and setting changes
+        NORMAL,
+        // Status queries and Wi-Fi reads
+        LOW
+    }
+
+    public enum Type {
+        READ,
+        WRITE,
+        WRITE_NO_RESPONSE,
+        DESCRIPTOR,
+        // ATT MTU exchange, queued with uuid LINK
+        MTU
+    }
+
+    /**
+     * Stands in for a characteristic in operations on the whole link.
+     */
+    public static final UUID LINK = new UUID(0, 0);
+
+    final Lane lane;
+    Priority priority;
+    final Type type;
+    final UUID uuid;
+    final byte[] payload;
+    final int length;
+
+    long enqueuedAt;
+    long startedAt;
+    int tries;
+    // Set once the BLE thread handed the operation to the stack
+    boolean started;
+    Runnable deadline;
+    // Identical requests that were folded into this one instead of being queued
+    int attached;
+    // One packet of a message split over several writes
+    boolean fragment;
+    // May be sent again on a new link if the old one dropped before it was acknowledged
+    boolean replayable;
+    // The answer the camera owes for this message, set on its first packet only
+    CommandTracker.Pending pending;
+
+    /**
+     * @param payload the bytes written, or null for reads. Used to recognise duplicates.
+     */
+    public BleCommand(Lane lane, Type type, UUID uuid, byte[] payload) {
+        this(lane, defaultPriority(lane), type, uuid, payload);
+    }
+
+    public BleCommand(Lane lane, Priority priority, Type type, UUID uuid, byte[] payload) {
+        this.lane = lane;
+        this.priority = priority;
+        this.type = type;
+        this.uuid = uuid;
+        this.payload = payload;
+        this.length = (payload == null) ? 0 : payload.length;
+    }
+
+    /**
+     * Makes an operation taken off a dropped link ready to be queued again.
+     */
+    void rewind() {
+        tries = 0;
+        started = false;
+        deadline = null;
+    }
+
+    /**
+     * Hands the operation to the GATT stack.
+     *
+     * @return true if the stack accepted the request and a callback will follow.
+     */
+    public abstract boolean execute();
+
+    /**
+     * Only writes without response can share the link with other operations,
+     * everything else waits for its GATT callback before the next one is issued.
+     */
+    public boolean isAcknowledged() {
+        return type != Type.WRITE_NO_RESPONSE;
+    }
+
+    /**
+     * Reads and GoPro queries only fetch state and an MTU exchange only sets it, so running
+     * one twice in a row gains nothing. Commands and settings run as often as they were
+     * requested.
+     * CCC writes are not either: enable, disable, enable must not end up disabled.
+     * Packets of a split message never are, the camera needs every one of them in order.
+     */
+    public boolean isIdempotent() {
+        if (fragment) {
+            return false;
+        }
+        return type == Type.READ || type == Type.MTU || lane == Lane.QUERY;
+    }
+
+    /**
+     * @return true if both operations would put the same request on the air.
+     */
+    public boolean isSameRequest(BleCommand other) {
+        return type == other.type && uuid.equals(other.uuid) && Arrays.equals(payload, other.payload);
+    }
+
+    static Priority defaultPriority(Lane lane) {
+        switch (lane) {
+            case CONTROL:
+                return Priority.HIGH;
+            case QUERY:
+                return Priority.LOW;
+            default:
+                return Priority.NORMAL;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + "/" + lane + "/" + priority + " <" + uuid + ">";
+    }
+}
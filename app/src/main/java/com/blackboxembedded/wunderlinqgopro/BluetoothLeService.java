@@ -17,58 +17,93 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package com.blackboxembedded.wunderlinqgopro;
 
-import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_INDICATE;
-import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_NOTIFY;
-
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.RemoteException;
 import android.util.Log;
 
-
-import java.lang.reflect.Method;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+import androidx.preference.PreferenceManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
-import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 /**
  * Service for managing connection and data communication with a GATT server
  * hosted on a WunderLINQ Bluetooth LE device.
+ *
+ * Every camera gets its own {@link CameraSession}. The instance methods used by the
+ * control screen act on the active session, the one last passed to {@link #connect}.
+ *
+ * While cameras are connected and prefKeepConnected is on, the service runs in the
+ * foreground so the links survive the screens going away. {@link IdlePolicy} lets them go
+ * once no screen has been bound for a while.
+ *
+ * Other apps bind with {@link #ACTION_REMOTE_CONTROL} and talk to {@link RemoteControl}
+ * through a Messenger.
  */
 public class BluetoothLeService extends Service {
 
-    List<UUID> notifyingCharacteristics = new ArrayList<>();
-
-
     private final static String TAG = "BLE";
 
-    int mStartMode;       // indicates how to behave if the service is killed
-    boolean mAllowRebind; // indicates whether onRebind should be used
+    int mStartMode = START_NOT_STICKY; // indicates how to behave if the service is killed
+    boolean mAllowRebind = true;       // indicates whether onRebind should be used
 
-    private static final Queue<Runnable> commandQueue = new ConcurrentLinkedQueue<>();
-    private static Handler bleHandler = new Handler();
-    private static volatile boolean commandQueueBusy = false;
-    private static boolean isRetrying;
-    private static int nrTries;
-    // Maximum number of retries of commands
-    private static final int MAX_TRIES = 2;
+    // GATT operations and their callbacks all run here, away from layout, the preview and gestures
+    private static final Handler bleHandler = new Handler(startBleThread());
+    private static final Scheduler bleScheduler = new HandlerScheduler(bleHandler);
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Where in-app listeners get camera values
+    private static final Executor mainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mainHandler.post(command);
+        }
+    };
+    private static final String GATT_CACHE_PREFERENCES = "gatt_cache";
+    private static final String CONNECT_STATS_PREFERENCES = "connect_stats";
+    private static final String NOTIFICATION_CHANNEL = "connection";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String SNAPSHOT_FILE = "remote_status";
+    private static final SessionRegistry sessions = new SessionRegistry(bleScheduler, mainExecutor);
+    private static volatile CameraSession activeSession;
+    private static volatile GroupShutter lastGroupShutter;
+    // Longest a group command waits for every camera's link to be free
+    private static final long GROUP_ARM_TIMEOUT = 250;
+    // Records the traffic of links opened while it is set
+    private static volatile SnoopWriter capture;
 
     public enum WriteType {
         WITH_RESPONSE,
@@ -76,13 +111,6 @@ public class BluetoothLeService extends Service {
         SIGNED
     }
 
-    private static BluetoothGattCharacteristic wifiSSIDCharacteristic;
-    private static BluetoothGattCharacteristic wifiPasswordCharacteristic;
-    private static BluetoothGattCharacteristic commandCharacteristic;
-    private static BluetoothGattCharacteristic commandResponseCharacteristic;
-    private static BluetoothGattCharacteristic queryCharacteristic;
-    private static BluetoothGattCharacteristic queryResponseCharacteristic;
-
     /**
      * GATT Status constants
      */
@@ -92,6 +120,8 @@ public class BluetoothLeService extends Service {
             "com.blackboxembedded.bluetooth.le.ACTION_GATT_CONNECTING";
     public final static String ACTION_GATT_DISCONNECTED =
             "com.blackboxembedded.bluetooth.le.ACTION_GATT_DISCONNECTED";
+    public final static String ACTION_GATT_RECONNECTING =
+            "com.blackboxembedded.bluetooth.le.ACTION_GATT_RECONNECTING";
     public final static String ACTION_GATT_SERVICES_DISCOVERED =
             "com.blackboxembedded.bluetooth.le.ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_GATT_CHARS_DISCOVERED =
@@ -106,16 +136,37 @@ public class BluetoothLeService extends Service {
             "android.bluetooth.device.action.ACTION_WRITE_FAILED";
     public final static String ACTION_WRITE_SUCCESS =
             "android.bluetooth.device.action.ACTION_WRITE_SUCCESS";
-    private final static String ACTION_GATT_DISCONNECTING =
+    final static String ACTION_GATT_DISCONNECTING =
             "com.blackboxembedded.bluetooth.le.ACTION_GATT_DISCONNECTING";
     public final static String ACTION_SERVICE_DISCONNECTED =
             "com.blackboxembedded.bluetooth.le.ACTION_SERVICE_DISCONNECTED";
     public final static String ACTION_NOTFICATION_ENABLED =
             "com.blackboxembedded.bluetooth.le.ACTION_NOTFICATION_ENABLED";
+    public final static String ACTION_COMMAND_DROPPED =
+            "com.blackboxembedded.bluetooth.le.ACTION_COMMAND_DROPPED";
+    public final static String ACTION_QUEUE_STALLED =
+            "com.blackboxembedded.bluetooth.le.ACTION_QUEUE_STALLED";
+    // Binds to the Messenger API of RemoteControl instead of the local binder
+    public final static String ACTION_REMOTE_CONTROL =
+            "com.blackboxembedded.wunderlinqgopro.REMOTE_CONTROL";
+    // Sent to the service from its notification
+    final static String ACTION_DISCONNECT_ALL =
+            "com.blackboxembedded.bluetooth.le.ACTION_DISCONNECT_ALL";
     public static final String EXTRA_BYTE_VALUE = "com.blackboxembedded.wunderlinq.backgroundservices." +
             "EXTRA_BYTE_VALUE";
     public static final String EXTRA_BYTE_UUID_VALUE = "com.blackboxembedded.wunderlinq.backgroundservices." +
             "EXTRA_BYTE_UUID_VALUE";
+    public static final String EXTRA_REPORT = "com.blackboxembedded.wunderlinq.backgroundservices." +
+            "EXTRA_REPORT";
+    // Bluetooth address of the camera a broadcast is about
+    public static final String EXTRA_ADDRESS = "com.blackboxembedded.wunderlinq.backgroundservices." +
+            "EXTRA_ADDRESS";
+
+    /**
+     * GoPro command IDs
+     */
+    public static final byte CMD_SHUTTER = 0x01;
+    public static final byte CMD_HILIGHT = 0x18;
 
     /**
      * Connection status Constants
@@ -124,20 +175,14 @@ public class BluetoothLeService extends Service {
     public static final int STATE_CONNECTING = 1;
     public static final int STATE_CONNECTED = 2;
     public static final int STATE_DISCONNECTING = 4;
+    // The camera dropped the link and the session is bringing it back
+    public static final int STATE_RECONNECTING = 6;
     private static final int STATE_BONDED = 5;
 
     /**
      * BluetoothAdapter for handling connections
      */
     public static BluetoothAdapter mBluetoothAdapter;
-    public static BluetoothGatt mBluetoothGatt;
-
-    public static int mConnectionState = STATE_DISCONNECTED;
-    /**
-     * Device address
-     */
-    private static String mBluetoothDeviceAddress;
-    private static String mBluetoothDeviceName;
 
     /**
      * Flag to check the mBound status
@@ -151,6 +196,15 @@ public class BluetoothLeService extends Service {
 
     private final IBinder mBinder = new LocalBinder();
 
+    private IdlePolicy idlePolicy;
+
+    private RemoteControl remoteControl;
+    private File snapshotFile;
+    private Messenger remoteMessenger;
+    private final List<Messenger> remoteClients = new ArrayList<>();
+    // Set once startForegroundService() was called, until the service left the foreground
+    private boolean mForeground;
+
     /**
      * Local binder class
      */
@@ -163,6 +217,12 @@ public class BluetoothLeService extends Service {
     public BluetoothLeService() {
     }
 
+    private static Looper startBleThread() {
+        HandlerThread thread = new HandlerThread("BLE", Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        return thread.getLooper();
+    }
+
     @Override
     public void onCreate() {
         // The service is being created
@@ -170,25 +230,103 @@ public class BluetoothLeService extends Service {
         if (!initialize()) {
             Log.d(TAG, "Service not initialized");
         }
+        // Layouts of known cameras outlive the process so a cold start reconnects fast too
+        final SharedPreferences layouts = getSharedPreferences(GATT_CACHE_PREFERENCES, Context.MODE_PRIVATE);
+        sessions.getGattCache().setStorage(new GattCache.Storage() {
+            @Override
+            public String load(String address) {
+                return layouts.getString(address, null);
+            }
+
+            @Override
+            public void save(String address, String value) {
+                layouts.edit().putString(address, value).apply();
+            }
+
+            @Override
+            public void remove(String address) {
+                layouts.edit().remove(address).apply();
+            }
+        });
+        final SharedPreferences timings = getSharedPreferences(CONNECT_STATS_PREFERENCES, Context.MODE_PRIVATE);
+        sessions.getConnectStats().setStorage(new ConnectTimeline.Stats.Storage() {
+            @Override
+            public String load() {
+                return timings.getString("phases", null);
+            }
+
+            @Override
+            public void save(String value) {
+                timings.edit().putString("phases", value).apply();
+            }
+        });
+        sessions.getRecoveryStats().setStorage(new ConnectTimeline.Stats.Storage() {
+            @Override
+            public String load() {
+                return timings.getString("recovery", null);
+            }
+
+            @Override
+            public void save(String value) {
+                timings.edit().putString("recovery", value).apply();
+            }
+        });
+        idlePolicy = new IdlePolicy(bleScheduler, new IdlePolicy.Listener() {
+            @Override
+            public void onIdle() {
+                Log.d(TAG, "No screen for " + idlePolicy.getIdleTimeout() + "ms, disconnecting");
+                disconnectAll();
+            }
+        });
+        createRemoteControl();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         // The service is starting, due to a call to startService()
+        if (intent != null && ACTION_DISCONNECT_ALL.equals(intent.getAction())) {
+            disconnectAll();
+            return mStartMode;
+        }
+        // Started by startForegroundService(), which has to be answered right away
+        try {
+            ServiceCompat.startForeground(this, NOTIFICATION_ID, buildNotification(),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Unable to enter the foreground: " + e.getMessage());
+            synchronized (this) {
+                mForeground = false;
+            }
+            return mStartMode;
+        }
+        updateForeground();
         return mStartMode;
     }
 
     @Override
     public IBinder onBind(Intent intent) {
         // A client is binding to the service with bindService()
+        idlePolicy.attach();
+        if (ACTION_REMOTE_CONTROL.equals(intent.getAction())) {
+            return remoteMessenger.getBinder();
+        }
         mBound = true;
+        retryForeground();
         return mBinder;
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
         // All clients have unbound with unbindService()
-        mBound = false;
+        if (!ACTION_REMOTE_CONTROL.equals(intent.getAction())) {
+            mBound = false;
+        }
+        // Called once per bind Intent, the screens and the remote API are counted apart
+        idlePolicy.detach();
+        if (!isKeepConnectedEnabled()) {
+            // The screens disconnect by themselves
+            idlePolicy.cancel();
+        }
         return mAllowRebind;
     }
 
@@ -196,225 +334,245 @@ public class BluetoothLeService extends Service {
     public void onRebind(Intent intent) {
         // A client is binding to the service with bindService(),
         // after onUnbind() has already been called
-    }
-
-    @Override
-    public void onDestroy() {
-        // The service is no longer used and is being destroyed
+        if (!ACTION_REMOTE_CONTROL.equals(intent.getAction())) {
+            mBound = true;
+            retryForeground();
+        }
+        idlePolicy.attach();
     }
 
     /**
-     * Initializes a reference to the local BlueTooth adapter.
-     *
-     * @return Return true if the initialization is successful.
+     * A screen is visible, so entering the foreground is allowed again if it was refused.
      */
-    public boolean initialize() {
-        if (mBluetoothManager == null) {
-            mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-            if (mBluetoothManager == null) {
-                return false;
+    private void retryForeground() {
+        bleHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                updateForeground();
             }
-        }
-
-        mBluetoothAdapter = mBluetoothManager.getAdapter();
-        return mBluetoothAdapter != null;
+        });
     }
 
     /**
-     * Implements callback methods for GATT events that the app cares about. For
-     * example,connection change and services discovered.
+     * Maps the status snapshot shared with other apps and starts answering their messages
+     * on the BLE thread.
      */
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status,
-                                            int newState) {
-            String intentAction;
-            // GATT Server connected
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                intentAction = ACTION_GATT_CONNECTED;
-                synchronized (mGattCallback) {
-                    mConnectionState = STATE_CONNECTED;
-                }
-                broadcastConnectionUpdate(intentAction);
+    private void createRemoteControl() {
+        int size = StatusSnapshot.size(StatusSnapshot.DEFAULT_SLOTS);
+        ByteBuffer buffer;
+        snapshotFile = new File(getNoBackupFilesDir(), SNAPSHOT_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to map the status snapshot: " + e.getMessage());
+            snapshotFile = null;
+            buffer = ByteBuffer.allocate(size);
+        }
+        remoteControl = new RemoteControl(new RemoteControl.Target() {
+            @Override
+            public RemoteControl.Camera getCamera(String address) {
+                return (address == null) ? activeSession : sessions.get(address);
+            }
 
-                gatt.requestMtu(512);
+            @Override
+            public List<? extends RemoteControl.Camera> getCameras() {
+                return sessions.getAll();
+            }
 
-                String dataLog = "GATT Connected: [" + mBluetoothDeviceName + "|" + mBluetoothDeviceAddress + "] " +
-                        "Connection established";
-                Log.d(TAG,dataLog);
+            @Override
+            public void setGroupCommand(byte[] command) {
+                List<CameraSession> connected = sessions.getConnected();
+                if (connected.size() == 1) {
+                    connected.get(0).setCommand(command);
+                } else {
+                    BluetoothLeService.this.setGroupCommand(command);
+                }
             }
-            // GATT Server disconnected
-            else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                intentAction = ACTION_GATT_DISCONNECTED;
-                synchronized (mGattCallback) {
-                    mConnectionState = STATE_DISCONNECTED;
+        }, StatusSnapshot.format(buffer, StatusSnapshot.DEFAULT_SLOTS), bleScheduler);
+        remoteControl.setListener(new RemoteControl.Listener() {
+            @Override
+            public void onStatusChanged(int slot, int sequence) {
+                for (Messenger client : new ArrayList<>(remoteClients)) {
+                    sendRemote(client, Message.obtain(null, RemoteControl.MSG_STATUS, slot, sequence));
                 }
-                broadcastConnectionUpdate(intentAction);
-                String dataLog = "[" + mBluetoothDeviceName + "|" + mBluetoothDeviceAddress + "] " +
-                        "Disconnected";
-                Log.d(TAG,dataLog);
-            }
-            // GATT Server Connecting
-            if (newState == BluetoothProfile.STATE_CONNECTING) {
-                intentAction = ACTION_GATT_CONNECTING;
-                synchronized (mGattCallback) {
-                    mConnectionState = STATE_CONNECTING;
+            }
+        });
+        remoteMessenger = new Messenger(new Handler(bleHandler.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                onRemoteMessage(msg);
+                return true;
+            }
+        }));
+    }
+
+    private void onRemoteMessage(Message msg) {
+        Messenger client = msg.replyTo;
+        switch (msg.what) {
+            case RemoteControl.MSG_REGISTER:
+                if (client == null) {
+                    return;
                 }
-                broadcastConnectionUpdate(intentAction);
-                String dataLog = "[" + mBluetoothDeviceName + "|" + mBluetoothDeviceAddress + "] " +
-                        "Connection establishing";
-                Log.d(TAG,dataLog);
-            }
-            // GATT Server disconnected
-            else if (newState == BluetoothProfile.STATE_DISCONNECTING) {
-                intentAction = ACTION_GATT_DISCONNECTING;
-                synchronized (mGattCallback) {
-                    mConnectionState = STATE_DISCONNECTING;
+                if (!remoteClients.contains(client)) {
+                    remoteClients.add(client);
                 }
-                broadcastConnectionUpdate(intentAction);
-            }
+                for (CameraSession session : sessions.getAll()) {
+                    remoteControl.publish(session);
+                }
+                Message reply = Message.obtain(null, RemoteControl.MSG_SNAPSHOT, RemoteControl.RESULT_OK, msg.arg2);
+                ParcelFileDescriptor descriptor = null;
+                try {
+                    if (snapshotFile != null) {
+                        descriptor = ParcelFileDescriptor.open(snapshotFile, ParcelFileDescriptor.MODE_READ_ONLY);
+                        Bundle data = new Bundle();
+                        data.putParcelable(RemoteControl.EXTRA_SNAPSHOT, descriptor);
+                        reply.setData(data);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to share the status snapshot: " + e.getMessage());
+                }
+                sendRemote(client, reply);
+                if (descriptor != null) {
+                    try {
+                        // The client got its own copy
+                        descriptor.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                break;
+            case RemoteControl.MSG_UNREGISTER:
+                remoteClients.remove(client);
+                break;
+            default:
+                Bundle data = msg.peekData();
+                String address = (data == null) ? null : data.getString(RemoteControl.EXTRA_ADDRESS);
+                int result = remoteControl.handle(msg.what, msg.arg1, address);
+                if (client != null) {
+                    sendRemote(client, Message.obtain(null, RemoteControl.MSG_RESULT, result, msg.arg2));
+                }
+                break;
         }
+    }
 
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            // GATT Services discovered
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG,"GATT: Services Discovered");
-                broadcastConnectionUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-                checkGattServices(getSupportedGattServices());
-            } else if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION ||
-                    status == BluetoothGatt.GATT_INSUFFICIENT_ENCRYPTION) {
-                bondDevice();
-                broadcastConnectionUpdate(ACTION_GATT_SERVICE_DISCOVERY_UNSUCCESSFUL);
-            } else {
-                broadcastConnectionUpdate(ACTION_GATT_SERVICE_DISCOVERY_UNSUCCESSFUL);
-            }
+    private void sendRemote(Messenger client, Message message) {
+        try {
+            client.send(message);
+        } catch (RemoteException e) {
+            // The other app is gone
+            remoteClients.remove(client);
         }
+    }
 
-        @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
-                                     int status) {
-        }
+    @Override
+    public void onDestroy() {
+        // The service is no longer used and is being destroyed
+        idlePolicy.cancel();
+    }
 
-        @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
-            // Do some checks first
-            final BluetoothGattCharacteristic parentCharacteristic = descriptor.getCharacteristic();
-            if(status!= BluetoothGatt.GATT_SUCCESS) {
-                Log.e(TAG, String.format("ERROR: Write descriptor failed characteristic: %s", parentCharacteristic.getUuid()));
-            }
-
-            // Check if this was the Client Configuration Descriptor
-            if(descriptor.getUuid().equals(UUID.fromString(GattAttributes.CLIENT_CHARACTERISTIC_CONFIG))) {
-                if(status==BluetoothGatt.GATT_SUCCESS) {
-                    // Check if we were turning notify on or off
-                    byte[] value = descriptor.getValue();
-                    if (value != null) {
-                        if (value[0] != 0) {
-                            // Notify set to on, add it to the set of notifying characteristics
-                            notifyingCharacteristics.add(parentCharacteristic.getUuid());
-                        }
-                    } else {
-                        // Notify was turned off, so remove it from the set of notifying characteristics
-                        notifyingCharacteristics.remove(parentCharacteristic.getUuid());
-                    }
-                }
-                // This was a setNotify operation
-            } else {
-            // This was a normal descriptor write....
+    /**
+     * @return true if cameras stay connected after their screens closed.
+     */
+    public boolean isKeepConnectedEnabled() {
+        return PreferenceManager.getDefaultSharedPreferences(this).getBoolean("prefKeepConnected", true);
+    }
+
+    /**
+     * Enters the foreground while a camera is connected or on its way there and leaves it
+     * once none is, updating the notification in between.
+     */
+    private synchronized void updateForeground() {
+        boolean wanted = false;
+        for (CameraSession session : sessions.getAll()) {
+            if (session.getConnectionState() != STATE_DISCONNECTED) {
+                wanted = true;
+                break;
             }
-            broadcastConnectionUpdate(ACTION_NOTFICATION_ENABLED);
-            completedCommand();
         }
-
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic
-                characteristic, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Intent intent = new Intent(ACTION_WRITE_SUCCESS);
-                Bundle mBundle = new Bundle();
-                // Putting the byte value read for GATT Db
-                final byte[] data = characteristic.getValue();
-                mBundle.putByteArray(EXTRA_BYTE_VALUE,
-                        data);
-                mBundle.putString(EXTRA_BYTE_UUID_VALUE,
-                        characteristic.getUuid().toString());
-                mBundle.putString("ACTION_WRITE_SUCCESS",
-                        "" + status);
-                intent.putExtras(mBundle);
-
-                sendBroadcast(intent);
-                completedCommand();
+        if (!wanted || !isKeepConnectedEnabled()) {
+            if (mForeground) {
+                mForeground = false;
+                ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+                stopSelf();
             }
+            return;
         }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic, int status) {
-            // Perform some checks on the status field
-            if (status != BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, String.format(Locale.ENGLISH,"ERROR: Read failed for characteristic: %s, status %d", characteristic.getUuid(), status));
-                completedCommand();
-                return;
+        if (!mForeground) {
+            try {
+                ContextCompat.startForegroundService(this, new Intent(this, BluetoothLeService.class));
+                mForeground = true;
+            } catch (IllegalStateException e) {
+                // Android 12+ refuses while none of our screens is visible, e.g. for a connect
+                // through the remote API. Carry on bound, the next screen tries again.
+                Log.e(TAG, "Unable to enter the foreground: " + e.getMessage());
             }
-
-            broadcastNotifyUpdate(characteristic);
-            completedCommand();
+        } else {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(NOTIFICATION_ID, buildNotification());
         }
+    }
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            broadcastNotifyUpdate(characteristic);
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL,
+                    getString(R.string.notification_channel_connection), NotificationManager.IMPORTANCE_LOW);
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(channel);
         }
-
-        @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            super.onMtuChanged(gatt, mtu, status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG,"New MTU: " + mtu);
+        StringBuilder cameras = new StringBuilder();
+        boolean reconnecting = false;
+        for (CameraSession session : sessions.getAll()) {
+            int state = session.getConnectionState();
+            if (state == STATE_RECONNECTING) {
+                reconnecting = true;
+            }
+            if (state != STATE_DISCONNECTED && session.getName() != null) {
+                if (cameras.length() > 0) {
+                    cameras.append(", ");
+                }
+                cameras.append(session.getName());
             }
-            discoverServices();
         }
-    };
-
-
-    private void broadcastConnectionUpdate(final String action) {
-        final Intent intent = new Intent(action);
-        sendBroadcast(intent);
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, DeviceScanActivity.class),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent disconnect = PendingIntent.getService(this, 0,
+                new Intent(this, BluetoothLeService.class).setAction(ACTION_DISCONNECT_ALL),
+                PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.drawable.ic_video_camera)
+                .setContentTitle(getString(reconnecting ? R.string.reconnecting : R.string.notification_connected))
+                .setContentText(cameras)
+                .setContentIntent(open)
+                .addAction(0, getString(R.string.notification_disconnect), disconnect)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false)
+                .setOngoing(true)
+                .build();
     }
 
-    private void broadcastNotifyUpdate(final BluetoothGattCharacteristic characteristic) {
-        Bundle mBundle = new Bundle();
-        // Putting the byte value read for GATT Db
-        final byte[] data = characteristic.getValue();
-
-        mBundle.putByteArray(EXTRA_BYTE_VALUE,
-                data);
-        mBundle.putString(EXTRA_BYTE_UUID_VALUE,
-                characteristic.getUuid().toString());
-
-        if (characteristic.getUuid().equals(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC)) {
-            final Intent intent = new Intent(ACTION_DATA_AVAILABLE);
-            intent.putExtras(mBundle);
-            sendBroadcast(intent);
-        } else if (characteristic.getUuid().equals(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC)) {
-            final Intent intent = new Intent(ACTION_DATA_AVAILABLE);
-            intent.putExtras(mBundle);
-            sendBroadcast(intent);
-        } else {
-            /*
-             * Sending the broad cast so that it can be received on registered
-             * receivers
-             */
-            final Intent intent = new Intent(ACTION_DATA_AVAILABLE);
-            intent.putExtras(mBundle);
-            sendBroadcast(intent);
+    /**
+     * Initializes a reference to the local BlueTooth adapter.
+     *
+     * @return Return true if the initialization is successful.
+     */
+    public boolean initialize() {
+        if (mBluetoothManager == null) {
+            mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+            if (mBluetoothManager == null) {
+                return false;
+            }
         }
+
+        mBluetoothAdapter = mBluetoothManager.getAdapter();
+        return mBluetoothAdapter != null;
     }
 
+
     /**
-     * Connects to the GATT server hosted on the BlueTooth LE device.
+     * Connects to the GATT server hosted on the BlueTooth LE device and makes it the
+     * active session. A camera that is already connected is only made active.
      *
      * @param address The device address of the destination device.
      * connection result is reported asynchronously through the
@@ -422,406 +580,449 @@ public class BluetoothLeService extends Service {
      * callback.
      */
     public void connect(final String address, final String devicename) {
+        CameraSession session = connectCamera(address, devicename);
+        if (session != null) {
+            activeSession = session;
+        }
+    }
+
+    /**
+     * Connects another camera without changing the active session.
+     *
+     * @return the camera's session, or null if the address is unknown.
+     */
+    public CameraSession connectCamera(final String address, final String devicename) {
         if (mBluetoothAdapter == null || address == null) {
-            return;
+            return null;
+        }
+
+        final CameraSession session = sessions.obtain(address);
+        if (session.getConnectionState() != STATE_DISCONNECTED) {
+            return session;
         }
 
-        BluetoothDevice device = mBluetoothAdapter
+        final BluetoothDevice device = mBluetoothAdapter
                 .getRemoteDevice(address);
         if (device == null) {
-            return;
+            return null;
         }
 
-        // We want to directly connect to the device, so we are setting the
-        // autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
-        mBluetoothDeviceAddress = address;
-        mBluetoothDeviceName = devicename;
+        bleHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (session.getConnectionState() != STATE_DISCONNECTED) {
+                    return;
+                }
+                session.setTransportFactory(new CameraSession.TransportFactory() {
+                    @Override
+                    public GattTransport create() {
+                        return createTransport(device, address);
+                    }
+                });
+                session.connect(createTransport(device, address), devicename, mSessionListener);
+                updateForeground();
+            }
+        });
+        return session;
+    }
 
-        String dataLog = "[" + devicename + "|" + address + "] " +
-                "Connection request sent";
-        Log.d(TAG, dataLog);
+    private GattTransport createTransport(BluetoothDevice device, String address) {
+        GattTransport transport = new AndroidGattTransport(this, device, bleScheduler);
+        SnoopWriter writer = capture;
+        if (writer != null) {
+            transport = new CaptureTransport(transport, writer, bleScheduler, address);
+        }
+        return transport;
     }
 
     /**
-     * Disconnects an existing connection or cancel a pending connection. The
-     * disconnection result is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
+     * Starts recording the GATT traffic of cameras connected from now on to a btsnoop file,
+     * replacing what the file held.
      */
-    public void disconnect() {
-        if (mBluetoothAdapter != null && mBluetoothGatt != null) {
-            mBluetoothGatt.disconnect();
-            String dataLog = "[" + mBluetoothDeviceName + "|" + mBluetoothDeviceAddress + "] " +
-                    "Disconnection request sent";
-            Log.d(TAG, dataLog);
-            broadcastConnectionUpdate(ACTION_SERVICE_DISCONNECTED);
-            close();
+    public static synchronized void startCapture(File file) throws IOException {
+        if (capture != null) {
+            return;
         }
+        capture = new SnoopWriter(new FileOutputStream(file), System.currentTimeMillis(), bleScheduler.nanoTime());
+        Log.d(TAG, "Capturing to: " + file.getAbsolutePath());
     }
 
-    public static void discoverServices() {
-        if (mBluetoothAdapter != null || mBluetoothGatt != null) {
-            mBluetoothGatt.discoverServices();
-            String dataLog = "[" + mBluetoothDeviceName + "|" + mBluetoothDeviceAddress + "] " +
-                    "Service discovery request sent";
-            Log.d(TAG, dataLog);
+    public static synchronized void stopCapture() {
+        SnoopWriter writer = capture;
+        capture = null;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close capture: " + e.toString());
+        }
+        if (writer.getError() != null) {
+            Log.e(TAG, "Capture incomplete: " + writer.getError().toString());
         }
     }
 
-    /**
-     * After using a given BLE device, the app must call this method to ensure
-     * resources are released properly.
-     */
-    public static void close() {
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+    public static boolean isCapturing() {
+        return capture != null;
     }
 
     /**
-     * Request a read on a given {@code BluetoothGattCharacteristic}. The read
-     * result is reported asynchronously through the
-     * {@code BluetoothGattCallback#onCharacteristicRead(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
-     * callback.
-     *
-     * @param characteristic The characteristic to read from.
+     * Turns what the sessions report into the broadcasts the screens and other apps receive.
      */
-    public static boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
-        if(mBluetoothGatt == null) {
-            Log.e(TAG, "ERROR: Gatt is 'null', ignoring read request");
-            return false;
+    private final CameraSession.Listener mSessionListener = new CameraSession.Listener() {
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+            if (TraceLog.isOpen()) {
+                TraceLog.text(TraceLog.CATEGORY_BLE, TraceLog.EVENT_STATE, session.getAddress() + " " + action);
+            }
+            final Intent intent = new Intent(action);
+            intent.putExtra(EXTRA_ADDRESS, session.getAddress());
+            sendBroadcast(intent);
+            updateForeground();
+            if (session.getConnectionState() == STATE_DISCONNECTED) {
+                remoteControl.release(session.getAddress());
+            } else {
+                remoteControl.publish(session);
+            }
         }
 
-        // Check if characteristic is valid
-        if(characteristic == null) {
-            Log.e(TAG, "ERROR: Characteristic is 'null', ignoring read request");
-            return false;
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+            if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+                remoteControl.publish(session);
+            }
+            Bundle mBundle = new Bundle();
+            // Putting the byte value read for GATT Db
+            mBundle.putByteArray(EXTRA_BYTE_VALUE, (data == null) ? null : Arrays.copyOf(data, length));
+            mBundle.putString(EXTRA_BYTE_UUID_VALUE, uuid.toString());
+            mBundle.putString(EXTRA_ADDRESS, session.getAddress());
+
+            /*
+             * Sending the broad cast so that it can be received on registered
+             * receivers
+             */
+            final Intent intent = new Intent(ACTION_DATA_AVAILABLE);
+            intent.putExtras(mBundle);
+            sendBroadcast(intent);
         }
 
-        // Check if this characteristic actually has READ property
-        if((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0 ) {
-            Log.e(TAG, "ERROR: Characteristic cannot be read");
-            return false;
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+            Intent intent = new Intent(ACTION_WRITE_SUCCESS);
+            Bundle mBundle = new Bundle();
+            mBundle.putByteArray(EXTRA_BYTE_VALUE, value);
+            mBundle.putString(EXTRA_BYTE_UUID_VALUE, uuid.toString());
+            mBundle.putString(EXTRA_ADDRESS, session.getAddress());
+            mBundle.putString("ACTION_WRITE_SUCCESS", "" + GattTransport.GATT_SUCCESS);
+            intent.putExtras(mBundle);
+            sendBroadcast(intent);
         }
 
-        // Enqueue the read command now that all checks have been passed
-        boolean result = commandQueue.add(new Runnable() {
-            @Override
-            public void run() {
-                if (!mBluetoothGatt.readCharacteristic(characteristic)) {
-                    Log.e(TAG, String.format("ERROR: readCharacteristic failed for characteristic: %s", characteristic.getUuid()));
-                    completedCommand();
-                } else {
-                    Log.d(TAG, String.format("Reading characteristic <%s>", characteristic.getUuid()));
-                    nrTries++;
-                }
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+            if (TraceLog.isOpen()) {
+                TraceLog.text(TraceLog.CATEGORY_BLE, TraceLog.EVENT_DROPPED, session.getAddress() + " " + command + " " + reason);
             }
-        });
-
-        if(result) {
-            nextCommand();
-        } else {
-            Log.e(TAG, "ERROR: Could not enqueue read characteristic command");
+            final Intent intent = new Intent(ACTION_COMMAND_DROPPED);
+            intent.putExtra(EXTRA_ADDRESS, session.getAddress());
+            intent.putExtra(EXTRA_BYTE_UUID_VALUE, command.uuid.toString());
+            intent.putExtra(EXTRA_REPORT, reason);
+            sendBroadcast(intent);
         }
-        return result;
-    }
-
-    public static boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic, final byte[] value, final WriteType writeType) {
 
-        if (!isConnected()) {
-            Log.d(TAG, "Hardware Not Connected");
-            return false;
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+            TraceLog.text(TraceLog.CATEGORY_BLE, TraceLog.EVENT_STALLED, report);
+            final Intent intent = new Intent(ACTION_QUEUE_STALLED);
+            intent.putExtra(EXTRA_ADDRESS, session.getAddress());
+            intent.putExtra(EXTRA_REPORT, report);
+            sendBroadcast(intent);
         }
+    };
 
-        // Copy the value to avoid race conditions
-        final byte[] bytesToWrite = copyOf(value);
-
-        // Check if this characteristic actually supports this writeType
-        int writeProperty;
-        final int writeTypeInternal;
-        switch (writeType) {
-            case WITH_RESPONSE:
-                writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE;
-                writeTypeInternal = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
-                break;
-            case WITHOUT_RESPONSE:
-                writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
-                writeTypeInternal = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
-                break;
-            case SIGNED:
-                writeProperty = BluetoothGattCharacteristic.PROPERTY_SIGNED_WRITE;
-                writeTypeInternal = BluetoothGattCharacteristic.WRITE_TYPE_SIGNED;
-                break;
-            default:
-                writeProperty = 0;
-                writeTypeInternal = 0;
-                break;
-        }
-        if ((characteristic.getProperties() & writeProperty) == 0) {
-            Log.d(TAG, "Characteristic does not support writeType");
-            return false;
+    /**
+     * Disconnects the active camera or cancels a pending connection. The
+     * disconnection result is reported asynchronously through the
+     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
+     * callback.
+     */
+    public void disconnect() {
+        CameraSession session = activeSession;
+        if (session != null) {
+            disconnect(session.getAddress());
         }
+    }
 
-        boolean result = commandQueue.add(new Runnable() {
+    public void disconnect(final String address) {
+        final CameraSession session = sessions.remove(address);
+        if (session != null && session == activeSession) {
+            activeSession = null;
+        }
+        bleHandler.post(new Runnable() {
             @Override
             public void run() {
-                if (isConnected()) {
-                    characteristic.setWriteType(writeTypeInternal);
-                    characteristic.setValue(bytesToWrite);
-                    if (!mBluetoothGatt.writeCharacteristic(characteristic)) {
-                        Log.d(TAG, String.format("writeCharacteristic failed for characteristic: %s", characteristic.getUuid()));
-                        completedCommand();
-                    } else {
-                        Log.d(TAG, String.format("Writing <%s> to characteristic <%s>", Utils.ByteArraytoHex(bytesToWrite), characteristic.getUuid()));
-                        nrTries++;
-                    }
-                } else {
-                    completedCommand();
+                if (mBluetoothAdapter != null && session != null) {
+                    session.disconnect();
                 }
+                remoteControl.release(address);
+                updateForeground();
             }
         });
+    }
 
-        if (result) {
-            nextCommand();
-        } else {
-            Log.d(TAG, "Could not enqueue write characteristic command");
+    /**
+     * Disconnects every camera, from the notification or once the service went idle.
+     */
+    public void disconnectAll() {
+        for (CameraSession session : sessions.getAll()) {
+            disconnect(session.getAddress());
         }
-        return result;
+        idlePolicy.cancel();
+    }
+
+    public static CameraSession getSession(String address) {
+        return sessions.get(address);
+    }
+
+    public static CameraSession getActiveSession() {
+        return activeSession;
     }
 
     /**
-     * Retrieves a list of supported GATT services on the connected device. This
-     * should be invoked only after {@code BluetoothGatt#discoverServices()}
-     * completes successfully.
-     *
-     * @return A {@code List} of supported services.
+     * @return every camera with an established link.
      */
-    public static List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null)
-            return null;
+    public static List<CameraSession> getConnectedSessions() {
+        return sessions.getConnected();
+    }
+
+    public static boolean isConnected() {
+        CameraSession session = activeSession;
+        return session != null && session.isConnected();
+    }
 
-        return mBluetoothGatt.getServices();
+    public static boolean isConnected(String address) {
+        CameraSession session = sessions.get(address);
+        return session != null && session.isConnected();
     }
 
-    public static void bondDevice() {
-        try {
-            Class class1 = Class.forName("android.bluetooth.BluetoothDevice");
-            Method createBondMethod = class1.getMethod("createBond");
-            Boolean returnValue = (Boolean) createBondMethod.invoke(mBluetoothGatt.getDevice());
-            Log.d(TAG,"Pair initates status-->" + returnValue);
-        } catch (Exception e) {
-            Log.d(TAG,"Exception Pair" + e.getMessage());
+    /**
+     * Registers an in-app listener for values of the given characteristics of one camera.
+     * Events are delivered on the main thread. The ACTION_DATA_AVAILABLE broadcasts are
+     * still sent for other apps.
+     */
+    public static void subscribe(String address, EventBus.Listener listener, UUID... uuids) {
+        sessions.obtain(address).subscribe(listener, uuids);
+    }
+
+    public static void unsubscribe(String address, EventBus.Listener listener) {
+        CameraSession session = sessions.get(address);
+        if (session != null) {
+            session.unsubscribe(listener);
         }
     }
 
-    public boolean setNotify(BluetoothGattCharacteristic characteristic, final boolean enable) {
-        // Check if characteristic is valid
-        if(characteristic == null) {
-            Log.e(TAG, "ERROR: Characteristic is 'null', ignoring setNotify request");
-            return false;
+    /**
+     * Starts timing the way to a usable control screen for this camera, see {@link ConnectTimeline}.
+     *
+     * @param tappedAt {@link System#nanoTime()} when the camera was picked.
+     */
+    public static void beginTimeline(String address, long tappedAt) {
+        if (address != null) {
+            sessions.obtain(address).getTimeline().begin(ConnectTimeline.Phase.TAP, tappedAt);
         }
+    }
 
-        // Get the CCC Descriptor for the characteristic
-        final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(GattAttributes.CLIENT_CHARACTERISTIC_CONFIG));
-        if(descriptor == null) {
-            Log.e(TAG, String.format("ERROR: Could not get CCC descriptor for characteristic %s", characteristic.getUuid()));
-            return false;
+    /**
+     * Called by the control screen whenever it shows the camera state, the first call
+     * completes the camera's timeline.
+     */
+    public static void onControlShown(String address) {
+        CameraSession session = sessions.get(address);
+        if (session != null) {
+            session.markPhase(ConnectTimeline.Phase.CONTROL_SHOWN);
         }
+    }
+
+    public static ConnectTimeline.Stats getConnectStats() {
+        return sessions.getConnectStats();
+    }
+
+    /**
+     * @return time from a dropped link to usable control again.
+     */
+    public static ConnectTimeline.Stats getRecoveryStats() {
+        return sessions.getRecoveryStats();
+    }
 
-        // Check if characteristic has NOTIFY or INDICATE properties and set the correct byte value to be written
-        byte[] value;
-        int properties = characteristic.getProperties();
-        if ((properties & PROPERTY_NOTIFY) > 0) {
-            value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
-        } else if ((properties & PROPERTY_INDICATE) > 0) {
-            value = BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+    public static boolean isStatusSubscribed() {
+        CameraSession session = activeSession;
+        return session != null && session.isStatusSubscribed();
+    }
+
+    public static String getLaneStats() {
+        CameraSession session = activeSession;
+        return (session == null) ? "" : session.getLaneStats();
+    }
+
+    /**
+     * Runs the task on the BLE thread, right away if already there.
+     */
+    private static void onBleThread(Runnable task) {
+        if (Looper.myLooper() == bleHandler.getLooper()) {
+            task.run();
         } else {
-            Log.e(TAG, String.format("ERROR: Characteristic %s does not have notify or indicate property", characteristic.getUuid()));
-            return false;
+            bleHandler.post(task);
         }
-        final byte[] finalValue = enable ? value : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+    }
 
-        // Queue Runnable to turn on/off the notification now that all checks have been passed
-        boolean result = commandQueue.add(new Runnable() {
+    /**
+     * Sends a command to every connected camera at the same time, see {@link GroupShutter}.
+     * With a single camera this is {@link #setCommand(byte[])}.
+     *
+     * @return completes with the answer of the active camera.
+     */
+    public CommandTracker.Pending setGroupCommand(final byte[] command) {
+        final CommandTracker.Pending pending = newPending(command);
+        onBleThread(new Runnable() {
             @Override
             public void run() {
-                // First set notification for Gatt object
-                if(!mBluetoothGatt.setCharacteristicNotification(descriptor.getCharacteristic(), enable)) {
-                    Log.e(TAG, String.format("ERROR: setCharacteristicNotification failed for descriptor: %s", descriptor.getUuid()));
-                }
-
-                // Then write to descriptor
-                descriptor.setValue(finalValue);
-                boolean result;
-                result = mBluetoothGatt.writeDescriptor(descriptor);
-                if(!result) {
-                    Log.e(TAG, String.format("ERROR: writeDescriptor failed for descriptor: %s", descriptor.getUuid()));
-                    completedCommand();
-                } else {
-                    nrTries++;
-                }
+                startGroupCommand(command, pending);
             }
         });
-
-        if(result) {
-            nextCommand();
-        } else {
-            Log.e(TAG, "ERROR: Could not enqueue write command");
-        }
-
-        return result;
+        return pending;
     }
 
-    public boolean isNotifying(BluetoothGattCharacteristic characteristic) {
-        return notifyingCharacteristics.contains(characteristic.getUuid());
+    private void startGroupCommand(byte[] command, CommandTracker.Pending pending) {
+        final List<CameraSession> connected = sessions.getConnected();
+        if (connected.size() < 2) {
+            sendCommand(activeSession, command, pending);
+            return;
+        }
+        List<GroupShutter.Target> targets = new ArrayList<>(connected.size());
+        // Every camera answers on its own. The active one reports back to the caller, or the
+        // first one if the active camera is not among them, the shutter fires regardless.
+        CameraSession reporting = connected.contains(activeSession) ? activeSession : connected.get(0);
+        final List<CommandTracker.Pending> pendings = new ArrayList<>(connected.size());
+        for (CameraSession session : connected) {
+            targets.add(session.groupTarget);
+            CommandTracker.Pending tracked = (session == reporting) ? pending : newPending(command);
+            session.getCommandTracker().track(tracked);
+            pendings.add(tracked);
+        }
+        final GroupShutter group = new GroupShutter(targets);
+        group.setListener(new GroupShutter.Listener() {
+            @Override
+            public void onComplete(GroupShutter group) {
+                Log.d(TAG, group.toString());
+                lastGroupShutter = group;
+                cancelFailed(group, connected, pendings);
+            }
+        });
+        group.start(command);
+        // Those that could not even be armed will not be answered
+        cancelFailed(group, connected, pendings);
+        // Do not let one busy camera hold back the others
+        bleHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                group.releaseNow();
+            }
+        }, GROUP_ARM_TIMEOUT);
     }
 
-    private void checkGattServices(List<BluetoothGattService> gattServices) {
-        List<BluetoothGattCharacteristic> gattCharacteristics;
-        if (gattServices == null) return;
-        String uuid;
-        // Loops through available GATT Services.
-        for (BluetoothGattService gattService : gattServices) {
-            if (UUIDDatabase.UUID_GOPRO_CONTROL_SERVICE.equals(gattService.getUuid())){
-                uuid = gattService.getUuid().toString();
-                Log.d(TAG,"GoPro Control Service Found: " + uuid);
-                gattCharacteristics = gattService.getCharacteristics();
-                // Loops through available Characteristics.
-                for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-                    uuid = gattCharacteristic.getUuid().toString();
-                    Log.d(TAG,"Characteristic Found: " + uuid);
-                    if (UUID.fromString(GattAttributes.GOPRO_COMMAND_CHARACTERISTIC).equals(gattCharacteristic.getUuid())) {
-                        Log.d(TAG,"GoPro Command Characteristic Found: " + uuid);
-                        commandCharacteristic = gattCharacteristic;
-                    }
-                    if (UUID.fromString(GattAttributes.GOPRO_COMMANDRESPONSE_CHARACTERISTIC).equals(gattCharacteristic.getUuid())) {
-                        Log.d(TAG,"GoPro Command/Response Characteristic Found: " + uuid);
-                        commandResponseCharacteristic = gattCharacteristic;
-                        setNotify(commandResponseCharacteristic,true);
-                    }
-                    if (UUID.fromString(GattAttributes.GOPRO_QUERY_CHARACTERISTIC).equals(gattCharacteristic.getUuid())){
-                        Log.d(TAG,"GoPro Query Characteristic Found: " + uuid);
-                        queryCharacteristic = gattCharacteristic;
-                    }
-                    if (UUID.fromString(GattAttributes.GOPRO_QUERYRESPONSE_CHARACTERISTIC).equals(gattCharacteristic.getUuid())){
-                        Log.d(TAG,"GoPro Query/Response Characteristic Found: " + uuid);
-                        queryResponseCharacteristic = gattCharacteristic;
-                        setNotify(queryResponseCharacteristic,true);
-                    }
-                }
-            } else if(UUIDDatabase.UUID_GOPRO_WIFI_SERVICE.equals(gattService.getUuid())){
-                uuid = gattService.getUuid().toString();
-                Log.d(TAG,"GoPro Wifi Control Service Found: " + uuid);
-                gattCharacteristics = gattService.getCharacteristics();
-                // Loops through available Characteristics.
-                for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-                    uuid = gattCharacteristic.getUuid().toString();
-                    Log.d(TAG,"Characteristic Found: " + uuid);
-                    if (UUID.fromString(GattAttributes.GOPRO_WIFI_SSID_CHARACTERISTIC).equals(gattCharacteristic.getUuid())) {
-                        Log.d(TAG,"GoPro Wifi SSID Characteristic Found: " + uuid);
-                        wifiSSIDCharacteristic = gattCharacteristic;
-                    }
-                    if (UUID.fromString(GattAttributes.GOPRO_WIFI_PASSWORD_CHARACTERISTIC).equals(gattCharacteristic.getUuid())){
-                        Log.d(TAG,"GoPro Wifi Password Characteristic Found: " + uuid);
-                        wifiPasswordCharacteristic = gattCharacteristic;
-                    }
-                }
+    private static void cancelFailed(GroupShutter group, List<CameraSession> sessions,
+                                     List<CommandTracker.Pending> pendings) {
+        for (int i = 0; i < sessions.size(); i++) {
+            CameraSession session = sessions.get(i);
+            if (group.hasFailed(session.groupTarget)) {
+                session.getCommandTracker().cancel(pendings.get(i), CommandTracker.RESULT_NOT_SENT);
             }
         }
-        broadcastConnectionUpdate(ACTION_GATT_CHARS_DISCOVERED);
     }
 
-    public static boolean isConnected() {
-        return mBluetoothGatt != null && mConnectionState == BluetoothProfile.STATE_CONNECTED;
+    /**
+     * @return skew and per camera latency of the last group command that completed.
+     */
+    public static String getGroupShutterReport() {
+        GroupShutter group = lastGroupShutter;
+        return (group == null) ? "" : group.toString();
     }
 
-    private static byte[] copyOf(byte[] source) {
-        return (source == null) ? new byte[0] : Arrays.copyOf(source, source.length);
+    private static CommandTracker.Pending newPending(byte[] command) {
+        return new CommandTracker.Pending((command.length > 0) ? command[0] : 0);
     }
 
-    private static void nextCommand() {
-        // If there is still a command being executed then bail out
-        if(commandQueueBusy) {
-            return;
-        }
-
-        // Check if we still have a valid gatt object
-        if (mBluetoothGatt == null) {
-            Log.d(TAG, "ERROR: GATT is 'null' for peripheral, clearing command queue");
-            commandQueue.clear();
-            commandQueueBusy = false;
-            return;
+    private static void sendCommand(CameraSession session, byte[] command, CommandTracker.Pending pending) {
+        if (session == null || command.length == 0) {
+            pending.complete(CommandTracker.RESULT_NOT_SENT, -1);
+        } else {
+            session.setCommand(command, pending);
         }
+    }
 
-        // Execute the next command in the queue
-        if (commandQueue.size() > 0) {
-            final Runnable bluetoothCommand = commandQueue.peek();
-            commandQueueBusy = true;
-            nrTries = 0;
+    /**
+     * GoPro Commands, sent to the active camera from the BLE thread.
+     *
+     * @return completes with the camera's answer, on the BLE thread.
+     */
+    public CommandTracker.Pending setCommand(final byte[] command){
+        final CameraSession session = activeSession;
+        final CommandTracker.Pending pending = newPending(command);
+        onBleThread(new Runnable() {
+            @Override
+            public void run() {
+                sendCommand(session, command, pending);
+            }
+        });
+        return pending;
+    }
 
-            bleHandler.post(new Runnable() {
+    public void setHilight(){
+        final CameraSession session = activeSession;
+        if (session != null) {
+            onBleThread(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        bluetoothCommand.run();
-                    } catch (Exception ex) {
-                        Log.d(TAG, "ERROR: Command exception for device");
-                    }
+                    session.setHilight();
                 }
             });
         }
     }
 
-    private static void completedCommand() {
-        commandQueueBusy = false;
-        isRetrying = false;
-        commandQueue.poll();
-        nextCommand();
-    }
-
-    private static void retryCommand() {
-        commandQueueBusy = false;
-        Runnable currentCommand = commandQueue.peek();
-        if(currentCommand != null) {
-            if (nrTries >= MAX_TRIES) {
-                // Max retries reached, give up on this one and proceed
-                Log.v(TAG, "Max number of tries reached");
-                commandQueue.poll();
-            } else {
-                isRetrying = true;
-            }
-        }
-        nextCommand();
-    }
-
-    // GoPro Commands
-    public void setCommand(byte[] command){
-        if (commandCharacteristic != null) {
-            if (!isNotifying(commandResponseCharacteristic)) {
-                setNotify(commandResponseCharacteristic,true);
-            } else {
-                byte[] fullcommand = new byte[command.length + 1];
-                System.arraycopy(new byte[]{(byte) command.length}, 0, fullcommand, 0, 1);
-                System.arraycopy(command, 0, fullcommand, 1, command.length);
-                writeCharacteristic(commandCharacteristic, fullcommand, WriteType.WITH_RESPONSE);
-            }
+    public void setSetting(final byte[] setting){
+        final CameraSession session = activeSession;
+        if (session != null) {
+            onBleThread(new Runnable() {
+                @Override
+                public void run() {
+                    session.setSetting(setting);
+                }
+            });
         }
     }
 
     public void requestCameraStatus(){
-        if (queryCharacteristic != null) {
-            if (!isNotifying(queryResponseCharacteristic)) {
-                setNotify(queryResponseCharacteristic,true);
-            } else {
-                byte[] command = {0x07, 0x13, 0x08, 0x11, 0x2B, 0x2C, 0x37, 0x60};
-                writeCharacteristic(queryCharacteristic, command, WriteType.WITH_RESPONSE);
-            }
+        final CameraSession session = activeSession;
+        if (session != null) {
+            onBleThread(new Runnable() {
+                @Override
+                public void run() {
+                    session.requestCameraStatus();
+                }
+            });
         }
     }
 
     public void requestWiFiSettings() {
-        readCharacteristic(wifiSSIDCharacteristic);
-        readCharacteristic(wifiPasswordCharacteristic);
+        final CameraSession session = activeSession;
+        if (session != null) {
+            onBleThread(new Runnable() {
+                @Override
+                public void run() {
+                    session.requestWiFiSettings();
+                }
+            });
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles byte arrays in power of two sizes so message reassembly does not allocate
+ * per packet. Buffers larger than the largest GoPro message are not kept.
+ */
+public class BufferPool {
+    private static final int MIN_SHIFT = 6;
+    private static final int MAX_SHIFT = 16;
+    private static final int MAX_PER_SIZE = 4;
+
+    // One bucket per size, from 1 << MIN_SHIFT up
+    private final List<ArrayDeque<byte[]>> free = new ArrayList<>(MAX_SHIFT - MIN_SHIFT + 1);
+    private long allocated;
+
+    public BufferPool() {
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            free.add(new ArrayDeque<byte[]>(MAX_PER_SIZE));
+        }
+    }
+
+    /**
+     * @return a buffer of at least minCapacity bytes. Its content is undefined.
+     */
+    public synchronized byte[] acquire(int minCapacity) {
+        int shift = shiftFor(minCapacity);
+        if (shift <= MAX_SHIFT) {
+            byte[] buffer = free.get(shift - MIN_SHIFT).poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        allocated++;
+        return new byte[1 << shift];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+        int shift = Integer.numberOfTrailingZeros(buffer.length);
+        if (shift < MIN_SHIFT || shift > MAX_SHIFT) {
+            return;
+        }
+        ArrayDeque<byte[]> bucket = free.get(shift - MIN_SHIFT);
+        if (bucket.size() < MAX_PER_SIZE) {
+            bucket.push(buffer);
+        }
+    }
+
+    /**
+     * @return buffers created because the pool had none of the right size.
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    private static int shiftFor(int capacity) {
+        if (capacity <= (1 << MIN_SHIFT)) {
+            return MIN_SHIFT;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+}
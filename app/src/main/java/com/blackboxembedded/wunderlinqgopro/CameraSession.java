@@ -0,0 +1,1472 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * One connected camera: its GATT link, characteristics, command engine, framing state and
+ * status mirror. Sessions share nothing with each other, so commands to several cameras
+ * run side by side without contending for locks.
+ *
+ * The session only talks to a {@link GattTransport} and a {@link Scheduler}, so the whole
+ * protocol path also runs against a simulated camera in unit tests.
+ *
+ * A first connection exchanges the MTU, discovers services and then enables notifications.
+ * A camera found in the {@link GattCache} is discovered straight away: if it still has the
+ * cached layout its notifications are enabled at once and the MTU exchange waits until the
+ * status subscription is settled. A changed layout is forgotten and the full sequence runs.
+ *
+ * A link the camera drops while we still want it is brought back by the session itself:
+ * it waits out the {@link ReconnectPolicy} backoff, connects a fresh transport from the
+ * {@link TransportFactory} and, once the camera is discovered again, restores the
+ * notifications and sends the commands that were not acknowledged when the link went.
+ */
+public class CameraSession implements RemoteControl.Camera {
+    private final static String TAG = "BLE";
+
+    // Statuses the camera pushes to us once registered
+    private static final byte[] SUBSCRIBED_STATUSES = {CameraStatus.STATUS_BUSY, CameraStatus.STATUS_ENCODING,
+            CameraStatus.STATUS_WIFI_ENABLED, CameraStatus.STATUS_LEGACY_MODE, CameraStatus.STATUS_LEGACY_SUBMODE,
+            CameraStatus.STATUS_SD_REMAINING_KB, CameraStatus.STATUS_PREVIEW_AVAILABLE, CameraStatus.STATUS_BATTERY_PERCENT,
+            CameraStatus.STATUS_PRESET_GROUP};
+    private static final long SUBSCRIBE_TIMEOUT = 3000;
+    private static final long FALLBACK_POLL_INTERVAL = 2000;
+    // Polls between attempts to subscribe again
+    private static final int RESUBSCRIBE_POLLS = 5;
+    private static final int REQUESTED_MTU = 512;
+    // A reconnect attempt that has not connected by then is abandoned for the next one
+    private static final long RECONNECT_TIMEOUT = 5000;
+    // Older unacknowledged commands are not sent again, the rider has moved on
+    private static final long REPLAY_WINDOW = 10000;
+
+    // Characteristics the app uses, their properties are what a cached layout is checked on
+    private static final UUID[] GOPRO_CHARACTERISTICS = {
+            UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC,
+            UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC, UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC,
+            UUIDDatabase.UUID_GOPRO_QUERY_CHARACTERISTIC, UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC,
+            UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC, UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC};
+
+    /**
+     * Creates the transport for a reconnect attempt, a closed transport cannot connect again.
+     */
+    public interface TransportFactory {
+        GattTransport create();
+    }
+
+    /**
+     * Receives what the session reports to the rest of the app, {@link BluetoothLeService}
+     * turns it into broadcasts.
+     */
+    public interface Listener {
+        /**
+         * @param action one of the BluetoothLeService connection, discovery and notification actions.
+         */
+        void onStateChanged(CameraSession session, String action);
+
+        /**
+         * A read value, a plain notification or a reassembled GoPro message without its headers.
+         */
+        void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length);
+
+        void onWriteSuccess(CameraSession session, UUID uuid, byte[] value);
+
+        void onCommandDropped(CameraSession session, BleCommand command, String reason);
+
+        void onQueueStalled(CameraSession session, String report);
+    }
+
+    private final String address;
+    private final Scheduler handler;
+    private final CommandEngine commandEngine;
+    // Pairs command responses with the commands sent
+    private final CommandTracker commandTracker;
+    // Delivers values to in-app listeners on the main thread without going through the system
+    private final EventBus eventBus;
+
+    private volatile Listener listener;
+    private volatile GattTransport transport;
+    private volatile String name;
+    private volatile int connectionState = BluetoothLeService.STATE_DISCONNECTED;
+    private final List<UUID> notifyingCharacteristics = new CopyOnWriteArrayList<>();
+
+    // Set once service discovery found them
+    private volatile UUID wifiSSIDCharacteristic;
+    private volatile UUID wifiPasswordCharacteristic;
+    private volatile UUID commandCharacteristic;
+    private volatile UUID commandResponseCharacteristic;
+    private volatile UUID settingsCharacteristic;
+    private volatile UUID settingsResponseCharacteristic;
+    private volatile UUID queryCharacteristic;
+    private volatile UUID queryResponseCharacteristic;
+
+    // Negotiated in onMtuChanged, outgoing messages are split to fit
+    private volatile int mtu = GoProPacket.DEFAULT_MTU;
+    private final BufferPool bufferPool = new BufferPool();
+    private final PacketAssembler commandResponseAssembler = new PacketAssembler(bufferPool);
+    private final PacketAssembler settingsResponseAssembler = new PacketAssembler(bufferPool);
+    private final PacketAssembler queryResponseAssembler = new PacketAssembler(bufferPool);
+
+    // Group shutter this camera is armed for, guarded by groupTarget
+    private GroupShutter armedGroup;
+    private byte[] armedPacket;
+    private boolean armedReleased;
+    // The queued write holding the link for the group, so a drop can be told apart
+    private BleCommand armedCommand;
+
+    private volatile GattCache gattCache;
+    // Layout the cache promised for this connection, null while running the full sequence
+    private volatile GattCache.Layout cachedLayout;
+    // What this connection found so far, saved to the cache as it is learned
+    private volatile GattCache.Layout learnedLayout;
+    private volatile boolean servicesResolved;
+    private volatile boolean mtuDeferred;
+
+    // Time to control of the current attempt, added to the shared stats once the UI is up
+    private final ConnectTimeline timeline = new ConnectTimeline();
+    private volatile ConnectTimeline.Stats connectStats;
+    private volatile ConnectTimeline.Stats recoveryStats;
+
+    // Reconnect after a dropped link, see connect() and disconnect()
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    private volatile TransportFactory transportFactory;
+    private volatile boolean linkWanted;
+    private volatile boolean reconnecting;
+    private long droppedAt;
+    private final List<BleCommand> replay = new ArrayList<>();
+    private final List<UUID> restoreNotifying = new ArrayList<>();
+
+    // Live camera state, kept current by the pushed status updates
+    private final CameraStatus cameraStatus = new CameraStatus();
+    private volatile boolean statusSubscribed;
+    private boolean fallbackPolling;
+    private int fallbackPolls;
+
+    CameraSession(String address, final Scheduler handler) {
+        this(address, handler, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    /**
+     * @param handler the BLE thread, GATT operations and callbacks run on it.
+     * @param delivery where in-app listeners get values, the main thread on the device.
+     */
+    CameraSession(String address, Scheduler handler, Executor delivery) {
+        this.address = address;
+        this.handler = handler;
+        this.commandEngine = new CommandEngine(handler);
+        this.commandEngine.setListener(mCommandListener);
+        this.commandTracker = new CommandTracker(handler);
+        // Not before the engine gave up retrying, a late retry may still succeed
+        this.commandTracker.setTimeout(commandEngine.getRetryBudget() + CommandTracker.DEFAULT_TIMEOUT);
+        this.eventBus = new EventBus(64, delivery);
+    }
+
+    void setGattCache(GattCache gattCache) {
+        this.gattCache = gattCache;
+    }
+
+    void setConnectStats(ConnectTimeline.Stats connectStats) {
+        this.connectStats = connectStats;
+    }
+
+    void setRecoveryStats(ConnectTimeline.Stats recoveryStats) {
+        this.recoveryStats = recoveryStats;
+    }
+
+    /**
+     * Without a factory a dropped link is reported as disconnected and not brought back.
+     */
+    void setTransportFactory(TransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
+
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * @return true while the session is bringing a dropped link back.
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    public ConnectTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Marks a step of the current connection attempt, see {@link ConnectTimeline}.
+     */
+    void markPhase(ConnectTimeline.Phase phase) {
+        if (!timeline.mark(phase, handler.nanoTime())) {
+            return;
+        }
+        if (phase == ConnectTimeline.Phase.CONTROL_SHOWN) {
+            Log.d(TAG, "[" + name + "|" + address + "] Time to control: " + timeline);
+            ConnectTimeline.Stats stats = (timeline.getFirstPhase() == ConnectTimeline.Phase.DROPPED)
+                    ? recoveryStats : connectStats;
+            if (stats != null) {
+                stats.record(timeline);
+            }
+        }
+    }
+
+    /**
+     * @return true if this connection is using a cached layout.
+     */
+    public boolean isUsingCachedLayout() {
+        return cachedLayout != null;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConnectionState() {
+        return connectionState;
+    }
+
+    public boolean isConnected() {
+        return transport != null && connectionState == BluetoothLeService.STATE_CONNECTED;
+    }
+
+    /**
+     * Connects to the GATT server of this camera. The result is reported asynchronously
+     * through the listener.
+     */
+    void connect(GattTransport transport, String name, Listener listener) {
+        this.listener = listener;
+        this.name = name;
+        GattTransport previous = this.transport;
+        if (previous != null) {
+            // Left over from a link the camera dropped
+            previous.close();
+        }
+        this.transport = transport;
+        cancelReconnect();
+        linkWanted = true;
+        if (timeline.isActive()) {
+            // Picked in the scan list a moment ago
+            markPhase(ConnectTimeline.Phase.CONNECT);
+        } else {
+            timeline.begin(ConnectTimeline.Phase.CONNECT, handler.nanoTime());
+        }
+        transport.connect(mGattCallback);
+
+        String dataLog = "[" + name + "|" + address + "] " +
+                "Connection request sent";
+        Log.d(TAG, dataLog);
+    }
+
+    /**
+     * Disconnects an existing connection or cancel a pending connection.
+     */
+    void disconnect() {
+        linkWanted = false;
+        cancelReconnect();
+        GattTransport current = transport;
+        if (current != null) {
+            current.disconnect();
+            String dataLog = "[" + name + "|" + address + "] " +
+                    "Disconnection request sent";
+            Log.d(TAG, dataLog);
+            broadcastConnectionUpdate(BluetoothLeService.ACTION_SERVICE_DISCONNECTED);
+            close();
+        }
+    }
+
+    void discoverServices() {
+        GattTransport current = transport;
+        if (current != null) {
+            current.discoverServices();
+            String dataLog = "[" + name + "|" + address + "] " +
+                    "Service discovery request sent";
+            Log.d(TAG, dataLog);
+        }
+    }
+
+    /**
+     * After using a given BLE device, the app must call this method to ensure
+     * resources are released properly.
+     */
+    void close() {
+        linkWanted = false;
+        cancelReconnect();
+        timeline.abandon();
+        commandEngine.clear();
+        abandonGroup();
+        commandTracker.cancelAll(CommandTracker.RESULT_DISCONNECTED);
+        resetFraming();
+        stopStatusUpdates();
+        GattTransport current = transport;
+        transport = null;
+        connectionState = BluetoothLeService.STATE_DISCONNECTED;
+        notifyingCharacteristics.clear();
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Implements callback methods for GATT events that the app cares about. For
+     * example,connection change and services discovered.
+     */
+    private final GattTransport.Callback mGattCallback = new GattTransport.Callback() {
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+            // GATT Server connected
+            if (newState == BluetoothLeService.STATE_CONNECTED) {
+                connectionState = BluetoothLeService.STATE_CONNECTED;
+                if (reconnecting) {
+                    reconnecting = false;
+                    handler.removeCallbacks(reconnectTimeout);
+                    Log.d(TAG, "[" + name + "|" + address + "] Link back after "
+                            + (handler.nanoTime() - droppedAt) / 1000000 + "ms, "
+                            + reconnectPolicy.getAttempts() + " attempts");
+                    reconnectPolicy.reset();
+                }
+                markPhase(ConnectTimeline.Phase.LINK);
+                broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_CONNECTED);
+
+                servicesResolved = false;
+                mtuDeferred = false;
+                GattCache cache = gattCache;
+                GattCache.Layout cached = (cache == null) ? null : cache.get(address);
+                cachedLayout = cached;
+                learnedLayout = (cached == null) ? new GattCache.Layout() : new GattCache.Layout(cached);
+                if (cached != null) {
+                    Log.d(TAG, "[" + name + "|" + address + "] Known camera, using cached layout");
+                    discoverServices();
+                } else {
+                    GattTransport current = transport;
+                    if (current == null || !current.requestMtu(REQUESTED_MTU)) {
+                        discoverServices();
+                    }
+                }
+
+                String dataLog = "GATT Connected: [" + name + "|" + address + "] " +
+                        "Connection established";
+                Log.d(TAG,dataLog);
+            }
+            // GATT Server disconnected
+            else if (newState == BluetoothLeService.STATE_DISCONNECTED) {
+                boolean resume = linkWanted && transportFactory != null;
+                if (reconnecting) {
+                    // A reconnect attempt failed, nothing was set up on it
+                    logWarning("Reconnect attempt failed, status " + status);
+                    handler.removeCallbacks(reconnectTimeout);
+                    scheduleReconnect();
+                    return;
+                }
+                Log.d(TAG, "Command lanes:\n" + getLaneStats());
+                List<BleCommand> unacknowledged = commandEngine.drain();
+                abandonGroup();
+                resetFraming();
+                if (resume) {
+                    keepForReplay(unacknowledged);
+                    restoreNotifying.clear();
+                    restoreNotifying.addAll(notifyingCharacteristics);
+                }
+                notifyingCharacteristics.clear();
+                // The camera forgets registrations when the link drops
+                stopStatusUpdates();
+                if (status != GattTransport.GATT_SUCCESS) {
+                    logWarning("Link lost, status " + status);
+                }
+                String dataLog = "[" + name + "|" + address + "] " +
+                        "Disconnected";
+                Log.d(TAG,dataLog);
+                if (resume) {
+                    // Keep the screens up, the link is usually back within a second
+                    reconnecting = true;
+                    connectionState = BluetoothLeService.STATE_RECONNECTING;
+                    droppedAt = handler.nanoTime();
+                    timeline.begin(ConnectTimeline.Phase.DROPPED, droppedAt);
+                    broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_RECONNECTING);
+                    scheduleReconnect();
+                } else {
+                    connectionState = BluetoothLeService.STATE_DISCONNECTED;
+                    timeline.abandon();
+                    commandTracker.cancelAll(CommandTracker.RESULT_DISCONNECTED);
+                    broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_DISCONNECTED);
+                }
+            }
+            // GATT Server Connecting
+            if (newState == BluetoothLeService.STATE_CONNECTING && !reconnecting) {
+                connectionState = BluetoothLeService.STATE_CONNECTING;
+                broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_CONNECTING);
+                String dataLog = "[" + name + "|" + address + "] " +
+                        "Connection establishing";
+                Log.d(TAG,dataLog);
+            }
+            // GATT Server disconnected
+            else if (newState == BluetoothLeService.STATE_DISCONNECTING) {
+                connectionState = BluetoothLeService.STATE_DISCONNECTING;
+                broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_DISCONNECTING);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            // GATT Services discovered
+            if (status == GattTransport.GATT_SUCCESS) {
+                Log.d(TAG,"GATT: Services Discovered");
+                broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED);
+                checkGattServices();
+            } else {
+                logError("ERROR: Service discovery failed, status " + status);
+                broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_SERVICE_DISCOVERY_UNSUCCESSFUL);
+            }
+        }
+
+        @Override
+        public void onNotifyChanged(UUID uuid, boolean enabled, int status) {
+            if (status != GattTransport.GATT_SUCCESS) {
+                logError(String.format("ERROR: Write descriptor failed characteristic: %s", uuid));
+                if (cachedLayout != null) {
+                    // Do not trust the cache for the next connection
+                    invalidateLayout();
+                }
+                commandEngine.fail(BleCommand.Type.DESCRIPTOR, uuid);
+            } else {
+                commandEngine.complete(BleCommand.Type.DESCRIPTOR, uuid);
+                GattCache.Layout learned = learnedLayout;
+                if (learned != null) {
+                    if (enabled) {
+                        learned.notifying.add(uuid);
+                    } else {
+                        learned.notifying.remove(uuid);
+                    }
+                    saveLayout();
+                }
+                if (enabled) {
+                    // Notify set to on, add it to the set of notifying characteristics
+                    if (!notifyingCharacteristics.contains(uuid)) {
+                        notifyingCharacteristics.add(uuid);
+                    }
+                    if (isResponseNotifying(commandResponseCharacteristic)
+                            && isResponseNotifying(settingsResponseCharacteristic)
+                            && isResponseNotifying(queryResponseCharacteristic)) {
+                        markPhase(ConnectTimeline.Phase.SUBSCRIBED);
+                    }
+                    if (uuid.equals(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC)) {
+                        subscribeCameraStatus();
+                    }
+                } else {
+                    // Notify was turned off, so remove it from the set of notifying characteristics
+                    notifyingCharacteristics.remove(uuid);
+                }
+            }
+            broadcastConnectionUpdate(BluetoothLeService.ACTION_NOTFICATION_ENABLED);
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID uuid, byte[] value, int status) {
+            if (status == GattTransport.GATT_SUCCESS) {
+                Listener current = listener;
+                if (current != null) {
+                    current.onWriteSuccess(CameraSession.this, uuid, value);
+                }
+                commandEngine.complete(BleCommand.Type.WRITE, uuid);
+                groupWriteDone(uuid, true);
+            } else {
+                logError(String.format(Locale.ENGLISH,"ERROR: Write failed for characteristic: %s, status %d", uuid, status));
+                commandEngine.fail(BleCommand.Type.WRITE, uuid);
+                groupWriteDone(uuid, false);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID uuid, byte[] value, int status) {
+            // Perform some checks on the status field
+            if (status != GattTransport.GATT_SUCCESS) {
+                logError(String.format(Locale.ENGLISH,"ERROR: Read failed for characteristic: %s, status %d", uuid, status));
+                commandEngine.fail(BleCommand.Type.READ, uuid);
+                return;
+            }
+
+            broadcastNotifyUpdate(uuid, value);
+            commandEngine.complete(BleCommand.Type.READ, uuid);
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID uuid, byte[] value) {
+            PacketAssembler assembler = assemblerFor(uuid);
+            if (assembler == null) {
+                broadcastNotifyUpdate(uuid, value);
+            } else if (assembler.accept(value)) {
+                boolean changed = true;
+                if (assembler == queryResponseAssembler) {
+                    changed = onQueryResponse(assembler.getBuffer(), assembler.getLength());
+                } else if (assembler == commandResponseAssembler) {
+                    commandTracker.onResponse(assembler.getBuffer(), assembler.getLength());
+                }
+                broadcastMessage(uuid, assembler, changed);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            if (status == GattTransport.GATT_SUCCESS) {
+                Log.d(TAG,"New MTU: " + mtu);
+                CameraSession.this.mtu = mtu;
+                markPhase(ConnectTimeline.Phase.MTU);
+                GattCache.Layout learned = learnedLayout;
+                if (learned != null) {
+                    learned.mtu = mtu;
+                    saveLayout();
+                }
+            }
+            if (servicesResolved) {
+                // The deferred exchange of a cached reconnect, a failure is not retried
+                commandEngine.complete(BleCommand.Type.MTU, BleCommand.LINK);
+            } else {
+                discoverServices();
+            }
+        }
+    };
+
+    /**
+     * Surfaces operations the command engine gave up on, so the UI can resynchronise.
+     */
+    private final CommandEngine.Listener mCommandListener = new CommandEngine.Listener() {
+        @Override
+        public void onCommandDropped(BleCommand command, String reason) {
+            boolean armed;
+            synchronized (groupTarget) {
+                armed = command == armedCommand;
+            }
+            if (armed) {
+                // The group is waiting for this camera's acknowledgement
+                abandonGroup();
+            }
+            if (command.pending != null) {
+                // It will not be answered
+                commandTracker.cancel(command.pending, CommandTracker.RESULT_NOT_SENT);
+            }
+            Listener current = listener;
+            if (current != null) {
+                current.onCommandDropped(CameraSession.this, command, reason);
+            }
+        }
+
+        @Override
+        public void onQueueStalled(String report) {
+            // The queue was cleared, an armed group write with it
+            abandonGroup();
+            Listener current = listener;
+            if (current != null) {
+                current.onQueueStalled(CameraSession.this, report);
+            }
+        }
+    };
+
+    private void broadcastConnectionUpdate(final String action) {
+        Listener current = listener;
+        if (current != null) {
+            current.onStateChanged(this, action);
+        }
+    }
+
+    /**
+     * Sends a reassembled GoPro message, without its headers, to the receivers.
+     */
+    private void broadcastMessage(final UUID uuid, final PacketAssembler assembler, boolean toListeners) {
+        if (toListeners) {
+            eventBus.publish(uuid, assembler.getBuffer(), assembler.getLength());
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.onDataAvailable(this, uuid, assembler.getBuffer(), assembler.getLength());
+        }
+    }
+
+    private void broadcastNotifyUpdate(final UUID uuid, final byte[] data) {
+        eventBus.publish(uuid, data);
+        Listener current = listener;
+        if (current != null) {
+            current.onDataAvailable(this, uuid, data, (data == null) ? 0 : data.length);
+        }
+    }
+
+    /**
+     * Request a read on a given characteristic. The read result is reported asynchronously
+     * through {@link GattTransport.Callback#onCharacteristicRead(UUID, byte[], int)}.
+     *
+     * @param characteristic The characteristic to read from.
+     */
+    public boolean readCharacteristic(final UUID characteristic) {
+        if(transport == null) {
+            logError("ERROR: Gatt is 'null', ignoring read request");
+            return false;
+        }
+
+        // Check if characteristic is valid
+        if(characteristic == null) {
+            logError("ERROR: Characteristic is 'null', ignoring read request");
+            return false;
+        }
+
+        // Check if this characteristic actually has READ property
+        if((getProperties(characteristic) & GattTransport.PROPERTY_READ) == 0 ) {
+            logError("ERROR: Characteristic cannot be read");
+            return false;
+        }
+
+        // Enqueue the read command now that all checks have been passed
+        boolean result = commandEngine.enqueue(new BleCommand(laneFor(characteristic),
+                BleCommand.Type.READ, characteristic, null) {
+            @Override
+            public boolean execute() {
+                GattTransport current = transport;
+                if (current == null || !current.readCharacteristic(characteristic)) {
+                    logError(String.format("ERROR: readCharacteristic failed for characteristic: %s", characteristic));
+                    return false;
+                }
+                ProtocolLog.read(TAG, characteristic);
+                return true;
+            }
+        });
+
+        if(!result) {
+            logError("ERROR: Could not enqueue read characteristic command");
+        }
+        return result;
+    }
+
+    public boolean writeCharacteristic(final UUID characteristic, final byte[] value,
+                                       final BluetoothLeService.WriteType writeType) {
+        return writeCharacteristic(characteristic, value, writeType, null);
+    }
+
+    /**
+     * @param priority scheduling class, or null to use the default of the characteristic's lane.
+     */
+    public boolean writeCharacteristic(final UUID characteristic, final byte[] value,
+                                       final BluetoothLeService.WriteType writeType, final BleCommand.Priority priority) {
+        return enqueueWrite(characteristic, value, writeType, priority, false);
+    }
+
+    /**
+     * Frames a GoPro message and writes it in as many packets as the MTU requires.
+     */
+    public boolean writeMessage(final UUID characteristic, final byte[] message,
+                                final BleCommand.Priority priority) {
+        return writeMessage(characteristic, message, priority, null);
+    }
+
+    /**
+     * @param pending the tracked answer, cancelled if the engine drops the message.
+     */
+    private boolean writeMessage(final UUID characteristic, final byte[] message,
+                                 final BleCommand.Priority priority, final CommandTracker.Pending pending) {
+        BluetoothLeService.WriteType writeType = preferredWriteType(characteristic);
+        // Checked once up front, a message that stops halfway is garbage to the camera
+        if (!canWrite(characteristic, writeType)) {
+            return false;
+        }
+        List<byte[]> packets = GoProPacket.fragment(message, mtu);
+        boolean fragment = packets.size() > 1;
+        // Nothing else gets queued between the packets of one message
+        synchronized (commandEngine) {
+            for (int i = 0; i < packets.size(); i++) {
+                queueWrite(characteristic, packets.get(i), writeType, priority, fragment,
+                        (i == 0) ? pending : null);
+            }
+        }
+        return true;
+    }
+
+    private boolean enqueueWrite(final UUID characteristic, final byte[] value,
+                                 final BluetoothLeService.WriteType writeType, final BleCommand.Priority priority,
+                                 final boolean fragment) {
+        if (!canWrite(characteristic, writeType)) {
+            return false;
+        }
+        return queueWrite(characteristic, value, writeType, priority, fragment, null);
+    }
+
+    private boolean canWrite(final UUID characteristic, final BluetoothLeService.WriteType writeType) {
+        if (!isConnected()) {
+            logWarning("Hardware Not Connected");
+            return false;
+        }
+
+        // Check if this characteristic actually supports this writeType
+        int writeProperty;
+        switch (writeType) {
+            case WITH_RESPONSE:
+                writeProperty = GattTransport.PROPERTY_WRITE;
+                break;
+            case WITHOUT_RESPONSE:
+                writeProperty = GattTransport.PROPERTY_WRITE_NO_RESPONSE;
+                break;
+            case SIGNED:
+                writeProperty = GattTransport.PROPERTY_SIGNED_WRITE;
+                break;
+            default:
+                writeProperty = 0;
+                break;
+        }
+        if ((getProperties(characteristic) & writeProperty) == 0) {
+            logWarning("Characteristic does not support writeType");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean queueWrite(final UUID characteristic, final byte[] value,
+                               final BluetoothLeService.WriteType writeType, final BleCommand.Priority priority,
+                               final boolean fragment, final CommandTracker.Pending pending) {
+        // Copy the value to avoid race conditions
+        final byte[] bytesToWrite = copyOf(value);
+
+        final BleCommand.Type commandType = (writeType == BluetoothLeService.WriteType.WITHOUT_RESPONSE)
+                ? BleCommand.Type.WRITE_NO_RESPONSE : BleCommand.Type.WRITE;
+        final BleCommand.Lane lane = laneFor(characteristic);
+        BleCommand command = new BleCommand(lane,
+                (priority != null) ? priority : BleCommand.defaultPriority(lane),
+                commandType, characteristic, bytesToWrite) {
+            @Override
+            public boolean execute() {
+                GattTransport current = transport;
+                if (current == null || !isConnected()) {
+                    return false;
+                }
+                if (!current.writeCharacteristic(characteristic, bytesToWrite, writeType)) {
+                    logWarning(String.format("writeCharacteristic failed for characteristic: %s", characteristic));
+                    return false;
+                }
+                ProtocolLog.write(TAG, characteristic, bytesToWrite);
+                return true;
+            }
+        };
+        command.fragment = fragment;
+        command.pending = pending;
+        // Split messages are not replayed, the camera would only get the rest of one
+        command.replayable = !fragment && (lane == BleCommand.Lane.COMMAND || lane == BleCommand.Lane.SETTING);
+        boolean result = commandEngine.enqueue(command);
+
+        if (!result) {
+            logWarning("Could not enqueue write characteristic command");
+        }
+        return result;
+    }
+
+    /**
+     * Arms and releases this camera for a {@link GroupShutter}. Arming queues an
+     * acknowledged write on the command lane, so the engine hands it the link only when
+     * nothing else is in flight. The write itself waits for the group release.
+     */
+    public final GroupShutter.Target groupTarget = new GroupShutter.Target() {
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean arm(final GroupShutter group, byte[] command) {
+            final UUID characteristic = commandCharacteristic;
+            if (!isConnected() || characteristic == null || commandResponseCharacteristic == null
+                    || !isNotifying(commandResponseCharacteristic)
+                    || (getProperties(characteristic) & GattTransport.PROPERTY_WRITE) == 0) {
+                return false;
+            }
+            List<byte[]> packets = GoProPacket.fragment(command, mtu);
+            if (packets.size() != 1) {
+                return false;
+            }
+            final byte[] packet = packets.get(0);
+            BleCommand write = new BleCommand(BleCommand.Lane.COMMAND, BleCommand.Priority.HIGH,
+                    BleCommand.Type.WRITE, characteristic, packet) {
+                @Override
+                public boolean execute() {
+                    boolean waiting;
+                    synchronized (groupTarget) {
+                        waiting = armedGroup == group && !armedReleased;
+                    }
+                    if (waiting) {
+                        // The link is ours now, hold it until the whole group goes
+                        group.onArmed(groupTarget);
+                        return true;
+                    }
+                    // A retry after the group already went
+                    return writeArmed(characteristic, packet);
+                }
+            };
+            synchronized (this) {
+                armedGroup = group;
+                armedPacket = packet;
+                armedReleased = false;
+                armedCommand = write;
+            }
+            return commandEngine.enqueue(write);
+        }
+
+        @Override
+        public boolean release() {
+            byte[] packet;
+            synchronized (this) {
+                if (armedGroup == null || armedReleased) {
+                    return false;
+                }
+                armedReleased = true;
+                packet = armedPacket;
+            }
+            if (!writeArmed(commandCharacteristic, packet)) {
+                commandEngine.fail(BleCommand.Type.WRITE, UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC);
+                return false;
+            }
+            return true;
+        }
+    };
+
+    private boolean writeArmed(UUID characteristic, byte[] packet) {
+        GattTransport current = transport;
+        if (current == null || characteristic == null) {
+            return false;
+        }
+        return current.writeCharacteristic(characteristic, packet, BluetoothLeService.WriteType.WITH_RESPONSE);
+    }
+
+    private void groupWriteDone(UUID uuid, boolean success) {
+        GroupShutter group;
+        synchronized (groupTarget) {
+            if (armedGroup == null || !armedReleased || !UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC.equals(uuid)) {
+                return;
+            }
+            group = armedGroup;
+            armedGroup = null;
+            armedPacket = null;
+            armedCommand = null;
+        }
+        if (success) {
+            group.onAcknowledged(groupTarget);
+        } else {
+            group.onFailed(groupTarget);
+        }
+    }
+
+    private void abandonGroup() {
+        GroupShutter group;
+        synchronized (groupTarget) {
+            group = armedGroup;
+            armedGroup = null;
+            armedPacket = null;
+            armedCommand = null;
+        }
+        if (group != null) {
+            group.onFailed(groupTarget);
+        }
+    }
+
+    public boolean setNotify(final UUID characteristic, final boolean enable) {
+        // Check if characteristic is valid
+        if(characteristic == null) {
+            logError("ERROR: Characteristic is 'null', ignoring setNotify request");
+            return false;
+        }
+
+        // Check if characteristic has NOTIFY or INDICATE properties
+        if ((getProperties(characteristic) & (GattTransport.PROPERTY_NOTIFY | GattTransport.PROPERTY_INDICATE)) == 0) {
+            logError(String.format("ERROR: Characteristic %s does not have notify or indicate property", characteristic));
+            return false;
+        }
+        final byte[] finalValue = {(byte) (enable ? 1 : 0)};
+
+        // Queue the operation to turn on/off the notification now that all checks have been passed
+        boolean result = commandEngine.enqueue(new BleCommand(BleCommand.Lane.CONTROL,
+                BleCommand.Type.DESCRIPTOR, characteristic, finalValue) {
+            @Override
+            public boolean execute() {
+                GattTransport current = transport;
+                if (current == null || !current.setNotify(characteristic, enable)) {
+                    logError(String.format("ERROR: writeDescriptor failed for characteristic: %s", characteristic));
+                    return false;
+                }
+                return true;
+            }
+        });
+
+        if(!result) {
+            logError("ERROR: Could not enqueue write command");
+        }
+
+        return result;
+    }
+
+    public boolean isNotifying(UUID characteristic) {
+        return notifyingCharacteristics.contains(characteristic);
+    }
+
+    // A response characteristic the camera does not have counts as done
+    private boolean isResponseNotifying(UUID characteristic) {
+        return characteristic == null || notifyingCharacteristics.contains(characteristic);
+    }
+
+    private int getProperties(UUID characteristic) {
+        GattTransport current = transport;
+        return (current == null) ? 0 : current.getProperties(characteristic);
+    }
+
+    private UUID findCharacteristic(UUID uuid, String label) {
+        int properties = getProperties(uuid);
+        GattCache.Layout learned = learnedLayout;
+        if (learned != null) {
+            if (properties == 0) {
+                learned.properties.remove(uuid);
+            } else {
+                learned.properties.put(uuid, properties);
+            }
+        }
+        if (properties == 0) {
+            return null;
+        }
+        Log.d(TAG, label + " Characteristic Found: " + uuid);
+        return uuid;
+    }
+
+    private void checkGattServices() {
+        commandCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, "GoPro Command");
+        commandResponseCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC, "GoPro Command/Response");
+        settingsCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC, "GoPro Settings");
+        settingsResponseCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC, "GoPro Settings/Response");
+        queryCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_QUERY_CHARACTERISTIC, "GoPro Query");
+        queryResponseCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, "GoPro Query/Response");
+        wifiSSIDCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC, "GoPro Wifi SSID");
+        wifiPasswordCharacteristic = findCharacteristic(UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC, "GoPro Wifi Password");
+
+        GattCache.Layout cached = cachedLayout;
+        GattTransport current = transport;
+        if (cached != null && current != null) {
+            if (cached.matches(current, GOPRO_CHARACTERISTICS)) {
+                servicesResolved = true;
+                markPhase(ConnectTimeline.Phase.DISCOVERED);
+                // The response channels plus whatever else was on last time, queued in one go
+                enableResponseNotifications();
+                for (UUID uuid : cached.getNotifying()) {
+                    if (getProperties(uuid) != 0 && !uuid.equals(commandResponseCharacteristic)
+                            && !uuid.equals(settingsResponseCharacteristic)
+                            && !uuid.equals(queryResponseCharacteristic)) {
+                        setNotify(uuid, true);
+                    }
+                }
+                mtuDeferred = cached.getMtu() > GoProPacket.DEFAULT_MTU;
+                // The cache already listed whatever else was notifying
+                restoreNotifying.clear();
+                replayUnacknowledged();
+                broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_CHARS_DISCOVERED);
+                return;
+            }
+            logWarning("Cached layout is out of date, running full discovery");
+            invalidateLayout();
+            learnedLayout = new GattCache.Layout();
+            if (current.requestMtu(REQUESTED_MTU)) {
+                // Discovers again once the MTU is settled
+                return;
+            }
+            checkGattServices();
+            return;
+        }
+
+        servicesResolved = true;
+        markPhase(ConnectTimeline.Phase.DISCOVERED);
+        saveLayout();
+        enableResponseNotifications();
+        for (UUID uuid : restoreNotifying) {
+            if (getProperties(uuid) != 0 && !uuid.equals(commandResponseCharacteristic)
+                    && !uuid.equals(settingsResponseCharacteristic)
+                    && !uuid.equals(queryResponseCharacteristic)) {
+                setNotify(uuid, true);
+            }
+        }
+        restoreNotifying.clear();
+        replayUnacknowledged();
+        broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_CHARS_DISCOVERED);
+    }
+
+    private void keepForReplay(List<BleCommand> unacknowledged) {
+        synchronized (replay) {
+            replay.clear();
+            for (BleCommand command : unacknowledged) {
+                if (command.replayable) {
+                    replay.add(command);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the commands the dropped link did not acknowledge, in their original order,
+     * unless the rider pressed them too long ago.
+     */
+    private void replayUnacknowledged() {
+        List<BleCommand> commands;
+        synchronized (replay) {
+            commands = new ArrayList<>(replay);
+            replay.clear();
+        }
+        long now = handler.nanoTime();
+        for (BleCommand command : commands) {
+            if ((now - command.enqueuedAt) / 1000000 > REPLAY_WINDOW) {
+                Listener current = listener;
+                if (current != null) {
+                    current.onCommandDropped(this, command, "link lost");
+                }
+                continue;
+            }
+            Log.d(TAG, "Replaying " + command);
+            command.rewind();
+            commandEngine.enqueue(command);
+        }
+    }
+
+    private void scheduleReconnect() {
+        long delay = reconnectPolicy.nextDelay((handler.nanoTime() - droppedAt) / 1000000);
+        if (delay < 0) {
+            giveUpReconnect();
+            return;
+        }
+        Log.d(TAG, "[" + name + "|" + address + "] Reconnecting in " + delay + "ms");
+        handler.postDelayed(reconnectAttempt, delay);
+    }
+
+    private void giveUpReconnect() {
+        logError("Giving up reconnecting after "
+                + reconnectPolicy.getAttempts() + " attempts");
+        List<BleCommand> dropped;
+        synchronized (replay) {
+            dropped = new ArrayList<>(replay);
+            replay.clear();
+        }
+        Listener current = listener;
+        if (current != null) {
+            for (BleCommand command : dropped) {
+                current.onCommandDropped(this, command, "link lost");
+            }
+        }
+        restoreNotifying.clear();
+        reconnecting = false;
+        reconnectPolicy.reset();
+        timeline.abandon();
+        commandTracker.cancelAll(CommandTracker.RESULT_DISCONNECTED);
+        connectionState = BluetoothLeService.STATE_DISCONNECTED;
+        GattTransport previous = transport;
+        if (previous != null) {
+            previous.close();
+        }
+        broadcastConnectionUpdate(BluetoothLeService.ACTION_GATT_DISCONNECTED);
+    }
+
+    private void cancelReconnect() {
+        handler.removeCallbacks(reconnectAttempt);
+        handler.removeCallbacks(reconnectTimeout);
+        if (reconnecting) {
+            reconnecting = false;
+            reconnectPolicy.reset();
+            synchronized (replay) {
+                replay.clear();
+            }
+            restoreNotifying.clear();
+        }
+    }
+
+    private final Runnable reconnectAttempt = new Runnable() {
+        @Override
+        public void run() {
+            TransportFactory factory = transportFactory;
+            if (!reconnecting || !linkWanted || factory == null) {
+                return;
+            }
+            GattTransport previous = transport;
+            if (previous != null) {
+                previous.close();
+            }
+            GattTransport next = factory.create();
+            transport = next;
+            if (next == null) {
+                scheduleReconnect();
+                return;
+            }
+            markPhase(ConnectTimeline.Phase.CONNECT);
+            handler.postDelayed(reconnectTimeout, RECONNECT_TIMEOUT);
+            next.connect(mGattCallback);
+        }
+    };
+
+    private final Runnable reconnectTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (!reconnecting) {
+                return;
+            }
+            logWarning("Reconnect attempt timed out");
+            GattTransport current = transport;
+            if (current != null) {
+                current.close();
+            }
+            scheduleReconnect();
+        }
+    };
+
+    private void enableResponseNotifications() {
+        if (commandResponseCharacteristic != null) {
+            setNotify(commandResponseCharacteristic,true);
+        }
+        if (settingsResponseCharacteristic != null) {
+            setNotify(settingsResponseCharacteristic,true);
+        }
+        if (queryResponseCharacteristic != null) {
+            setNotify(queryResponseCharacteristic,true);
+        }
+    }
+
+    private void saveLayout() {
+        GattCache cache = gattCache;
+        GattCache.Layout learned = learnedLayout;
+        if (cache != null && learned != null && servicesResolved) {
+            cache.put(address, learned);
+        }
+    }
+
+    private void invalidateLayout() {
+        cachedLayout = null;
+        GattCache cache = gattCache;
+        if (cache != null) {
+            cache.invalidate(address);
+        }
+    }
+
+    /**
+     * Runs the MTU exchange a cached reconnect put off, once the camera is ready for commands.
+     */
+    private void exchangeDeferredMtu() {
+        if (!mtuDeferred) {
+            return;
+        }
+        mtuDeferred = false;
+        commandEngine.enqueue(new BleCommand(BleCommand.Lane.CONTROL, BleCommand.Priority.LOW,
+                BleCommand.Type.MTU, BleCommand.LINK, null) {
+            @Override
+            public boolean execute() {
+                GattTransport current = transport;
+                return current != null && current.requestMtu(REQUESTED_MTU);
+            }
+        });
+    }
+
+    /**
+     * Failures go to the trace as well, the exported debug log is made from it.
+     */
+    private void logWarning(String message) {
+        message = "[" + name + "|" + address + "] " + message;
+        Log.w(TAG, message);
+        TraceLog.text(TraceLog.CATEGORY_BLE, TraceLog.EVENT_MESSAGE, message);
+    }
+
+    private void logError(String message) {
+        message = "[" + name + "|" + address + "] " + message;
+        Log.e(TAG, message);
+        TraceLog.text(TraceLog.CATEGORY_BLE, TraceLog.EVENT_MESSAGE, message);
+    }
+
+    private static byte[] copyOf(byte[] source) {
+        return (source == null) ? new byte[0] : Arrays.copyOf(source, source.length);
+    }
+
+    /**
+     * Registers an in-app listener for values of the given characteristics. Events are
+     * delivered on the main thread.
+     */
+    public void subscribe(EventBus.Listener listener, UUID... uuids) {
+        for (UUID uuid : uuids) {
+            eventBus.subscribe(uuid, listener);
+        }
+    }
+
+    public void unsubscribe(EventBus.Listener listener) {
+        eventBus.unsubscribe(listener);
+    }
+
+    private void resetFraming() {
+        mtu = GoProPacket.DEFAULT_MTU;
+        commandResponseAssembler.reset();
+        settingsResponseAssembler.reset();
+        queryResponseAssembler.reset();
+    }
+
+    private PacketAssembler assemblerFor(UUID uuid) {
+        if (UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC.equals(uuid)) {
+            return commandResponseAssembler;
+        } else if (UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC.equals(uuid)) {
+            return settingsResponseAssembler;
+        } else if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+            return queryResponseAssembler;
+        }
+        return null;
+    }
+
+    private static BleCommand.Lane laneFor(UUID uuid) {
+        if (UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC.equals(uuid)) {
+            return BleCommand.Lane.COMMAND;
+        } else if (UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC.equals(uuid)) {
+            return BleCommand.Lane.SETTING;
+        }
+        // Queries and the Wi-Fi credential reads
+        return BleCommand.Lane.QUERY;
+    }
+
+    /**
+     * The camera answers on the response characteristics, so the write itself does not
+     * need an acknowledgement. Writes without response can be pipelined by the engine.
+     */
+    private BluetoothLeService.WriteType preferredWriteType(UUID characteristic) {
+        if ((getProperties(characteristic) & GattTransport.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            return BluetoothLeService.WriteType.WITHOUT_RESPONSE;
+        }
+        return BluetoothLeService.WriteType.WITH_RESPONSE;
+    }
+
+    /**
+     * Shutter and HiLight go before everything else, mode changes and other commands
+     * before status polling.
+     */
+    private static BleCommand.Priority priorityFor(byte[] command) {
+        if (command.length > 0 && (command[0] == BluetoothLeService.CMD_SHUTTER || command[0] == BluetoothLeService.CMD_HILIGHT)) {
+            return BleCommand.Priority.HIGH;
+        }
+        return BleCommand.Priority.NORMAL;
+    }
+
+    /**
+     * For tests and diagnostics that need the queue counters rather than the report.
+     */
+    CommandEngine getCommandEngine() {
+        return commandEngine;
+    }
+
+    public String getLaneStats() {
+        return commandEngine.getLaneStats() + commandEngine.getPriorityStats()
+                + "Coalesced: " + commandEngine.getCoalescedCount() + "\n";
+    }
+
+    public CommandTracker getCommandTracker() {
+        return commandTracker;
+    }
+
+    /**
+     * @return GATT round trips saved because a duplicate read or query was already queued.
+     */
+    public long getCoalescedCount() {
+        return commandEngine.getCoalescedCount();
+    }
+
+    // GoPro Commands
+    public void setCommand(byte[] command){
+        if (command.length > 0) {
+            setCommand(command, new CommandTracker.Pending(command[0]));
+        }
+    }
+
+    /**
+     * Sends a command and completes {@code pending} with the camera's answer.
+     */
+    public void setCommand(byte[] command, CommandTracker.Pending pending){
+        if (commandCharacteristic != null) {
+            if (!isNotifying(commandResponseCharacteristic)) {
+                setNotify(commandResponseCharacteristic,true);
+            } else {
+                commandTracker.track(pending);
+                if (writeMessage(commandCharacteristic, command, priorityFor(command), pending)) {
+                    return;
+                }
+            }
+        }
+        commandTracker.cancel(pending, CommandTracker.RESULT_NOT_SENT);
+    }
+
+    public void setHilight(){
+        setCommand(new byte[]{BluetoothLeService.CMD_HILIGHT});
+    }
+
+    public void setSetting(byte[] setting){
+        if (settingsCharacteristic != null && settingsResponseCharacteristic != null) {
+            if (!isNotifying(settingsResponseCharacteristic)) {
+                setNotify(settingsResponseCharacteristic,true);
+            } else {
+                writeMessage(settingsCharacteristic, setting, null);
+            }
+        }
+    }
+
+    public void requestCameraStatus(){
+        if (queryCharacteristic != null) {
+            if (!isNotifying(queryResponseCharacteristic)) {
+                setNotify(queryResponseCharacteristic,true);
+            } else {
+                byte[] query = {StatusDecoder.QUERY_GET_STATUS, CameraStatus.STATUS_BUSY, CameraStatus.STATUS_WIFI_ENABLED,
+                        CameraStatus.STATUS_LEGACY_MODE, CameraStatus.STATUS_LEGACY_SUBMODE, CameraStatus.STATUS_PREVIEW_AVAILABLE,
+                        CameraStatus.STATUS_PRESET_GROUP};
+                writeMessage(queryCharacteristic, query, null);
+            }
+        }
+    }
+
+    /**
+     * Registers for pushed updates of the statuses the app shows. The camera answers with
+     * the current values and then notifies every change, so no polling is needed.
+     */
+    public void subscribeCameraStatus() {
+        if (queryCharacteristic == null) {
+            return;
+        }
+        if (!isNotifying(queryResponseCharacteristic)) {
+            // Subscribes again once notifications are on
+            setNotify(queryResponseCharacteristic,true);
+            return;
+        }
+        byte[] query = new byte[SUBSCRIBED_STATUSES.length + 1];
+        query[0] = StatusDecoder.QUERY_REGISTER_STATUS;
+        System.arraycopy(SUBSCRIBED_STATUSES, 0, query, 1, SUBSCRIBED_STATUSES.length);
+        if (writeMessage(queryCharacteristic, query, null)) {
+            handler.removeCallbacks(subscribeTimeout);
+            handler.postDelayed(subscribeTimeout, SUBSCRIBE_TIMEOUT);
+        } else {
+            startFallbackPoll();
+        }
+    }
+
+    /**
+     * @return true while the camera pushes status changes to us.
+     */
+    public boolean isStatusSubscribed() {
+        return statusSubscribed;
+    }
+
+    /**
+     * Copies the live camera state into the given instance.
+     */
+    public void getCameraStatus(CameraStatus out) {
+        synchronized (cameraStatus) {
+            out.copyFrom(cameraStatus);
+        }
+    }
+
+    /**
+     * @return false for a pushed status that changed nothing, the screens need not hear of it.
+     */
+    private boolean onQueryResponse(byte[] message, int length) {
+        if (length < 2) {
+            return true;
+        }
+        if ((message[0] & 0xFF) == StatusDecoder.QUERY_REGISTER_STATUS) {
+            handler.removeCallbacks(subscribeTimeout);
+            if (message[1] == 0x00) {
+                Log.d(TAG, "Subscribed to camera status");
+                statusSubscribed = true;
+                stopFallbackPoll();
+            } else {
+                logWarning(String.format(Locale.ENGLISH, "Status registration failed, status %d", message[1]));
+                statusSubscribed = false;
+                startFallbackPoll();
+            }
+            exchangeDeferredMtu();
+        }
+        boolean decoded;
+        boolean changed;
+        synchronized (cameraStatus) {
+            int version = cameraStatus.version;
+            decoded = StatusDecoder.decode(message, 0, length, cameraStatus);
+            changed = cameraStatus.version != version;
+        }
+        if (decoded) {
+            markPhase(ConnectTimeline.Phase.FIRST_STATUS);
+        }
+        // Answers to our own queries always go out, someone asked for them
+        return !decoded || (message[0] & 0xFF) != StatusDecoder.QUERY_STATUS_PUSH || changed;
+    }
+
+    private final Runnable subscribeTimeout = new Runnable() {
+        @Override
+        public void run() {
+            logWarning("No answer to status registration");
+            statusSubscribed = false;
+            startFallbackPoll();
+            exchangeDeferredMtu();
+        }
+    };
+
+    private final Runnable fallbackPoll = new Runnable() {
+        @Override
+        public void run() {
+            if (!fallbackPolling || !isConnected()) {
+                return;
+            }
+            fallbackPolls++;
+            if (fallbackPolls % RESUBSCRIBE_POLLS == 0) {
+                subscribeCameraStatus();
+            } else {
+                requestCameraStatus();
+            }
+            handler.postDelayed(this, FALLBACK_POLL_INTERVAL);
+        }
+    };
+
+    private void startFallbackPoll() {
+        if (!fallbackPolling) {
+            logWarning("Falling back to status polling");
+            fallbackPolling = true;
+            fallbackPolls = 0;
+            handler.post(fallbackPoll);
+        }
+    }
+
+    private void stopFallbackPoll() {
+        fallbackPolling = false;
+        handler.removeCallbacks(fallbackPoll);
+    }
+
+    private void stopStatusUpdates() {
+        statusSubscribed = false;
+        handler.removeCallbacks(subscribeTimeout);
+        stopFallbackPoll();
+    }
+
+    public void requestWiFiSettings() {
+        readCharacteristic(wifiSSIDCharacteristic);
+        readCharacteristic(wifiPasswordCharacteristic);
+    }
+}
@@ -17,10 +17,56 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package com.blackboxembedded.wunderlinqgopro;
 
+/**
+ * Last known camera state. Instances are reused: {@link StatusDecoder} writes into them and
+ * bumps {@link #version} whenever a field actually changed.
+ */
 public class CameraStatus {
+    /**
+     * GoPro status IDs
+     */
+    public static final int STATUS_BUSY = 8;
+    public static final int STATUS_ENCODING = 10;
+    public static final int STATUS_WIFI_ENABLED = 17;
+    public static final int STATUS_LEGACY_MODE = 43;
+    public static final int STATUS_LEGACY_SUBMODE = 44;
+    public static final int STATUS_SD_REMAINING_KB = 54;
+    public static final int STATUS_PREVIEW_AVAILABLE = 55;
+    public static final int STATUS_BATTERY_PERCENT = 70;
+    public static final int STATUS_PRESET_GROUP = 96;
+
+    /**
+     * UI modes, the low byte of the OpenGoPro preset group ID
+     */
+    public static final byte MODE_VIDEO = (byte) 0xE8;
+    public static final byte MODE_PHOTO = (byte) 0xE9;
+    public static final byte MODE_TIMELAPSE = (byte) 0xEA;
+
     public boolean busy;
+    public boolean encoding;
     public byte mode;
     public boolean wifiEnabled;
     public boolean previewAvailable;
     public boolean openGoPro;
+    public int batteryPercent = -1;
+    public long sdRemainingKb = -1;
+    // Raw values of pre-OpenGoPro cameras, kept so partial updates can derive the mode
+    public int legacyMode = -1;
+    public int legacySubmode = -1;
+
+    public int version;
+
+    public void copyFrom(CameraStatus other) {
+        busy = other.busy;
+        encoding = other.encoding;
+        mode = other.mode;
+        wifiEnabled = other.wifiEnabled;
+        previewAvailable = other.previewAvailable;
+        openGoPro = other.openGoPro;
+        batteryPercent = other.batteryPercent;
+        sdRemainingKb = other.sdRemainingKb;
+        legacyMode = other.legacyMode;
+        legacySubmode = other.legacySubmode;
+        version = other.version;
+    }
 }
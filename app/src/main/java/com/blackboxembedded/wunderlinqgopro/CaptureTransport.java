@@ -0,0 +1,161 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.UUID;
+
+/**
+ * Passes every operation through to another {@link GattTransport} and records it with a
+ * {@link SnoopWriter}. Requests are recorded before they are handed on, so a capture never
+ * shows an answer ahead of its request.
+ */
+public class CaptureTransport implements GattTransport {
+    // HCI reason code: connection terminated by local host
+    private static final int REASON_LOCAL_HOST = 0x16;
+
+    private final GattTransport delegate;
+    private final SnoopWriter writer;
+    private final Scheduler clock;
+    private final String address;
+
+    private volatile int connection;
+    // onCharacteristicWrite also reports writes without response, which have no ATT response
+    private volatile boolean writeAcknowledged;
+
+    public CaptureTransport(GattTransport delegate, SnoopWriter writer, Scheduler clock, String address) {
+        this.delegate = delegate;
+        this.writer = writer;
+        this.clock = clock;
+        this.address = address;
+    }
+
+    @Override
+    public void connect(final Callback callback) {
+        delegate.connect(new Callback() {
+            @Override
+            public void onConnectionStateChange(int status, int state) {
+                if (state == BluetoothLeService.STATE_CONNECTED && connection == 0) {
+                    connection = writer.connected(address, clock.nanoTime());
+                } else if (state == BluetoothLeService.STATE_DISCONNECTED) {
+                    linkDown(status);
+                }
+                callback.onConnectionStateChange(status, state);
+            }
+
+            @Override
+            public void onMtuChanged(int mtu, int status) {
+                if (status == GATT_SUCCESS) {
+                    writer.mtuResponse(connection, mtu, clock.nanoTime());
+                }
+                callback.onMtuChanged(mtu, status);
+            }
+
+            @Override
+            public void onServicesDiscovered(int status) {
+                callback.onServicesDiscovered(status);
+            }
+
+            @Override
+            public void onCharacteristicRead(UUID uuid, byte[] value, int status) {
+                writer.readResponse(connection, uuid, value, status, clock.nanoTime());
+                callback.onCharacteristicRead(uuid, value, status);
+            }
+
+            @Override
+            public void onCharacteristicWrite(UUID uuid, byte[] value, int status) {
+                if (writeAcknowledged) {
+                    writer.writeResponse(connection, uuid, status, clock.nanoTime());
+                }
+                callback.onCharacteristicWrite(uuid, value, status);
+            }
+
+            @Override
+            public void onCharacteristicChanged(UUID uuid, byte[] value) {
+                writer.notification(connection, uuid, value, clock.nanoTime());
+                callback.onCharacteristicChanged(uuid, value);
+            }
+
+            @Override
+            public void onNotifyChanged(UUID uuid, boolean enabled, int status) {
+                writer.notifyResponse(connection, uuid, status, clock.nanoTime());
+                callback.onNotifyChanged(uuid, enabled, status);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        linkDown(REASON_LOCAL_HOST);
+        writer.flush();
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        writer.mtuRequest(connection, mtu, clock.nanoTime());
+        return delegate.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return delegate.discoverServices();
+    }
+
+    @Override
+    public int getProperties(UUID uuid) {
+        return delegate.getProperties(uuid);
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID uuid) {
+        long now = clock.nanoTime();
+        writer.declare(connection, uuid, delegate.getProperties(uuid), now);
+        writer.readRequest(connection, uuid, now);
+        return delegate.readCharacteristic(uuid);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID uuid, byte[] value, BluetoothLeService.WriteType writeType) {
+        long now = clock.nanoTime();
+        writeAcknowledged = writeType != BluetoothLeService.WriteType.WITHOUT_RESPONSE;
+        writer.declare(connection, uuid, delegate.getProperties(uuid), now);
+        writer.writeRequest(connection, uuid, value, writeAcknowledged, now);
+        return delegate.writeCharacteristic(uuid, value, writeType);
+    }
+
+    @Override
+    public boolean setNotify(UUID uuid, boolean enable) {
+        long now = clock.nanoTime();
+        writer.declare(connection, uuid, delegate.getProperties(uuid), now);
+        writer.notifyRequest(connection, uuid, enable, now);
+        return delegate.setNotify(uuid, enable);
+    }
+
+    private void linkDown(int reason) {
+        int current = connection;
+        if (current != 0) {
+            connection = 0;
+            writer.disconnected(current, reason, clock.nanoTime());
+        }
+    }
+}
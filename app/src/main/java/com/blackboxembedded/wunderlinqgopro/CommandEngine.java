@@ -0,0 +1,600 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Schedules GATT operations for one peripheral.
+ *
+ * Every characteristic family has its own lane and lanes are served round-robin.
+ * Acknowledged operations (reads, writes with response and descriptor writes) own the
+ * link until their callback arrives. Writes without response are pipelined: up to
+ * {@link #getCreditWindow()} of them may be outstanding at once.
+ *
+ * Every issued operation has a deadline. Operations that time out, fail or are rejected
+ * by the stack are retried with exponential backoff up to {@link #getMaxTries()} times.
+ * A watchdog drains the queue and reports it when no operation finished for
+ * {@link #getStallTimeout()} milliseconds while work was outstanding.
+ *
+ * Lane heads are ordered by {@link BleCommand.Priority}, so a shutter press is never queued
+ * behind status polling. Order within a lane is kept, a shutter must not overtake the
+ * mode change the rider selected before it.
+ *
+ * Idempotent requests (reads and queries) that match one still waiting in its lane are
+ * attached to it instead of costing another round trip.
+ */
+public class CommandEngine {
+    private final static String TAG = "CommandEngine";
+
+    /**
+     * BluetoothGatt refuses a new request until the previous callback has fired, so a
+     * single credit matches the framework. Transports that accept more can raise it.
+     */
+    public static final int DEFAULT_CREDIT_WINDOW = 1;
+    public static final long DEFAULT_ACK_TIMEOUT = 2000;
+    public static final long DEFAULT_WRITE_TIMEOUT = 500;
+    public static final long DEFAULT_RETRY_BACKOFF = 100;
+    public static final long DEFAULT_STALL_TIMEOUT = 8000;
+    public static final int DEFAULT_MAX_TRIES = 3;
+
+    public interface Listener {
+        /**
+         * An operation was given up after its last try.
+         */
+        void onCommandDropped(BleCommand command, String reason);
+
+        /**
+         * The watchdog found no progress and drained the queue.
+         */
+        void onQueueStalled(String report);
+    }
+
+    private static final BleCommand.Lane[] ROUND_ROBIN = {
+            BleCommand.Lane.COMMAND,
+            BleCommand.Lane.SETTING,
+            BleCommand.Lane.QUERY
+    };
+
+    private final Scheduler scheduler;
+    private final EnumMap<BleCommand.Lane, CommandLane> lanes = new EnumMap<>(BleCommand.Lane.class);
+    private final ArrayDeque<BleCommand> inFlight = new ArrayDeque<>();
+    private final EnumMap<BleCommand.Priority, LatencyStats> waitStats = new EnumMap<>(BleCommand.Priority.class);
+    private Listener listener;
+    private int creditWindow = DEFAULT_CREDIT_WINDOW;
+    private long ackTimeout = DEFAULT_ACK_TIMEOUT;
+    private long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+    private long retryBackoff = DEFAULT_RETRY_BACKOFF;
+    private long stallTimeout = DEFAULT_STALL_TIMEOUT;
+    private int maxTries = DEFAULT_MAX_TRIES;
+    private int nextLane = 0;
+    // Set when the stack rejected a pipelined write, cleared by the next callback
+    private boolean stackBusy;
+    // Tries that timed out after reaching the stack. Nothing new goes out until their
+    // callbacks came back, so a late one can not be taken for a later operation.
+    private final ArrayDeque<BleCommand> late = new ArrayDeque<>();
+    private boolean watchdogRunning;
+    private long lastProgress;
+
+    private final Runnable watchdog = new Runnable() {
+        @Override
+        public void run() {
+            checkStalled();
+        }
+    };
+
+    private final Runnable lateExpired = new Runnable() {
+        @Override
+        public void run() {
+            giveUpOnLate();
+        }
+    };
+
+    public CommandEngine(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        for (BleCommand.Lane lane : BleCommand.Lane.values()) {
+            lanes.put(lane, new CommandLane(lane));
+        }
+        for (BleCommand.Priority priority : BleCommand.Priority.values()) {
+            waitStats.put(priority, new LatencyStats());
+        }
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized int getCreditWindow() {
+        return creditWindow;
+    }
+
+    public synchronized void setCreditWindow(int credits) {
+        creditWindow = Math.max(1, credits);
+        pump();
+    }
+
+    public synchronized long getAckTimeout() {
+        return ackTimeout;
+    }
+
+    /**
+     * @param millis deadline for reads, writes with response and descriptor writes.
+     */
+    public synchronized void setAckTimeout(long millis) {
+        ackTimeout = millis;
+    }
+
+    public synchronized long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * @param millis deadline for writes without response to be handed back by the stack.
+     */
+    public synchronized void setWriteTimeout(long millis) {
+        writeTimeout = millis;
+    }
+
+    public synchronized long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * @param millis delay before the first retry, doubled for every further try.
+     */
+    public synchronized void setRetryBackoff(long millis) {
+        retryBackoff = millis;
+    }
+
+    public synchronized long getStallTimeout() {
+        return stallTimeout;
+    }
+
+    public synchronized void setStallTimeout(long millis) {
+        stallTimeout = millis;
+    }
+
+    public synchronized int getMaxTries() {
+        return maxTries;
+    }
+
+    public synchronized void setMaxTries(int tries) {
+        maxTries = Math.max(1, tries);
+    }
+
+    /**
+     * @return the longest an acknowledged operation can take from its first try until it is
+     * given up: every try runs into the deadline, and each retry waits out the backoff and
+     * the wait for the late callback of the try before.
+     */
+    public synchronized long getRetryBudget() {
+        long budget = maxTries * ackTimeout;
+        for (int tries = 1; tries < maxTries; tries++) {
+            budget += Math.max(retryBackoff << (tries - 1), ackTimeout);
+        }
+        return budget;
+    }
+
+    public synchronized boolean enqueue(BleCommand command) {
+        CommandLane lane = lanes.get(command.lane);
+        if (command.isIdempotent()) {
+            BleCommand pending = lane.findPending(command);
+            // A more urgent request does not wait behind the queued one
+            if (pending != null && command.priority.compareTo(pending.priority) >= 0) {
+                pending.attached++;
+                lane.recordCoalesced();
+                return true;
+            }
+        }
+        if (isIdle()) {
+            lastProgress = scheduler.nanoTime();
+        }
+        command.enqueuedAt = scheduler.nanoTime();
+        boolean result = lane.pending.add(command);
+        preempt(command.priority);
+        startWatchdog();
+        pump();
+        return result;
+    }
+
+    /**
+     * Called from the GATT callback that finishes an operation.
+     */
+    public synchronized void complete(BleCommand.Type type, UUID uuid) {
+        if (takeLate(type, uuid)) {
+            pump();
+            return;
+        }
+        BleCommand command = takeInFlight(type, uuid);
+        if (command == null) {
+            Log.d(TAG, "Callback without matching operation: " + type + " <" + uuid + ">");
+            return;
+        }
+        long now = scheduler.nanoTime();
+        lanes.get(command.lane).recordCompleted(command, now);
+        lastProgress = now;
+        stackBusy = false;
+        pump();
+    }
+
+    /**
+     * Called from the GATT callback when the operation finished with an error.
+     */
+    public synchronized void fail(BleCommand.Type type, UUID uuid) {
+        if (takeLate(type, uuid)) {
+            pump();
+            return;
+        }
+        BleCommand command = takeInFlight(type, uuid);
+        stackBusy = false;
+        if (command != null) {
+            lastProgress = scheduler.nanoTime();
+            retryOrDrop(command, "GATT error");
+        }
+        pump();
+    }
+
+    /**
+     * Drops every pending and in-flight operation, e.g. after the link is gone.
+     */
+    public synchronized void clear() {
+        for (CommandLane lane : lanes.values()) {
+            lane.pending.clear();
+            lane.held = false;
+        }
+        for (BleCommand command : inFlight) {
+            scheduler.removeCallbacks(command.deadline);
+        }
+        inFlight.clear();
+        late.clear();
+        scheduler.removeCallbacks(lateExpired);
+        stackBusy = false;
+    }
+
+    /**
+     * Like {@link #clear()}, but hands back what was not acknowledged yet: in-flight
+     * operations first, then every lane's queue in order.
+     */
+    public synchronized List<BleCommand> drain() {
+        List<BleCommand> unacknowledged = new ArrayList<>(inFlight);
+        for (CommandLane lane : lanes.values()) {
+            unacknowledged.addAll(lane.pending);
+        }
+        clear();
+        return unacknowledged;
+    }
+
+    public synchronized boolean isIdle() {
+        if (!inFlight.isEmpty()) {
+            return false;
+        }
+        for (CommandLane lane : lanes.values()) {
+            if (!lane.pending.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized String getLaneStats() {
+        StringBuilder sb = new StringBuilder();
+        for (CommandLane lane : lanes.values()) {
+            sb.append(lane).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public synchronized CommandLane getLane(BleCommand.Lane lane) {
+        return lanes.get(lane);
+    }
+
+    /**
+     * @return GATT round trips saved by coalescing duplicate requests, over all lanes.
+     */
+    public synchronized long getCoalescedCount() {
+        long total = 0;
+        for (CommandLane lane : lanes.values()) {
+            total += lane.getCoalesced();
+        }
+        return total;
+    }
+
+    /**
+     * @return how long commands of the given class waited in the queue before the BLE thread
+     * handed them to the stack.
+     */
+    public synchronized LatencyStats getLatencyStats(BleCommand.Priority priority) {
+        return waitStats.get(priority);
+    }
+
+    public synchronized String getPriorityStats() {
+        StringBuilder sb = new StringBuilder();
+        for (BleCommand.Priority priority : BleCommand.Priority.values()) {
+            sb.append(priority).append(" wait: ").append(waitStats.get(priority)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Pulls lower priority operations that are queued on the BLE thread but not yet started
+     * back into their lanes, so the new command goes out first.
+     */
+    private void preempt(BleCommand.Priority priority) {
+        boolean preempted = false;
+        Iterator<BleCommand> it = inFlight.descendingIterator();
+        while (it.hasNext()) {
+            BleCommand command = it.next();
+            if (!command.started && command.priority.compareTo(priority) > 0) {
+                it.remove();
+                scheduler.removeCallbacks(command.deadline);
+                command.tries--;
+                lanes.get(command.lane).pending.addFirst(command);
+                lanes.get(command.lane).recordPreempted();
+                preempted = true;
+            }
+        }
+        if (preempted) {
+            stackBusy = false;
+        }
+    }
+
+    private static boolean matches(BleCommand command, BleCommand.Type type, UUID uuid) {
+        boolean sameType = (command.type == type)
+                || (type == BleCommand.Type.WRITE && command.type == BleCommand.Type.WRITE_NO_RESPONSE);
+        return sameType && command.uuid.equals(uuid);
+    }
+
+    /**
+     * @return true if the callback belongs to a try that timed out, it is not for anything
+     * in flight then.
+     */
+    private boolean takeLate(BleCommand.Type type, UUID uuid) {
+        Iterator<BleCommand> it = late.iterator();
+        while (it.hasNext()) {
+            BleCommand command = it.next();
+            if (matches(command, type, uuid)) {
+                it.remove();
+                if (late.isEmpty()) {
+                    scheduler.removeCallbacks(lateExpired);
+                }
+                Log.d(TAG, "Late callback of try " + command.tries + " ignored for " + command);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void giveUpOnLate() {
+        // Lost for good, the stack would not still be holding them
+        Log.d(TAG, "No late callback for " + late);
+        late.clear();
+        pump();
+    }
+
+    private BleCommand takeInFlight(BleCommand.Type type, UUID uuid) {
+        Iterator<BleCommand> it = inFlight.iterator();
+        while (it.hasNext()) {
+            BleCommand command = it.next();
+            if (matches(command, type, uuid)) {
+                it.remove();
+                scheduler.removeCallbacks(command.deadline);
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private void pump() {
+        while (!stackBusy && late.isEmpty()) {
+            BleCommand command = selectNext();
+            if (command == null) {
+                return;
+            }
+            issue(command);
+        }
+    }
+
+    /**
+     * Picks the next command that may go out now and removes it from its lane.
+     */
+    private BleCommand selectNext() {
+        if (!inFlight.isEmpty() && inFlight.peekFirst().isAcknowledged()) {
+            return null;
+        }
+        CommandLane control = lanes.get(BleCommand.Lane.CONTROL);
+        if (!control.pending.isEmpty() && !control.held) {
+            return admit(control.pending);
+        }
+        // The highest priority head wins, lanes take turns among equals
+        CommandLane best = null;
+        int bestIndex = 0;
+        for (int i = 0; i < ROUND_ROBIN.length; i++) {
+            int index = (nextLane + i) % ROUND_ROBIN.length;
+            CommandLane lane = lanes.get(ROUND_ROBIN[index]);
+            if (lane.pending.isEmpty() || lane.held) {
+                continue;
+            }
+            if (best == null || lane.pending.peekFirst().priority.compareTo(best.pending.peekFirst().priority) < 0) {
+                best = lane;
+                bestIndex = index;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        // Only the chosen lane may go, so an acknowledged operation waiting for
+        // the link to drain is not overtaken indefinitely
+        BleCommand command = admit(best.pending);
+        if (command != null) {
+            nextLane = (bestIndex + 1) % ROUND_ROBIN.length;
+        }
+        return command;
+    }
+
+    private BleCommand admit(ArrayDeque<BleCommand> pending) {
+        BleCommand head = pending.peekFirst();
+        if (head.isAcknowledged() ? !inFlight.isEmpty() : inFlight.size() >= creditWindow) {
+            return null;
+        }
+        return pending.pollFirst();
+    }
+
+    private void issue(final BleCommand command) {
+        command.startedAt = scheduler.nanoTime();
+        command.started = false;
+        command.tries++;
+        if (command.tries == 1) {
+            waitStats.get(command.priority).record(command.startedAt - command.enqueuedAt);
+        }
+        inFlight.addLast(command);
+        command.deadline = new Runnable() {
+            @Override
+            public void run() {
+                timedOut(command);
+            }
+        };
+        scheduler.postDelayed(command.deadline, command.isAcknowledged() ? ackTimeout : writeTimeout);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!claim(command)) {
+                    // Preempted or cleared before the BLE thread got to it
+                    return;
+                }
+                boolean accepted;
+                try {
+                    accepted = command.execute();
+                } catch (Exception ex) {
+                    Log.d(TAG, "ERROR: Command exception for " + command);
+                    accepted = false;
+                }
+                if (!accepted) {
+                    rejected(command);
+                }
+            }
+        });
+    }
+
+    private synchronized boolean claim(BleCommand command) {
+        if (!inFlight.contains(command)) {
+            return false;
+        }
+        command.started = true;
+        return true;
+    }
+
+    private synchronized void rejected(BleCommand command) {
+        if (!inFlight.remove(command)) {
+            return;
+        }
+        scheduler.removeCallbacks(command.deadline);
+        if (!command.isAcknowledged() && !inFlight.isEmpty()) {
+            // The stack is still draining earlier writes, try again on the next callback
+            command.tries--;
+            lanes.get(command.lane).pending.addFirst(command);
+            stackBusy = true;
+            return;
+        }
+        retryOrDrop(command, "rejected by stack");
+        pump();
+    }
+
+    private synchronized void timedOut(BleCommand command) {
+        if (!inFlight.remove(command)) {
+            return;
+        }
+        Log.d(TAG, "ERROR: Timeout after try " + command.tries + " for " + command);
+        lanes.get(command.lane).recordTimeout();
+        if (command.started) {
+            // The stack may still answer, wait for that before anything else goes out
+            late.addLast(command);
+            scheduler.removeCallbacks(lateExpired);
+            scheduler.postDelayed(lateExpired, command.isAcknowledged() ? ackTimeout : writeTimeout);
+        }
+        // A late callback for this operation must not clear the busy state of the next one
+        stackBusy = false;
+        retryOrDrop(command, "timeout");
+        pump();
+    }
+
+    /**
+     * Puts the command back at the head of its lane after a backoff, or gives up on it.
+     * The lane is held while waiting so later commands on it cannot overtake.
+     */
+    private void retryOrDrop(final BleCommand command, String reason) {
+        final CommandLane lane = lanes.get(command.lane);
+        if (command.tries >= maxTries) {
+            Log.d(TAG, "ERROR: Giving up after " + command.tries + " tries (" + reason + ") for " + command);
+            lane.recordFailed();
+            if (listener != null) {
+                listener.onCommandDropped(command, reason);
+            }
+            return;
+        }
+        lane.recordRetry();
+        lane.pending.addFirst(command);
+        lane.held = true;
+        long delay = retryBackoff << (command.tries - 1);
+        Log.d(TAG, "Retrying " + command + " (" + reason + ") in " + delay + "ms");
+        scheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                release(lane);
+            }
+        }, delay);
+    }
+
+    private synchronized void release(CommandLane lane) {
+        lane.held = false;
+        pump();
+    }
+
+    private void startWatchdog() {
+        if (!watchdogRunning) {
+            watchdogRunning = true;
+            scheduler.postDelayed(watchdog, stallTimeout / 2);
+        }
+    }
+
+    private synchronized void checkStalled() {
+        if (isIdle()) {
+            watchdogRunning = false;
+            return;
+        }
+        long idleMillis = (scheduler.nanoTime() - lastProgress) / 1000000;
+        if (idleMillis >= stallTimeout) {
+            String report = "No GATT progress for " + idleMillis + "ms, in flight: " + inFlight
+                    + "\n" + getLaneStats();
+            Log.e(TAG, "ERROR: Command queue stalled, draining. " + report);
+            clear();
+            watchdogRunning = false;
+            if (listener != null) {
+                listener.onQueueStalled(report);
+            }
+            return;
+        }
+        scheduler.postDelayed(watchdog, stallTimeout / 2);
+    }
+}
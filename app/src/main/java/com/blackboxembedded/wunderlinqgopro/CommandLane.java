@@ -0,0 +1,141 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Pending operations and throughput counters for one {@link BleCommand.Lane}.
+ * Not thread safe, the {@link CommandEngine} guards every access.
+ */
+public class CommandLane {
+    final BleCommand.Lane lane;
+    final ArrayDeque<BleCommand> pending = new ArrayDeque<>();
+
+    // Set while the head of the lane waits out its retry backoff
+    boolean held;
+
+    private long completed;
+    private long failed;
+    private long retries;
+    private long timeouts;
+    private long preempted;
+    private long coalesced;
+    private long bytes;
+    private long busyNanos;
+    private long firstStart;
+    private long lastEnd;
+
+    CommandLane(BleCommand.Lane lane) {
+        this.lane = lane;
+    }
+
+    void recordCompleted(BleCommand command, long now) {
+        if (completed == 0 && failed == 0) {
+            firstStart = command.startedAt;
+        }
+        completed++;
+        bytes += command.length;
+        busyNanos += now - command.startedAt;
+        lastEnd = now;
+    }
+
+    void recordFailed() {
+        failed++;
+    }
+
+    void recordRetry() {
+        retries++;
+    }
+
+    void recordTimeout() {
+        timeouts++;
+    }
+
+    void recordPreempted() {
+        preempted++;
+    }
+
+    void recordCoalesced() {
+        coalesced++;
+    }
+
+    /**
+     * Finds the request queued last if it is not started yet and asks for the same thing.
+     * Only the last one may absorb a new request, an earlier match would reorder it around
+     * whatever was queued in between.
+     */
+    BleCommand findPending(BleCommand command) {
+        BleCommand last = pending.peekLast();
+        return (last != null && last.isSameRequest(command)) ? last : null;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getPreempted() {
+        return preempted;
+    }
+
+    /**
+     * @return GATT round trips saved by folding duplicate requests into a pending one.
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return completed operations per second between the first start and the last completion.
+     */
+    public double getOpsPerSecond() {
+        long span = lastEnd - firstStart;
+        return (span <= 0) ? 0 : completed * 1e9 / span;
+    }
+
+    public double getBytesPerSecond() {
+        long span = lastEnd - firstStart;
+        return (span <= 0) ? 0 : bytes * 1e9 / span;
+    }
+
+    /**
+     * @return average time from hand-off to the stack until the GATT callback, in milliseconds.
+     */
+    public double getAverageServiceMillis() {
+        return (completed == 0) ? 0 : busyNanos / 1e6 / completed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%s: %d done, %d failed, %d retries, %d timeouts, %d preempted, %d coalesced, %d pending, %.1f ops/s, %.0f B/s, %.1f ms avg",
+                lane, completed, failed, retries, timeouts, preempted, coalesced, pending.size(), getOpsPerSecond(), getBytesPerSecond(), getAverageServiceMillis());
+    }
+}
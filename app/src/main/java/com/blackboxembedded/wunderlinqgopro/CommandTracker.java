@@ -0,0 +1,267 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches GoPro command responses to the commands that asked for them.
+ *
+ * The camera answers every command on the command response characteristic with the command
+ * ID and a result byte, in the order the commands were sent. Each tracked command gets a
+ * {@link Pending} that completes with that result, or with one of the local results if no
+ * answer came. Acknowledgement times are kept per command ID.
+ */
+public class CommandTracker {
+
+    /**
+     * Results sent by the camera
+     */
+    public static final int RESULT_SUCCESS = 0;
+    public static final int RESULT_ERROR = 1;
+    public static final int RESULT_INVALID_PARAMETER = 2;
+    /**
+     * Results for commands the camera did not answer
+     */
+    public static final int RESULT_TIMEOUT = -1;
+    public static final int RESULT_NOT_SENT = -2;
+    public static final int RESULT_DISCONNECTED = -3;
+
+    // Time the camera gets to answer once the write went out
+    public static final long DEFAULT_TIMEOUT = 3000;
+
+    public interface Callback {
+        /**
+         * Called once, on the BLE thread, or straight away when the command already completed.
+         */
+        void onComplete(Pending command);
+    }
+
+    /**
+     * The outcome of one command, completed by the tracker.
+     */
+    public static class Pending {
+        private final byte commandId;
+        private long sentAt;
+        private long latencyNanos = -1;
+        private int result;
+        private boolean done;
+        private Callback callback;
+        private Runnable timeout;
+
+        public Pending(byte commandId) {
+            this.commandId = commandId;
+        }
+
+        public byte getCommandId() {
+            return commandId;
+        }
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        public synchronized int getResult() {
+            return result;
+        }
+
+        public synchronized boolean isSuccess() {
+            return done && result == RESULT_SUCCESS;
+        }
+
+        /**
+         * @return time from handing the command to the link to its response, -1 if unanswered.
+         */
+        public synchronized long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public void setCallback(Callback callback) {
+            boolean now;
+            synchronized (this) {
+                this.callback = callback;
+                now = done;
+            }
+            if (now) {
+                callback.onComplete(this);
+            }
+        }
+
+        /**
+         * @return false if it was completed before
+         */
+        boolean complete(int result, long latencyNanos) {
+            Callback current;
+            synchronized (this) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                this.result = result;
+                this.latencyNanos = latencyNanos;
+                current = callback;
+            }
+            if (current != null) {
+                current.onComplete(this);
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.ENGLISH, "0x%02X %s", commandId & 0xFF,
+                    !done ? "pending" : (latencyNanos < 0) ? "result " + result
+                            : String.format(Locale.ENGLISH, "result %d after %.1f ms", result, latencyNanos / 1e6));
+        }
+    }
+
+    private final Scheduler scheduler;
+    // Sent and not answered yet, oldest first for each command ID
+    private final Map<Integer, ArrayDeque<Pending>> outstanding = new TreeMap<>();
+    private final Map<Integer, LatencyStats> latency = new TreeMap<>();
+    private long timeoutMillis = DEFAULT_TIMEOUT;
+    private long unanswered;
+
+    public CommandTracker(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Starts waiting for the response to a command that is about to be written.
+     */
+    public void track(final Pending pending) {
+        long timeoutMillis;
+        synchronized (this) {
+            int id = pending.commandId & 0xFF;
+            ArrayDeque<Pending> queue = outstanding.get(id);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                outstanding.put(id, queue);
+            }
+            queue.add(pending);
+            pending.sentAt = scheduler.nanoTime();
+            pending.timeout = new Runnable() {
+                @Override
+                public void run() {
+                    cancel(pending, RESULT_TIMEOUT);
+                }
+            };
+            timeoutMillis = this.timeoutMillis;
+        }
+        scheduler.postDelayed(pending.timeout, timeoutMillis);
+    }
+
+    /**
+     * Completes a command that will not be answered, e.g. because its write was refused.
+     */
+    public void cancel(Pending pending, int result) {
+        boolean removed;
+        synchronized (this) {
+            ArrayDeque<Pending> queue = outstanding.get(pending.commandId & 0xFF);
+            removed = queue != null && queue.remove(pending);
+            if (removed && result == RESULT_TIMEOUT) {
+                unanswered++;
+            }
+        }
+        if (removed) {
+            scheduler.removeCallbacks(pending.timeout);
+        }
+        pending.complete(result, -1);
+    }
+
+    /**
+     * Completes the oldest command waiting for this response.
+     *
+     * @param message a command response without its header: command ID, result, data.
+     * @return false if no command was waiting for it
+     */
+    public boolean onResponse(byte[] message, int length) {
+        if (length < 2) {
+            return false;
+        }
+        int id = message[0] & 0xFF;
+        Pending pending;
+        long nanos;
+        synchronized (this) {
+            ArrayDeque<Pending> queue = outstanding.get(id);
+            pending = (queue == null) ? null : queue.poll();
+            if (pending == null) {
+                return false;
+            }
+            nanos = scheduler.nanoTime() - pending.sentAt;
+            LatencyStats stats = latency.get(id);
+            if (stats == null) {
+                stats = new LatencyStats();
+                latency.put(id, stats);
+            }
+            stats.record(nanos);
+        }
+        scheduler.removeCallbacks(pending.timeout);
+        pending.complete(message[1] & 0xFF, nanos);
+        return true;
+    }
+
+    /**
+     * Completes every outstanding command, e.g. once the camera is gone for good.
+     */
+    public void cancelAll(int result) {
+        ArrayDeque<Pending> all = new ArrayDeque<>();
+        synchronized (this) {
+            for (ArrayDeque<Pending> queue : outstanding.values()) {
+                all.addAll(queue);
+                queue.clear();
+            }
+        }
+        for (Pending pending : all) {
+            scheduler.removeCallbacks(pending.timeout);
+            pending.complete(result, -1);
+        }
+    }
+
+    public synchronized int getOutstanding() {
+        int count = 0;
+        for (ArrayDeque<Pending> queue : outstanding.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return acknowledgement times of the commands answered so far.
+     */
+    public synchronized LatencyStats getLatency(byte commandId) {
+        return latency.get(commandId & 0xFF);
+    }
+
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder("Command acknowledgements:\n");
+        for (Map.Entry<Integer, LatencyStats> entry : latency.entrySet()) {
+            LatencyStats stats = entry.getValue();
+            report.append(String.format(Locale.ENGLISH, "0x%02X: ", entry.getKey())).append(stats).append('\n');
+        }
+        report.append("Unanswered: ").append(unanswered).append('\n');
+        return report.toString();
+    }
+}
@@ -0,0 +1,334 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timestamps of the steps from tapping a camera to a usable shutter button, for one
+ * connection attempt. Phases are marked by {@link CameraSession} and the control screen,
+ * only the first mark of each counts. A timeline that reaches {@link Phase#CONTROL_SHOWN}
+ * is added to the {@link Stats} kept across sessions.
+ */
+public class ConnectTimeline {
+
+    public enum Phase {
+        // Camera picked in the scan list
+        TAP,
+        // Link lost while in use, starts a recovery instead of a connect
+        DROPPED,
+        // Connection request handed to the stack
+        CONNECT,
+        // Link up
+        LINK,
+        MTU,
+        DISCOVERED,
+        // Notifications on for every response characteristic
+        SUBSCRIBED,
+        FIRST_STATUS,
+        // Shutter button visible
+        CONTROL_SHOWN
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] marks = new long[PHASES.length];
+    private final boolean[] reached = new boolean[PHASES.length];
+    private long startedAt;
+    private Phase first;
+    private boolean active;
+
+    /**
+     * Drops whatever was marked so far and starts a new attempt at the given phase.
+     */
+    public synchronized void begin(Phase first, long nanos) {
+        Arrays.fill(reached, false);
+        startedAt = nanos;
+        this.first = first;
+        active = true;
+        marks[first.ordinal()] = nanos;
+        reached[first.ordinal()] = true;
+    }
+
+    /**
+     * @return true if this is the first time the phase was reached in the current attempt.
+     */
+    public synchronized boolean mark(Phase phase, long nanos) {
+        if (!active || reached[phase.ordinal()]) {
+            return false;
+        }
+        marks[phase.ordinal()] = nanos;
+        reached[phase.ordinal()] = true;
+        if (phase == Phase.CONTROL_SHOWN) {
+            active = false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives up on the current attempt, nothing more is marked until the next begin.
+     */
+    public synchronized void abandon() {
+        active = false;
+    }
+
+    /**
+     * @return the phase the current attempt began with, or null before the first one.
+     */
+    public synchronized Phase getFirstPhase() {
+        return first;
+    }
+
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    public synchronized boolean isComplete() {
+        return reached[Phase.CONTROL_SHOWN.ordinal()];
+    }
+
+    /**
+     * @return nanoseconds from the start of the attempt to the phase, or -1 if not reached.
+     */
+    public synchronized long getElapsedNanos(Phase phase) {
+        return reached[phase.ordinal()] ? marks[phase.ordinal()] - startedAt : -1;
+    }
+
+    /**
+     * @return nanoseconds from the event before it in time to the phase, or -1 if not reached.
+     * A cached reconnect exchanges the MTU late, so the phase order is not always the time order.
+     */
+    public synchronized long getStepNanos(Phase phase) {
+        if (!reached[phase.ordinal()]) {
+            return -1;
+        }
+        long at = marks[phase.ordinal()];
+        long previous = startedAt;
+        for (int i = 0; i < PHASES.length; i++) {
+            // Phases reached in the same instant count in phase order
+            boolean before = marks[i] < at || (marks[i] == at && i < phase.ordinal());
+            if (reached[i] && before && marks[i] > previous) {
+                previous = marks[i];
+            }
+        }
+        return at - previous;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : PHASES) {
+            if (reached[phase.ordinal()]) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(String.format(Locale.ENGLISH, "%s %.1f ms", phase.name().toLowerCase(Locale.ENGLISH),
+                        (marks[phase.ordinal()] - startedAt) / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Time to each phase over the most recent completed attempts, persisted through a
+     * {@link Storage} so the figures build up over many rides.
+     */
+    public static class Stats {
+        private static final String VERSION = "1";
+        static final int SAMPLES = 128;
+
+        public interface Storage {
+            String load();
+
+            void save(String value);
+        }
+
+        // Microseconds since the start of the attempt and since the previous event, per phase
+        private final int[][] elapsed = new int[PHASES.length][SAMPLES];
+        private final int[][] steps = new int[PHASES.length][SAMPLES];
+        private final long[] counts = new long[PHASES.length];
+        private long attempts;
+        private Storage storage;
+        private boolean loaded;
+
+        public synchronized void setStorage(Storage storage) {
+            this.storage = storage;
+            loaded = false;
+        }
+
+        public synchronized void record(ConnectTimeline timeline) {
+            load();
+            for (Phase phase : PHASES) {
+                long nanos = timeline.getElapsedNanos(phase);
+                if (nanos < 0) {
+                    continue;
+                }
+                int slot = (int) (counts[phase.ordinal()] % SAMPLES);
+                elapsed[phase.ordinal()][slot] = toMicros(nanos);
+                steps[phase.ordinal()][slot] = toMicros(timeline.getStepNanos(phase));
+                counts[phase.ordinal()]++;
+            }
+            attempts++;
+            if (storage != null) {
+                storage.save(encode());
+            }
+        }
+
+        public synchronized void reset() {
+            for (int i = 0; i < PHASES.length; i++) {
+                counts[i] = 0;
+            }
+            attempts = 0;
+            loaded = true;
+            if (storage != null) {
+                storage.save(encode());
+            }
+        }
+
+        public synchronized long getAttempts() {
+            load();
+            return attempts;
+        }
+
+        public synchronized long getCount(Phase phase) {
+            load();
+            return counts[phase.ordinal()];
+        }
+
+        /**
+         * @param percentile 0 to 100, over the last {@value #SAMPLES} attempts that reached the phase.
+         */
+        public synchronized double getPercentileMillis(Phase phase, double percentile) {
+            load();
+            return percentile(elapsed[phase.ordinal()], counts[phase.ordinal()], percentile);
+        }
+
+        public synchronized double getStepPercentileMillis(Phase phase, double percentile) {
+            load();
+            return percentile(steps[phase.ordinal()], counts[phase.ordinal()], percentile);
+        }
+
+        private static double percentile(int[] samples, long count, double percentile) {
+            int n = (int) Math.min(count, SAMPLES);
+            if (n == 0) {
+                return 0;
+            }
+            int[] sorted = Arrays.copyOf(samples, n);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+            return sorted[Math.max(0, Math.min(n - 1, index))] / 1e3;
+        }
+
+        private static int toMicros(long nanos) {
+            return (int) Math.min(Integer.MAX_VALUE, nanos / 1000);
+        }
+
+        /**
+         * @return one line per phase with time since the tap and time spent in the step.
+         */
+        public synchronized String getReport() {
+            load();
+            StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH,
+                    "%d attempts\n%-13s %5s %8s %8s %8s %8s\n",
+                    attempts, "phase", "n", "p50", "p90", "p99", "step50"));
+            for (Phase phase : PHASES) {
+                long count = counts[phase.ordinal()];
+                if (count == 0) {
+                    continue;
+                }
+                sb.append(String.format(Locale.ENGLISH, "%-13s %5d %8.1f %8.1f %8.1f %8.1f\n",
+                        phase.name().toLowerCase(Locale.ENGLISH), count,
+                        getPercentileMillis(phase, 50), getPercentileMillis(phase, 90),
+                        getPercentileMillis(phase, 99), getStepPercentileMillis(phase, 50)));
+            }
+            return sb.toString();
+        }
+
+        private void load() {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            if (storage != null) {
+                decode(storage.load());
+            }
+        }
+
+        String encode() {
+            StringBuilder sb = new StringBuilder(VERSION).append('|').append(attempts);
+            for (Phase phase : PHASES) {
+                int i = phase.ordinal();
+                int n = (int) Math.min(counts[i], SAMPLES);
+                sb.append('|').append(phase.name()).append('=').append(counts[i]);
+                // Oldest first, so the ring restarts in the same order
+                long first = counts[i] - n;
+                for (long k = first; k < counts[i]; k++) {
+                    int slot = (int) (k % SAMPLES);
+                    sb.append(',').append(elapsed[i][slot]).append(':').append(steps[i][slot]);
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Replaces the samples with the encoded ones, ignoring values this version did not write.
+         */
+        void decode(String value) {
+            if (value == null) {
+                return;
+            }
+            String[] parts = value.split("\\|");
+            if (parts.length < 2 || !VERSION.equals(parts[0])) {
+                return;
+            }
+            try {
+                long[] newCounts = new long[PHASES.length];
+                int[][] newElapsed = new int[PHASES.length][SAMPLES];
+                int[][] newSteps = new int[PHASES.length][SAMPLES];
+                long newAttempts = Long.parseLong(parts[1]);
+                for (int p = 2; p < parts.length; p++) {
+                    String[] fields = parts[p].split(",");
+                    int equals = fields[0].indexOf('=');
+                    int i = Phase.valueOf(fields[0].substring(0, equals)).ordinal();
+                    long count = Long.parseLong(fields[0].substring(equals + 1));
+                    int n = fields.length - 1;
+                    if (n > SAMPLES || n > count) {
+                        return;
+                    }
+                    // Put the samples back in the slots they would have been recorded in
+                    for (int k = 0; k < n; k++) {
+                        int colon = fields[k + 1].indexOf(':');
+                        int slot = (int) ((count - n + k) % SAMPLES);
+                        newElapsed[i][slot] = Integer.parseInt(fields[k + 1].substring(0, colon));
+                        newSteps[i][slot] = Integer.parseInt(fields[k + 1].substring(colon + 1));
+                    }
+                    newCounts[i] = count;
+                }
+                System.arraycopy(newCounts, 0, counts, 0, PHASES.length);
+                for (int i = 0; i < PHASES.length; i++) {
+                    System.arraycopy(newElapsed[i], 0, elapsed[i], 0, SAMPLES);
+                    System.arraycopy(newSteps[i], 0, steps[i], 0, SAMPLES);
+                }
+                attempts = newAttempts;
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                // Keep what we have
+            }
+        }
+    }
+}
@@ -33,11 +33,14 @@ import android.net.Uri;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiNetworkSpecifier;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.ViewModelProvider;
 
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -56,6 +59,7 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.UUID;
 
 public class DeviceControlActivity extends AppCompatActivity implements View.OnTouchListener  {
     private final static String TAG = DeviceControlActivity.class.getSimpleName();
@@ -66,8 +70,14 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
     private String mDeviceName;
     private String mDeviceAddress;
     private BluetoothLeService mBluetoothLeService;
+    private boolean mKeepConnected;
+    private boolean mServiceSeen;
 
+    // Working copy: decoded into and changed ahead of the camera, then handed to statusStore
     private CameraStatus cameraStatus;
+    private StatusStore statusStore;
+    private ModeSelector modeSelector;
+    private boolean mControlShown;
 
     private View view;
     private ProgressBar progressBar;
@@ -95,8 +105,26 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
             }
+            if (!mServiceSeen) {
+                // Cameras connected from the scan list stay connected when we leave
+                mKeepConnected = BluetoothLeService.isConnected(mDeviceAddress);
+                mServiceSeen = true;
+            }
             // Automatically connects to the device upon successful start-up initialization.
             mBluetoothLeService.connect(mDeviceAddress, mDeviceName);
+            CameraSession session = BluetoothLeService.getSession(mDeviceAddress);
+            if (session != null && session.isConnected() && session.isStatusSubscribed()) {
+                // Kept connected while we were away, the session followed every push the
+                // camera sent in the meantime. Catch up from its copy instead of asking.
+                CameraStatus status = new CameraStatus();
+                session.getCameraStatus(status);
+                if (status.version > 0) {
+                    cameraStatus = status;
+                    updateUIElements();
+                } else {
+                    mBluetoothLeService.requestCameraStatus();
+                }
+            }
         }
 
         @Override
@@ -109,9 +137,11 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
+        intentFilter.addAction(BluetoothLeService.ACTION_GATT_RECONNECTING);
         intentFilter.addAction(BluetoothLeService.ACTION_NOTFICATION_ENABLED);
-        intentFilter.addAction(BluetoothLeService.ACTION_DATA_AVAILABLE);
         intentFilter.addAction(BluetoothLeService.ACTION_SERVICE_DISCONNECTED);
+        intentFilter.addAction(BluetoothLeService.ACTION_COMMAND_DROPPED);
+        intentFilter.addAction(BluetoothLeService.ACTION_QUEUE_STALLED);
         return intentFilter;
     }
 
@@ -119,106 +149,80 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
     // ACTION_GATT_CONNECTED: connected to a GATT server.
     // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
     // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-    // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
+    // Data from the device comes through mDataListener instead.
     //                        or notification operations.
     private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             final String action = intent.getAction();
+            final String address = intent.getStringExtra(BluetoothLeService.EXTRA_ADDRESS);
+            if (address != null && !address.equals(mDeviceAddress)) {
+                // About another camera
+                return;
+            }
             if (BluetoothLeService.ACTION_GATT_CONNECTED.equals(action)) {
             } else if (BluetoothLeService.ACTION_SERVICE_DISCONNECTED.equals(action)){
                 finish();
             } else if (BluetoothLeService.ACTION_GATT_DISCONNECTED.equals(action)) {
+                // Only sent once the service gave up bringing the camera back
                 finish();
+            } else if (BluetoothLeService.ACTION_GATT_RECONNECTING.equals(action)) {
+                showReconnecting();
             } else if (BluetoothLeService.ACTION_NOTFICATION_ENABLED.equals(action)) {
-                mBluetoothLeService.requestCameraStatus();
-            } else if (BluetoothLeService.ACTION_DATA_AVAILABLE.equals(action)) {
-                Bundle bd = intent.getExtras();
-                if(bd != null){
-                    if(bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE) != null) {
-                        if (bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE).contains(GattAttributes.GOPRO_COMMANDRESPONSE_CHARACTERISTIC)) {
-                            byte[] data = bd.getByteArray(BluetoothLeService.EXTRA_BYTE_VALUE);
-                            String characteristicValue = Utils.ByteArraytoHex(data) + " ";
-                            Log.d(TAG, "UUID: " + bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE) + " DATA: " + characteristicValue);
-                            if(data[2] == 0x00 ){
-                                if (data[1] == 0x17) {
-                                    mBluetoothLeService.requestWiFiSettings();
-                                } else {
-                                    updateUIElements();
-                                }
-                            } else {
-                                mBluetoothLeService.requestCameraStatus();
-                            }
-                        } else if (bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE).contains(GattAttributes.GOPRO_QUERYRESPONSE_CHARACTERISTIC)) {
-                            byte[] data = bd.getByteArray(BluetoothLeService.EXTRA_BYTE_VALUE);
-                            String characteristicValue = Utils.ByteArraytoHex(data) + " ";
-                            Log.d(TAG, "UUID: " + bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE) + " DATA: " + characteristicValue);
-                            if (data.length == (data[0] + 1)) {
-                                if (data.length > 17) {
-                                    cameraStatus = new CameraStatus();
-                                    cameraStatus.busy = (data[5] == 0x01);
-                                    if (data[12] == 0x60) {
-                                        cameraStatus.openGoPro = true;
-                                        cameraStatus.mode = data[17];
-                                    } else if (data[12] == 0x2C) {
-                                        cameraStatus.openGoPro = false;
-                                        switch (data[11]){
-                                            case (byte)0x00:
-                                                //Video
-                                                cameraStatus.mode = (byte)0xE8;
-                                                if(data[14] == 0x01){
-                                                    cameraStatus.mode = (byte)0xEA;
-                                                }
-                                                break;
-                                            case (byte)0x01:
-                                                //Photo
-                                                cameraStatus.mode = (byte)0xE9;
-                                                break;
-                                            case (byte)0x02:
-                                                //Multishot
-                                                cameraStatus.mode = (byte)0xEA;
-                                                break;
-                                        }
-                                    }
-                                    cameraStatus.previewAvailable = (data[11] == 0x01);
-                                    cameraStatus.wifiEnabled = (data[8] == 0x01);
-                                }
-                                updateUIElements();
-                            } else {
-                                mBluetoothLeService.requestCameraStatus();
-                            }
-                        } else if (bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE).contains(GattAttributes.GOPRO_WIFI_SSID_CHARACTERISTIC)) {
-                            byte[] data = bd.getByteArray(BluetoothLeService.EXTRA_BYTE_VALUE);
-                            String characteristicValue = Utils.ByteArraytoHex(data) + " ";
-                            Log.d(TAG, "UUID: " + bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE) + " DATA: " + characteristicValue);
-                            SSID = new String(data);
-                            Log.d(TAG,"WIFI SSID: " + SSID);
-                            if ((SSID != null) && (password != null)){
-                                connectToWifi(SSID,password);
-                            }
-                        } else if (bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE).contains(GattAttributes.GOPRO_WIFI_PASSWORD_CHARACTERISTIC)) {
-                            byte[] data = bd.getByteArray(BluetoothLeService.EXTRA_BYTE_VALUE);
-                            String characteristicValue = Utils.ByteArraytoHex(data) + " ";
-                            Log.d(TAG, "UUID: " + bd.getString(BluetoothLeService.EXTRA_BYTE_UUID_VALUE) + " DATA: " + characteristicValue);
-                            password = new String(data);
-                            Log.d(TAG,"WIFI Password: " + password);
-                            if ((SSID != null) && (password != null)){
-                                connectToWifi(SSID,password);
-                            }
-                        }
-                    }
+                // Once subscribed the camera pushes every change, the service registers by itself
+                if (!BluetoothLeService.isStatusSubscribed()) {
+                    requestCameraStatus();
                 }
-
+            } else if (BluetoothLeService.ACTION_COMMAND_DROPPED.equals(action)
+                    || BluetoothLeService.ACTION_QUEUE_STALLED.equals(action)) {
+                // A command never reached the camera, our local state may be wrong
+                Log.e(TAG, action + ": " + intent.getStringExtra(BluetoothLeService.EXTRA_REPORT));
+                requestCameraStatus();
             }
         }
     };
 
+    // Values from the camera, delivered on the main thread by the service's event bus
+    private final EventBus.Listener mDataListener = new EventBus.Listener() {
+        @Override
+        public void onEvent(UUID uuid, byte[] data, int length) {
+            ProtocolLog.received(TAG, uuid, data, length);
+            if (UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC.equals(uuid)) {
+                // Shutter and mode results are handled by the command's own callback
+                if (length > 1 && data[0] == 0x17 && data[1] == 0x00 && mBluetoothLeService != null) {
+                    mBluetoothLeService.requestWiFiSettings();
+                }
+            } else if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+                // The service hands over complete messages without their headers
+                CameraStatus status = (cameraStatus != null) ? cameraStatus : new CameraStatus();
+                if (StatusDecoder.decode(data, 0, length, status)) {
+                    cameraStatus = status;
+                    updateUIElements();
+                } else {
+                    requestCameraStatus();
+                }
+            } else if (UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC.equals(uuid)) {
+                SSID = new String(data, 0, length);
+                Log.d(TAG,"WIFI SSID: " + SSID);
+                if ((SSID != null) && (password != null)){
+                    connectToWifi(SSID,password);
+                }
+            } else if (UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC.equals(uuid)) {
+                password = new String(data, 0, length);
+                Log.d(TAG,"WIFI Password: " + password);
+                if ((SSID != null) && (password != null)){
+                    connectToWifi(SSID,password);
+                }
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Log.d(TAG,"onCreate()");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.device_control_activity);
+        SoundManager.preload(this);
 
         final Intent intent = getIntent();
         mDeviceAddress = intent.getStringExtra(EXTRAS_DEVICE_ADDRESS);
@@ -241,6 +245,18 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         shutterButton.setOnClickListener(mClickListener);
         shutterButton.setVisibility(View.INVISIBLE);
 
+        // Still holds the last drawn state if we were recreated, e.g. after a theme change
+        statusStore = new ViewModelProvider(this).get(StatusStore.class);
+        CameraStatus stored = new CameraStatus();
+        if (statusStore.get(stored)) {
+            cameraStatus = stored;
+        }
+        modeSelector = new ModeSelector(new HandlerScheduler(new Handler(Looper.getMainLooper())), mModeListener);
+        statusStore.observe(mStatusObserver);
+        if (cameraStatus != null) {
+            showControl();
+        }
+
         gestureDetector = new GestureDetectorListener(this) {
 
             @Override
@@ -269,14 +285,16 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         shutterButton.setBackgroundColor(highlightColor);
 
         wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+    }
 
+    @Override
+    protected void onStart() {
+        Log.d(TAG,"onStart()");
+        super.onStart();
+        // Bound only while visible. The link itself stays up while we are away, e.g. in the
+        // WunderLINQ app, unless this screen is closed for good.
         Intent gattServiceIntent = new Intent(this, BluetoothLeService.class);
         bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
-
-        if (mBluetoothLeService != null) {
-            mBluetoothLeService.connect(mDeviceAddress, mDeviceName);
-        }
-
     }
 
     @Override
@@ -284,6 +302,9 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         Log.d(TAG,"onResume()");
         super.onResume();
         ContextCompat.registerReceiver(this, mGattUpdateReceiver, makeGattUpdateIntentFilter(), ContextCompat.RECEIVER_EXPORTED);
+        BluetoothLeService.subscribe(mDeviceAddress, mDataListener, UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC,
+                UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC,
+                UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC);
         //registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
         //updateUIElements();
     }
@@ -292,24 +313,39 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
     protected void onPause() {
         Log.d(TAG,"onPause()");
         super.onPause();
+        // Whatever the rider settled on is sent before we go
+        modeSelector.flush();
         unregisterReceiver(mGattUpdateReceiver);
+        BluetoothLeService.unsubscribe(mDeviceAddress, mDataListener);
     }
 
     @Override
-    protected void onDestroy() {
-        Log.d(TAG,"onDestroy()");
-        super.onDestroy();
-        if (mBluetoothLeService != null) {
-            mBluetoothLeService.disconnect();
+    protected void onStop() {
+        Log.d(TAG,"onStop()");
+        super.onStop();
+        if (mBluetoothLeService != null && isFinishing() && !mKeepConnected
+                && !mBluetoothLeService.isKeepConnectedEnabled()) {
+            mBluetoothLeService.disconnect(mDeviceAddress);
         }
         unbindService(mServiceConnection);
         mBluetoothLeService = null;
     }
 
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG,"onDestroy()");
+        super.onDestroy();
+        statusStore.removeObserver(mStatusObserver);
+    }
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        updateUIElements();
+        // Resources may differ now, draw everything again from what we already know
+        CameraStatus status = new CameraStatus();
+        if (statusStore.get(status)) {
+            drawStatus(status, StatusStore.FIELDS_ALL);
+        }
     }
 
     @Override
@@ -345,7 +381,7 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
                 rightKey();
                 return true;
             case KeyEvent.KEYCODE_ESCAPE:
-                SoundManager.playSound(this, R.raw.enter);
+                SoundManager.playSound(this, R.raw.enter, event.getEventTime());
                 String wunderLINQApp = "wunderlinq://datagrid";
                 Intent intent = new
                         Intent(android.content.Intent.ACTION_VIEW);
@@ -372,48 +408,96 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         }
     };
 
+    private void showReconnecting() {
+        mControlShown = false;
+        getSupportActionBar().setSubtitle(R.string.reconnecting);
+        modeImageView.setVisibility(View.INVISIBLE);
+        shutterButton.setVisibility(View.INVISIBLE);
+        progressBar.setVisibility(View.VISIBLE);
+    }
+
+    private final StatusStore.Observer mStatusObserver = new StatusStore.Observer() {
+        @Override
+        public void onStatusChanged(CameraStatus status, int changed) {
+            drawStatus(status, changed);
+        }
+    };
+
+    /**
+     * Hands the working copy to the store, which redraws the fields that changed.
+     */
     private void updateUIElements(){
         if (cameraStatus != null) {
-            switch (cameraStatus.mode) {
+            statusStore.update(cameraStatus);
+            showControl();
+        } else {
+            modeImageView.setImageResource(0);
+            modeImageView.setVisibility(View.INVISIBLE);
+            shutterButton.setVisibility(View.INVISIBLE);
+            requestCameraStatus();
+        }
+    }
+
+    private void drawStatus(CameraStatus status, int changed) {
+        byte mode = modeSelector.getMode(status.mode);
+        if ((changed & StatusStore.FIELD_MODE) != 0) {
+            switch (mode) {
                 case (byte)0xE8:
                     //Video
                     modeImageView.setImageResource(R.drawable.ic_video_camera);
-                    if (cameraStatus.busy){
+                    break;
+                case (byte)0xE9:
+                    //Photo
+                    modeImageView.setImageResource(R.drawable.ic_camera);
+                    break;
+                case (byte)0xEA:
+                    //Timelapse
+                    modeImageView.setImageResource(R.drawable.timelapse);
+                    break;
+                default:
+                    modeImageView.setImageResource(0);
+                    Log.e(TAG,"Unknown mode: " + mode);
+                    break;
+            }
+        }
+        if ((changed & (StatusStore.FIELD_MODE | StatusStore.FIELD_BUSY)) != 0) {
+            switch (mode) {
+                case (byte)0xE8:
+                    if (status.busy){
                         shutterButton.setText(R.string.task_title_stop_record);
                     } else {
                         shutterButton.setText(R.string.task_title_start_record);
                     }
                     break;
                 case (byte)0xE9:
-                    //Photo
-                    modeImageView.setImageResource(R.drawable.ic_camera);
                     shutterButton.setText(R.string.task_title_photo);
                     break;
                 case (byte)0xEA:
-                    //Timelapse
-                    modeImageView.setImageResource(R.drawable.timelapse);
-                    if (cameraStatus.busy){
+                    if (status.busy){
                         shutterButton.setText(R.string.task_title_stop_timelapse);
                     } else {
                         shutterButton.setText(R.string.task_title_start_timelapse);
                     }
                     break;
-                default:
-                    modeImageView.setImageResource(0);
-                    Log.e(TAG,"Unknown mode: " + cameraStatus.mode);
-                    break;
             }
-            progressBar.setVisibility(View.INVISIBLE);
-            modeImageView.setVisibility(View.VISIBLE);
-            shutterButton.setVisibility(View.VISIBLE);
-        } else {
-            modeImageView.setImageResource(0);
-            modeImageView.setVisibility(View.INVISIBLE);
-            shutterButton.setVisibility(View.INVISIBLE);
-            mBluetoothLeService.requestCameraStatus();
         }
     }
 
+    /**
+     * Swaps the progress bar for the controls, once per time they were hidden.
+     */
+    private void showControl() {
+        if (mControlShown) {
+            return;
+        }
+        mControlShown = true;
+        getSupportActionBar().setSubtitle(null);
+        progressBar.setVisibility(View.INVISIBLE);
+        modeImageView.setVisibility(View.VISIBLE);
+        shutterButton.setVisibility(View.VISIBLE);
+        BluetoothLeService.onControlShown(mDeviceAddress);
+    }
+
     private void leftKey(){
         SoundManager.playSound(this, R.raw.directional);
         finish();
@@ -428,7 +512,17 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
 
     private void toggleShutter(){
         SoundManager.playSound(this, R.raw.enter);
+        TraceLog.text(TraceLog.CATEGORY_UI, TraceLog.EVENT_INPUT, "Shutter");
+        if (mBluetoothLeService == null) {
+            // Back on screen, but not bound again yet
+            Log.d(TAG, "Service not bound, ignoring shutter");
+            return;
+        }
+        // Switch to the selected mode first
+        modeSelector.flush();
         if (cameraStatus != null){
+            CameraStatus before = new CameraStatus();
+            before.copyFrom(cameraStatus);
             byte[] command;
             if (cameraStatus.busy){
                 command = new byte[]{0x01, 0x01, 0x00};
@@ -437,74 +531,134 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
                 command = new byte[]{0x01, 0x01, 0x01};
                 cameraStatus.busy = true;
             }
-            mBluetoothLeService.setCommand(command);
+            // Starts and stops every connected camera together
+            sendOptimistic(command, before, true);
         } else {
-            mBluetoothLeService.requestCameraStatus();
+            requestCameraStatus();
         }
     }
 
     private void nextMode() {
         //Next Camera Mode
-        if (cameraStatus != null){
-            if (cameraStatus.mode == (byte)0xEA) {
-                cameraStatus.mode = (byte)0xE8;
-            } else {
-                cameraStatus.mode = (byte)(cameraStatus.mode + 0x01);
-            }
-            byte cmode = 0x00;
-            switch (cameraStatus.mode){
-                case (byte)0xE8:
-                    cmode = 0x00;
-                    break;
-                case (byte)0xE9:
-                    cmode = 0x01;
-                    break;
-                case (byte)0xEA:
-                    cmode = 0x02;
-                    break;
-            }
-            byte[] command = new byte[]{0x02,0x01,cmode};
-            mBluetoothLeService.setCommand(command);
+        TraceLog.text(TraceLog.CATEGORY_UI, TraceLog.EVENT_INPUT, "Next mode");
+        if (mBluetoothLeService == null) {
+            Log.d(TAG, "Service not bound, ignoring mode change");
+        } else if (cameraStatus != null){
+            modeSelector.step(cameraStatus.mode, 1);
         } else {
-            mBluetoothLeService.requestCameraStatus();
+            requestCameraStatus();
         }
     }
 
     private void previousMode() {
         //Previous Camera Mode
-        if (cameraStatus != null){
-            if (cameraStatus.mode == (byte)0xE8) {
-                cameraStatus.mode = (byte)0xEA;
-            } else {
-                cameraStatus.mode = (byte)(cameraStatus.mode - 0x01);
+        TraceLog.text(TraceLog.CATEGORY_UI, TraceLog.EVENT_INPUT, "Previous mode");
+        if (mBluetoothLeService == null) {
+            Log.d(TAG, "Service not bound, ignoring mode change");
+        } else if (cameraStatus != null){
+            modeSelector.step(cameraStatus.mode, -1);
+        } else {
+            requestCameraStatus();
+        }
+    }
+
+    // Several presses in a row become one mode change on the camera
+    private final ModeSelector.Listener mModeListener = new ModeSelector.Listener() {
+        @Override
+        public void onPreview(byte mode) {
+            // The selection is drawn from the selector, the status keeps the camera's mode
+            CameraStatus status = new CameraStatus();
+            if (statusStore.get(status)) {
+                drawStatus(status, StatusStore.FIELD_MODE);
             }
-            byte cmode = 0x00;
-            switch (cameraStatus.mode){
-                case (byte)0xE8:
-                    cmode = 0x00;
-                    break;
-                case (byte)0xE9:
-                    cmode = 0x01;
-                    break;
-                case (byte)0xEA:
-                    cmode = 0x02;
-                    break;
+        }
+
+        @Override
+        public void onCommit(byte from, byte to) {
+            if (cameraStatus == null || mBluetoothLeService == null) {
+                // Not sent, put the camera's mode back on screen
+                onPreview(from);
+                return;
             }
-            byte[] command = new byte[]{0x02,0x01,cmode};
-            mBluetoothLeService.setCommand(command);
-        } else {
+            CameraStatus before = new CameraStatus();
+            before.copyFrom(cameraStatus);
+            before.mode = from;
+            cameraStatus.mode = to;
+            byte[] command = new byte[]{0x02, 0x01, (byte) (to - CameraStatus.MODE_VIDEO)};
+            sendOptimistic(command, before, false);
+        }
+    };
+
+    /**
+     * Shows the state the command leads to right away, then sends it. If the camera rejects
+     * it or does not answer, the fields it changed are put back unless a status update
+     * already replaced them.
+     */
+    private void sendOptimistic(byte[] command, final CameraStatus before, boolean group) {
+        if (mBluetoothLeService == null) {
+            // Nothing went out, take the optimistic change back
+            cameraStatus.busy = before.busy;
+            cameraStatus.mode = before.mode;
+            updateUIElements();
+            return;
+        }
+        final CameraStatus expected = new CameraStatus();
+        expected.copyFrom(cameraStatus);
+        updateUIElements();
+        CommandTracker.Pending pending = group ? mBluetoothLeService.setGroupCommand(command)
+                : mBluetoothLeService.setCommand(command);
+        pending.setCallback(new CommandTracker.Callback() {
+            @Override
+            public void onComplete(final CommandTracker.Pending result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCommandComplete(result, before, expected);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onCommandComplete(CommandTracker.Pending result, CameraStatus before, CameraStatus expected) {
+        if (result.isSuccess()) {
+            Log.d(TAG, "Command acknowledged: " + result);
+            if (result.getCommandId() == BluetoothLeService.CMD_SHUTTER) {
+                SoundManager.playConfirm(expected.busy);
+            }
+            return;
+        }
+        Log.e(TAG, "Command failed: " + result);
+        if (cameraStatus != null) {
+            if (before.busy != expected.busy && cameraStatus.busy == expected.busy) {
+                cameraStatus.busy = before.busy;
+            }
+            if (before.mode != expected.mode && cameraStatus.mode == expected.mode) {
+                cameraStatus.mode = before.mode;
+            }
+            updateUIElements();
+        }
+        requestCameraStatus();
+    }
+
+    private void requestCameraStatus() {
+        // Null between onStop and the next onServiceConnected
+        if (mBluetoothLeService != null) {
             mBluetoothLeService.requestCameraStatus();
         }
     }
 
     private void enableWifi() {
-        if (cameraStatus != null){
+        TraceLog.text(TraceLog.CATEGORY_UI, TraceLog.EVENT_INPUT, "Preview");
+        if (mBluetoothLeService == null) {
+            Log.d(TAG, "Service not bound, ignoring preview");
+        } else if (cameraStatus != null){
             if (!cameraStatus.busy) {
                 byte[] command = new byte[]{0x17, 0x01, 0x01};
                 mBluetoothLeService.setCommand(command);
             }
         } else {
-            mBluetoothLeService.requestCameraStatus();
+            requestCameraStatus();
         }
     }
 
@@ -521,6 +675,10 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
      */
     private void connectToWifi(String ssid, String password) {
         Log.d(TAG,"connectToWifi()");
+        if (TraceLog.isOpen()) {
+            TraceLog.text(TraceLog.CATEGORY_WIFI, TraceLog.EVENT_NETWORK, "Connecting to " + ssid);
+        }
+        mControlShown = false;
         progressBar.setVisibility(View.VISIBLE);
         modeImageView.setVisibility(View.INVISIBLE);
         shutterButton.setVisibility(View.INVISIBLE);
@@ -559,6 +717,7 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         public void onAvailable(Network network) {
             super.onAvailable(network);
             Log.e(TAG,"onAvailable");
+            TraceLog.text(TraceLog.CATEGORY_WIFI, TraceLog.EVENT_NETWORK, "Available");
             connectivityManager.bindProcessToNetwork(network);
             enablePreview();
         }
@@ -567,12 +726,14 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         public void onLosing(@NonNull Network network, int maxMsToLive) {
             super.onLosing(network, maxMsToLive);
             Log.e(TAG,"onLosing");
+            TraceLog.text(TraceLog.CATEGORY_WIFI, TraceLog.EVENT_NETWORK, "Losing");
         }
 
         @Override
         public void onLost(Network network) {
             super.onLost(network);
             Log.e(TAG, "losing active connection");
+            TraceLog.text(TraceLog.CATEGORY_WIFI, TraceLog.EVENT_NETWORK, "Lost");
             connectivityManager.bindProcessToNetwork(null);
             connectivityManager.unregisterNetworkCallback(networkCallback);
         }
@@ -581,6 +742,7 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
         public void onUnavailable() {
             super.onUnavailable();
             Log.e(TAG,"onUnavailable");
+            TraceLog.text(TraceLog.CATEGORY_WIFI, TraceLog.EVENT_NETWORK, "Unavailable");
         }
     };
 
@@ -624,6 +786,7 @@ public class DeviceControlActivity extends AppCompatActivity implements View.OnT
             @Override
             public void run() {
                 // Stuff that updates the UI
+                mControlShown = true;
                 progressBar.setVisibility(View.INVISIBLE);
                 modeImageView.setVisibility(View.VISIBLE);
                 shutterButton.setVisibility(View.VISIBLE);
@@ -0,0 +1,54 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayList;
+
+/**
+ * Scan results in the order they were found, one per address. Every advertisement of a
+ * listed camera comes through {@link #add}, so this is the scan screen's dedupe.
+ */
+public class DeviceList<T> {
+    private final ArrayList<String> addresses = new ArrayList<>();
+    private final ArrayList<T> devices = new ArrayList<>();
+
+    /**
+     * @return false if a device with this address is listed already.
+     */
+    public boolean add(String address, T device) {
+        if (addresses.contains(address)) {
+            return false;
+        }
+        addresses.add(address);
+        devices.add(device);
+        return true;
+    }
+
+    public T get(int position) {
+        return devices.get(position);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public void clear() {
+        addresses.clear();
+        devices.clear();
+    }
+}
@@ -27,9 +27,13 @@ import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
@@ -37,10 +41,12 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.Handler;
+import android.os.IBinder;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.core.location.LocationManagerCompat;
 
 import android.os.ParcelUuid;
@@ -75,6 +81,8 @@ public class DeviceScanActivity extends AppCompatActivity {
     private Handler mHandler;
 
     private static final long SCAN_PERIOD = 20000;
+    // GATT traffic recorded while debug logging is on, opens in Wireshark
+    static final String CAPTURE_FILE_NAME = "wunderlinq-gopro.btsnoop";
 
     private static final int REQUEST_ENABLE_BT = 1;
     private static final int PERMISSION_REQUEST_BLUETOOTH_CONNECT = 100;
@@ -90,6 +98,43 @@ public class DeviceScanActivity extends AppCompatActivity {
     private CountDownTimer cTimer = null;
     private boolean timerRunning = false;
 
+    // Used to keep several cameras connected in the background
+    private BluetoothLeService mBluetoothLeService;
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            mBluetoothLeService = ((BluetoothLeService.LocalBinder) service).getService();
+            if (!mBluetoothLeService.initialize()) {
+                Log.e(TAG, "Unable to initialize Bluetooth");
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            mBluetoothLeService = null;
+        }
+    };
+
+    // Refreshes the connected marks in the list
+    private final BroadcastReceiver mConnectionReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mLeDeviceListAdapter != null) {
+                mLeDeviceListAdapter.notifyDataSetChanged();
+            }
+        }
+    };
+
+    private static IntentFilter makeConnectionIntentFilter() {
+        final IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
+        intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
+        intentFilter.addAction(BluetoothLeService.ACTION_GATT_RECONNECTING);
+        intentFilter.addAction(BluetoothLeService.ACTION_SERVICE_DISCONNECTED);
+        return intentFilter;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -99,46 +144,25 @@ public class DeviceScanActivity extends AppCompatActivity {
 
         // Enable Debug Logging
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        ProtocolLog.setEnabled(sharedPrefs.getBoolean("prefDebugLogging", false));
         if (sharedPrefs.getBoolean("prefDebugLogging", false)) {
-            File outputFile = new File(getApplicationContext().getExternalFilesDir(null), "wunderlinq-gopro.log");
-            // Check if the file size is larger than 20MB (20 * 1024 * 1024 bytes).
-            if (outputFile.exists() && outputFile.length() > 20 * 1024 * 1024) {
-                // Delete the file.
-                if (outputFile.delete()) {
-                    Log.d(TAG, "File deleted successfully.");
-                } else {
-                    Log.e(TAG, "Failed to delete file.");
-                }
-            } else {
-                Log.d(TAG, "File not over 20Mb");
+            File traceFile = new File(getApplicationContext().getExternalFilesDir(null), TraceLog.FILE_NAME);
+            try {
+                TraceLog.open(traceFile);
+                Log.d(TAG, "Tracing to: " + traceFile.getAbsolutePath());
+                TraceLog.text(TraceLog.CATEGORY_APP, TraceLog.EVENT_MESSAGE, "App Version: " + BuildConfig.VERSION_NAME);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open trace: " + e.toString());
+            }
+            try {
+                BluetoothLeService.startCapture(new File(getApplicationContext().getExternalFilesDir(null), CAPTURE_FILE_NAME));
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to start capture: " + e.toString());
             }
-
-
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Log.d(TAG, "Starting Log File: " + outputFile.getAbsolutePath());
-                        Process process = Runtime.getRuntime().exec("logcat -f " + outputFile.getAbsolutePath());
-
-                        // Wait for the process to complete.
-                        int exitCode = process.waitFor();
-
-                        // Do some more work after the process completes.
-                        if (exitCode != 0) {
-                            // Handle error.
-                            Log.d(TAG, "ERROR exitCode: " + exitCode);
-                        } else {
-                            Log.d(TAG, "NO ERROR exitCode: " + exitCode);
-                        }
-                    } catch (IOException | InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }).start();
         }
 
         setContentView(R.layout.device_scan_activity);
+        SoundManager.preload(this);
         listView = findViewById(R.id.listview);
         listView.setClickable(true);
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
@@ -149,6 +173,7 @@ public class DeviceScanActivity extends AppCompatActivity {
                         (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED)) {
                     final BluetoothDevice device = mLeDeviceListAdapter.getDevice(position);
                     if (device == null) return;
+                    BluetoothLeService.beginTimeline(device.getAddress(), System.nanoTime());
                     final Intent intent = new Intent(DeviceScanActivity.this, DeviceControlActivity.class);
                     intent.putExtra(DeviceControlActivity.EXTRAS_DEVICE_NAME, device.getName());
                     intent.putExtra(DeviceControlActivity.EXTRAS_DEVICE_ADDRESS, device.getAddress());
@@ -161,6 +186,14 @@ public class DeviceScanActivity extends AppCompatActivity {
             }
         });
 
+        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                toggleConnection(position);
+                return true;
+            }
+        });
+
         highlightColor = androidx.preference.PreferenceManager.getDefaultSharedPreferences(this).getInt("prefHighlightColor", getResources().getColor(R.color.colorAccent));
 
         getSupportActionBar().setTitle(R.string.cameralist_title);
@@ -187,9 +220,18 @@ public class DeviceScanActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Bound only while visible, so the service can tell when nobody looks at the cameras
+        Intent gattServiceIntent = new Intent(this, BluetoothLeService.class);
+        bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        ContextCompat.registerReceiver(this, mConnectionReceiver, makeConnectionIntentFilter(), ContextCompat.RECEIVER_EXPORTED);
 
         checkSystem();
 
@@ -226,6 +268,7 @@ public class DeviceScanActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        unregisterReceiver(mConnectionReceiver);
         if (mLeDeviceListAdapter != null) {
             scanLeDevice(false);
             mLeDeviceListAdapter.clear();
@@ -235,6 +278,35 @@ public class DeviceScanActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        unbindService(mServiceConnection);
+        mBluetoothLeService = null;
+    }
+
+    /**
+     * Connects the camera in the background, or disconnects it if it already is, so that
+     * several cameras can be controlled together.
+     */
+    private void toggleConnection(int position) {
+        if (mBluetoothLeService == null || mLeDeviceListAdapter == null || position < 0 || position >= mLeDeviceListAdapter.getCount()) {
+            return;
+        }
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.S ||
+                (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED)) {
+            SoundManager.playSound(this, R.raw.enter);
+            BluetoothDevice device = mLeDeviceListAdapter.getDevice(position);
+            CameraSession session = BluetoothLeService.getSession(device.getAddress());
+            if (session != null && session.getConnectionState() != BluetoothLeService.STATE_DISCONNECTED) {
+                mBluetoothLeService.disconnect(device.getAddress());
+            } else {
+                mBluetoothLeService.connectCamera(device.getAddress(), device.getName());
+            }
+            mLeDeviceListAdapter.notifyDataSetChanged();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu, menu);
@@ -268,7 +340,7 @@ public class DeviceScanActivity extends AppCompatActivity {
             case KeyEvent.KEYCODE_DPAD_UP:
             case KeyEvent.KEYCODE_PLUS:
             case KeyEvent.KEYCODE_NUMPAD_ADD:
-                SoundManager.playSound(this, R.raw.directional);
+                SoundManager.playSound(this, R.raw.directional, event.getEventTime());
                 if (listView.getSelectedItemPosition() == 0 && lastPosition == 0) {
                     listView.setSelection(listView.getCount() - 1);
                 }
@@ -278,15 +350,19 @@ public class DeviceScanActivity extends AppCompatActivity {
             case KeyEvent.KEYCODE_DPAD_DOWN:
             case KeyEvent.KEYCODE_MINUS:
             case KeyEvent.KEYCODE_NUMPAD_SUBTRACT:
-                SoundManager.playSound(this, R.raw.directional);
+                SoundManager.playSound(this, R.raw.directional, event.getEventTime());
                 if ((listView.getSelectedItemPosition() == (listView.getCount() - 1)) && lastPosition == (listView.getCount() - 1)) {
                     listView.setSelection(0);
                 }
                 lastPosition = listView.getSelectedItemPosition();
                 mLeDeviceListAdapter.notifyDataSetChanged();
                 return true;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                //Connect or disconnect the selected camera in the background
+                toggleConnection(listView.getSelectedItemPosition());
+                return true;
             case KeyEvent.KEYCODE_ESCAPE:
-                SoundManager.playSound(this, R.raw.enter);
+                SoundManager.playSound(this, R.raw.enter, event.getEventTime());
                 String callingApp = "wunderlinq://datagrid";
                 Intent intent = new
                         Intent(android.content.Intent.ACTION_VIEW);
@@ -344,21 +420,20 @@ public class DeviceScanActivity extends AppCompatActivity {
 
     // Adapter for holding devices found through scanning.
     private class LeDeviceListAdapter extends BaseAdapter {
-        private ArrayList<Device> mLeDevices;
+        private DeviceList<Device> mLeDevices;
         private LayoutInflater mInflator;
 
         public LeDeviceListAdapter() {
             super();
-            mLeDevices = new ArrayList<Device>();
+            mLeDevices = new DeviceList<Device>();
             mInflator = DeviceScanActivity.this.getLayoutInflater();
         }
 
         public void addDevice(Device device) {
             if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.S ||
                     (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED)) {
-                if (!mLeDevices.contains(device)) {
+                if (mLeDevices.add(device.getDevice().getAddress(), device)) {
                     Log.d(TAG, "Found Camera: " + device.getDevice().getName());
-                    mLeDevices.add(device);
                 }
             }
         }
@@ -395,6 +470,7 @@ public class DeviceScanActivity extends AppCompatActivity {
                 view = mInflator.inflate(R.layout.listitem_device, null);
                 viewHolder = new ViewHolder();
                 viewHolder.deviceName = (TextView) view.findViewById(R.id.device_name);
+                viewHolder.deviceStatus = (TextView) view.findViewById(R.id.device_status);
                 view.setTag(viewHolder);
             } else {
                 viewHolder = (ViewHolder) view.getTag();
@@ -408,6 +484,13 @@ public class DeviceScanActivity extends AppCompatActivity {
                     viewHolder.deviceName.setText(deviceName);
                 else
                     viewHolder.deviceName.setText(R.string.unknown_device);
+                CameraSession session = BluetoothLeService.getSession(device.getAddress());
+                if (session != null && session.isConnected())
+                    viewHolder.deviceStatus.setText(R.string.connected);
+                else if (session != null && session.isReconnecting())
+                    viewHolder.deviceStatus.setText(R.string.reconnecting);
+                else
+                    viewHolder.deviceStatus.setText("");
             }
 
             if (i == lastPosition) {
@@ -445,6 +528,7 @@ public class DeviceScanActivity extends AppCompatActivity {
 
     static class ViewHolder {
         TextView deviceName;
+        TextView deviceStatus;
     }
 
     @Override
@@ -0,0 +1,105 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+
+/**
+ * Shows how long connecting takes, phase by phase, over the recent connections, along with
+ * the command queue figures of the active camera.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private TextView tvReport;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.diagnostics_activity);
+
+        tvReport = findViewById(R.id.tvReport);
+        Button btReset = findViewById(R.id.btReset);
+        btReset.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                BluetoothLeService.getConnectStats().reset();
+                updateReport();
+            }
+        });
+
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        updateReport();
+    }
+
+    private void updateReport() {
+        ConnectTimeline.Stats stats = BluetoothLeService.getConnectStats();
+        StringBuilder report = new StringBuilder();
+        if (stats.getAttempts() == 0) {
+            report.append(getString(R.string.diagnostics_no_data)).append('\n');
+        } else {
+            report.append(stats.getReport());
+        }
+        ConnectTimeline.Stats recovery = BluetoothLeService.getRecoveryStats();
+        if (recovery.getAttempts() > 0) {
+            report.append('\n').append(getString(R.string.diagnostics_recovery_label)).append('\n');
+            report.append(recovery.getReport());
+        }
+        CameraSession session = BluetoothLeService.getActiveSession();
+        if (session != null) {
+            report.append("\nLast: ").append(session.getTimeline()).append('\n');
+            report.append('\n').append(session.getLaneStats()).append('\n');
+            report.append('\n').append(session.getCommandTracker().getReport());
+        }
+        LatencyStats sound = SoundManager.getPressToPlayStats();
+        if (sound.getCount() > 0) {
+            report.append("\nPress to play() call: ").append(sound).append('\n');
+        }
+        String group = BluetoothLeService.getGroupShutterReport();
+        if (!group.isEmpty()) {
+            report.append('\n').append(group).append('\n');
+        }
+        tvReport.setText(report);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            // Respond to the action bar's Up/Home button
+            case android.R.id.home:
+                getOnBackPressedDispatcher().onBackPressed();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
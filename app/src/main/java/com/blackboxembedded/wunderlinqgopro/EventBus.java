@@ -0,0 +1,188 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process delivery of characteristic values to listeners registered by UUID.
+ *
+ * The GATT callback thread is the only producer. It copies each value into a preallocated
+ * slot of a ring buffer and, if the consumer is idle, wakes it once through the given
+ * executor. The consumer drains every pending slot in one go, so bursts of notifications
+ * cost one wake-up. Nothing is allocated per event once the slots have grown to the
+ * largest message seen.
+ */
+public class EventBus {
+
+    public interface Listener {
+        /**
+         * @param data only valid during the call, copy what you keep.
+         */
+        void onEvent(UUID uuid, byte[] data, int length);
+    }
+
+    private static final int INITIAL_SLOT_SIZE = 64;
+
+    private final Executor consumer;
+    private final int mask;
+    private final UUID[] uuids;
+    private final byte[][] values;
+    private final int[] lengths;
+
+    // Next slot to write, only the producer moves it
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to read, only the consumer moves it
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong overflows = new AtomicLong();
+
+    // Copy on write, read by the consumer without locking
+    private volatile Map<UUID, Listener[]> listeners = new HashMap<>();
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two.
+     * @param consumer runs the dispatch, for example by posting to the main thread handler.
+     */
+    public EventBus(int capacity, Executor consumer) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.consumer = consumer;
+        this.mask = size - 1;
+        this.uuids = new UUID[size];
+        this.values = new byte[size][];
+        this.lengths = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = new byte[INITIAL_SLOT_SIZE];
+        }
+    }
+
+    public synchronized void subscribe(UUID uuid, Listener listener) {
+        Map<UUID, Listener[]> copy = new HashMap<>(listeners);
+        Listener[] current = copy.get(uuid);
+        if (current == null) {
+            copy.put(uuid, new Listener[]{listener});
+        } else {
+            Listener[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = listener;
+            copy.put(uuid, grown);
+        }
+        listeners = copy;
+    }
+
+    /**
+     * Removes the listener from every UUID it was subscribed to.
+     */
+    public synchronized void unsubscribe(Listener listener) {
+        Map<UUID, Listener[]> copy = new HashMap<>();
+        for (Map.Entry<UUID, Listener[]> entry : listeners.entrySet()) {
+            Listener[] kept = new Listener[entry.getValue().length];
+            int count = 0;
+            for (Listener current : entry.getValue()) {
+                if (current != listener) {
+                    kept[count++] = current;
+                }
+            }
+            if (count > 0) {
+                copy.put(entry.getKey(), Arrays.copyOf(kept, count));
+            }
+        }
+        listeners = copy;
+    }
+
+    public boolean publish(UUID uuid, byte[] data) {
+        return publish(uuid, data, (data == null) ? 0 : data.length);
+    }
+
+    /**
+     * Queues a copy of the value. Call from the producer thread only.
+     *
+     * @return false if the consumer fell a full ring behind and the event was dropped.
+     */
+    public boolean publish(UUID uuid, byte[] data, int length) {
+        long position = head.get();
+        if (position - tail.get() > mask) {
+            overflows.incrementAndGet();
+            return false;
+        }
+        int slot = (int) position & mask;
+        if (values[slot].length < length) {
+            values[slot] = new byte[Integer.highestOneBit(length - 1) << 1];
+        }
+        if (length > 0) {
+            System.arraycopy(data, 0, values[slot], 0, length);
+        }
+        uuids[slot] = uuid;
+        lengths[slot] = length;
+        head.lazySet(position + 1);
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            consumer.execute(drainer);
+        }
+        return true;
+    }
+
+    /**
+     * Dispatches everything published so far. Runs on the consumer.
+     */
+    public void drain() {
+        drainScheduled.set(false);
+        Map<UUID, Listener[]> current = listeners;
+        long position = tail.get();
+        long end = head.get();
+        while (position < end) {
+            int slot = (int) position & mask;
+            Listener[] targets = current.get(uuids[slot]);
+            if (targets != null) {
+                for (Listener listener : targets) {
+                    listener.onEvent(uuids[slot], values[slot], lengths[slot]);
+                }
+            }
+            uuids[slot] = null;
+            position++;
+            tail.lazySet(position);
+            if (position == end) {
+                // Pick up whatever arrived while we were dispatching
+                end = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return events dropped because the ring was full.
+     */
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    public int getPending() {
+        return (int) (head.get() - tail.get());
+    }
+}
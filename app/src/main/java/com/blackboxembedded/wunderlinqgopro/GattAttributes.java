@@ -33,6 +33,8 @@ public class GattAttributes {
     public static final String GOPRO_CONTROL_SERVICE = "0000fea6-0000-1000-8000-00805f9b34fb";
     public static final String GOPRO_COMMAND_CHARACTERISTIC = "b5f90072-aa8d-11e3-9046-0002a5d5c51b";
     public static final String GOPRO_COMMANDRESPONSE_CHARACTERISTIC = "b5f90073-aa8d-11e3-9046-0002a5d5c51b";
+    public static final String GOPRO_SETTINGS_CHARACTERISTIC = "b5f90074-aa8d-11e3-9046-0002a5d5c51b";
+    public static final String GOPRO_SETTINGSRESPONSE_CHARACTERISTIC = "b5f90075-aa8d-11e3-9046-0002a5d5c51b";
     public static final String GOPRO_QUERY_CHARACTERISTIC = "b5f90076-aa8d-11e3-9046-0002a5d5c51b";
     public static final String GOPRO_QUERYRESPONSE_CHARACTERISTIC = "b5f90077-aa8d-11e3-9046-0002a5d5c51b";
     public static final String GOPRO_WIFI_SERVICE = "b5f90001-aa8d-11e3-9046-0002a5d5c51b";
@@ -73,6 +75,8 @@ public class GattAttributes {
         attributesUUID.put(UUIDDatabase.UUID_GOPRO_CONTROL_SERVICE, "GoPro Control Service");
         attributesUUID.put(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, "GoPro Command Characteristic");
         attributesUUID.put(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC, "GoPro Command Response Characteristic");
+        attributesUUID.put(UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC, "GoPro Settings Characteristic");
+        attributesUUID.put(UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC, "GoPro Settings Response Characteristic");
         attributesUUID.put(UUIDDatabase.UUID_GOPRO_QUERY_CHARACTERISTIC, "GoPro Query Characteristic");
         attributesUUID.put(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, "GoPro Query Response Characteristic");
 
@@ -0,0 +1,174 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * What a camera looked like the last time it was connected: its characteristics with their
+ * properties, the negotiated MTU and the characteristics notifications were enabled on.
+ * A reconnect to a known camera uses it to go straight from discovery to subscribing,
+ * see {@link CameraSession}. Entries are kept in memory and, once a {@link Storage} is set,
+ * persisted across runs.
+ */
+public class GattCache {
+
+    public interface Storage {
+        String load(String address);
+
+        void save(String address, String value);
+
+        void remove(String address);
+    }
+
+    public static class Layout {
+        private static final String VERSION = "1";
+
+        int mtu = GoProPacket.DEFAULT_MTU;
+        final Map<UUID, Integer> properties = new HashMap<>();
+        final Set<UUID> notifying = new LinkedHashSet<>();
+
+        Layout() {
+        }
+
+        Layout(Layout other) {
+            mtu = other.mtu;
+            properties.putAll(other.properties);
+            notifying.addAll(other.notifying);
+        }
+
+        public int getMtu() {
+            return mtu;
+        }
+
+        public Set<UUID> getNotifying() {
+            return notifying;
+        }
+
+        /**
+         * @return true if the transport discovered exactly the cached properties for each of
+         * the given characteristics, none of them added, removed or changed.
+         */
+        boolean matches(GattTransport transport, UUID[] characteristics) {
+            for (UUID uuid : characteristics) {
+                Integer cached = properties.get(uuid);
+                if (transport.getProperties(uuid) != ((cached == null) ? 0 : cached)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String encode() {
+            StringBuilder sb = new StringBuilder(VERSION).append('|').append(mtu).append('|');
+            boolean first = true;
+            for (Map.Entry<UUID, Integer> entry : properties.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(entry.getKey()).append('=').append(entry.getValue());
+                first = false;
+            }
+            sb.append('|');
+            first = true;
+            for (UUID uuid : notifying) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(uuid);
+                first = false;
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return the layout, or null if the value is not one this version wrote.
+         */
+        static Layout decode(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split("\\|", -1);
+            if (parts.length != 4 || !VERSION.equals(parts[0])) {
+                return null;
+            }
+            try {
+                Layout layout = new Layout();
+                layout.mtu = Integer.parseInt(parts[1]);
+                if (!parts[2].isEmpty()) {
+                    for (String entry : parts[2].split(",")) {
+                        int equals = entry.indexOf('=');
+                        layout.properties.put(UUID.fromString(entry.substring(0, equals)),
+                                Integer.parseInt(entry.substring(equals + 1)));
+                    }
+                }
+                if (!parts[3].isEmpty()) {
+                    for (String uuid : parts[3].split(",")) {
+                        layout.notifying.add(UUID.fromString(uuid));
+                    }
+                }
+                return layout;
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+    }
+
+    private final Map<String, Layout> layouts = new HashMap<>();
+    private Storage storage;
+
+    public synchronized void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * @return a copy of the cached layout, or null if the camera is unknown.
+     */
+    public synchronized Layout get(String address) {
+        Layout layout = layouts.get(address);
+        if (layout == null && storage != null) {
+            layout = Layout.decode(storage.load(address));
+            if (layout != null) {
+                layouts.put(address, layout);
+            }
+        }
+        return (layout == null) ? null : new Layout(layout);
+    }
+
+    public synchronized void put(String address, Layout layout) {
+        Layout copy = new Layout(layout);
+        layouts.put(address, copy);
+        if (storage != null) {
+            storage.save(address, copy.encode());
+        }
+    }
+
+    /**
+     * Forgets a camera whose layout no longer matches, so the next connection runs the full sequence.
+     */
+    public synchronized void invalidate(String address) {
+        layouts.remove(address);
+        if (storage != null) {
+            storage.remove(address);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.UUID;
+
+/**
+ * The GATT client operations a {@link CameraSession} needs, keyed by characteristic UUID.
+ *
+ * {@link AndroidGattTransport} wraps {@link android.bluetooth.BluetoothGatt}. Unit tests plug
+ * in a simulated camera so the command engine, framing and status handling run on the JVM.
+ * Like BluetoothGatt, a transport accepts one acknowledged request at a time and reports
+ * its result through the {@link Callback}.
+ */
+public interface GattTransport {
+
+    /**
+     * GATT status and characteristic property values, as defined by the Bluetooth core spec
+     */
+    int GATT_SUCCESS = 0;
+    int GATT_INSUFFICIENT_AUTHENTICATION = 0x05;
+    int GATT_INSUFFICIENT_ENCRYPTION = 0x0F;
+
+    int PROPERTY_READ = 0x02;
+    int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    int PROPERTY_WRITE = 0x08;
+    int PROPERTY_NOTIFY = 0x10;
+    int PROPERTY_INDICATE = 0x20;
+    int PROPERTY_SIGNED_WRITE = 0x40;
+
+    interface Callback {
+        /**
+         * @param state one of the BluetoothLeService STATE_ constants.
+         */
+        void onConnectionStateChange(int status, int state);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicRead(UUID uuid, byte[] value, int status);
+
+        void onCharacteristicWrite(UUID uuid, byte[] value, int status);
+
+        void onCharacteristicChanged(UUID uuid, byte[] value);
+
+        /**
+         * Result of writing the client characteristic configuration of a characteristic.
+         */
+        void onNotifyChanged(UUID uuid, boolean enabled, int status);
+    }
+
+    /**
+     * Starts connecting. Every later event of this link is reported to the callback.
+     */
+    void connect(Callback callback);
+
+    void disconnect();
+
+    /**
+     * Releases the link. No callbacks follow.
+     */
+    void close();
+
+    boolean requestMtu(int mtu);
+
+    boolean discoverServices();
+
+    /**
+     * @return the PROPERTY_ flags of a discovered characteristic, 0 if the camera has none.
+     */
+    int getProperties(UUID uuid);
+
+    boolean readCharacteristic(UUID uuid);
+
+    boolean writeCharacteristic(UUID uuid, byte[] value, BluetoothLeService.WriteType writeType);
+
+    /**
+     * Turns notifications or indications of a characteristic on or off by writing its
+     * client characteristic configuration descriptor.
+     */
+    boolean setNotify(UUID uuid, boolean enable);
+}
@@ -0,0 +1,135 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GoPro BLE message framing.
+ *
+ * A message starts with a general (5 bit), extended 13 bit or extended 16 bit length header.
+ * Whatever does not fit in the first ATT payload follows in continuation packets, whose
+ * one byte header carries a 4 bit counter.
+ */
+public class GoProPacket {
+    public static final int DEFAULT_MTU = 23;
+    // ATT opcode and handle
+    private static final int ATT_OVERHEAD = 3;
+
+    public static final int MAX_GENERAL_LENGTH = 0x1F;
+    public static final int MAX_EXTENDED_13_LENGTH = 0x1FFF;
+    public static final int MAX_EXTENDED_16_LENGTH = 0xFFFF;
+
+    static final int HEADER_CONTINUATION = 0x80;
+    static final int HEADER_EXTENDED_13 = 0x20;
+    static final int HEADER_EXTENDED_16 = 0x40;
+    static final int HEADER_TYPE_MASK = 0x60;
+    static final int COUNTER_MASK = 0x0F;
+
+    private GoProPacket() {
+    }
+
+    public static int headerLength(int messageLength) {
+        if (messageLength <= MAX_GENERAL_LENGTH) {
+            return 1;
+        } else if (messageLength <= MAX_EXTENDED_13_LENGTH) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * @return the largest packet that fits in one write or notification at this MTU.
+     */
+    public static int packetSize(int mtu) {
+        return Math.max(mtu, DEFAULT_MTU) - ATT_OVERHEAD;
+    }
+
+    public static boolean isContinuation(byte header) {
+        return (header & HEADER_CONTINUATION) != 0;
+    }
+
+    /**
+     * @return the header length of a start packet, from its first byte.
+     */
+    public static int startHeaderLength(byte header) {
+        switch (header & HEADER_TYPE_MASK) {
+            case HEADER_EXTENDED_13:
+                return 2;
+            case HEADER_EXTENDED_16:
+                return 3;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Writes the start header for a message of the given length.
+     *
+     * @return the number of header bytes written.
+     */
+    public static int writeHeader(byte[] packet, int messageLength) {
+        if (messageLength < 0 || messageLength > MAX_EXTENDED_16_LENGTH) {
+            throw new IllegalArgumentException("Message too long: " + messageLength);
+        }
+        switch (headerLength(messageLength)) {
+            case 1:
+                packet[0] = (byte) messageLength;
+                return 1;
+            case 2:
+                packet[0] = (byte) (HEADER_EXTENDED_13 | (messageLength >> 8));
+                packet[1] = (byte) messageLength;
+                return 2;
+            default:
+                packet[0] = (byte) HEADER_EXTENDED_16;
+                packet[1] = (byte) (messageLength >> 8);
+                packet[2] = (byte) messageLength;
+                return 3;
+        }
+    }
+
+    /**
+     * Splits a message into packets no larger than one ATT payload at the given MTU.
+     */
+    public static List<byte[]> fragment(byte[] message, int mtu) {
+        int packetSize = packetSize(mtu);
+        int header = headerLength(message.length);
+        int first = Math.min(message.length, packetSize - header);
+        int remaining = message.length - first;
+        List<byte[]> packets = new ArrayList<>(1 + (remaining + packetSize - 2) / (packetSize - 1));
+
+        byte[] packet = new byte[header + first];
+        writeHeader(packet, message.length);
+        System.arraycopy(message, 0, packet, header, first);
+        packets.add(packet);
+
+        int offset = first;
+        int counter = 0;
+        while (offset < message.length) {
+            int chunk = Math.min(message.length - offset, packetSize - 1);
+            packet = new byte[chunk + 1];
+            packet[0] = (byte) (HEADER_CONTINUATION | (counter & COUNTER_MASK));
+            System.arraycopy(message, offset, packet, 1, chunk);
+            packets.add(packet);
+            offset += chunk;
+            counter++;
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Starts or stops several cameras at once.
+ *
+ * Every target first gets its link ready for the command, for a camera that means the
+ * command engine has handed it the link and nothing else is in flight. Once all targets
+ * are armed, or the arm timeout passed, the writes are released back to back on one
+ * thread in the same tick. Acknowledgements are timestamped so the achieved skew can be
+ * reported.
+ */
+public class GroupShutter {
+
+    public interface Target {
+        String getAddress();
+
+        /**
+         * Prepares the write and calls {@link GroupShutter#onArmed(Target)} once the link is
+         * free. A target that never arms is released as soon as it does.
+         *
+         * @return false if the target cannot take the command at all.
+         */
+        boolean arm(GroupShutter group, byte[] command);
+
+        /**
+         * Sends the prepared write. Must not block.
+         *
+         * @return false if the stack refused the write.
+         */
+        boolean release();
+    }
+
+    public interface Listener {
+        void onComplete(GroupShutter group);
+    }
+
+    private static final int ARMING = 0;
+    private static final int ARMED = 1;
+    private static final int RELEASED = 2;
+    private static final int ACKNOWLEDGED = 3;
+    private static final int FAILED = 4;
+
+    private final List<Target> targets;
+    private final int[] states;
+    private final long[] armedAt;
+    private final long[] releasedAt;
+    private final long[] acknowledgedAt;
+    private final long startedAt;
+    private boolean fired;
+    private int outstanding;
+    private Listener listener;
+
+    public GroupShutter(List<Target> targets) {
+        this.targets = new ArrayList<>(targets);
+        int count = this.targets.size();
+        states = new int[count];
+        armedAt = new long[count];
+        releasedAt = new long[count];
+        acknowledgedAt = new long[count];
+        outstanding = count;
+        startedAt = System.nanoTime();
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Arms every target. The writes go out when the last one is armed or when
+     * {@link #releaseNow()} is called.
+     */
+    public void start(byte[] command) {
+        for (int i = 0; i < targets.size(); i++) {
+            if (!targets.get(i).arm(this, command)) {
+                failed(i);
+            }
+        }
+        boolean releaseAll;
+        synchronized (this) {
+            releaseAll = !fired && allArmed();
+        }
+        if (releaseAll) {
+            releaseNow();
+        }
+    }
+
+    /**
+     * Called by a target when its write can go out without waiting for anything else.
+     */
+    public void onArmed(Target target) {
+        boolean releaseAll;
+        boolean releaseLate;
+        synchronized (this) {
+            int index = targets.indexOf(target);
+            if (index < 0 || states[index] != ARMING) {
+                return;
+            }
+            states[index] = ARMED;
+            armedAt[index] = System.nanoTime();
+            releaseLate = fired;
+            releaseAll = !fired && allArmed();
+        }
+        if (releaseLate) {
+            // Missed the group release, go now rather than never
+            release(target);
+        } else if (releaseAll) {
+            releaseNow();
+        }
+    }
+
+    /**
+     * Releases every armed target in one tight loop. Targets still arming go as soon as
+     * they are armed.
+     */
+    public void releaseNow() {
+        List<Target> ready = new ArrayList<>(targets.size());
+        synchronized (this) {
+            if (fired) {
+                return;
+            }
+            fired = true;
+            for (int i = 0; i < targets.size(); i++) {
+                if (states[i] == ARMED) {
+                    ready.add(targets.get(i));
+                }
+            }
+        }
+        for (Target target : ready) {
+            release(target);
+        }
+    }
+
+    private void release(Target target) {
+        int index;
+        synchronized (this) {
+            index = targets.indexOf(target);
+            if (states[index] != ARMED) {
+                return;
+            }
+            // Marked before the write, its acknowledgement may arrive before release() returns
+            states[index] = RELEASED;
+            releasedAt[index] = System.nanoTime();
+        }
+        if (!target.release()) {
+            failed(index);
+        }
+    }
+
+    /**
+     * Called by a target when the camera acknowledged the write.
+     */
+    public void onAcknowledged(Target target) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            int index = targets.indexOf(target);
+            if (index < 0 || states[index] != RELEASED) {
+                return;
+            }
+            states[index] = ACKNOWLEDGED;
+            acknowledgedAt[index] = now;
+        }
+        finished();
+    }
+
+    /**
+     * Called by a target whose write was refused or given up.
+     */
+    public void onFailed(Target target) {
+        failed(targets.indexOf(target));
+    }
+
+    private void failed(int index) {
+        synchronized (this) {
+            if (index < 0 || states[index] == ACKNOWLEDGED || states[index] == FAILED) {
+                return;
+            }
+            states[index] = FAILED;
+        }
+        finished();
+    }
+
+    private void finished() {
+        Listener current;
+        synchronized (this) {
+            outstanding--;
+            if (outstanding > 0) {
+                return;
+            }
+            current = listener;
+        }
+        if (current != null) {
+            current.onComplete(this);
+        }
+    }
+
+    private boolean allArmed() {
+        for (int state : states) {
+            if (state == ARMING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean isComplete() {
+        return outstanding == 0;
+    }
+
+    /**
+     * @return true if the target could not be armed or its write was refused or given up.
+     */
+    public synchronized boolean hasFailed(Target target) {
+        int index = targets.indexOf(target);
+        return index >= 0 && states[index] == FAILED;
+    }
+
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return nanoseconds between the first and the last release, or -1 if fewer than two went out.
+     */
+    public synchronized long getReleaseSkewNanos() {
+        return spread(releasedAt, RELEASED);
+    }
+
+    /**
+     * @return nanoseconds between the first and the last acknowledgement, or -1 if fewer than two arrived.
+     */
+    public synchronized long getAckSkewNanos() {
+        return spread(acknowledgedAt, ACKNOWLEDGED);
+    }
+
+    /**
+     * @return nanoseconds from release to acknowledgement for the target, or -1.
+     */
+    public synchronized long getAckLatencyNanos(Target target) {
+        int index = targets.indexOf(target);
+        if (index < 0 || states[index] != ACKNOWLEDGED) {
+            return -1;
+        }
+        return acknowledgedAt[index] - releasedAt[index];
+    }
+
+    private long spread(long[] times, int minState) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        int count = 0;
+        for (int i = 0; i < times.length; i++) {
+            if (states[i] >= minState && states[i] != FAILED) {
+                first = Math.min(first, times[i]);
+                last = Math.max(last, times[i]);
+                count++;
+            }
+        }
+        return (count < 2) ? -1 : last - first;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ENGLISH, "Group shutter: %d cameras, release skew %.2f ms, ack skew %.2f ms\n",
+                targets.size(), getReleaseSkewNanos() / 1e6, getAckSkewNanos() / 1e6));
+        for (int i = 0; i < targets.size(); i++) {
+            if (states[i] == ACKNOWLEDGED) {
+                builder.append(String.format(Locale.ENGLISH, "  %s: armed after %.1f ms, acked %.1f ms after release\n",
+                        targets.get(i).getAddress(), (armedAt[i] - startedAt) / 1e6, (acknowledgedAt[i] - releasedAt[i]) / 1e6));
+            } else {
+                builder.append(String.format(Locale.ENGLISH, "  %s: %s\n", targets.get(i).getAddress(),
+                        (states[i] == FAILED) ? "failed" : "no acknowledgement"));
+            }
+        }
+        return builder.toString();
+    }
+}
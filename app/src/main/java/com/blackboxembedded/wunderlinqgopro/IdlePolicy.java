@@ -0,0 +1,115 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+/**
+ * Decides when cameras kept connected in the background are no longer worth keeping. The
+ * countdown starts once the last screen let go of the service and stops again as soon as
+ * one comes back, so jumping to another app and back finds the link still up.
+ */
+public class IdlePolicy {
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    public interface Listener {
+        /**
+         * Nothing used the cameras for the idle timeout. Called on the scheduler's thread.
+         */
+        void onIdle();
+    }
+
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    // Screens and remote clients bound right now, each bind Intent is counted once
+    private int attached;
+    private boolean counting;
+
+    public IdlePolicy(Scheduler scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public synchronized void setIdleTimeout(long millis) {
+        idleTimeout = millis;
+    }
+
+    /**
+     * A screen or remote client is using the service again.
+     */
+    public synchronized void attach() {
+        attached++;
+        if (counting) {
+            counting = false;
+            scheduler.removeCallbacks(idle);
+        }
+    }
+
+    /**
+     * A client went away. The countdown starts once the last one did, a timeout of 0 or
+     * less keeps the cameras indefinitely.
+     */
+    public synchronized void detach() {
+        if (attached > 0) {
+            attached--;
+        }
+        if (attached > 0) {
+            return;
+        }
+        scheduler.removeCallbacks(idle);
+        counting = idleTimeout > 0;
+        if (counting) {
+            scheduler.postDelayed(idle, idleTimeout);
+        }
+    }
+
+    public synchronized boolean isAttached() {
+        return attached > 0;
+    }
+
+    /**
+     * @return true while the countdown to {@link Listener#onIdle()} runs.
+     */
+    public synchronized boolean isCounting() {
+        return counting;
+    }
+
+    /**
+     * Stops a running countdown without calling the listener.
+     */
+    public synchronized void cancel() {
+        counting = false;
+        scheduler.removeCallbacks(idle);
+    }
+
+    private final Runnable idle = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (IdlePolicy.this) {
+                if (!counting || attached > 0) {
+                    return;
+                }
+                counting = false;
+            }
+            listener.onIdle();
+        }
+    };
+}
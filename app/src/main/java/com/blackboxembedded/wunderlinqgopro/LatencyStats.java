@@ -0,0 +1,67 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Percentiles over the most recent samples of one latency, e.g. a queue wait or an
+ * acknowledgement time.
+ */
+public class LatencyStats {
+    private static final int SAMPLES = 128;
+
+    private final long[] samples = new long[SAMPLES];
+    private long count;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+        samples[(int) (count % SAMPLES)] = nanos;
+        count++;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * @param percentile 0 to 100, over the last {@value #SAMPLES} samples.
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        int n = (int) Math.min(count, SAMPLES);
+        if (n == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, index))] / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "%d, p50 %.1f ms, p95 %.1f ms, max %.1f ms",
+                count, getPercentileMillis(50), getPercentileMillis(95), getMaxMillis());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+/**
+ * Collects mode changes from keys and swipes that come in quick succession and sends only
+ * the mode the rider ended up on. Every step is previewed right away, the camera switches
+ * once the input was quiet for the window. Used from the main thread only.
+ */
+public class ModeSelector {
+    public static final long DEFAULT_WINDOW = 300;
+
+    public interface Listener {
+        /**
+         * Show the mode currently selected, nothing was sent yet. Also called with the mode
+         * the selection started from when it ends there.
+         */
+        void onPreview(byte mode);
+
+        /**
+         * Input settled on a mode other than the one the selection started from.
+         */
+        void onCommit(byte from, byte to);
+    }
+
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private long window = DEFAULT_WINDOW;
+    private boolean selecting;
+    private byte from;
+    private byte selected;
+
+    public ModeSelector(Scheduler scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    public void setWindow(long millis) {
+        window = millis;
+    }
+
+    /**
+     * Moves the selection one mode on.
+     *
+     * @param current   the mode the camera is in, used when no selection is running
+     * @param direction 1 for the next mode, -1 for the previous one
+     */
+    public void step(byte current, int direction) {
+        if (!selecting) {
+            selecting = true;
+            from = current;
+            selected = current;
+        }
+        selected = cycle(selected, direction);
+        scheduler.removeCallbacks(settle);
+        scheduler.postDelayed(settle, window);
+        listener.onPreview(selected);
+    }
+
+    public boolean isSelecting() {
+        return selecting;
+    }
+
+    /**
+     * @return the mode to show: the selection while one runs, otherwise {@code current}.
+     * Status updates during the window would put the camera's mode back on screen.
+     */
+    public byte getMode(byte current) {
+        return selecting ? selected : current;
+    }
+
+    /**
+     * Commits a running selection now, e.g. before the shutter or when leaving the screen.
+     */
+    public void flush() {
+        if (selecting) {
+            scheduler.removeCallbacks(settle);
+            settle.run();
+        }
+    }
+
+    /**
+     * Drops a running selection without sending it.
+     */
+    public void cancel() {
+        selecting = false;
+        scheduler.removeCallbacks(settle);
+    }
+
+    /**
+     * Video, photo and timelapse in a loop. An unknown mode starts over at video.
+     */
+    static byte cycle(byte mode, int direction) {
+        if (mode < CameraStatus.MODE_VIDEO || mode > CameraStatus.MODE_TIMELAPSE) {
+            return CameraStatus.MODE_VIDEO;
+        }
+        int index = mode - CameraStatus.MODE_VIDEO;
+        int count = CameraStatus.MODE_TIMELAPSE - CameraStatus.MODE_VIDEO + 1;
+        index = ((index + direction) % count + count) % count;
+        return (byte) (CameraStatus.MODE_VIDEO + index);
+    }
+
+    private final Runnable settle = new Runnable() {
+        @Override
+        public void run() {
+            if (!selecting) {
+                return;
+            }
+            selecting = false;
+            if (selected != from) {
+                listener.onCommit(from, selected);
+            } else {
+                listener.onPreview(from);
+            }
+        }
+    };
+}
@@ -0,0 +1,143 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+/**
+ * Reassembles GoPro messages from the notifications of one response characteristic.
+ * Not thread safe, feed it from the GATT callback only.
+ */
+public class PacketAssembler {
+    private final BufferPool pool;
+
+    private byte[] buffer;
+    private int expected;
+    private int received;
+    private int counter;
+    private boolean inMessage;
+    private long dropped;
+
+    public PacketAssembler(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    public boolean accept(byte[] packet) {
+        return packet != null && accept(packet, 0, packet.length);
+    }
+
+    /**
+     * @return true if the packet completed a message. It stays in {@link #getBuffer()} for
+     * {@link #getLength()} bytes until the next call.
+     */
+    public boolean accept(byte[] packet, int offset, int length) {
+        if (length < 1) {
+            return false;
+        }
+        int header = packet[offset] & 0xFF;
+
+        if (GoProPacket.isContinuation(packet[offset])) {
+            if (!inMessage || (header & GoProPacket.COUNTER_MASK) != (counter & GoProPacket.COUNTER_MASK)) {
+                // Lost the start or a packet in between, wait for the next message
+                drop();
+                return false;
+            }
+            counter++;
+            return append(packet, offset + 1, length - 1);
+        }
+
+        if (inMessage) {
+            drop();
+        }
+        int start;
+        switch (header & GoProPacket.HEADER_TYPE_MASK) {
+            case 0:
+                expected = header & GoProPacket.MAX_GENERAL_LENGTH;
+                start = 1;
+                break;
+            case GoProPacket.HEADER_EXTENDED_13:
+                if (length < 2) {
+                    drop();
+                    return false;
+                }
+                expected = ((header & GoProPacket.MAX_GENERAL_LENGTH) << 8) | (packet[offset + 1] & 0xFF);
+                start = 2;
+                break;
+            case GoProPacket.HEADER_EXTENDED_16:
+                if (length < 3) {
+                    drop();
+                    return false;
+                }
+                expected = ((packet[offset + 1] & 0xFF) << 8) | (packet[offset + 2] & 0xFF);
+                start = 3;
+                break;
+            default:
+                // Reserved
+                drop();
+                return false;
+        }
+        if (buffer == null || buffer.length < expected) {
+            pool.release(buffer);
+            buffer = pool.acquire(expected);
+        }
+        received = 0;
+        counter = 0;
+        inMessage = true;
+        return append(packet, offset + start, length - start);
+    }
+
+    private boolean append(byte[] packet, int offset, int length) {
+        int count = Math.min(length, expected - received);
+        System.arraycopy(packet, offset, buffer, received, count);
+        received += count;
+        if (received == expected) {
+            inMessage = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void drop() {
+        dropped++;
+        inMessage = false;
+        received = 0;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return received;
+    }
+
+    /**
+     * @return messages and stray packets thrown away because the sequence was broken.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Forgets any partial message and returns the buffer to the pool.
+     */
+    public void reset() {
+        inMessage = false;
+        received = 0;
+        pool.release(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import android.util.Log;
+
+import java.util.UUID;
+
+/**
+ * Per-packet protocol logging. Packets are recorded into the {@link TraceLog} as raw bytes
+ * while debug logging is on (prefDebugLogging). Debug builds also print them to logcat,
+ * each thread reusing one builder and one hex buffer for that.
+ */
+public class ProtocolLog {
+
+    private static volatile boolean enabled;
+
+    private static class Buffers {
+        final StringBuilder builder = new StringBuilder(256);
+        char[] hex = new char[3 * 64];
+    }
+
+    private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void write(String tag, UUID uuid, byte[] value) {
+        if (!enabled) {
+            return;
+        }
+        TraceLog.data(TraceLog.CATEGORY_BLE, TraceLog.EVENT_WRITE, uuid, value, value.length);
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        StringBuilder sb = builder().append("Writing <");
+        appendHex(sb, value, value.length).append("> to characteristic <").append(uuid).append('>');
+        Log.d(tag, sb.toString());
+    }
+
+    public static void read(String tag, UUID uuid) {
+        if (!enabled) {
+            return;
+        }
+        TraceLog.data(TraceLog.CATEGORY_BLE, TraceLog.EVENT_READ, uuid, null, 0);
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        Log.d(tag, builder().append("Reading characteristic <").append(uuid).append('>').toString());
+    }
+
+    public static void received(String tag, UUID uuid, byte[] data, int length) {
+        if (!enabled) {
+            return;
+        }
+        TraceLog.data(TraceLog.CATEGORY_BLE, TraceLog.EVENT_NOTIFY, uuid, data, length);
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        StringBuilder sb = builder().append("UUID: ").append(uuid).append(" DATA: ");
+        appendHex(sb, data, length);
+        Log.d(tag, sb.toString());
+    }
+
+    private static StringBuilder builder() {
+        StringBuilder sb = buffers.get().builder;
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static StringBuilder appendHex(StringBuilder sb, byte[] data, int length) {
+        Buffers current = buffers.get();
+        if (current.hex.length < length * 3) {
+            current.hex = new char[length * 3];
+        }
+        int chars = Utils.writeHex(data, 0, length, current.hex, 0);
+        return sb.append(current.hex, 0, chars);
+    }
+}
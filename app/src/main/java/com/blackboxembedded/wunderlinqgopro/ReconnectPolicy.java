@@ -0,0 +1,101 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.Random;
+
+/**
+ * When to try again after a camera dropped the link. The delay doubles with every failed
+ * attempt up to a ceiling, and each delay is drawn from its upper half so cameras that
+ * dropped together do not all come back in the same instant. Attempts stop once the camera
+ * has been gone for {@link #getGiveUpAfter()} milliseconds.
+ */
+public class ReconnectPolicy {
+    public static final long DEFAULT_INITIAL_DELAY = 100;
+    public static final long DEFAULT_MAX_DELAY = 5000;
+    public static final long DEFAULT_GIVE_UP_AFTER = 120000;
+
+    private final Random random;
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private long giveUpAfter = DEFAULT_GIVE_UP_AFTER;
+    private int attempts;
+
+    public ReconnectPolicy() {
+        this(new Random());
+    }
+
+    ReconnectPolicy(Random random) {
+        this.random = random;
+    }
+
+    public synchronized long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public synchronized void setInitialDelay(long millis) {
+        initialDelay = millis;
+    }
+
+    public synchronized long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public synchronized void setMaxDelay(long millis) {
+        maxDelay = millis;
+    }
+
+    public synchronized long getGiveUpAfter() {
+        return giveUpAfter;
+    }
+
+    public synchronized void setGiveUpAfter(long millis) {
+        giveUpAfter = millis;
+    }
+
+    /**
+     * @return attempts made since the link was lost.
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param goneMillis how long the camera has been gone.
+     * @return the delay before the next attempt, or -1 to give up.
+     */
+    public synchronized long nextDelay(long goneMillis) {
+        if (goneMillis >= giveUpAfter) {
+            return -1;
+        }
+        long ceiling = maxDelay;
+        if (attempts < 31 && (initialDelay << attempts) < maxDelay) {
+            ceiling = initialDelay << attempts;
+        }
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * Starts over after the link came back.
+     */
+    public synchronized void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.List;
+
+/**
+ * What other apps, the WunderLINQ dashboard first of all, can do with the cameras: shutter,
+ * mode and HiLight requests, and a {@link StatusSnapshot} kept current for them to read.
+ * BluetoothLeService exposes it through a Messenger, see {@link BluetoothLeService#ACTION_REMOTE_CONTROL}.
+ * Requests carry the message code, an argument and an optional camera address; without an
+ * address they go to the active camera, the shutter to every connected camera together.
+ *
+ * All calls are expected on the BLE thread.
+ */
+public class RemoteControl {
+
+    /**
+     * Message codes. Requests carry a token in arg2 that comes back in the reply's arg2.
+     */
+    // Reply is MSG_SNAPSHOT, the client then gets MSG_STATUS whenever a slot changed
+    public static final int MSG_REGISTER = 1;
+    public static final int MSG_UNREGISTER = 2;
+    // arg1 1 starts, 0 stops
+    public static final int MSG_SHUTTER = 3;
+    // arg1 is CameraStatus.MODE_VIDEO, MODE_PHOTO or MODE_TIMELAPSE
+    public static final int MSG_MODE = 4;
+    public static final int MSG_HILIGHT = 5;
+    // Answered straight away, for clients measuring the round trip
+    public static final int MSG_PING = 6;
+    // Reply, arg1 is one of the RESULT_ codes
+    public static final int MSG_RESULT = 100;
+    // Reply to MSG_REGISTER, carries the snapshot file descriptor
+    public static final int MSG_SNAPSHOT = 101;
+    // Pushed, arg1 is the slot and arg2 its new sequence
+    public static final int MSG_STATUS = 102;
+
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_NOT_CONNECTED = 1;
+    public static final int RESULT_BAD_REQUEST = 2;
+
+    // Same as BluetoothLeService.CMD_SHUTTER, this class stays free of the Android framework
+    static final byte CMD_SHUTTER = 0x01;
+
+    public static final String EXTRA_ADDRESS = "address";
+    public static final String EXTRA_SNAPSHOT = "snapshot";
+
+    /**
+     * The part of a {@link CameraSession} requests act on.
+     */
+    public interface Camera {
+        String getAddress();
+
+        int getConnectionState();
+
+        boolean isConnected();
+
+        void getCameraStatus(CameraStatus out);
+
+        void setCommand(byte[] command);
+
+        void setHilight();
+    }
+
+    public interface Target {
+        /**
+         * @return the camera with this address, or the active one for null.
+         */
+        Camera getCamera(String address);
+
+        List<? extends Camera> getCameras();
+
+        /**
+         * Sends the command to every connected camera at once.
+         */
+        void setGroupCommand(byte[] command);
+    }
+
+    public interface Listener {
+        /**
+         * A slot of the snapshot changed.
+         */
+        void onStatusChanged(int slot, int sequence);
+    }
+
+    private final Target target;
+    private final StatusSnapshot snapshot;
+    private final Scheduler clock;
+    private final CameraStatus status = new CameraStatus();
+    // What each slot was last written with, to skip writes and pushes that change nothing
+    private final int[] writtenVersion;
+    private final int[] writtenState;
+    private Listener listener;
+
+    public RemoteControl(Target target, StatusSnapshot snapshot, Scheduler clock) {
+        this.target = target;
+        this.snapshot = snapshot;
+        this.clock = clock;
+        this.writtenVersion = new int[snapshot.getSlots()];
+        this.writtenState = new int[snapshot.getSlots()];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public StatusSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Carries out a request.
+     *
+     * @return one of the RESULT_ codes.
+     */
+    public int handle(int what, int arg, String address) {
+        switch (what) {
+            case MSG_PING:
+                return RESULT_OK;
+            case MSG_SHUTTER:
+                if (arg != 0 && arg != 1) {
+                    return RESULT_BAD_REQUEST;
+                }
+                byte[] shutter = new byte[]{CMD_SHUTTER, 0x01, (byte) arg};
+                if (address == null) {
+                    if (!isAnyConnected()) {
+                        return RESULT_NOT_CONNECTED;
+                    }
+                    target.setGroupCommand(shutter);
+                    return RESULT_OK;
+                }
+                Camera camera = target.getCamera(address);
+                if (camera == null || !camera.isConnected()) {
+                    return RESULT_NOT_CONNECTED;
+                }
+                camera.setCommand(shutter);
+                return RESULT_OK;
+            case MSG_MODE:
+                byte mode = (byte) arg;
+                if (arg < 0 || arg > 0xFF || (mode != CameraStatus.MODE_VIDEO && mode != CameraStatus.MODE_PHOTO
+                        && mode != CameraStatus.MODE_TIMELAPSE)) {
+                    return RESULT_BAD_REQUEST;
+                }
+                camera = target.getCamera(address);
+                if (camera == null || !camera.isConnected()) {
+                    return RESULT_NOT_CONNECTED;
+                }
+                // Same command as the control screen's mode keys
+                camera.setCommand(new byte[]{0x02, 0x01, (byte) (mode - CameraStatus.MODE_VIDEO)});
+                return RESULT_OK;
+            case MSG_HILIGHT:
+                camera = target.getCamera(address);
+                if (camera == null || !camera.isConnected()) {
+                    return RESULT_NOT_CONNECTED;
+                }
+                camera.setHilight();
+                return RESULT_OK;
+            default:
+                return RESULT_BAD_REQUEST;
+        }
+    }
+
+    private boolean isAnyConnected() {
+        for (Camera camera : target.getCameras()) {
+            if (camera.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the camera's current state to its slot, claiming a free one if it has none.
+     * Cameras beyond the number of slots are left out.
+     */
+    public void publish(Camera camera) {
+        long address = StatusSnapshot.parseAddress(camera.getAddress());
+        if (address == 0) {
+            return;
+        }
+        int slot = snapshot.findSlot(address);
+        if (slot < 0) {
+            slot = snapshot.findSlot(0);
+            if (slot < 0) {
+                return;
+            }
+            writtenVersion[slot] = -1;
+        }
+        camera.getCameraStatus(status);
+        int state = camera.getConnectionState();
+        if (writtenVersion[slot] == status.version && writtenState[slot] == state) {
+            return;
+        }
+        writtenVersion[slot] = status.version;
+        writtenState[slot] = state;
+        snapshot.write(slot, address, clock.nanoTime(), state, status);
+        Camera active = target.getCamera(null);
+        if (active == camera) {
+            snapshot.setActiveSlot(slot);
+        }
+        if (listener != null) {
+            listener.onStatusChanged(slot, snapshot.getSequence(slot));
+        }
+    }
+
+    /**
+     * Frees the camera's slot once it is no longer connected or wanted.
+     */
+    public void release(String address) {
+        long value = StatusSnapshot.parseAddress(address);
+        int slot = (value == 0) ? -1 : snapshot.findSlot(value);
+        if (slot < 0) {
+            return;
+        }
+        snapshot.clear(slot);
+        if (snapshot.getActiveSlot() == slot) {
+            snapshot.setActiveSlot(-1);
+        }
+        if (listener != null) {
+            listener.onStatusChanged(slot, snapshot.getSequence(slot));
+        }
+    }
+}
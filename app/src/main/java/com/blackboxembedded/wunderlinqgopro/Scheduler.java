@@ -0,0 +1,35 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+/**
+ * Runs work on the BLE thread. On the device this is a {@link android.os.Handler}, unit tests
+ * run the same code on a simulated clock.
+ */
+public interface Scheduler {
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMillis);
+
+    void removeCallbacks(Runnable task);
+
+    /**
+     * @return monotonic time in nanoseconds, used for deadlines and latency statistics.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,99 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Camera sessions keyed by Bluetooth address.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, CameraSession> sessions = new ConcurrentHashMap<>();
+    private final Scheduler handler;
+    private final Executor delivery;
+    private final GattCache gattCache = new GattCache();
+    private final ConnectTimeline.Stats connectStats = new ConnectTimeline.Stats();
+    private final ConnectTimeline.Stats recoveryStats = new ConnectTimeline.Stats();
+
+    /**
+     * @param handler the BLE thread the sessions run on.
+     * @param delivery where in-app listeners get camera values.
+     */
+    SessionRegistry(Scheduler handler, Executor delivery) {
+        this.handler = handler;
+        this.delivery = delivery;
+    }
+
+    /**
+     * @return the session for this address, created on first use.
+     */
+    public CameraSession obtain(String address) {
+        CameraSession session = sessions.get(address);
+        if (session == null) {
+            CameraSession created = new CameraSession(address, handler, delivery);
+            created.setGattCache(gattCache);
+            created.setConnectStats(connectStats);
+            created.setRecoveryStats(recoveryStats);
+            session = sessions.putIfAbsent(address, created);
+            if (session == null) {
+                session = created;
+            }
+        }
+        return session;
+    }
+
+    public GattCache getGattCache() {
+        return gattCache;
+    }
+
+    public ConnectTimeline.Stats getConnectStats() {
+        return connectStats;
+    }
+
+    public ConnectTimeline.Stats getRecoveryStats() {
+        return recoveryStats;
+    }
+
+    public CameraSession get(String address) {
+        return (address == null) ? null : sessions.get(address);
+    }
+
+    public CameraSession remove(String address) {
+        return sessions.remove(address);
+    }
+
+    public List<CameraSession> getAll() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * @return sessions with an established link.
+     */
+    public List<CameraSession> getConnected() {
+        List<CameraSession> connected = new ArrayList<>();
+        for (CameraSession session : sessions.values()) {
+            if (session.isConnected()) {
+                connected.add(session);
+            }
+        }
+        return connected;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads back the GATT traffic of a capture made by {@link SnoopWriter}. Characteristic UUIDs
+ * are recovered from the declarations the writer announced, records the app did not write
+ * (CCC writes, MTU exchange, other HCI traffic) are skipped.
+ */
+public class SnoopReader {
+
+    public interface Handler {
+        void onConnected(int connection, String address, long micros);
+
+        void onDisconnected(int connection, long micros);
+
+        void onWrite(int connection, UUID uuid, byte[] data, int offset, int length, long micros);
+
+        void onRead(int connection, UUID uuid, byte[] data, int offset, int length, long micros);
+
+        void onNotification(int connection, UUID uuid, byte[] data, int offset, int length, long micros);
+    }
+
+    private static class Link {
+        final Map<Integer, UUID> uuids = new HashMap<>();
+        int pendingRead = -1;
+    }
+
+    private final DataInputStream in;
+    private final Map<Integer, Link> links = new HashMap<>();
+    private byte[] packet = new byte[1024];
+    private long records;
+
+    public SnoopReader(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream));
+        byte[] magic = new byte[SnoopWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, SnoopWriter.MAGIC)) {
+            throw new IOException("Not a btsnoop file");
+        }
+        int version = in.readInt();
+        int datalink = in.readInt();
+        if (version != SnoopWriter.VERSION || datalink != SnoopWriter.DATALINK_H4) {
+            throw new IOException(String.format(Locale.ENGLISH, "Unsupported btsnoop version %d datalink %d", version, datalink));
+        }
+    }
+
+    /**
+     * Reads one record and reports what it carried.
+     *
+     * @return false at the end of the capture.
+     */
+    public boolean next(Handler handler) throws IOException {
+        int length;
+        int flags;
+        long micros;
+        try {
+            // Original length, the app never truncates
+            in.readInt();
+            length = in.readInt();
+            flags = in.readInt();
+            // Cumulative drops
+            in.readInt();
+            micros = in.readLong() - SnoopWriter.EPOCH_OFFSET_MICROS;
+            if (length < 0) {
+                throw new IOException("Corrupt record length " + length);
+            }
+            if (packet.length < length) {
+                packet = new byte[length];
+            }
+            in.readFully(packet, 0, length);
+        } catch (EOFException e) {
+            // Also a capture cut short by the app being killed
+            return false;
+        }
+        records++;
+        if (length < 1) {
+            return true;
+        }
+        if (packet[0] == SnoopWriter.H4_EVENT) {
+            onEvent(length, micros, handler);
+        } else if (packet[0] == SnoopWriter.H4_ACL) {
+            onAcl(length, (flags & SnoopWriter.FLAG_RECEIVED) != 0, micros, handler);
+        }
+        return true;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    private void onEvent(int length, long micros, Handler handler) {
+        if (length < 3) {
+            return;
+        }
+        int code = packet[1] & 0xFF;
+        if (code == SnoopWriter.EVENT_LE_META && length >= 14
+                && packet[3] == SnoopWriter.LE_CONNECTION_COMPLETE && packet[4] == 0x00) {
+            int connection = getShort(5) & 0x0FFF;
+            links.put(connection, new Link());
+            StringBuilder address = new StringBuilder(17);
+            for (int b = 5; b >= 0; b--) {
+                address.append(String.format(Locale.ENGLISH, "%02X", packet[9 + b]));
+                if (b > 0) {
+                    address.append(':');
+                }
+            }
+            handler.onConnected(connection, address.toString(), micros);
+        } else if (code == SnoopWriter.EVENT_DISCONNECTION_COMPLETE && length >= 6) {
+            int connection = getShort(4) & 0x0FFF;
+            links.remove(connection);
+            handler.onDisconnected(connection, micros);
+        }
+    }
+
+    private void onAcl(int length, boolean received, long micros, Handler handler) {
+        if (length < 10 || getShort(7) != SnoopWriter.L2CAP_CID_ATT) {
+            return;
+        }
+        int connection = getShort(1) & 0x0FFF;
+        Link link = links.get(connection);
+        if (link == null) {
+            link = new Link();
+            links.put(connection, link);
+        }
+        int att = 9;
+        int end = Math.min(length, att + getShort(5));
+        int opcode = packet[att] & 0xFF;
+        switch (opcode) {
+            case SnoopWriter.ATT_READ_BY_TYPE_RSP: {
+                int pairLength = packet[att + 1] & 0xFF;
+                if (pairLength != 2 + 1 + 2 + 16) {
+                    break;
+                }
+                for (int i = att + 2; i + pairLength <= end; i += pairLength) {
+                    link.uuids.put(getShort(i + 3), getUuid(i + 5));
+                }
+                break;
+            }
+            case SnoopWriter.ATT_READ_REQ:
+                link.pendingRead = getShort(att + 1);
+                break;
+            case SnoopWriter.ATT_READ_RSP: {
+                UUID uuid = link.uuids.get(link.pendingRead);
+                link.pendingRead = -1;
+                if (uuid != null) {
+                    handler.onRead(connection, uuid, packet, att + 1, end - att - 1, micros);
+                }
+                break;
+            }
+            case SnoopWriter.ATT_WRITE_REQ:
+            case SnoopWriter.ATT_WRITE_CMD:
+            case SnoopWriter.ATT_NOTIFICATION: {
+                if (end < att + 3) {
+                    break;
+                }
+                // CCC handles are not in the map, so descriptor writes drop out here
+                UUID uuid = link.uuids.get(getShort(att + 1));
+                if (uuid == null) {
+                    break;
+                }
+                if (opcode == SnoopWriter.ATT_NOTIFICATION) {
+                    handler.onNotification(connection, uuid, packet, att + 3, end - att - 3, micros);
+                } else if (!received) {
+                    handler.onWrite(connection, uuid, packet, att + 3, end - att - 3, micros);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private int getShort(int i) {
+        return (packet[i] & 0xFF) | ((packet[i + 1] & 0xFF) << 8);
+    }
+
+    private UUID getUuid(int i) {
+        long lsb = 0;
+        long msb = 0;
+        for (int b = 7; b >= 0; b--) {
+            lsb = (lsb << 8) | (packet[i + b] & 0xFF);
+            msb = (msb << 8) | (packet[i + 8 + b] & 0xFF);
+        }
+        return new UUID(msb, lsb);
+    }
+}
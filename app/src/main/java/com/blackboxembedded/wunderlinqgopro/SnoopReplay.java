@@ -0,0 +1,195 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Plays a capture back through the same message reassembly and status decoding a
+ * {@link CameraSession} uses, either as fast as possible or paced like the original.
+ *
+ * {@code SnoopReplayMain} in the benchmark module runs it on a desktop JVM:
+ * <pre>
+ * ./gradlew :benchmark:replay --args="wunderlinq-gopro.btsnoop [--realtime]"
+ * </pre>
+ */
+public class SnoopReplay implements SnoopReader.Handler {
+
+    public interface Listener {
+        void onConnected(String address);
+
+        /**
+         * A reassembled GoPro message from one of the response characteristics.
+         */
+        void onMessage(String address, UUID uuid, byte[] message, int length, long micros);
+
+        /**
+         * The mirrored camera status changed.
+         */
+        void onStatus(String address, CameraStatus status, long micros);
+    }
+
+    private class Camera {
+        final String address;
+        final PacketAssembler commandResponse = new PacketAssembler(bufferPool);
+        final PacketAssembler settingsResponse = new PacketAssembler(bufferPool);
+        final PacketAssembler queryResponse = new PacketAssembler(bufferPool);
+        final CameraStatus status = new CameraStatus();
+
+        Camera(String address) {
+            this.address = address;
+        }
+    }
+
+    private final BufferPool bufferPool = new BufferPool();
+    private final Map<Integer, Camera> cameras = new HashMap<>();
+    private final Listener listener;
+    private final boolean realtime;
+
+    private long firstMicros = -1;
+    private long startNanos;
+    private long packets;
+    private long messages;
+    private long statusUpdates;
+
+    /**
+     * @param realtime wait between records as long as the camera did
+     */
+    public SnoopReplay(Listener listener, boolean realtime) {
+        this.listener = listener;
+        this.realtime = realtime;
+    }
+
+    public void replay(InputStream in) throws IOException, InterruptedException {
+        SnoopReader reader = new SnoopReader(in);
+        while (reader.next(this)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getStatusUpdates() {
+        return statusUpdates;
+    }
+
+    @Override
+    public void onConnected(int connection, String address, long micros) {
+        pace(micros);
+        cameras.put(connection, new Camera(address));
+        if (listener != null) {
+            listener.onConnected(address);
+        }
+    }
+
+    @Override
+    public void onDisconnected(int connection, long micros) {
+        pace(micros);
+        cameras.remove(connection);
+    }
+
+    @Override
+    public void onWrite(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+        pace(micros);
+        packets++;
+    }
+
+    @Override
+    public void onRead(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+        pace(micros);
+        packets++;
+    }
+
+    @Override
+    public void onNotification(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+        pace(micros);
+        packets++;
+        Camera camera = cameraFor(connection);
+        PacketAssembler assembler;
+        if (UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC.equals(uuid)) {
+            assembler = camera.commandResponse;
+        } else if (UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC.equals(uuid)) {
+            assembler = camera.settingsResponse;
+        } else if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+            assembler = camera.queryResponse;
+        } else {
+            return;
+        }
+        if (!assembler.accept(data, offset, length)) {
+            return;
+        }
+        messages++;
+        byte[] message = assembler.getBuffer();
+        int messageLength = assembler.getLength();
+        if (listener != null) {
+            listener.onMessage(camera.address, uuid, message, messageLength, micros);
+        }
+        if (assembler == camera.queryResponse) {
+            int version = camera.status.version;
+            StatusDecoder.decode(message, 0, messageLength, camera.status);
+            if (camera.status.version != version) {
+                statusUpdates++;
+                if (listener != null) {
+                    listener.onStatus(camera.address, camera.status, micros);
+                }
+            }
+        }
+    }
+
+    private Camera cameraFor(int connection) {
+        Camera camera = cameras.get(connection);
+        if (camera == null) {
+            // Capture started while this camera was already connected
+            camera = new Camera(String.format(Locale.ENGLISH, "handle %d", connection));
+            cameras.put(connection, camera);
+        }
+        return camera;
+    }
+
+    private void pace(long micros) {
+        if (!realtime) {
+            return;
+        }
+        if (firstMicros < 0) {
+            firstMicros = micros;
+            startNanos = System.nanoTime();
+            return;
+        }
+        long wait = (micros - firstMicros) * 1000 - (System.nanoTime() - startNanos);
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Records GATT traffic as a btsnoop file (HCI over UART, datalink 1002) that Wireshark opens
+ * directly and {@link SnoopReader} reads back.
+ *
+ * Android does not expose ATT handles, so each characteristic gets a synthetic one the first
+ * time it is used on a link, announced by a Read By Type request and response as if the
+ * characteristic declarations had been discovered. Wireshark uses them to name the handles,
+ * the reader to map them back to UUIDs. Every characteristic takes three handles:
+ * declaration, value and client characteristic configuration.
+ *
+ * Timestamps come from a monotonic clock anchored at the wall clock time the capture started.
+ */
+public class SnoopWriter implements Closeable {
+
+    static final byte[] MAGIC = {'b', 't', 's', 'n', 'o', 'o', 'p', 0};
+    static final int VERSION = 1;
+    static final int DATALINK_H4 = 1002;
+    // Microseconds from 0000-01-01, the btsnoop epoch, to 1970-01-01
+    static final long EPOCH_OFFSET_MICROS = 0x00dcddb30f2f8000L;
+
+    static final int FLAG_RECEIVED = 0x01;
+    static final int FLAG_COMMAND_EVENT = 0x02;
+
+    static final int H4_ACL = 0x02;
+    static final int H4_EVENT = 0x04;
+
+    static final int EVENT_DISCONNECTION_COMPLETE = 0x05;
+    static final int EVENT_LE_META = 0x3E;
+    static final int LE_CONNECTION_COMPLETE = 0x01;
+
+    static final int L2CAP_CID_ATT = 0x0004;
+
+    static final int ATT_ERROR_RSP = 0x01;
+    static final int ATT_EXCHANGE_MTU_REQ = 0x02;
+    static final int ATT_EXCHANGE_MTU_RSP = 0x03;
+    static final int ATT_READ_BY_TYPE_REQ = 0x08;
+    static final int ATT_READ_BY_TYPE_RSP = 0x09;
+    static final int ATT_READ_REQ = 0x0A;
+    static final int ATT_READ_RSP = 0x0B;
+    static final int ATT_WRITE_REQ = 0x12;
+    static final int ATT_WRITE_RSP = 0x13;
+    static final int ATT_NOTIFICATION = 0x1B;
+    static final int ATT_WRITE_CMD = 0x52;
+
+    static final int UUID_CHARACTERISTIC_DECLARATION = 0x2803;
+    // GattTransport.GATT_SUCCESS, repeated so the desktop replay tool builds without Android
+    private static final int GATT_SUCCESS = 0;
+    static final int FIRST_HANDLE = 0x0010;
+
+    private static class Link {
+        final Map<UUID, Integer> handles = new HashMap<>();
+        int nextHandle = FIRST_HANDLE;
+    }
+
+    private final DataOutputStream out;
+    private final long startMicros;
+    private final long startNanos;
+    private final Map<Integer, Link> links = new HashMap<>();
+    private final byte[] packet = new byte[4 + 4 + 1 + 2 + 2 + 512 + 16];
+    private int nextConnection = 1;
+    private IOException error;
+
+    /**
+     * @param wallMillis wall clock time matching startNanos
+     * @param startNanos monotonic clock reading all later timestamps are relative to
+     */
+    public SnoopWriter(OutputStream stream, long wallMillis, long startNanos) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.startMicros = wallMillis * 1000 + EPOCH_OFFSET_MICROS;
+        this.startNanos = startNanos;
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(DATALINK_H4);
+    }
+
+    /**
+     * Records an LE connection complete event for a new link.
+     *
+     * @return the connection handle to pass to the other calls.
+     */
+    public synchronized int connected(String address, long nanos) {
+        int connection = nextConnection;
+        nextConnection = (nextConnection % 0x0EFF) + 1;
+        links.put(connection, new Link());
+        int i = 0;
+        packet[i++] = H4_EVENT;
+        packet[i++] = EVENT_LE_META;
+        packet[i++] = 19;
+        packet[i++] = LE_CONNECTION_COMPLETE;
+        packet[i++] = 0x00;
+        i = putShort(i, connection);
+        // Role central, random address
+        packet[i++] = 0x00;
+        packet[i++] = 0x01;
+        i = putAddress(i, address);
+        // Interval, latency and supervision timeout are not known to the app
+        i = putShort(i, 0);
+        i = putShort(i, 0);
+        i = putShort(i, 0);
+        packet[i++] = 0x00;
+        record(FLAG_RECEIVED | FLAG_COMMAND_EVENT, i, nanos);
+        return connection;
+    }
+
+    public synchronized void disconnected(int connection, int reason, long nanos) {
+        links.remove(connection);
+        int i = 0;
+        packet[i++] = H4_EVENT;
+        packet[i++] = EVENT_DISCONNECTION_COMPLETE;
+        packet[i++] = 4;
+        packet[i++] = 0x00;
+        i = putShort(i, connection);
+        packet[i++] = (byte) reason;
+        record(FLAG_RECEIVED | FLAG_COMMAND_EVENT, i, nanos);
+    }
+
+    public synchronized void mtuRequest(int connection, int mtu, long nanos) {
+        int i = startAtt(ATT_EXCHANGE_MTU_REQ);
+        i = putShort(i, mtu);
+        finishAtt(connection, i, false, nanos);
+    }
+
+    public synchronized void mtuResponse(int connection, int mtu, long nanos) {
+        int i = startAtt(ATT_EXCHANGE_MTU_RSP);
+        i = putShort(i, mtu);
+        finishAtt(connection, i, true, nanos);
+    }
+
+    /**
+     * Gives a characteristic its handles on this link, if it has none yet.
+     *
+     * @param properties the GattTransport PROPERTY_ flags shown in the declaration
+     */
+    public synchronized void declare(int connection, UUID uuid, int properties, long nanos) {
+        handleFor(connection, uuid, properties, nanos);
+    }
+
+    public synchronized void readRequest(int connection, UUID uuid, long nanos) {
+        int handle = handleFor(connection, uuid, 0, nanos);
+        int i = startAtt(ATT_READ_REQ);
+        i = putShort(i, handle);
+        finishAtt(connection, i, false, nanos);
+    }
+
+    public synchronized void readResponse(int connection, UUID uuid, byte[] value, int status, long nanos) {
+        if (status != GATT_SUCCESS) {
+            error(connection, ATT_READ_REQ, handleFor(connection, uuid, 0, nanos), status, nanos);
+            return;
+        }
+        int i = startAtt(ATT_READ_RSP);
+        i = putBytes(i, value);
+        finishAtt(connection, i, true, nanos);
+    }
+
+    public synchronized void writeRequest(int connection, UUID uuid, byte[] value, boolean withResponse, long nanos) {
+        int handle = handleFor(connection, uuid, 0, nanos);
+        int i = startAtt(withResponse ? ATT_WRITE_REQ : ATT_WRITE_CMD);
+        i = putShort(i, handle);
+        i = putBytes(i, value);
+        finishAtt(connection, i, false, nanos);
+    }
+
+    public synchronized void writeResponse(int connection, UUID uuid, int status, long nanos) {
+        if (status != GATT_SUCCESS) {
+            error(connection, ATT_WRITE_REQ, handleFor(connection, uuid, 0, nanos), status, nanos);
+            return;
+        }
+        int i = startAtt(ATT_WRITE_RSP);
+        finishAtt(connection, i, true, nanos);
+    }
+
+    public synchronized void notification(int connection, UUID uuid, byte[] value, long nanos) {
+        int handle = handleFor(connection, uuid, 0, nanos);
+        int i = startAtt(ATT_NOTIFICATION);
+        i = putShort(i, handle);
+        i = putBytes(i, value);
+        finishAtt(connection, i, true, nanos);
+    }
+
+    /**
+     * Records the write of the client characteristic configuration that turns notifications on or off.
+     */
+    public synchronized void notifyRequest(int connection, UUID uuid, boolean enable, long nanos) {
+        int handle = handleFor(connection, uuid, 0, nanos) + 1;
+        int i = startAtt(ATT_WRITE_REQ);
+        i = putShort(i, handle);
+        i = putShort(i, enable ? 0x0001 : 0x0000);
+        finishAtt(connection, i, false, nanos);
+    }
+
+    public synchronized void notifyResponse(int connection, UUID uuid, int status, long nanos) {
+        if (status != GATT_SUCCESS) {
+            error(connection, ATT_WRITE_REQ, handleFor(connection, uuid, 0, nanos) + 1, status, nanos);
+            return;
+        }
+        int i = startAtt(ATT_WRITE_RSP);
+        finishAtt(connection, i, true, nanos);
+    }
+
+    /**
+     * @return the first write error, after which nothing more is recorded.
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void error(int connection, int requestOpcode, int handle, int status, long nanos) {
+        int i = startAtt(ATT_ERROR_RSP);
+        packet[i++] = (byte) requestOpcode;
+        i = putShort(i, handle);
+        packet[i++] = (byte) status;
+        finishAtt(connection, i, true, nanos);
+    }
+
+    /**
+     * @return the value handle of the characteristic, announcing it on first use.
+     */
+    private int handleFor(int connection, UUID uuid, int properties, long nanos) {
+        Link link = links.get(connection);
+        if (link == null) {
+            link = new Link();
+            links.put(connection, link);
+        }
+        Integer known = link.handles.get(uuid);
+        if (known != null) {
+            return known;
+        }
+        int declaration = link.nextHandle;
+        int handle = declaration + 1;
+        link.nextHandle += 3;
+        link.handles.put(uuid, handle);
+
+        int i = startAtt(ATT_READ_BY_TYPE_REQ);
+        i = putShort(i, declaration);
+        i = putShort(i, 0xFFFF);
+        i = putShort(i, UUID_CHARACTERISTIC_DECLARATION);
+        finishAtt(connection, i, false, nanos);
+
+        i = startAtt(ATT_READ_BY_TYPE_RSP);
+        packet[i++] = 2 + 1 + 2 + 16;
+        i = putShort(i, declaration);
+        packet[i++] = (byte) properties;
+        i = putShort(i, handle);
+        i = putUuid(i, uuid);
+        finishAtt(connection, i, true, nanos);
+        return handle;
+    }
+
+    // H4 type, ACL header and L2CAP header come before the ATT PDU
+    private static final int ATT_OFFSET = 1 + 4 + 4;
+
+    private int startAtt(int opcode) {
+        packet[ATT_OFFSET] = (byte) opcode;
+        return ATT_OFFSET + 1;
+    }
+
+    private void finishAtt(int connection, int end, boolean received, long nanos) {
+        int attLength = end - ATT_OFFSET;
+        packet[0] = H4_ACL;
+        // Packet boundary flag: first automatically flushable packet
+        putShort(1, connection | 0x2000);
+        putShort(3, attLength + 4);
+        putShort(5, attLength);
+        putShort(7, L2CAP_CID_ATT);
+        record(received ? FLAG_RECEIVED : 0, end, nanos);
+    }
+
+    private void record(int flags, int length, long nanos) {
+        if (error != null) {
+            return;
+        }
+        try {
+            out.writeInt(length);
+            out.writeInt(length);
+            out.writeInt(flags);
+            out.writeInt(0);
+            out.writeLong(startMicros + (nanos - startNanos) / 1000);
+            out.write(packet, 0, length);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    private int putShort(int i, int value) {
+        packet[i] = (byte) value;
+        packet[i + 1] = (byte) (value >> 8);
+        return i + 2;
+    }
+
+    private int putBytes(int i, byte[] value) {
+        // Longer than any ATT MTU, only happens with a corrupt value
+        int length = (value == null) ? 0 : Math.min(value.length, packet.length - i);
+        if (length > 0) {
+            System.arraycopy(value, 0, packet, i, length);
+        }
+        return i + length;
+    }
+
+    private int putUuid(int i, UUID uuid) {
+        // Little-endian on the air
+        long lsb = uuid.getLeastSignificantBits();
+        long msb = uuid.getMostSignificantBits();
+        for (int b = 0; b < 8; b++) {
+            packet[i + b] = (byte) (lsb >>> (8 * b));
+            packet[i + 8 + b] = (byte) (msb >>> (8 * b));
+        }
+        return i + 16;
+    }
+
+    private int putAddress(int i, String address) {
+        // "AA:BB:CC:DD:EE:FF" goes on the air least significant byte first
+        for (int b = 0; b < 6; b++) {
+            int value = 0;
+            int at = (5 - b) * 3;
+            if (address != null && at + 2 <= address.length()) {
+                value = Character.digit(address.charAt(at), 16) * 16 + Character.digit(address.charAt(at + 1), 16);
+            }
+            packet[i + b] = (byte) value;
+        }
+        return i + 6;
+    }
+}
@@ -18,26 +18,152 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package com.blackboxembedded.wunderlinqgopro;
 
 import android.content.Context;
-import android.media.MediaPlayer;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.media.ToneGenerator;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseIntArray;
 
+/**
+ * Key and swipe feedback. The sounds are decoded once into a {@link SoundPool} and played
+ * from memory, several at a time if presses overlap. Camera acknowledgements get short
+ * system tones, so the rider hears that recording really started or stopped.
+ */
 public class SoundManager {
-    private static MediaPlayer mediaPlayer;
+    private final static String TAG = SoundManager.class.getSimpleName();
+
+    private static final int[] SOUNDS = {R.raw.directional, R.raw.enter};
+    private static final int MAX_STREAMS = 4;
+    private static final int CONFIRM_VOLUME = 80;
+    private static final int CONFIRM_DURATION = 150;
+
+    public interface LatencyListener {
+        /**
+         * @param nanos from the press until {@link SoundPool#play} returned. The mixer and
+         *              output buffer delay of the device come on top and are not measured.
+         */
+        void onSoundStarted(int soundResId, long nanos);
+    }
+
+    private static SoundPool soundPool;
+    private static ToneGenerator toneGenerator;
+    // Resource ID to pool ID, and the pool IDs that finished decoding
+    private static final SparseIntArray soundIds = new SparseIntArray();
+    private static final SparseIntArray loaded = new SparseIntArray();
+    // Pressed before its sound was decoded, played once it is
+    private static int waitingSound;
+    private static long waitingSince;
+    private static final LatencyStats pressToPlay = new LatencyStats();
+    private static volatile LatencyListener latencyListener;
+
+    /**
+     * Decodes the sounds ahead of the first press. Safe to call more than once.
+     */
+    public static synchronized void preload(Context context) {
+        if (soundPool != null) {
+            return;
+        }
+        AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build();
+        soundPool = new SoundPool.Builder()
+                .setMaxStreams(MAX_STREAMS)
+                .setAudioAttributes(attributes)
+                .build();
+        soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool pool, int sampleId, int status) {
+                onLoaded(sampleId, status);
+            }
+        });
+        Context application = context.getApplicationContext();
+        for (int resId : SOUNDS) {
+            soundIds.put(resId, soundPool.load(application, resId, 1));
+        }
+    }
+
+    public static void setLatencyListener(LatencyListener listener) {
+        latencyListener = listener;
+    }
+
+    /**
+     * @return press to {@link SoundPool#play} times of the recent presses, not the time
+     * until the sound is audible.
+     */
+    public static LatencyStats getPressToPlayStats() {
+        return pressToPlay;
+    }
 
     public static void playSound(Context context, int soundResId) {
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
+        playSound(context, soundResId, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * @param pressedAt uptime of the press, e.g. {@link android.view.KeyEvent#getEventTime()}.
+     */
+    public static synchronized void playSound(Context context, int soundResId, long pressedAt) {
+        long since = SystemClock.elapsedRealtimeNanos()
+                - (SystemClock.uptimeMillis() - pressedAt) * 1000000L;
+        preload(context);
+        int sampleId = soundIds.get(soundResId);
+        if (sampleId == 0) {
+            Log.e(TAG, "Not a preloaded sound: " + soundResId);
+            return;
+        }
+        if (loaded.get(sampleId) == 0) {
+            // Still decoding, only the latest press is worth hearing
+            waitingSound = soundResId;
+            waitingSince = since;
+            return;
         }
+        start(soundResId, sampleId, since);
+    }
 
-        mediaPlayer = MediaPlayer.create(context, soundResId);
+    /**
+     * Confirms that the camera acknowledged the shutter.
+     *
+     * @param recording true if it started, false if it stopped
+     */
+    public static synchronized void playConfirm(boolean recording) {
+        if (toneGenerator == null) {
+            try {
+                toneGenerator = new ToneGenerator(AudioManager.STREAM_MUSIC, CONFIRM_VOLUME);
+            } catch (RuntimeException e) {
+                // No audio available right now
+                Log.e(TAG, "Unable to create tone generator: " + e.getMessage());
+                return;
+            }
+        }
+        toneGenerator.startTone(recording ? ToneGenerator.TONE_PROP_ACK : ToneGenerator.TONE_PROP_BEEP2,
+                CONFIRM_DURATION);
+    }
 
-        if (mediaPlayer != null) {
-            mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer mp) {
-                    mp.release();
-                }
-            });
-            mediaPlayer.start();
+    private static synchronized void onLoaded(int sampleId, int status) {
+        if (status != 0) {
+            Log.e(TAG, "Unable to load sound " + sampleId + ", status " + status);
+            return;
+        }
+        loaded.put(sampleId, 1);
+        if (waitingSound != 0 && soundIds.get(waitingSound) == sampleId) {
+            int soundResId = waitingSound;
+            waitingSound = 0;
+            start(soundResId, sampleId, waitingSince);
+        }
+    }
+
+    private static void start(int soundResId, int sampleId, long since) {
+        if (soundPool.play(sampleId, 1f, 1f, 1, 0, 1f) == 0) {
+            Log.e(TAG, "No stream for sound " + soundResId);
+            return;
+        }
+        long nanos = SystemClock.elapsedRealtimeNanos() - since;
+        pressToPlay.record(nanos);
+        LatencyListener listener = latencyListener;
+        if (listener != null) {
+            listener.onSoundStarted(soundResId, nanos);
         }
     }
 }
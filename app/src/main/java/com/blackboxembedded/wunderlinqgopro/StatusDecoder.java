@@ -0,0 +1,166 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+/**
+ * Decodes GoPro status query responses into a reusable {@link CameraStatus}.
+ *
+ * A response is the query ID, a result byte and then ID-length-value records in any order.
+ * Values are big-endian. Unknown IDs are skipped, so any subset of statuses can be
+ * requested. Decoding does not allocate.
+ */
+public class StatusDecoder {
+
+    /**
+     * GoPro query IDs whose responses carry status records
+     */
+    public static final int QUERY_GET_STATUS = 0x13;
+    public static final int QUERY_REGISTER_STATUS = 0x53;
+    public static final int QUERY_STATUS_PUSH = 0x93;
+
+    private StatusDecoder() {
+    }
+
+    public static boolean isStatusResponse(int queryId) {
+        return queryId == QUERY_GET_STATUS || queryId == QUERY_REGISTER_STATUS || queryId == QUERY_STATUS_PUSH;
+    }
+
+    /**
+     * @param data   buffer holding the message
+     * @param offset index of the query ID
+     * @param length message length in bytes starting at offset, without transport header
+     * @param status updated in place, its version is bumped if anything changed
+     * @return true if this was a successful status response and every record was complete.
+     */
+    public static boolean decode(byte[] data, int offset, int length, CameraStatus status) {
+        if (data == null || length < 2 || offset < 0 || offset + length > data.length) {
+            return false;
+        }
+        if (!isStatusResponse(data[offset] & 0xFF) || data[offset + 1] != 0x00) {
+            return false;
+        }
+
+        boolean changed = false;
+        boolean complete = true;
+        boolean modeSeen = false;
+        long presetGroup = -1;
+        int end = offset + length;
+        int i = offset + 2;
+        while (i < end) {
+            if (i + 2 > end) {
+                complete = false;
+                break;
+            }
+            int id = data[i] & 0xFF;
+            int len = data[i + 1] & 0xFF;
+            i += 2;
+            if (i + len > end) {
+                complete = false;
+                break;
+            }
+            long value = readValue(data, i, len);
+            i += len;
+
+            switch (id) {
+                case CameraStatus.STATUS_BUSY:
+                    changed |= status.busy != (value == 1);
+                    status.busy = (value == 1);
+                    break;
+                case CameraStatus.STATUS_ENCODING:
+                    changed |= status.encoding != (value == 1);
+                    status.encoding = (value == 1);
+                    break;
+                case CameraStatus.STATUS_WIFI_ENABLED:
+                    changed |= status.wifiEnabled != (value == 1);
+                    status.wifiEnabled = (value == 1);
+                    break;
+                case CameraStatus.STATUS_PREVIEW_AVAILABLE:
+                    changed |= status.previewAvailable != (value == 1);
+                    status.previewAvailable = (value == 1);
+                    break;
+                case CameraStatus.STATUS_LEGACY_MODE:
+                    changed |= status.legacyMode != (int) value;
+                    status.legacyMode = (int) value;
+                    modeSeen = true;
+                    break;
+                case CameraStatus.STATUS_LEGACY_SUBMODE:
+                    changed |= status.legacySubmode != (int) value;
+                    status.legacySubmode = (int) value;
+                    modeSeen = true;
+                    break;
+                case CameraStatus.STATUS_PRESET_GROUP:
+                    presetGroup = value;
+                    break;
+                case CameraStatus.STATUS_BATTERY_PERCENT:
+                    changed |= status.batteryPercent != (int) value;
+                    status.batteryPercent = (int) value;
+                    break;
+                case CameraStatus.STATUS_SD_REMAINING_KB:
+                    changed |= status.sdRemainingKb != value;
+                    status.sdRemainingKb = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // OpenGoPro cameras report a preset group, older ones a mode/submode pair
+        if (presetGroup >= 0) {
+            changed |= setMode(status, true, (byte) presetGroup);
+        } else if (modeSeen && status.legacyMode >= 0 && status.legacySubmode >= 0) {
+            changed |= setMode(status, false, legacyToMode(status.legacyMode, status.legacySubmode, status.mode));
+        }
+
+        if (changed) {
+            status.version++;
+        }
+        return complete;
+    }
+
+    private static boolean setMode(CameraStatus status, boolean openGoPro, byte mode) {
+        boolean changed = status.openGoPro != openGoPro || status.mode != mode;
+        status.openGoPro = openGoPro;
+        status.mode = mode;
+        return changed;
+    }
+
+    private static byte legacyToMode(int mode, int submode, byte current) {
+        switch (mode) {
+            case 0:
+                //Video, submode 1 is timelapse video
+                return (submode == 1) ? CameraStatus.MODE_TIMELAPSE : CameraStatus.MODE_VIDEO;
+            case 1:
+                //Photo
+                return CameraStatus.MODE_PHOTO;
+            case 2:
+                //Multishot
+                return CameraStatus.MODE_TIMELAPSE;
+            default:
+                return current;
+        }
+    }
+
+    private static long readValue(byte[] data, int offset, int length) {
+        long value = 0;
+        // Anything wider than a long is not a number we use, keep the low bytes
+        for (int i = Math.max(0, length - 8); i < length; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Camera state laid out in a small shared buffer so another app can map it and read the
+ * recording state every frame without a round trip. One slot per camera. Each slot is a
+ * seqlock: the writer makes the sequence odd, writes the fields and makes it even again, a
+ * reader copies the fields and retries if the sequence was odd or moved meanwhile. Plain
+ * Java has no fences for memory shared with another process, so a checksum over the fields
+ * backs the sequence up.
+ *
+ * Layout, little endian:
+ * <pre>
+ * Header
+ *  0 int   magic 'WGPS'
+ *  4 int   layout version
+ *  8 int   number of slots
+ * 12 int   slot of the active camera, -1 if none
+ * Slot n at 16 + n * 48
+ *  0 int   sequence, odd while the slot is written
+ *  4 int   checksum of bytes 8 to 47
+ *  8 long  Bluetooth address, 0 for a free slot
+ * 16 long  System.nanoTime() of the update, the same clock in every process
+ * 24 int   connection state, BluetoothLeService.STATE_*
+ * 28 byte  mode, CameraStatus.MODE_*
+ * 29 byte  flags, FLAG_*
+ * 30 byte  battery percent, -1 if unknown
+ * 31 byte  reserved
+ * 32 long  free space on the SD card in kB, -1 if unknown
+ * 40 int   status version, bumped on every change the camera reported
+ * 44 int   reserved
+ * </pre>
+ */
+public class StatusSnapshot {
+    public static final int MAGIC = 0x53504757;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int SLOT_SIZE = 48;
+    public static final int DEFAULT_SLOTS = 4;
+
+    public static final int FLAG_BUSY = 1;
+    public static final int FLAG_ENCODING = 1 << 1;
+    public static final int FLAG_WIFI = 1 << 2;
+    public static final int FLAG_PREVIEW = 1 << 3;
+
+    // Reads give up after this many torn copies, the writer is then in the middle of an update
+    private static final int READ_ATTEMPTS = 16;
+
+    /**
+     * One slot as read.
+     */
+    public static class Entry {
+        public int sequence;
+        public long address;
+        public long updatedAt;
+        public int state;
+        public byte mode;
+        public int flags;
+        public int batteryPercent;
+        public long sdRemainingKb;
+        public int statusVersion;
+
+        public boolean isRecording() {
+            return (flags & FLAG_ENCODING) != 0;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int slots;
+
+    /**
+     * Reads a snapshot that was already formatted.
+     */
+    public StatusSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.slots = this.buffer.getInt(8);
+    }
+
+    private StatusSnapshot(ByteBuffer buffer, int slots) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.slots = slots;
+    }
+
+    /**
+     * Clears the buffer and writes the header.
+     */
+    public static StatusSnapshot format(ByteBuffer buffer, int slots) {
+        if (buffer.capacity() < size(slots)) {
+            throw new IllegalArgumentException("Buffer holds less than " + slots + " slots");
+        }
+        StatusSnapshot snapshot = new StatusSnapshot(buffer, slots);
+        for (int i = 0; i < size(slots); i += 4) {
+            snapshot.buffer.putInt(i, 0);
+        }
+        snapshot.buffer.putInt(4, VERSION);
+        snapshot.buffer.putInt(8, slots);
+        snapshot.buffer.putInt(12, -1);
+        snapshot.buffer.putInt(0, MAGIC);
+        return snapshot;
+    }
+
+    public static int size(int slots) {
+        return HEADER_SIZE + slots * SLOT_SIZE;
+    }
+
+    /**
+     * @return true if the buffer holds a snapshot this code can read.
+     */
+    public boolean isValid() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && slots > 0
+                && buffer.capacity() >= size(slots);
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public int getActiveSlot() {
+        return buffer.getInt(12);
+    }
+
+    public void setActiveSlot(int slot) {
+        buffer.putInt(12, slot);
+    }
+
+    /**
+     * @return the slot's sequence. A reader that saw the same even value before has nothing new to read.
+     */
+    public int getSequence(int slot) {
+        return buffer.getInt(offset(slot));
+    }
+
+    /**
+     * @return the slot holding this address, or -1.
+     */
+    public int findSlot(long address) {
+        for (int i = 0; i < slots; i++) {
+            if (buffer.getLong(offset(i) + 8) == address) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes one camera's state. Only one thread may write.
+     */
+    public void write(int slot, long address, long now, int state, CameraStatus status) {
+        int flags = 0;
+        if (status.busy) {
+            flags |= FLAG_BUSY;
+        }
+        if (status.encoding) {
+            flags |= FLAG_ENCODING;
+        }
+        if (status.wifiEnabled) {
+            flags |= FLAG_WIFI;
+        }
+        if (status.previewAvailable) {
+            flags |= FLAG_PREVIEW;
+        }
+        int offset = offset(slot);
+        int sequence = buffer.getInt(offset);
+        buffer.putInt(offset, sequence | 1);
+        buffer.putLong(offset + 8, address);
+        buffer.putLong(offset + 16, now);
+        buffer.putInt(offset + 24, state);
+        buffer.put(offset + 28, status.mode);
+        buffer.put(offset + 29, (byte) flags);
+        buffer.put(offset + 30, (byte) Math.max(-1, Math.min(100, status.batteryPercent)));
+        buffer.put(offset + 31, (byte) 0);
+        buffer.putLong(offset + 32, status.sdRemainingKb);
+        buffer.putInt(offset + 40, status.version);
+        buffer.putInt(offset + 44, 0);
+        buffer.putInt(offset + 4, checksum(offset));
+        buffer.putInt(offset, (sequence | 1) + 1);
+    }
+
+    /**
+     * Frees a slot.
+     */
+    public void clear(int slot) {
+        int offset = offset(slot);
+        int sequence = buffer.getInt(offset);
+        buffer.putInt(offset, sequence | 1);
+        for (int i = 8; i < SLOT_SIZE; i += 4) {
+            buffer.putInt(offset + i, 0);
+        }
+        buffer.putInt(offset + 4, checksum(offset));
+        buffer.putInt(offset, (sequence | 1) + 1);
+    }
+
+    /**
+     * Copies a slot without locking.
+     *
+     * @return false if the writer kept changing it, out is then left as it was.
+     */
+    public boolean read(int slot, Entry out) {
+        int offset = offset(slot);
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            int sequence = buffer.getInt(offset);
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+            int sum = buffer.getInt(offset + 4);
+            long address = buffer.getLong(offset + 8);
+            long updatedAt = buffer.getLong(offset + 16);
+            int state = buffer.getInt(offset + 24);
+            byte mode = buffer.get(offset + 28);
+            int flags = buffer.get(offset + 29) & 0xFF;
+            int battery = buffer.get(offset + 30);
+            long sdRemainingKb = buffer.getLong(offset + 32);
+            int statusVersion = buffer.getInt(offset + 40);
+            if (buffer.getInt(offset) != sequence || checksum(offset) != sum) {
+                continue;
+            }
+            out.sequence = sequence;
+            out.address = address;
+            out.updatedAt = updatedAt;
+            out.state = state;
+            out.mode = mode;
+            out.flags = flags;
+            out.batteryPercent = battery;
+            out.sdRemainingKb = sdRemainingKb;
+            out.statusVersion = statusVersion;
+            return true;
+        }
+        return false;
+    }
+
+    private int offset(int slot) {
+        if (slot < 0 || slot >= slots) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " of " + slots);
+        }
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    // FNV-1a over the slot's fields, a word at a time
+    private int checksum(int offset) {
+        int hash = 0x811C9DC5;
+        for (int i = 8; i < SLOT_SIZE; i += 4) {
+            hash = (hash ^ buffer.getInt(offset + i)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the address as the 48 bit number stored in a slot, or 0 if it does not parse.
+     */
+    public static long parseAddress(String address) {
+        if (address == null || address.length() != 17) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i += 3) {
+            int high = Character.digit(address.charAt(i), 16);
+            int low = Character.digit(address.charAt(i + 1), 16);
+            if (high < 0 || low < 0 || (i < 15 && address.charAt(i + 2) != ':')) {
+                return 0;
+            }
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    public static String formatAddress(long address) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int value = (int) (address >>> shift) & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(value >>> 4, 16)));
+            builder.append(Character.toUpperCase(Character.forDigit(value & 0xF, 16)));
+            if (shift > 0) {
+                builder.append(':');
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import androidx.lifecycle.ViewModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The camera state the control screen last drew. Kept in a ViewModel so it outlives the
+ * activity when it is recreated, and compared field by field on every update so views only
+ * touch what actually changed. Used from the main thread only.
+ */
+public class StatusStore extends ViewModel {
+
+    /**
+     * Fields reported as changed
+     */
+    public static final int FIELD_MODE = 1;
+    public static final int FIELD_BUSY = 1 << 1;
+    public static final int FIELD_ENCODING = 1 << 2;
+    public static final int FIELD_WIFI = 1 << 3;
+    public static final int FIELD_PREVIEW = 1 << 4;
+    public static final int FIELD_OPEN_GOPRO = 1 << 5;
+    public static final int FIELD_BATTERY = 1 << 6;
+    public static final int FIELD_SD_REMAINING = 1 << 7;
+    public static final int FIELDS_ALL = (1 << 8) - 1;
+
+    public interface Observer {
+        /**
+         * @param status  the stored state, do not modify or keep it
+         * @param changed the FIELD_ bits that differ from what was last reported
+         */
+        void onStatusChanged(CameraStatus status, int changed);
+    }
+
+    private final CameraStatus status = new CameraStatus();
+    private final List<Observer> observers = new ArrayList<>();
+    private boolean valid;
+
+    /**
+     * Adds an observer. If a state is stored already it is reported straight away with every
+     * field marked changed, so a new screen draws everything once.
+     */
+    public void observe(Observer observer) {
+        if (!observers.contains(observer)) {
+            observers.add(observer);
+        }
+        if (valid) {
+            observer.onStatusChanged(status, FIELDS_ALL);
+        }
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    public boolean hasStatus() {
+        return valid;
+    }
+
+    /**
+     * Copies the stored state into {@code out}.
+     *
+     * @return false if nothing was stored yet
+     */
+    public boolean get(CameraStatus out) {
+        if (!valid) {
+            return false;
+        }
+        out.copyFrom(status);
+        return true;
+    }
+
+    /**
+     * Stores a new state and tells the observers which fields changed, if any did.
+     *
+     * @return the FIELD_ bits that changed
+     */
+    public int update(CameraStatus latest) {
+        int changed = valid ? diff(status, latest) : FIELDS_ALL;
+        status.copyFrom(latest);
+        valid = true;
+        if (changed != 0) {
+            for (int i = 0; i < observers.size(); i++) {
+                observers.get(i).onStatusChanged(status, changed);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the stored state, the next update reports every field.
+     */
+    public void clear() {
+        valid = false;
+    }
+
+    /**
+     * @return the FIELD_ bits in which the two states differ
+     */
+    public static int diff(CameraStatus a, CameraStatus b) {
+        int changed = 0;
+        if (a.mode != b.mode) {
+            changed |= FIELD_MODE;
+        }
+        if (a.busy != b.busy) {
+            changed |= FIELD_BUSY;
+        }
+        if (a.encoding != b.encoding) {
+            changed |= FIELD_ENCODING;
+        }
+        if (a.wifiEnabled != b.wifiEnabled) {
+            changed |= FIELD_WIFI;
+        }
+        if (a.previewAvailable != b.previewAvailable) {
+            changed |= FIELD_PREVIEW;
+        }
+        if (a.openGoPro != b.openGoPro) {
+            changed |= FIELD_OPEN_GOPRO;
+        }
+        if (a.batteryPercent != b.batteryPercent) {
+            changed |= FIELD_BATTERY;
+        }
+        if (a.sdRemainingKb != b.sdRemainingKb) {
+            changed |= FIELD_SD_REMAINING;
+        }
+        return changed;
+    }
+
+    @Override
+    protected void onCleared() {
+        observers.clear();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debug trace kept in a memory-mapped file split into fixed-size segments that are reused
+ * round-robin, so disk usage stays bounded and appending a record is a handful of memory
+ * writes. Space is reserved with a single atomic add, any thread can append without locking.
+ * A writer that stalls while the others fill the whole ring drops its record.
+ * Records are binary and only rendered to text by {@link #export(Writer)}.
+ *
+ * Record layout, 8-byte aligned and never spanning two segments:
+ * <pre>
+ *  0 int   magic (8 bits) | kind (8 bits) | record size (16 bits), written last
+ *  4 int   segment generation, tells current records from ones left over from the last lap
+ *  8 long  wall clock time in ms
+ * 16 byte  category
+ * 17 byte  event
+ * 18 short payload length
+ * 20       payload, ASCII text or a UUID followed by raw bytes
+ * </pre>
+ */
+public class TraceLog {
+
+    public static final byte CATEGORY_APP = 0;
+    public static final byte CATEGORY_BLE = 1;
+    public static final byte CATEGORY_WIFI = 2;
+    public static final byte CATEGORY_UI = 3;
+
+    public static final byte EVENT_MESSAGE = 0;
+    public static final byte EVENT_WRITE = 1;
+    public static final byte EVENT_READ = 2;
+    public static final byte EVENT_NOTIFY = 3;
+    public static final byte EVENT_STATE = 4;
+    public static final byte EVENT_DROPPED = 5;
+    public static final byte EVENT_STALLED = 6;
+    public static final byte EVENT_INPUT = 7;
+    public static final byte EVENT_NETWORK = 8;
+
+    private static final String[] CATEGORY_NAMES = {"APP", "BLE", "WIFI", "UI"};
+    private static final String[] EVENT_NAMES = {"MESSAGE", "WRITE", "READ", "NOTIFY", "STATE",
+            "DROPPED", "STALLED", "INPUT", "NETWORK"};
+
+    public static final String FILE_NAME = "wunderlinq-gopro.trace";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    public static final int DEFAULT_SEGMENT_COUNT = 16;
+
+    static final int HEADER_SIZE = 20;
+    static final int MAX_PAYLOAD = 1024;
+
+    private static final int MAGIC = 0x7A;
+    private static final int KIND_TEXT = 1;
+    private static final int KIND_DATA = 2;
+    // Covers the part of a segment taken by a reservation that did not fit in the previous one
+    private static final int KIND_SKIP = 3;
+
+    private static volatile TraceLog instance;
+
+    private final File file;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+    private final AtomicLong cursor;
+
+    TraceLog(File file, int segmentSize, int segmentCount) throws IOException {
+        if (segmentSize % 8 != 0 || segmentSize < HEADER_SIZE + MAX_PAYLOAD + 8) {
+            throw new IllegalArgumentException("Bad segment size: " + segmentSize);
+        }
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.segments = new MappedByteBuffer[segmentCount];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = (long) segmentSize * segmentCount;
+            if (raf.length() != size) {
+                // Another layout can't be read back, start over
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+            }
+        } finally {
+            // The mappings stay valid after the file is closed
+            raf.close();
+        }
+        // Continue after the newest segment so the previous run stays readable
+        int newest = -1;
+        for (int i = 0; i < segmentCount; i++) {
+            newest = Math.max(newest, generationOf(i));
+        }
+        cursor = new AtomicLong((long) (newest + 1) * segmentSize);
+    }
+
+    /**
+     * Starts tracing into the given file, keeping what a previous run left there.
+     */
+    public static synchronized void open(File file) throws IOException {
+        if (instance == null) {
+            instance = new TraceLog(file, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_COUNT);
+        }
+    }
+
+    public static synchronized void close() {
+        TraceLog trace = instance;
+        instance = null;
+        if (trace != null) {
+            trace.flush();
+        }
+    }
+
+    public static boolean isOpen() {
+        return instance != null;
+    }
+
+    public static TraceLog get() {
+        return instance;
+    }
+
+    /**
+     * Renders the trace in the given file as text, using the open trace if it is that file.
+     */
+    public static void export(File traceFile, File outputFile) throws IOException {
+        TraceLog trace = instance;
+        if (trace == null || !trace.file.equals(traceFile)) {
+            if (!traceFile.exists()) {
+                return;
+            }
+            trace = new TraceLog(traceFile, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_COUNT);
+        }
+        Writer out = new BufferedWriter(new FileWriter(outputFile));
+        try {
+            trace.export(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void text(byte category, byte event, String text) {
+        TraceLog trace = instance;
+        if (trace != null) {
+            trace.appendText(category, event, text);
+        }
+    }
+
+    public static void data(byte category, byte event, UUID uuid, byte[] data, int length) {
+        TraceLog trace = instance;
+        if (trace != null) {
+            trace.appendData(category, event, uuid, data, length);
+        }
+    }
+
+    void appendText(byte category, byte event, String text) {
+        int length = Math.min(text.length(), MAX_PAYLOAD);
+        long position = reserve(HEADER_SIZE + length);
+        MappedByteBuffer segment = segmentAt(position);
+        int offset = (int) (position % segmentSize);
+        int index = offset + HEADER_SIZE;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            segment.put(index + i, (c < 0x20 || c > 0x7E) ? (byte) '?' : (byte) c);
+        }
+        commit(segment, offset, position, KIND_TEXT, HEADER_SIZE + length, category, event, length);
+    }
+
+    void appendData(byte category, byte event, UUID uuid, byte[] data, int length) {
+        length = Math.min(length, MAX_PAYLOAD - 16);
+        long position = reserve(HEADER_SIZE + 16 + length);
+        MappedByteBuffer segment = segmentAt(position);
+        int offset = (int) (position % segmentSize);
+        int index = offset + HEADER_SIZE;
+        segment.putLong(index, uuid.getMostSignificantBits());
+        segment.putLong(index + 8, uuid.getLeastSignificantBits());
+        index += 16;
+        for (int i = 0; i < length; i++) {
+            segment.put(index + i, data[i]);
+        }
+        commit(segment, offset, position, KIND_DATA, HEADER_SIZE + 16 + length, category, event, 16 + length);
+    }
+
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * @return the absolute position of a block of the given size that lies within one segment.
+     */
+    private long reserve(int size) {
+        size = (size + 7) & ~7;
+        while (true) {
+            long position = cursor.getAndAdd(size);
+            long end = position + size;
+            long boundary = (position / segmentSize + 1) * segmentSize;
+            if (end <= boundary) {
+                return position;
+            }
+            // Straddles into the next segment: give up the tail of this one and mark the
+            // head of the next as taken so readers can walk past it
+            int skipped = (int) (end - boundary);
+            MappedByteBuffer next = segmentAt(boundary);
+            next.putInt(4, (int) (boundary / segmentSize));
+            next.putInt(0, (MAGIC << 24) | (KIND_SKIP << 16) | skipped);
+        }
+    }
+
+    private void commit(MappedByteBuffer segment, int offset, long position, int kind, int size,
+                        byte category, byte event, int payloadLength) {
+        if (cursor.get() >= (position / segmentSize + segments.length) * segmentSize) {
+            // Stalled for a whole lap, the segment holds newer records now. A header written
+            // into the middle of them would break the walk over that segment.
+            return;
+        }
+        segment.putInt(offset + 4, (int) (position / segmentSize));
+        segment.putLong(offset + 8, System.currentTimeMillis());
+        segment.put(offset + 16, category);
+        segment.put(offset + 17, event);
+        segment.putShort(offset + 18, (short) payloadLength);
+        segment.putInt(offset, (MAGIC << 24) | (kind << 16) | ((size + 7) & ~7));
+    }
+
+    private MappedByteBuffer segmentAt(long position) {
+        return segments[(int) ((position / segmentSize) % segments.length)];
+    }
+
+    /**
+     * @return the generation of the records in the given segment, or -1 if it holds none.
+     */
+    private int generationOf(int index) {
+        MappedByteBuffer segment = segments[index];
+        int head = segment.getInt(0);
+        int generation = segment.getInt(4);
+        if ((head >>> 24) != MAGIC || generation < 0 || generation % segments.length != index) {
+            return -1;
+        }
+        return generation;
+    }
+
+    /**
+     * Writes every record, oldest first, one line each. Records still being written by
+     * another thread may be left out.
+     */
+    public void export(Writer out) throws IOException {
+        Integer[] order = new Integer[segments.length];
+        final int[] generations = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            order[i] = i;
+            generations[i] = generationOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(generations[a], generations[b]);
+            }
+        });
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        StringBuilder line = new StringBuilder(256);
+        char[] hex = new char[3 * MAX_PAYLOAD];
+        for (int index : order) {
+            int generation = generations[index];
+            if (generation < 0) {
+                continue;
+            }
+            MappedByteBuffer segment = segments[index];
+            int offset = 0;
+            while (offset + HEADER_SIZE <= segmentSize) {
+                int head = segment.getInt(offset);
+                int size = head & 0xFFFF;
+                if ((head >>> 24) != MAGIC || segment.getInt(offset + 4) != generation
+                        || size == 0 || offset + size > segmentSize) {
+                    break;
+                }
+                int kind = (head >>> 16) & 0xFF;
+                if (kind != KIND_SKIP) {
+                    line.setLength(0);
+                    render(segment, offset, kind, line, date, formatter, hex);
+                    out.append(line).append('\n');
+                }
+                offset += size;
+            }
+        }
+        out.flush();
+    }
+
+    private static void render(MappedByteBuffer segment, int offset, int kind, StringBuilder line,
+                               Date date, SimpleDateFormat formatter, char[] hex) {
+        date.setTime(segment.getLong(offset + 8));
+        line.append(formatter.format(date)).append(' ')
+                .append(name(CATEGORY_NAMES, segment.get(offset + 16))).append(' ')
+                .append(name(EVENT_NAMES, segment.get(offset + 17))).append(' ');
+        int length = segment.getShort(offset + 18) & 0xFFFF;
+        int index = offset + HEADER_SIZE;
+        if (kind == KIND_DATA) {
+            UUID uuid = new UUID(segment.getLong(index), segment.getLong(index + 8));
+            line.append('<').append(uuid).append("> ");
+            byte[] data = new byte[length - 16];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = segment.get(index + 16 + i);
+            }
+            line.append(hex, 0, Utils.writeHex(data, 0, data.length, hex, 0));
+        } else {
+            for (int i = 0; i < length; i++) {
+                line.append((char) segment.get(index + i));
+            }
+        }
+    }
+
+    private static String name(String[] names, byte value) {
+        return (value >= 0 && value < names.length) ? names[value] : Integer.toString(value);
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -41,6 +41,10 @@ public class UUIDDatabase {
             .fromString(GattAttributes.GOPRO_COMMAND_CHARACTERISTIC);
     public final static UUID UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC = UUID
             .fromString(GattAttributes.GOPRO_COMMANDRESPONSE_CHARACTERISTIC);
+    public static final UUID UUID_GOPRO_SETTINGS_CHARACTERISTIC = UUID
+            .fromString(GattAttributes.GOPRO_SETTINGS_CHARACTERISTIC);
+    public final static UUID UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC = UUID
+            .fromString(GattAttributes.GOPRO_SETTINGSRESPONSE_CHARACTERISTIC);
     public static final UUID UUID_GOPRO_QUERY_CHARACTERISTIC = UUID
             .fromString(GattAttributes.GOPRO_QUERY_CHARACTERISTIC);
     public final static UUID UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC = UUID
@@ -18,14 +18,35 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package com.blackboxembedded.wunderlinqgopro;
 
 public class Utils {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     public static String ByteArraytoHex(byte[] bytes) {
         if(bytes!=null){
-            StringBuilder sb = new StringBuilder();
-            for (byte b : bytes) {
-                sb.append(String.format("%02X ", b));
-            }
-            return sb.toString();
+            return ByteArraytoHex(bytes, 0, bytes.length);
         }
         return "";
     }
+
+    public static String ByteArraytoHex(byte[] bytes, int offset, int length) {
+        char[] out = new char[length * 3];
+        writeHex(bytes, offset, length, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * Writes the bytes as "XX " groups into a caller owned buffer of at least length * 3 chars.
+     * Reuse the buffer and nothing is allocated.
+     *
+     * @return the number of chars written.
+     */
+    public static int writeHex(byte[] bytes, int offset, int length, char[] out, int outOffset) {
+        int j = outOffset;
+        for (int i = offset; i < offset + length; i++) {
+            int b = bytes[i] & 0xFF;
+            out[j++] = HEX_DIGITS[b >>> 4];
+            out[j++] = HEX_DIGITS[b & 0x0F];
+            out[j++] = ' ';
+        }
+        return j - outOffset;
+    }
 }
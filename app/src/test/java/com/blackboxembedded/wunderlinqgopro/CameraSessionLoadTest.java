@@ -0,0 +1,330 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs scripted sessions against {@link SimulatedCamera}s on a simulated clock: the real
+ * command engine, framing and status handling, without a phone. Raise the number of
+ * sessions with -Dsimulation.sessions=... for a proper load run.
+ */
+public class CameraSessionLoadTest {
+
+    private static final int SESSIONS = Integer.getInteger("simulation.sessions", 200);
+    private static final int STEPS = 40;
+    private static final UUID COMMAND_RESPONSE = UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC;
+    private static final UUID SETTINGS_RESPONSE = UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC;
+
+    /**
+     * One camera, one session and the bookkeeping of what was asked and answered.
+     */
+    private static class ScriptedRun implements CameraSession.Listener {
+        final VirtualScheduler scheduler = new VirtualScheduler();
+        final SimulatedCamera camera;
+        final CameraSession session;
+        final Random random;
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<Long>[] awaiting = new ArrayDeque[256];
+        final ArrayDeque<Long> awaitingSettings = new ArrayDeque<>();
+        long[] latencies = new long[64];
+        int answered;
+        int sent;
+        int busy;
+        int dropped;
+        int stalls;
+
+        ScriptedRun(int index, SimulatedCamera.Config config) {
+            config.seed = index;
+            camera = new SimulatedCamera(scheduler, config);
+            session = new CameraSession(String.format(Locale.ENGLISH, "D0:00:00:00:%02X:%02X", index >> 8, index & 0xFF), scheduler);
+            random = new Random(index);
+            for (int i = 0; i < awaiting.length; i++) {
+                awaiting[i] = new ArrayDeque<>();
+            }
+        }
+
+        void connect() {
+            session.connect(camera, "GoPro " + session.getAddress(), this);
+            scheduler.runFor(2000);
+        }
+
+        void script(int steps) {
+            boolean shutter = false;
+            for (int step = 0; step < steps; step++) {
+                if (!session.isConnected()) {
+                    break;
+                }
+                switch (random.nextInt(6)) {
+                    case 0:
+                        shutter = !shutter;
+                        command(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, (byte) (shutter ? 1 : 0)});
+                        break;
+                    case 1:
+                        command(new byte[]{0x02, 0x01, (byte) random.nextInt(3)});
+                        break;
+                    case 2:
+                        command(new byte[]{BluetoothLeService.CMD_HILIGHT});
+                        break;
+                    case 3:
+                        awaitingSettings.add(scheduler.nanoTime());
+                        sent++;
+                        session.setSetting(new byte[]{0x02, 0x01, 0x09});
+                        break;
+                    case 4:
+                        session.requestCameraStatus();
+                        break;
+                    default:
+                        session.requestWiFiSettings();
+                        break;
+                }
+                // Bursts and pauses, like a rider pressing buttons
+                scheduler.runFor(random.nextInt(4) == 0 ? 0 : random.nextInt(200));
+            }
+        }
+
+        void command(byte[] command) {
+            awaiting[command[0] & 0xFF].add(scheduler.nanoTime());
+            sent++;
+            session.setCommand(command);
+        }
+
+        void settle() {
+            scheduler.runFor(30000);
+        }
+
+        private void answered(ArrayDeque<Long> queue, boolean error) {
+            Long sentAt = queue.poll();
+            if (sentAt == null) {
+                // Answer to a write the engine repeated
+                return;
+            }
+            if (answered == latencies.length) {
+                latencies = Arrays.copyOf(latencies, answered * 2);
+            }
+            latencies[answered++] = scheduler.nanoTime() - sentAt;
+            if (error) {
+                busy++;
+            }
+        }
+
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+        }
+
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+            if (length < 2) {
+                return;
+            }
+            if (COMMAND_RESPONSE.equals(uuid)) {
+                answered(awaiting[data[0] & 0xFF], data[1] != SimulatedCamera.RESULT_SUCCESS);
+            } else if (SETTINGS_RESPONSE.equals(uuid)) {
+                answered(awaitingSettings, data[1] != SimulatedCamera.RESULT_SUCCESS);
+            }
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+            dropped++;
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+            stalls++;
+        }
+    }
+
+    /**
+     * Totals over many runs.
+     */
+    private static class Report {
+        int sessions;
+        long sent;
+        long answered;
+        long busy;
+        long dropped;
+        long stalls;
+        long violations;
+        long requests;
+        long retries;
+        long timeouts;
+        long virtualNanos;
+        long wallNanos;
+        long[] latencies = new long[0];
+
+        void add(ScriptedRun run) {
+            sessions++;
+            sent += run.sent;
+            answered += run.answered;
+            busy += run.busy;
+            dropped += run.dropped;
+            stalls += run.stalls;
+            violations += run.camera.violations;
+            requests += run.camera.requests;
+            virtualNanos += run.scheduler.nanoTime();
+            CommandEngine engine = run.session.getCommandEngine();
+            for (BleCommand.Lane lane : BleCommand.Lane.values()) {
+                retries += engine.getLane(lane).getRetries();
+                timeouts += engine.getLane(lane).getTimeouts();
+            }
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + run.answered);
+            System.arraycopy(run.latencies, 0, latencies, offset, run.answered);
+        }
+
+        double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH,
+                    "%d sessions in %.2f s (%.0f per minute), %d GATT requests, %.1f requests/s per link, "
+                            + "%d of %d commands answered (%d busy), response p50 %.1f ms, p99 %.1f ms, max %.1f ms, "
+                            + "%d retries, %d timeouts, %d dropped, %d stalls, %d violations",
+                    sessions, wallNanos / 1e9, sessions * 60e9 / Math.max(1, wallNanos), requests,
+                    requests * 1e9 / Math.max(1, virtualNanos), answered, sent, busy,
+                    percentileMillis(50), percentileMillis(99), percentileMillis(100),
+                    retries, timeouts, dropped, stalls, violations);
+        }
+    }
+
+    private interface Script {
+        void run(ScriptedRun run);
+    }
+
+    private static Report simulate(final SimulatedCamera.Config template, int sessions, final Script script) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        List<Future<ScriptedRun>> runs = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            final int index = i;
+            runs.add(pool.submit(new Callable<ScriptedRun>() {
+                @Override
+                public ScriptedRun call() {
+                    SimulatedCamera.Config config = new SimulatedCamera.Config();
+                    config.minLatencyMillis = template.minLatencyMillis;
+                    config.maxLatencyMillis = template.maxLatencyMillis;
+                    config.lossRate = template.lossRate;
+                    config.rejectRate = template.rejectRate;
+                    config.busyRate = template.busyRate;
+                    config.mtu = template.mtu;
+                    ScriptedRun run = new ScriptedRun(index, config);
+                    script.run(run);
+                    return run;
+                }
+            }));
+        }
+        Report report = new Report();
+        for (Future<ScriptedRun> run : runs) {
+            ScriptedRun result = run.get();
+            assertEquals("BluetoothGatt would have refused a request", 0, result.camera.violations);
+            assertTrue("Queue not drained for " + result.session.getAddress() + "\n" + result.session.getLaneStats(),
+                    result.session.getCommandEngine().isIdle());
+            report.add(result);
+        }
+        report.wallNanos = System.nanoTime() - start;
+        pool.shutdown();
+        return report;
+    }
+
+    @Test
+    public void everyCommandIsAnsweredOnACleanLink() throws Exception {
+        Report report = simulate(new SimulatedCamera.Config(), SESSIONS, new Script() {
+            @Override
+            public void run(ScriptedRun run) {
+                run.connect();
+                assertTrue(run.session.isStatusSubscribed());
+                run.script(STEPS);
+                run.settle();
+
+                CameraStatus status = new CameraStatus();
+                run.session.getCameraStatus(status);
+                assertEquals(run.camera.encoding, status.encoding);
+                assertEquals(run.camera.legacyMode, status.legacyMode);
+                assertEquals(run.sent, run.answered);
+            }
+        });
+        assertEquals(report.toString(), 0, report.dropped);
+        assertEquals(report.toString(), 0, report.timeouts);
+        assertEquals(report.toString(), 0, report.stalls);
+        // Queueing behind the other lanes, never anywhere near an ack timeout
+        assertTrue(report.toString(), report.percentileMillis(95) < CommandEngine.DEFAULT_ACK_TIMEOUT / 4);
+    }
+
+    @Test
+    public void recoversFromLossRejectsAndBusyCamera() throws Exception {
+        SimulatedCamera.Config config = new SimulatedCamera.Config();
+        config.lossRate = 0.03;
+        config.rejectRate = 0.05;
+        config.busyRate = 0.1;
+        config.mtu = GoProPacket.DEFAULT_MTU;
+        Report report = simulate(config, SESSIONS, new Script() {
+            @Override
+            public void run(ScriptedRun run) {
+                run.connect();
+                run.script(STEPS);
+                run.settle();
+            }
+        });
+        assertTrue(report.toString(), report.retries > 0);
+        // A lost response cannot be recovered by the engine, a lost callback is retried
+        assertTrue(report.toString(), report.answered > report.sent * 0.8);
+    }
+
+    @Test
+    public void resumesAfterTheLinkDrops() throws Exception {
+        Report report = simulate(new SimulatedCamera.Config(), Math.max(1, SESSIONS / 4), new Script() {
+            @Override
+            public void run(ScriptedRun run) {
+                run.connect();
+                run.script(STEPS / 2);
+                run.camera.dropLink();
+                assertFalse(run.session.isConnected());
+                assertTrue(run.session.getCommandEngine().isIdle());
+                assertFalse(run.session.isStatusSubscribed());
+
+                // Whatever was in flight is gone with the link
+                for (ArrayDeque<Long> queue : run.awaiting) {
+                    run.sent -= queue.size();
+                    queue.clear();
+                }
+                run.sent -= run.awaitingSettings.size();
+                run.awaitingSettings.clear();
+
+                run.scheduler.runFor(500);
+                run.connect();
+                assertTrue(run.session.isConnected());
+                assertTrue(run.session.isStatusSubscribed());
+                run.script(STEPS / 2);
+                run.settle();
+                assertEquals(run.sent, run.answered);
+            }
+        });
+        assertEquals(report.toString(), 0, report.dropped);
+        assertEquals(report.toString(), 0, report.stalls);
+    }
+}
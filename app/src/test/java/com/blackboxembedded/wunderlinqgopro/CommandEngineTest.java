@@ -0,0 +1,112 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class CommandEngineTest {
+
+    private static final UUID CCC = UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC;
+    private static final UUID QUERY = UUIDDatabase.UUID_GOPRO_QUERY_CHARACTERISTIC;
+    private static final byte[] ENABLE = {0x01, 0x00};
+    private static final byte[] DISABLE = {0x00, 0x00};
+    private static final byte[] REGISTER = {0x53, 0x08};
+    private static final byte[] UNREGISTER = {0x73, 0x08};
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final CommandEngine engine = new CommandEngine(scheduler);
+    // Payloads in the order they were handed to the stack
+    private final List<byte[]> sent = new ArrayList<>();
+
+    private BleCommand command(BleCommand.Lane lane, BleCommand.Type type, UUID uuid, final byte[] payload) {
+        return new BleCommand(lane, type, uuid, payload) {
+            @Override
+            public boolean execute() {
+                sent.add(payload);
+                return true;
+            }
+        };
+    }
+
+    private void completeAll(BleCommand.Type type, UUID uuid) {
+        for (int i = 0; i < 10; i++) {
+            scheduler.runFor(10);
+            engine.complete(type, uuid);
+        }
+        scheduler.runFor(10);
+    }
+
+    @Test
+    public void togglesAreNotMergedAcrossEachOther() {
+        // Holds the link so the rest queues up
+        engine.enqueue(command(BleCommand.Lane.CONTROL, BleCommand.Type.DESCRIPTOR, CCC, ENABLE));
+        engine.enqueue(command(BleCommand.Lane.CONTROL, BleCommand.Type.DESCRIPTOR, CCC, DISABLE));
+        engine.enqueue(command(BleCommand.Lane.CONTROL, BleCommand.Type.DESCRIPTOR, CCC, ENABLE));
+        completeAll(BleCommand.Type.DESCRIPTOR, CCC);
+        assertEquals(3, sent.size());
+        assertArrayEquals(ENABLE, sent.get(2));
+
+        sent.clear();
+        engine.enqueue(command(BleCommand.Lane.QUERY, BleCommand.Type.WRITE, QUERY, REGISTER));
+        engine.enqueue(command(BleCommand.Lane.QUERY, BleCommand.Type.WRITE, QUERY, UNREGISTER));
+        engine.enqueue(command(BleCommand.Lane.QUERY, BleCommand.Type.WRITE, QUERY, REGISTER));
+        // Straight repeat of the last one, folded in
+        engine.enqueue(command(BleCommand.Lane.QUERY, BleCommand.Type.WRITE, QUERY, REGISTER));
+        completeAll(BleCommand.Type.WRITE, QUERY);
+        assertEquals(3, sent.size());
+        assertArrayEquals(REGISTER, sent.get(2));
+        assertEquals(1, engine.getCoalescedCount());
+    }
+
+    @Test
+    public void lateCallbackDoesNotCompleteTheRetry() {
+        engine.enqueue(command(BleCommand.Lane.CONTROL, BleCommand.Type.DESCRIPTOR, CCC, ENABLE));
+        scheduler.runFor(CommandEngine.DEFAULT_ACK_TIMEOUT + CommandEngine.DEFAULT_RETRY_BACKOFF * 2);
+        // The stack has not answered the first try, the retry waits for it
+        assertEquals(1, sent.size());
+
+        engine.complete(BleCommand.Type.DESCRIPTOR, CCC);
+        scheduler.runFor(1);
+        assertEquals(2, sent.size());
+        assertFalse(engine.isIdle());
+
+        scheduler.runFor(10);
+        engine.complete(BleCommand.Type.DESCRIPTOR, CCC);
+        assertTrue(engine.isIdle());
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void lateCallbackDuringBackoffIsNotHeldAgainstTheRetry() {
+        engine.enqueue(command(BleCommand.Lane.CONTROL, BleCommand.Type.DESCRIPTOR, CCC, ENABLE));
+        scheduler.runFor(CommandEngine.DEFAULT_ACK_TIMEOUT + CommandEngine.DEFAULT_RETRY_BACKOFF / 2);
+        engine.complete(BleCommand.Type.DESCRIPTOR, CCC);
+        assertEquals(1, sent.size());
+
+        scheduler.runFor(CommandEngine.DEFAULT_RETRY_BACKOFF);
+        assertEquals(2, sent.size());
+        // Straight answer to the retry
+        engine.complete(BleCommand.Type.DESCRIPTOR, CCC);
+        assertTrue(engine.isIdle());
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void fastAnswerToAWriteRetryCompletesIt() {
+        engine.enqueue(command(BleCommand.Lane.QUERY, BleCommand.Type.WRITE_NO_RESPONSE, QUERY, REGISTER));
+        // The first try never calls back, the retry goes once the stack is given up on
+        scheduler.runFor(CommandEngine.DEFAULT_WRITE_TIMEOUT * 2 + 1);
+        assertEquals(2, sent.size());
+
+        scheduler.runFor(1);
+        engine.complete(BleCommand.Type.WRITE, QUERY);
+        assertTrue(engine.isIdle());
+        scheduler.runFor(CommandEngine.DEFAULT_WRITE_TIMEOUT * 4);
+        assertEquals(2, sent.size());
+        assertEquals(0, engine.getLane(BleCommand.Lane.QUERY).getFailed());
+    }
+}
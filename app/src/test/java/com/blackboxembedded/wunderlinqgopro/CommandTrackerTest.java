@@ -0,0 +1,155 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class CommandTrackerTest {
+
+    private static final CameraSession.Listener IGNORE = new CameraSession.Listener() {
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+        }
+
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    };
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+
+    @Test
+    public void cameraAnswersCompleteTheirCommands() {
+        SimulatedCamera.Config config = new SimulatedCamera.Config();
+        SimulatedCamera camera = new SimulatedCamera(scheduler, config);
+        CameraSession session = new CameraSession("D0:00:00:00:12:AB", scheduler);
+        session.connect(camera, "GoPro", IGNORE);
+        scheduler.runFor(2000);
+        assertTrue(session.isStatusSubscribed());
+
+        CommandTracker.Pending start = new CommandTracker.Pending(BluetoothLeService.CMD_SHUTTER);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01}, start);
+        assertFalse(start.isDone());
+        scheduler.runFor(500);
+        assertTrue(start.isSuccess());
+        assertTrue(start.getLatencyNanos() > 0);
+
+        // Busy camera says no
+        config.busyRate = 1;
+        final List<CommandTracker.Pending> completed = new ArrayList<>();
+        CommandTracker.Pending stop = new CommandTracker.Pending(BluetoothLeService.CMD_SHUTTER);
+        stop.setCallback(new CommandTracker.Callback() {
+            @Override
+            public void onComplete(CommandTracker.Pending command) {
+                completed.add(command);
+            }
+        });
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x00}, stop);
+        scheduler.runFor(500);
+        assertEquals(1, completed.size());
+        assertFalse(stop.isSuccess());
+        assertEquals(CommandTracker.RESULT_ERROR, stop.getResult());
+
+        CommandTracker tracker = session.getCommandTracker();
+        assertEquals(2, tracker.getLatency(BluetoothLeService.CMD_SHUTTER).getCount());
+        assertEquals(0, tracker.getOutstanding());
+
+        // Gone for good, nothing is left waiting
+        CommandTracker.Pending lost = new CommandTracker.Pending(BluetoothLeService.CMD_SHUTTER);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01}, lost);
+        session.close();
+        assertEquals(CommandTracker.RESULT_DISCONNECTED, lost.getResult());
+        assertEquals(0, tracker.getOutstanding());
+    }
+
+    @Test
+    public void waitsForTheEngineToGiveUp() {
+        SimulatedCamera.Config config = new SimulatedCamera.Config();
+        CameraSession session = new CameraSession("D0:00:00:00:12:AB", scheduler);
+        session.connect(new SimulatedCamera(scheduler, config), "GoPro", IGNORE);
+        scheduler.runFor(2000);
+
+        // Writes go unacknowledged, the engine retries and gives up
+        config.lossRate = 1;
+        CommandTracker.Pending start = new CommandTracker.Pending(BluetoothLeService.CMD_SHUTTER);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01}, start);
+        scheduler.runFor(session.getCommandEngine().getRetryBudget() + CommandTracker.DEFAULT_TIMEOUT);
+        // Reported when the engine dropped it, not left to time out
+        assertEquals(CommandTracker.RESULT_NOT_SENT, start.getResult());
+        assertEquals(0, session.getCommandTracker().getOutstanding());
+        session.close();
+    }
+
+    @Test
+    public void droppedCommandCancelsItselfNotAnEarlierOne() {
+        SimulatedCamera.Config config = new SimulatedCamera.Config();
+        // Under the write timeout, the answer follows one more latency after the write
+        config.minLatencyMillis = 450;
+        config.maxLatencyMillis = 450;
+        CameraSession session = new CameraSession("D0:00:00:00:12:AB", scheduler);
+        session.connect(new SimulatedCamera(scheduler, config), "GoPro", IGNORE);
+        scheduler.runFor(5000);
+        assertTrue(session.isStatusSubscribed());
+
+        // Written, the answer is still on its way
+        CommandTracker.Pending start = new CommandTracker.Pending(BluetoothLeService.CMD_SHUTTER);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01}, start);
+        scheduler.runFor(500);
+        assertFalse(start.isDone());
+
+        // Same command ID, refused until the engine gives up
+        config.rejectRate = 1;
+        CommandTracker.Pending stop = new CommandTracker.Pending(BluetoothLeService.CMD_SHUTTER);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x00}, stop);
+        scheduler.runFor(350);
+        assertEquals(CommandTracker.RESULT_NOT_SENT, stop.getResult());
+        assertFalse(start.isDone());
+
+        config.rejectRate = 0;
+        scheduler.runFor(500);
+        assertTrue(start.isSuccess());
+        assertEquals(0, session.getCommandTracker().getOutstanding());
+        session.close();
+    }
+
+    @Test
+    public void responsesGoToTheOldestCommandAndSilenceTimesOut() {
+        CommandTracker tracker = new CommandTracker(scheduler);
+        CommandTracker.Pending first = new CommandTracker.Pending((byte) 0x02);
+        CommandTracker.Pending second = new CommandTracker.Pending((byte) 0x02);
+        CommandTracker.Pending other = new CommandTracker.Pending((byte) 0x01);
+        tracker.track(first);
+        tracker.track(other);
+        scheduler.runFor(100);
+        tracker.track(second);
+
+        assertTrue(tracker.onResponse(new byte[]{0x02, 0x00}, 2));
+        assertTrue(first.isSuccess());
+        assertFalse(second.isDone());
+        assertFalse(tracker.onResponse(new byte[]{0x03, 0x00}, 2));
+
+        scheduler.runFor(CommandTracker.DEFAULT_TIMEOUT);
+        assertEquals(CommandTracker.RESULT_TIMEOUT, other.getResult());
+        assertEquals(-1, other.getLatencyNanos());
+        assertEquals(CommandTracker.RESULT_TIMEOUT, second.getResult());
+        // A late answer finds nothing waiting
+        assertFalse(tracker.onResponse(new byte[]{0x02, 0x00}, 2));
+        assertTrue(tracker.getReport().contains("Unanswered: 2"));
+    }
+}
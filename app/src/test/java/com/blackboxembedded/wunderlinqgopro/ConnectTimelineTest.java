@@ -0,0 +1,139 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ConnectTimelineTest {
+
+    private static final int CAMERAS = 50;
+
+    /**
+     * Stands in for the control screen: shows the camera once the first status arrived.
+     */
+    private static class ControlScreen implements CameraSession.Listener {
+        final Scheduler scheduler;
+
+        ControlScreen(Scheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+        }
+
+        @Override
+        public void onDataAvailable(final CameraSession session, UUID uuid, byte[] data, int length) {
+            if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        session.markPhase(ConnectTimeline.Phase.CONTROL_SHOWN);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    }
+
+    private static void connect(int index, GattCache cache, ConnectTimeline.Stats stats) {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        SimulatedCamera.Config config = new SimulatedCamera.Config();
+        config.seed = index;
+        String address = String.format(Locale.ENGLISH, "D0:00:00:00:00:%02X", index);
+        CameraSession session = new CameraSession(address, scheduler);
+        session.setGattCache(cache);
+        session.setConnectStats(stats);
+        session.getTimeline().begin(ConnectTimeline.Phase.TAP, scheduler.nanoTime());
+        scheduler.runFor(40);
+        session.connect(new SimulatedCamera(scheduler, config), "GoPro", new ControlScreen(scheduler));
+        scheduler.runFor(2000);
+
+        ConnectTimeline timeline = session.getTimeline();
+        assertTrue(timeline.toString(), timeline.isComplete());
+        ConnectTimeline.Phase[] order = {ConnectTimeline.Phase.TAP, ConnectTimeline.Phase.CONNECT,
+                ConnectTimeline.Phase.LINK, ConnectTimeline.Phase.DISCOVERED, ConnectTimeline.Phase.SUBSCRIBED,
+                ConnectTimeline.Phase.FIRST_STATUS, ConnectTimeline.Phase.CONTROL_SHOWN};
+        for (int i = 1; i < order.length; i++) {
+            assertTrue(timeline.toString(), timeline.getElapsedNanos(order[i]) >= timeline.getElapsedNanos(order[i - 1]));
+            assertTrue(timeline.getStepNanos(order[i]) >= 0);
+        }
+        assertEquals(40, timeline.getElapsedNanos(ConnectTimeline.Phase.CONNECT) / 1000000);
+        session.close();
+    }
+
+    @Test
+    public void knownCamerasReachControlSooner() {
+        GattCache cache = new GattCache();
+        ConnectTimeline.Stats cold = new ConnectTimeline.Stats();
+        ConnectTimeline.Stats known = new ConnectTimeline.Stats();
+        for (int i = 0; i < CAMERAS; i++) {
+            connect(i, cache, cold);
+            connect(i, cache, known);
+        }
+        String report = "Cold connect:\n" + cold.getReport() + "Known camera:\n" + known.getReport();
+
+        assertEquals(CAMERAS, cold.getAttempts());
+        assertEquals(CAMERAS, cold.getCount(ConnectTimeline.Phase.MTU));
+        assertEquals(CAMERAS, known.getCount(ConnectTimeline.Phase.CONTROL_SHOWN));
+        double coldMs = cold.getPercentileMillis(ConnectTimeline.Phase.CONTROL_SHOWN, 50);
+        double knownMs = known.getPercentileMillis(ConnectTimeline.Phase.CONTROL_SHOWN, 50);
+        assertTrue(report, knownMs < coldMs);
+        // About 200 ms against the simulated camera, see benchmark/BASELINE.md
+        assertTrue(report, coldMs < 250);
+    }
+
+    @Test
+    public void statsSurviveStorage() {
+        final String[] stored = new String[1];
+        ConnectTimeline.Stats.Storage storage = new ConnectTimeline.Stats.Storage() {
+            @Override
+            public String load() {
+                return stored[0];
+            }
+
+            @Override
+            public void save(String value) {
+                stored[0] = value;
+            }
+        };
+        ConnectTimeline.Stats stats = new ConnectTimeline.Stats();
+        stats.setStorage(storage);
+        ConnectTimeline timeline = new ConnectTimeline();
+        // More attempts than the ring holds, so it wraps
+        for (int i = 1; i <= ConnectTimeline.Stats.SAMPLES + 30; i++) {
+            timeline.begin(ConnectTimeline.Phase.CONNECT, 0);
+            timeline.mark(ConnectTimeline.Phase.LINK, i * 1000000L);
+            timeline.mark(ConnectTimeline.Phase.CONTROL_SHOWN, i * 2000000L);
+            stats.record(timeline);
+        }
+
+        ConnectTimeline.Stats restarted = new ConnectTimeline.Stats();
+        restarted.setStorage(storage);
+        assertEquals(stats.getAttempts(), restarted.getAttempts());
+        assertEquals(stats.getReport(), restarted.getReport());
+        assertEquals(0, restarted.getCount(ConnectTimeline.Phase.MTU));
+        assertEquals(2 * (ConnectTimeline.Stats.SAMPLES + 30),
+                restarted.getPercentileMillis(ConnectTimeline.Phase.CONTROL_SHOWN, 100), 0.001);
+        assertEquals(2 * 31, restarted.getPercentileMillis(ConnectTimeline.Phase.CONTROL_SHOWN, 0), 0.001);
+
+        stored[0] = "1|garbage|LINK=x";
+        ConnectTimeline.Stats upgraded = new ConnectTimeline.Stats();
+        upgraded.setStorage(storage);
+        assertEquals(0, upgraded.getAttempts());
+    }
+}
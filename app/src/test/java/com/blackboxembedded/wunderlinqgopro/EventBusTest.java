@@ -0,0 +1,85 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+
+    private static final UUID QUERY = UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC;
+    private static final UUID COMMAND = UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC;
+
+    @Test
+    public void dispatchesByUuidInOrder() throws Exception {
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        EventBus bus = new EventBus(16, consumer);
+        final int[] received = new int[1];
+        final boolean[] outOfOrder = new boolean[1];
+        bus.subscribe(QUERY, new EventBus.Listener() {
+            @Override
+            public void onEvent(UUID uuid, byte[] data, int length) {
+                int value = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+                if (value != (received[0] & 0xFFFF) || length != 2) {
+                    outOfOrder[0] = true;
+                }
+                received[0]++;
+            }
+        });
+
+        int published = 0;
+        for (int i = 0; i < 100000; i++) {
+            byte[] value = {(byte) (published >> 8), (byte) published};
+            // Spin until the consumer made room, nothing may be lost in this test
+            while (!bus.publish(QUERY, value)) {
+                Thread.yield();
+            }
+            published++;
+            bus.publish(COMMAND, value);
+        }
+        consumer.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        consumer.shutdown();
+        assertTrue(consumer.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(published, received[0]);
+        assertFalse(outOfOrder[0]);
+    }
+
+    @Test
+    public void dropsWhenFullAndStopsAfterUnsubscribe() {
+        final int[] received = new int[1];
+        EventBus.Listener listener = new EventBus.Listener() {
+            @Override
+            public void onEvent(UUID uuid, byte[] data, int length) {
+                received[0]++;
+            }
+        };
+        // Consumer never runs on its own, the test drains by hand
+        EventBus bus = new EventBus(4, new java.util.concurrent.Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        });
+        bus.subscribe(QUERY, listener);
+        for (int i = 0; i < 5; i++) {
+            bus.publish(QUERY, new byte[100]);
+        }
+        assertEquals(1, bus.getOverflows());
+        bus.drain();
+        assertEquals(4, received[0]);
+
+        bus.unsubscribe(listener);
+        bus.publish(QUERY, new byte[1]);
+        bus.drain();
+        assertEquals(4, received[0]);
+        assertEquals(0, bus.getPending());
+    }
+}
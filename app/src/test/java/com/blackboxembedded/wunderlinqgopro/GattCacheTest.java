@@ -0,0 +1,159 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattCacheTest {
+
+    private static final String ADDRESS = "D0:00:00:00:12:AB";
+
+    private static final CameraSession.Listener IGNORE = new CameraSession.Listener() {
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+        }
+
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    };
+
+    /**
+     * Notes the order of the link setup requests.
+     */
+    private static class RecordingCamera extends SimulatedCamera {
+        final List<String> steps = new ArrayList<>();
+
+        RecordingCamera(Scheduler scheduler) {
+            super(scheduler, new SimulatedCamera.Config());
+        }
+
+        @Override
+        public boolean requestMtu(int requested) {
+            steps.add("mtu");
+            return super.requestMtu(requested);
+        }
+
+        @Override
+        public boolean discoverServices() {
+            steps.add("discover");
+            return super.discoverServices();
+        }
+    }
+
+    private static CameraSession connect(VirtualScheduler scheduler, GattCache cache, RecordingCamera camera) {
+        CameraSession session = new CameraSession(ADDRESS, scheduler);
+        session.setGattCache(cache);
+        session.connect(camera, "GoPro", IGNORE);
+        scheduler.runFor(2000);
+        assertTrue(session.isConnected());
+        assertTrue(session.isStatusSubscribed());
+        return session;
+    }
+
+    @Test
+    public void knownCameraDiscoversFirstAndExchangesMtuLater() {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        GattCache cache = new GattCache();
+
+        RecordingCamera first = new RecordingCamera(scheduler);
+        CameraSession session = connect(scheduler, cache, first);
+        assertFalse(session.isUsingCachedLayout());
+        assertEquals(Arrays.asList("mtu", "discover"), first.steps);
+        session.close();
+
+        GattCache.Layout layout = cache.get(ADDRESS);
+        assertNotNull(layout);
+        assertEquals(185, layout.getMtu());
+        assertTrue(layout.getNotifying().contains(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC));
+
+        RecordingCamera second = new RecordingCamera(scheduler);
+        session = connect(scheduler, cache, second);
+        assertTrue(session.isUsingCachedLayout());
+        assertEquals(Arrays.asList("discover", "mtu"), second.steps);
+        session.close();
+    }
+
+    @Test
+    public void changedLayoutFallsBackToFullSequence() {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        GattCache cache = new GattCache();
+        connect(scheduler, cache, new RecordingCamera(scheduler)).close();
+
+        // Firmware update dropped write without response on the command characteristic
+        GattCache.Layout stale = cache.get(ADDRESS);
+        stale.properties.put(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, GattTransport.PROPERTY_WRITE);
+        cache.put(ADDRESS, stale);
+
+        RecordingCamera camera = new RecordingCamera(scheduler);
+        CameraSession session = connect(scheduler, cache, camera);
+        assertFalse(session.isUsingCachedLayout());
+        assertEquals(Arrays.asList("discover", "mtu", "discover"), camera.steps);
+        assertNotEquals(GattTransport.PROPERTY_WRITE,
+                (int) cache.get(ADDRESS).properties.get(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC));
+        session.close();
+    }
+
+    @Test
+    public void layoutSurvivesStorage() {
+        final Map<String, String> stored = new HashMap<>();
+        GattCache.Storage storage = new GattCache.Storage() {
+            @Override
+            public String load(String address) {
+                return stored.get(address);
+            }
+
+            @Override
+            public void save(String address, String value) {
+                stored.put(address, value);
+            }
+
+            @Override
+            public void remove(String address) {
+                stored.remove(address);
+            }
+        };
+        GattCache cache = new GattCache();
+        cache.setStorage(storage);
+        GattCache.Layout layout = new GattCache.Layout();
+        layout.mtu = 185;
+        layout.properties.put(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, 12);
+        layout.notifying.add(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC);
+        cache.put(ADDRESS, layout);
+
+        GattCache restarted = new GattCache();
+        restarted.setStorage(storage);
+        GattCache.Layout loaded = restarted.get(ADDRESS);
+        assertEquals(185, loaded.getMtu());
+        assertEquals(Integer.valueOf(12), loaded.properties.get(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC));
+        assertEquals(layout.notifying, loaded.getNotifying());
+
+        restarted.invalidate(ADDRESS);
+        assertTrue(stored.isEmpty());
+
+        // Written by some other version
+        stored.put(ADDRESS, "0|garbage");
+        GattCache upgraded = new GattCache();
+        upgraded.setStorage(storage);
+        assertNull(upgraded.get(ADDRESS));
+    }
+}
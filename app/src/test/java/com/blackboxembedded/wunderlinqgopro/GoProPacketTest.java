@@ -0,0 +1,77 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GoProPacketTest {
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) i;
+        }
+        return message;
+    }
+
+    private static byte[] roundTrip(byte[] message, int mtu, PacketAssembler assembler) {
+        List<byte[]> packets = GoProPacket.fragment(message, mtu);
+        for (int i = 0; i < packets.size(); i++) {
+            assertTrue(packets.get(i).length <= GoProPacket.packetSize(mtu));
+            boolean complete = assembler.accept(packets.get(i));
+            assertEquals(i == packets.size() - 1, complete);
+        }
+        byte[] result = new byte[assembler.getLength()];
+        System.arraycopy(assembler.getBuffer(), 0, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void usesGeneralHeaderForShortMessages() {
+        List<byte[]> packets = GoProPacket.fragment(new byte[]{0x01, 0x01, 0x01, 0x01}, GoProPacket.DEFAULT_MTU);
+        assertEquals(1, packets.size());
+        assertArrayEquals(new byte[]{0x04, 0x01, 0x01, 0x01, 0x01}, packets.get(0));
+    }
+
+    @Test
+    public void roundTripsEveryHeaderType() {
+        PacketAssembler assembler = new PacketAssembler(new BufferPool());
+        int[] lengths = {0, 19, 31, 32, 200, 8191, 8192, 65535};
+        for (int length : lengths) {
+            byte[] message = message(length);
+            assertArrayEquals(message, roundTrip(message, GoProPacket.DEFAULT_MTU, assembler));
+            assertArrayEquals(message, roundTrip(message, 185, assembler));
+        }
+        assertEquals(0, assembler.getDropped());
+    }
+
+    @Test
+    public void extendedHeaders() {
+        assertEquals(0x20, GoProPacket.fragment(message(32), 512).get(0)[0] & 0xE0);
+        assertEquals(0x40, GoProPacket.fragment(message(8192), 512).get(0)[0] & 0xFF);
+    }
+
+    @Test
+    public void dropsMessageWithMissingContinuation() {
+        PacketAssembler assembler = new PacketAssembler(new BufferPool());
+        List<byte[]> packets = GoProPacket.fragment(message(60), GoProPacket.DEFAULT_MTU);
+        assertFalse(assembler.accept(packets.get(0)));
+        assertFalse(assembler.accept(packets.get(2)));
+        assertEquals(1, assembler.getDropped());
+        // The next message starts clean
+        byte[] message = message(10);
+        assertArrayEquals(message, roundTrip(message, GoProPacket.DEFAULT_MTU, assembler));
+    }
+
+    @Test
+    public void reusesPooledBuffers() {
+        BufferPool pool = new BufferPool();
+        PacketAssembler assembler = new PacketAssembler(pool);
+        for (int i = 0; i < 100; i++) {
+            roundTrip(message(300), GoProPacket.DEFAULT_MTU, assembler);
+        }
+        assertEquals(1, pool.getAllocated());
+    }
+}
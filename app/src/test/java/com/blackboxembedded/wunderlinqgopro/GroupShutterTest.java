@@ -0,0 +1,186 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GroupShutterTest {
+
+    // Raise with -DgroupShutter.maxSkewMs=... on slow build machines
+    private static final long MAX_SKEW_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("groupShutter.maxSkewMs", 10));
+    private static final byte[] SHUTTER_ON = {0x01, 0x01, 0x01};
+
+    /**
+     * A camera whose link frees up after a random delay and that acknowledges a write after a
+     * fixed latency with a little jitter, each on its own thread like separate GATT clients.
+     */
+    private static class SimulatedCamera implements GroupShutter.Target {
+        final String address;
+        final ScheduledExecutorService radio = Executors.newSingleThreadScheduledExecutor();
+        final long armDelayMs;
+        final long ackLatencyMicros;
+        final boolean accepts;
+        GroupShutter group;
+
+        SimulatedCamera(String address, long armDelayMs, long ackLatencyMicros, boolean accepts) {
+            this.address = address;
+            this.armDelayMs = armDelayMs;
+            this.ackLatencyMicros = ackLatencyMicros;
+            this.accepts = accepts;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean arm(final GroupShutter group, byte[] command) {
+            if (!accepts) {
+                return false;
+            }
+            this.group = group;
+            radio.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    group.onArmed(SimulatedCamera.this);
+                }
+            }, armDelayMs, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        @Override
+        public boolean release() {
+            radio.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    group.onAcknowledged(SimulatedCamera.this);
+                }
+            }, ackLatencyMicros, TimeUnit.MICROSECONDS);
+            return true;
+        }
+    }
+
+    private static GroupShutter fire(List<SimulatedCamera> cameras) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        GroupShutter group = new GroupShutter(new ArrayList<GroupShutter.Target>(cameras));
+        group.setListener(new GroupShutter.Listener() {
+            @Override
+            public void onComplete(GroupShutter group) {
+                done.countDown();
+            }
+        });
+        group.start(SHUTTER_ON);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (SimulatedCamera camera : cameras) {
+            camera.radio.shutdownNow();
+        }
+        return group;
+    }
+
+    @Test
+    public void releasesTogetherOnceAllAreArmed() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            List<SimulatedCamera> cameras = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                cameras.add(new SimulatedCamera("CAM" + i, random.nextInt(50),
+                        20000 + random.nextInt(1000), true));
+            }
+            GroupShutter group = fire(cameras);
+
+            assertTrue(group.toString(), group.getReleaseSkewNanos() >= 0);
+            assertTrue(group.toString(), group.getReleaseSkewNanos() < MAX_SKEW_NANOS);
+            assertTrue(group.toString(), group.getAckSkewNanos() < MAX_SKEW_NANOS);
+            for (SimulatedCamera camera : cameras) {
+                assertTrue(group.getAckLatencyNanos(camera) > 0);
+            }
+        }
+    }
+
+    @Test
+    public void lateCameraGoesWhenArmedAndRefusingOneDoesNotBlock() throws Exception {
+        List<SimulatedCamera> cameras = new ArrayList<>();
+        cameras.add(new SimulatedCamera("FAST", 0, 1000, true));
+        cameras.add(new SimulatedCamera("SLOW", 200, 1000, true));
+        cameras.add(new SimulatedCamera("GONE", 0, 1000, false));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        GroupShutter group = new GroupShutter(new ArrayList<GroupShutter.Target>(cameras));
+        group.setListener(new GroupShutter.Listener() {
+            @Override
+            public void onComplete(GroupShutter group) {
+                done.countDown();
+            }
+        });
+        group.start(SHUTTER_ON);
+        // Arm timeout, normally posted by the service
+        Thread.sleep(50);
+        group.releaseNow();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertTrue(group.isComplete());
+        assertTrue(group.getAckLatencyNanos(cameras.get(0)) > 0);
+        assertTrue(group.getAckLatencyNanos(cameras.get(1)) > 0);
+        assertEquals(-1, group.getAckLatencyNanos(cameras.get(2)));
+        // The slow camera missed the group release by roughly its arm delay
+        assertTrue(group.getReleaseSkewNanos() > TimeUnit.MILLISECONDS.toNanos(100));
+        for (SimulatedCamera camera : cameras) {
+            camera.radio.shutdownNow();
+        }
+    }
+
+    @Test
+    public void writeGivenUpByTheEngineFailsTheCamera() {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        // The simulated GATT camera, not the target above
+        com.blackboxembedded.wunderlinqgopro.SimulatedCamera.Config config =
+                new com.blackboxembedded.wunderlinqgopro.SimulatedCamera.Config();
+        CameraSession session = new CameraSession("D0:00:00:00:12:AB", scheduler);
+        session.connect(new com.blackboxembedded.wunderlinqgopro.SimulatedCamera(scheduler, config), "GoPro",
+                new CameraSession.Listener() {
+                    @Override
+                    public void onStateChanged(CameraSession session, String action) {
+                    }
+
+                    @Override
+                    public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+                    }
+
+                    @Override
+                    public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+                    }
+
+                    @Override
+                    public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+                    }
+
+                    @Override
+                    public void onQueueStalled(CameraSession session, String report) {
+                    }
+                });
+        scheduler.runFor(2000);
+        assertTrue(session.isStatusSubscribed());
+
+        // Nothing comes back from the camera any more, the engine retries and gives up
+        config.lossRate = 1;
+        List<GroupShutter.Target> targets = new ArrayList<>();
+        targets.add(session.groupTarget);
+        GroupShutter group = new GroupShutter(targets);
+        group.start(SHUTTER_ON);
+        scheduler.runFor(20000);
+        assertTrue(group.isComplete());
+        assertTrue(group.hasFailed(session.groupTarget));
+        session.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IdlePolicyTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private int idle;
+    private final IdlePolicy policy = new IdlePolicy(scheduler, new IdlePolicy.Listener() {
+        @Override
+        public void onIdle() {
+            idle++;
+        }
+    });
+
+    @Test
+    public void screenComingBackKeepsTheCameras() {
+        policy.attach();
+        policy.detach();
+        assertTrue(policy.isCounting());
+        // Over in WunderLINQ for a while, then back to camera control
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT - 1000);
+        policy.attach();
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT * 2);
+        assertEquals(0, idle);
+        assertFalse(policy.isCounting());
+
+        // The countdown starts over on the next detach
+        policy.detach();
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT - 1);
+        assertEquals(0, idle);
+        scheduler.runFor(1);
+        assertEquals(1, idle);
+        assertFalse(policy.isCounting());
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT * 2);
+        assertEquals(1, idle);
+    }
+
+    @Test
+    public void countsDownOnlyOnceEveryClientLeft() {
+        // A control screen and WunderLINQ through the remote API
+        policy.attach();
+        policy.attach();
+        policy.detach();
+        assertFalse(policy.isCounting());
+        assertTrue(policy.isAttached());
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT * 2);
+        assertEquals(0, idle);
+
+        policy.detach();
+        assertTrue(policy.isCounting());
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT);
+        assertEquals(1, idle);
+    }
+
+    @Test
+    public void noTimeoutKeepsThemForever() {
+        policy.setIdleTimeout(0);
+        policy.detach();
+        assertFalse(policy.isCounting());
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT * 10);
+        assertEquals(0, idle);
+    }
+
+    @Test
+    public void cancelStopsTheCountdown() {
+        policy.detach();
+        policy.cancel();
+        scheduler.runFor(IdlePolicy.DEFAULT_IDLE_TIMEOUT * 2);
+        assertEquals(0, idle);
+        assertFalse(policy.isAttached());
+    }
+}
@@ -0,0 +1,77 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ModeSelectorTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final List<Byte> previews = new ArrayList<>();
+    private final List<Byte> commits = new ArrayList<>();
+    private final ModeSelector selector = new ModeSelector(scheduler, new ModeSelector.Listener() {
+        @Override
+        public void onPreview(byte mode) {
+            previews.add(mode);
+        }
+
+        @Override
+        public void onCommit(byte from, byte to) {
+            commits.add(from);
+            commits.add(to);
+        }
+    });
+
+    @Test
+    public void rapidPressesSendOnlyTheLastMode() {
+        selector.step(CameraStatus.MODE_VIDEO, 1);
+        scheduler.runFor(100);
+        selector.step(CameraStatus.MODE_VIDEO, 1);
+        scheduler.runFor(100);
+        // Repeated key, wraps around to video and on to photo
+        selector.step(CameraStatus.MODE_VIDEO, 1);
+        selector.step(CameraStatus.MODE_VIDEO, 1);
+        assertEquals(4, previews.size());
+        assertEquals(CameraStatus.MODE_PHOTO, (byte) previews.get(3));
+        assertTrue(commits.isEmpty());
+
+        scheduler.runFor(ModeSelector.DEFAULT_WINDOW);
+        assertFalse(selector.isSelecting());
+        assertEquals(2, commits.size());
+        assertEquals(CameraStatus.MODE_VIDEO, (byte) commits.get(0));
+        assertEquals(CameraStatus.MODE_PHOTO, (byte) commits.get(1));
+    }
+
+    @Test
+    public void backWhereItStartedSendsNothing() {
+        selector.step(CameraStatus.MODE_TIMELAPSE, 1);
+        selector.step(CameraStatus.MODE_TIMELAPSE, -1);
+        assertEquals(CameraStatus.MODE_VIDEO, (byte) previews.get(0));
+        assertEquals(CameraStatus.MODE_TIMELAPSE, (byte) previews.get(1));
+        scheduler.runFor(1000);
+        assertTrue(commits.isEmpty());
+
+        selector.step(CameraStatus.MODE_PHOTO, -1);
+        selector.flush();
+        assertEquals(CameraStatus.MODE_VIDEO, (byte) commits.get(1));
+        scheduler.runFor(1000);
+        assertEquals(2, commits.size());
+    }
+
+    @Test
+    public void selectionOutlivesStatusUpdates() {
+        selector.step(CameraStatus.MODE_VIDEO, 1);
+        scheduler.runFor(100);
+        // A status push still reporting video does not undo the preview
+        assertEquals(CameraStatus.MODE_PHOTO, selector.getMode(CameraStatus.MODE_VIDEO));
+        selector.step(CameraStatus.MODE_VIDEO, 1);
+        assertEquals(CameraStatus.MODE_TIMELAPSE, selector.getMode(CameraStatus.MODE_VIDEO));
+
+        scheduler.runFor(ModeSelector.DEFAULT_WINDOW);
+        assertEquals(CameraStatus.MODE_VIDEO, selector.getMode(CameraStatus.MODE_VIDEO));
+        assertEquals(CameraStatus.MODE_TIMELAPSE, (byte) commits.get(1));
+    }
+}
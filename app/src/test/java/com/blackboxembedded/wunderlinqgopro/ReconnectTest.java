@@ -0,0 +1,190 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ReconnectTest {
+
+    private static final String ADDRESS = "D0:00:00:00:12:AB";
+
+    /**
+     * Notes what the session reports and shows the control screen on the first status, like
+     * DeviceControlActivity.
+     */
+    private static class Screen implements CameraSession.Listener {
+        final Scheduler scheduler;
+        final List<String> actions = new ArrayList<>();
+        final List<String> dropped = new ArrayList<>();
+
+        Screen(Scheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+            actions.add(action);
+        }
+
+        @Override
+        public void onDataAvailable(final CameraSession session, UUID uuid, byte[] data, int length) {
+            if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        session.markPhase(ConnectTimeline.Phase.CONTROL_SHOWN);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+            dropped.add(reason);
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    }
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final SimulatedCamera camera = new SimulatedCamera(scheduler, new SimulatedCamera.Config());
+    private final Screen screen = new Screen(scheduler);
+    private final ConnectTimeline.Stats recovery = new ConnectTimeline.Stats();
+    private int transports;
+
+    private CameraSession connect() {
+        CameraSession session = new CameraSession(ADDRESS, scheduler);
+        session.setRecoveryStats(recovery);
+        session.setTransportFactory(new CameraSession.TransportFactory() {
+            @Override
+            public GattTransport create() {
+                transports++;
+                return camera;
+            }
+        });
+        session.connect(camera, "GoPro", screen);
+        scheduler.runFor(2000);
+        assertTrue(session.isConnected());
+        assertTrue(session.isStatusSubscribed());
+        return session;
+    }
+
+    @Test
+    public void droppedLinkComesBackAndReplaysTheShutter() {
+        CameraSession session = connect();
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01});
+        // Gone before the write went out
+        camera.setInRange(false);
+        camera.dropLink();
+
+        assertTrue(session.isReconnecting());
+        assertEquals(BluetoothLeService.STATE_RECONNECTING, session.getConnectionState());
+        assertTrue(screen.actions.contains(BluetoothLeService.ACTION_GATT_RECONNECTING));
+        scheduler.runFor(1500);
+        assertFalse(session.isConnected());
+        assertEquals(0, camera.commandsReceived[BluetoothLeService.CMD_SHUTTER]);
+
+        camera.setInRange(true);
+        scheduler.runFor(6000);
+        assertTrue(session.isConnected());
+        assertFalse(session.isReconnecting());
+        assertTrue(session.isStatusSubscribed());
+        assertTrue(session.isNotifying(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC));
+        assertEquals(1, camera.commandsReceived[BluetoothLeService.CMD_SHUTTER]);
+        assertFalse(screen.actions.contains(BluetoothLeService.ACTION_GATT_DISCONNECTED));
+        assertTrue(screen.dropped.isEmpty());
+        // The pending attempt went through as soon as the camera was back
+        assertEquals(1, transports);
+        assertEquals(0, camera.violations);
+
+        assertEquals(1, recovery.getCount(ConnectTimeline.Phase.CONTROL_SHOWN));
+        double recoveredMs = recovery.getPercentileMillis(ConnectTimeline.Phase.CONTROL_SHOWN, 50);
+        // Out of range for 1500 ms, then one connect
+        assertTrue(recovery.getReport(), recoveredMs >= 1500);
+        assertTrue(recovery.getReport(), recoveredMs < 2000);
+        session.close();
+    }
+
+    @Test
+    public void givesUpWhenTheCameraStaysAway() {
+        CameraSession session = connect();
+        session.getReconnectPolicy().setGiveUpAfter(3000);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01});
+        camera.setInRange(false);
+        camera.dropLink();
+        scheduler.runFor(20000);
+
+        assertFalse(session.isReconnecting());
+        assertEquals(BluetoothLeService.STATE_DISCONNECTED, session.getConnectionState());
+        assertTrue(screen.actions.contains(BluetoothLeService.ACTION_GATT_DISCONNECTED));
+        assertEquals(1, screen.dropped.size());
+        assertEquals(0, recovery.getAttempts());
+
+        // Nothing is left scheduled once it gave up
+        int attempts = transports;
+        camera.setInRange(true);
+        scheduler.runFor(20000);
+        assertEquals(attempts, transports);
+        assertFalse(session.isConnected());
+    }
+
+    @Test
+    public void failuresReachTheTrace() throws Exception {
+        File file = File.createTempFile("trace", ".bin");
+        file.deleteOnExit();
+        TraceLog.open(file);
+        try {
+            CameraSession session = connect();
+            session.getReconnectPolicy().setGiveUpAfter(3000);
+            camera.setInRange(false);
+            camera.dropLink();
+            scheduler.runFor(20000);
+
+            StringWriter out = new StringWriter();
+            TraceLog.get().export(out);
+            String trace = out.toString();
+            assertTrue(trace, trace.contains(" BLE MESSAGE [GoPro|" + ADDRESS + "] Reconnect attempt"));
+            assertTrue(trace, trace.contains(" BLE MESSAGE [GoPro|" + ADDRESS + "] Giving up reconnecting"));
+        } finally {
+            TraceLog.close();
+        }
+    }
+
+    @Test
+    public void userDisconnectIsNotUndone() {
+        CameraSession session = connect();
+        session.disconnect();
+        scheduler.runFor(10000);
+        assertFalse(session.isReconnecting());
+        assertFalse(session.isConnected());
+        assertEquals(0, transports);
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndStops() {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(7));
+        long ceiling = ReconnectPolicy.DEFAULT_INITIAL_DELAY;
+        for (int attempt = 0; attempt < 12; attempt++) {
+            long delay = policy.nextDelay(0);
+            assertTrue(delay >= ceiling / 2);
+            assertTrue(delay <= ceiling);
+            ceiling = Math.min(ceiling * 2, ReconnectPolicy.DEFAULT_MAX_DELAY);
+        }
+        assertEquals(-1, policy.nextDelay(ReconnectPolicy.DEFAULT_GIVE_UP_AFTER));
+        policy.reset();
+        assertTrue(policy.nextDelay(0) <= ReconnectPolicy.DEFAULT_INITIAL_DELAY);
+    }
+}
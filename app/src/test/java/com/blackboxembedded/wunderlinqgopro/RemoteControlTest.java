@@ -0,0 +1,164 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class RemoteControlTest {
+
+    private static final String ADDRESS = "D0:00:00:00:12:AB";
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final SimulatedCamera camera = new SimulatedCamera(scheduler, new SimulatedCamera.Config());
+    private final CameraSession session = new CameraSession(ADDRESS, scheduler);
+    private final List<Integer> pushed = new ArrayList<>();
+    private final ByteBuffer memory = ByteBuffer.allocateDirect(StatusSnapshot.size(2));
+    private final RemoteControl remote = new RemoteControl(new RemoteControl.Target() {
+        @Override
+        public RemoteControl.Camera getCamera(String address) {
+            return (address == null || ADDRESS.equals(address)) ? session : null;
+        }
+
+        @Override
+        public List<? extends RemoteControl.Camera> getCameras() {
+            return Collections.singletonList(session);
+        }
+
+        @Override
+        public void setGroupCommand(byte[] command) {
+            session.setCommand(command);
+        }
+    }, StatusSnapshot.format(memory, 2), scheduler);
+
+    /**
+     * Publishes like BluetoothLeService does.
+     */
+    private final CameraSession.Listener service = new CameraSession.Listener() {
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+            remote.publish(session);
+        }
+
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+            if (UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC.equals(uuid)) {
+                remote.publish(session);
+            }
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    };
+
+    @Test
+    public void dashboardStartsRecordingAndSeesIt() {
+        remote.setListener(new RemoteControl.Listener() {
+            @Override
+            public void onStatusChanged(int slot, int sequence) {
+                pushed.add(sequence);
+            }
+        });
+        assertEquals(RemoteControl.RESULT_NOT_CONNECTED, remote.handle(RemoteControl.MSG_SHUTTER, 1, null));
+
+        session.connect(camera, "GoPro", service);
+        scheduler.runFor(2000);
+        assertTrue(session.isStatusSubscribed());
+
+        // A separate view of the same memory, as the dashboard maps it
+        StatusSnapshot snapshot = new StatusSnapshot(memory);
+        assertTrue(snapshot.isValid());
+        assertEquals(2, snapshot.getSlots());
+        assertEquals(0, snapshot.getActiveSlot());
+        StatusSnapshot.Entry entry = new StatusSnapshot.Entry();
+        assertTrue(snapshot.read(0, entry));
+        assertEquals(ADDRESS, StatusSnapshot.formatAddress(entry.address));
+        assertEquals(BluetoothLeService.STATE_CONNECTED, entry.state);
+        assertFalse(entry.isRecording());
+        int before = entry.sequence;
+        int pushes = pushed.size();
+
+        assertEquals(RemoteControl.RESULT_OK, remote.handle(RemoteControl.MSG_SHUTTER, 1, null));
+        scheduler.runFor(500);
+        assertEquals(1, camera.commandsReceived[BluetoothLeService.CMD_SHUTTER]);
+        assertTrue(snapshot.read(0, entry));
+        assertTrue(entry.isRecording());
+        assertTrue(entry.sequence > before);
+        assertEquals(0, entry.sequence & 1);
+        assertTrue(pushed.size() > pushes);
+
+        assertEquals(RemoteControl.RESULT_OK, remote.handle(RemoteControl.MSG_MODE, CameraStatus.MODE_PHOTO & 0xFF, ADDRESS));
+        assertEquals(RemoteControl.RESULT_BAD_REQUEST, remote.handle(RemoteControl.MSG_MODE, 7, ADDRESS));
+        assertEquals(RemoteControl.RESULT_NOT_CONNECTED, remote.handle(RemoteControl.MSG_HILIGHT, 0, "D0:00:00:00:00:01"));
+        assertEquals(RemoteControl.RESULT_BAD_REQUEST, remote.handle(99, 0, null));
+
+        session.close();
+        remote.release(ADDRESS);
+        assertEquals(-1, snapshot.findSlot(StatusSnapshot.parseAddress(ADDRESS)));
+        assertEquals(-1, snapshot.getActiveSlot());
+    }
+
+    @Test
+    public void readerNeverSeesAHalfWrittenSlot() throws InterruptedException {
+        final ByteBuffer memory = ByteBuffer.allocateDirect(StatusSnapshot.size(1));
+        final StatusSnapshot writer = StatusSnapshot.format(memory, 1);
+        final StatusSnapshot reader = new StatusSnapshot(memory);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CameraStatus status = new CameraStatus();
+                long i = 0;
+                while (running.get()) {
+                    i++;
+                    status.version = (int) i;
+                    status.sdRemainingKb = i;
+                    status.batteryPercent = (int) (i % 100);
+                    status.encoding = (i & 1) != 0;
+                    writer.write(0, i, i, BluetoothLeService.STATE_CONNECTED, status);
+                }
+            }
+        });
+        thread.start();
+        StatusSnapshot.Entry entry = new StatusSnapshot.Entry();
+        int reads = 0;
+        long deadline = System.nanoTime() + 200000000L;
+        while (System.nanoTime() < deadline) {
+            if (reader.read(0, entry) && entry.address != 0) {
+                reads++;
+                assertEquals(entry.address, entry.sdRemainingKb);
+                assertEquals(entry.address, entry.updatedAt);
+                assertEquals((int) entry.address, entry.statusVersion);
+                assertEquals(entry.address % 100, entry.batteryPercent);
+                assertEquals((entry.address & 1) != 0, entry.isRecording());
+            }
+        }
+        running.set(false);
+        thread.join();
+        assertTrue(reads > 0);
+    }
+
+    @Test
+    public void addressesRoundTrip() {
+        long value = StatusSnapshot.parseAddress(ADDRESS);
+        assertEquals(0xD000000012ABL, value);
+        assertEquals(ADDRESS, StatusSnapshot.formatAddress(value));
+        assertEquals(0, StatusSnapshot.parseAddress("not an address"));
+        assertEquals(0, StatusSnapshot.parseAddress(null));
+    }
+}
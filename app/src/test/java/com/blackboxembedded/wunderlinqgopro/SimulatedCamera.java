@@ -0,0 +1,493 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A GoPro on the other end of a {@link GattTransport}, running on a {@link Scheduler}.
+ *
+ * Models the control service (command, settings and query characteristics with their
+ * response notifications, GoPro framing both ways) and the Wi-Fi credential reads. Like
+ * BluetoothGatt it refuses a request while the previous one has not called back; every such
+ * request from the app side is counted as a violation. Latency, lost callbacks and
+ * notifications, requests refused by the stack and busy answers from the camera are
+ * configurable and drawn from a seeded random source, so a run can be repeated.
+ */
+class SimulatedCamera implements GattTransport {
+
+    static final byte RESULT_SUCCESS = 0x00;
+    static final byte RESULT_ERROR = 0x01;
+
+    static class Config {
+        long minLatencyMillis = 8;
+        long maxLatencyMillis = 30;
+        // Probability that a GATT callback or a whole response message never arrives
+        double lossRate;
+        // Probability that the stack refuses a request outright
+        double rejectRate;
+        // Probability that the camera answers a command with an error because it is busy
+        double busyRate;
+        int mtu = 185;
+        long seed = 1;
+    }
+
+    private static final Map<UUID, Integer> PROPERTIES = new HashMap<>();
+
+    static {
+        int write = PROPERTY_WRITE | PROPERTY_WRITE_NO_RESPONSE;
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, write);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC, PROPERTY_NOTIFY);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC, write);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC, PROPERTY_NOTIFY);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_QUERY_CHARACTERISTIC, write);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, PROPERTY_NOTIFY);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC, PROPERTY_READ | PROPERTY_WRITE);
+        PROPERTIES.put(UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC, PROPERTY_READ | PROPERTY_WRITE);
+    }
+
+    private final Scheduler scheduler;
+    private final Config config;
+    private final Random random;
+    private final BufferPool pool = new BufferPool();
+    private final Map<UUID, PacketAssembler> assemblers = new HashMap<>();
+    private final Set<UUID> notifying = new HashSet<>();
+    private final Set<Integer> registered = new HashSet<>();
+
+    private Callback callback;
+    // Bumped whenever the link goes away, callbacks scheduled before are discarded
+    private int link;
+    private boolean connected;
+    private boolean discovered;
+    private boolean requestPending;
+    private int mtu = GoProPacket.DEFAULT_MTU;
+    private long lastNotificationAt;
+
+    // Out of range a connection request stays pending until the camera is back
+    private boolean inRange = true;
+    private boolean connectPending;
+
+    // Camera state
+    boolean encoding;
+    boolean wifiEnabled;
+    int legacyMode;
+    int presetGroup = 1000;
+    int batteryPercent = 87;
+    long sdRemainingKb = 31250000;
+    final String ssid = "GP24500000";
+    final String password = "rider-1234";
+
+    // What happened, for the test to report
+    int violations;
+    long requests;
+    long rejected;
+    long lostCallbacks;
+    long lostResponses;
+    long busyAnswers;
+    final long[] commandsReceived = new long[256];
+
+    SimulatedCamera(Scheduler scheduler, Config config) {
+        this.scheduler = scheduler;
+        this.config = config;
+        this.random = new Random(config.seed);
+        assemblers.put(UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, new PacketAssembler(pool));
+        assemblers.put(UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC, new PacketAssembler(pool));
+        assemblers.put(UUIDDatabase.UUID_GOPRO_QUERY_CHARACTERISTIC, new PacketAssembler(pool));
+    }
+
+    @Override
+    public void connect(final Callback callback) {
+        this.callback = callback;
+        connectPending = true;
+        if (inRange) {
+            establish();
+        }
+    }
+
+    private void establish() {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                if (!inRange || !connectPending) {
+                    return;
+                }
+                connectPending = false;
+                connected = true;
+                callback.onConnectionStateChange(GATT_SUCCESS, BluetoothLeService.STATE_CONNECTED);
+            }
+        });
+    }
+
+    void setInRange(boolean inRange) {
+        this.inRange = inRange;
+        if (inRange && connectPending && callback != null) {
+            establish();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                dropLink();
+            }
+        });
+    }
+
+    /**
+     * The camera goes out of range: the link is gone at once and the camera forgets the
+     * notification and status registrations.
+     */
+    void dropLink() {
+        link++;
+        connected = false;
+        discovered = false;
+        requestPending = false;
+        notifying.clear();
+        registered.clear();
+        for (PacketAssembler assembler : assemblers.values()) {
+            assembler.reset();
+        }
+        Callback current = callback;
+        if (current != null) {
+            current.onConnectionStateChange(GATT_SUCCESS, BluetoothLeService.STATE_DISCONNECTED);
+        }
+    }
+
+    @Override
+    public void close() {
+        link++;
+        callback = null;
+        connected = false;
+    }
+
+    @Override
+    public boolean requestMtu(final int requested) {
+        if (!request()) {
+            return false;
+        }
+        acknowledge(new Runnable() {
+            @Override
+            public void run() {
+                mtu = Math.min(requested, config.mtu);
+                callback.onMtuChanged(mtu, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        if (!request()) {
+            return false;
+        }
+        acknowledge(new Runnable() {
+            @Override
+            public void run() {
+                discovered = true;
+                callback.onServicesDiscovered(GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public int getProperties(UUID uuid) {
+        Integer properties = PROPERTIES.get(uuid);
+        return (!discovered || properties == null) ? 0 : properties;
+    }
+
+    @Override
+    public boolean readCharacteristic(final UUID uuid) {
+        if ((getProperties(uuid) & PROPERTY_READ) == 0 || !request()) {
+            return false;
+        }
+        final byte[] value;
+        if (UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC.equals(uuid)) {
+            value = ssid.getBytes();
+        } else {
+            value = password.getBytes();
+        }
+        acknowledge(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicRead(uuid, value, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(final UUID uuid, byte[] value, BluetoothLeService.WriteType writeType) {
+        if (getProperties(uuid) == 0 || !request()) {
+            return false;
+        }
+        final byte[] packet = Arrays.copyOf(value, value.length);
+        final int current = link;
+        scheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (current != link) {
+                    return;
+                }
+                // The packet reached the camera, only the callback can still get lost
+                receive(uuid, packet);
+            }
+        }, latency());
+        acknowledge(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicWrite(uuid, packet, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean setNotify(final UUID uuid, final boolean enable) {
+        if ((getProperties(uuid) & (PROPERTY_NOTIFY | PROPERTY_INDICATE)) == 0 || !request()) {
+            return false;
+        }
+        if (enable) {
+            notifying.add(uuid);
+        } else {
+            notifying.remove(uuid);
+        }
+        acknowledge(new Runnable() {
+            @Override
+            public void run() {
+                callback.onNotifyChanged(uuid, enable, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    private boolean request() {
+        if (!connected || callback == null) {
+            return false;
+        }
+        if (requestPending) {
+            // BluetoothGatt would refuse this, the caller did not wait for the last callback
+            violations++;
+            return false;
+        }
+        if (random.nextDouble() < config.rejectRate) {
+            rejected++;
+            return false;
+        }
+        requestPending = true;
+        requests++;
+        return true;
+    }
+
+    /**
+     * Frees the stack after the link latency and delivers the callback unless it is lost.
+     */
+    private void acknowledge(final Runnable result) {
+        final int current = link;
+        scheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (current != link || callback == null) {
+                    return;
+                }
+                requestPending = false;
+                if (random.nextDouble() < config.lossRate) {
+                    lostCallbacks++;
+                    return;
+                }
+                result.run();
+            }
+        }, latency());
+    }
+
+    private void later(final Runnable task) {
+        final int current = link;
+        scheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (current == link && callback != null) {
+                    task.run();
+                }
+            }
+        }, latency());
+    }
+
+    private long latency() {
+        long spread = config.maxLatencyMillis - config.minLatencyMillis;
+        return config.minLatencyMillis + ((spread <= 0) ? 0 : (long) (random.nextDouble() * (spread + 1)));
+    }
+
+    private void receive(UUID uuid, byte[] packet) {
+        PacketAssembler assembler = assemblers.get(uuid);
+        if (assembler == null || !assembler.accept(packet)) {
+            return;
+        }
+        byte[] message = Arrays.copyOf(assembler.getBuffer(), assembler.getLength());
+        if (message.length == 0) {
+            return;
+        }
+        if (UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC.equals(uuid)) {
+            onCommand(message);
+        } else if (UUIDDatabase.UUID_GOPRO_SETTINGS_CHARACTERISTIC.equals(uuid)) {
+            respond(UUIDDatabase.UUID_GOPRO_SETTINGSRESPONSE_CHARACTERISTIC, new byte[]{message[0], RESULT_SUCCESS});
+        } else {
+            onQuery(message);
+        }
+    }
+
+    private void onCommand(byte[] message) {
+        int id = message[0] & 0xFF;
+        commandsReceived[id]++;
+        if (random.nextDouble() < config.busyRate) {
+            busyAnswers++;
+            respond(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC, new byte[]{message[0], RESULT_ERROR});
+            return;
+        }
+        switch (id) {
+            case BluetoothLeService.CMD_SHUTTER:
+                if (message.length > 2) {
+                    encoding = message[2] != 0;
+                    push(CameraStatus.STATUS_ENCODING);
+                }
+                break;
+            case 0x02:
+                if (message.length > 2) {
+                    legacyMode = message[2];
+                    push(CameraStatus.STATUS_LEGACY_MODE);
+                }
+                break;
+            case 0x17:
+                if (message.length > 2) {
+                    wifiEnabled = message[2] != 0;
+                    push(CameraStatus.STATUS_WIFI_ENABLED);
+                }
+                break;
+            case 0x3E:
+                if (message.length > 3) {
+                    presetGroup = ((message[2] & 0xFF) << 8) | (message[3] & 0xFF);
+                    push(CameraStatus.STATUS_PRESET_GROUP);
+                }
+                break;
+            default:
+                break;
+        }
+        respond(UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC, new byte[]{message[0], RESULT_SUCCESS});
+    }
+
+    private void onQuery(byte[] message) {
+        int id = message[0] & 0xFF;
+        if (id == StatusDecoder.QUERY_REGISTER_STATUS) {
+            for (int i = 1; i < message.length; i++) {
+                registered.add(message[i] & 0xFF);
+            }
+        }
+        if (id == StatusDecoder.QUERY_GET_STATUS || id == StatusDecoder.QUERY_REGISTER_STATUS) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            response.write(id);
+            response.write(RESULT_SUCCESS);
+            for (int i = 1; i < message.length; i++) {
+                writeStatus(response, message[i] & 0xFF);
+            }
+            respond(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, response.toByteArray());
+        } else {
+            respond(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, new byte[]{message[0], RESULT_ERROR});
+        }
+    }
+
+    /**
+     * Pushes the current value of a status, as the camera does when it changed on its side.
+     */
+    void pushStatus(final int statusId) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                push(statusId);
+            }
+        });
+    }
+
+    private void push(int statusId) {
+        if (!registered.contains(statusId)) {
+            return;
+        }
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(StatusDecoder.QUERY_STATUS_PUSH);
+        response.write(RESULT_SUCCESS);
+        writeStatus(response, statusId);
+        respond(UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, response.toByteArray());
+    }
+
+    private void writeStatus(ByteArrayOutputStream out, int statusId) {
+        long value;
+        int length = 1;
+        switch (statusId) {
+            case CameraStatus.STATUS_ENCODING:
+                value = encoding ? 1 : 0;
+                break;
+            case CameraStatus.STATUS_WIFI_ENABLED:
+                value = wifiEnabled ? 1 : 0;
+                break;
+            case CameraStatus.STATUS_LEGACY_MODE:
+                value = legacyMode;
+                break;
+            case CameraStatus.STATUS_PREVIEW_AVAILABLE:
+                value = 1;
+                break;
+            case CameraStatus.STATUS_BATTERY_PERCENT:
+                value = batteryPercent;
+                break;
+            case CameraStatus.STATUS_SD_REMAINING_KB:
+                value = sdRemainingKb;
+                length = 8;
+                break;
+            case CameraStatus.STATUS_PRESET_GROUP:
+                value = presetGroup;
+                length = 4;
+                break;
+            default:
+                value = 0;
+                break;
+        }
+        out.write(statusId);
+        out.write(length);
+        for (int i = length - 1; i >= 0; i--) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    /**
+     * Notifies a response message, split to the negotiated MTU. Notifications keep their
+     * order like on a real link.
+     */
+    private void respond(final UUID uuid, byte[] message) {
+        if (!notifying.contains(uuid)) {
+            return;
+        }
+        if (random.nextDouble() < config.lossRate) {
+            lostResponses++;
+            return;
+        }
+        long now = scheduler.nanoTime() / 1000000L;
+        lastNotificationAt = Math.max(lastNotificationAt, now + latency());
+        List<byte[]> packets = GoProPacket.fragment(message, mtu);
+        final int current = link;
+        for (final byte[] packet : packets) {
+            scheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (current == link && callback != null) {
+                        callback.onCharacteristicChanged(uuid, packet);
+                    }
+                }
+            }, lastNotificationAt - now);
+        }
+    }
+}
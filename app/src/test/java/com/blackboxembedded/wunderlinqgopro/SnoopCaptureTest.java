@@ -0,0 +1,160 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SnoopCaptureTest {
+
+    private static final String ADDRESS = "D0:00:00:00:12:AB";
+    private static final long WALL_MILLIS = 1700000000000L;
+
+    private static final CameraSession.Listener IGNORE = new CameraSession.Listener() {
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+        }
+
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    };
+
+    /**
+     * Connects a session to a simulated camera through a capture, drives it a little and
+     * returns the capture. The session's final status is copied into out.
+     */
+    private static byte[] capture(CameraStatus out) throws Exception {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        SimulatedCamera camera = new SimulatedCamera(scheduler, new SimulatedCamera.Config());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SnoopWriter writer = new SnoopWriter(bytes, WALL_MILLIS, scheduler.nanoTime());
+        CameraSession session = new CameraSession(ADDRESS, scheduler);
+        session.connect(new CaptureTransport(camera, writer, scheduler, ADDRESS), "GoPro", IGNORE);
+        scheduler.runFor(2000);
+        assertTrue(session.isConnected());
+
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x01});
+        scheduler.runFor(500);
+        session.requestWiFiSettings();
+        scheduler.runFor(500);
+        session.setCommand(new byte[]{BluetoothLeService.CMD_SHUTTER, 0x01, 0x00});
+        scheduler.runFor(500);
+        session.setCommand(new byte[]{0x02, 0x01, 0x01});
+        scheduler.runFor(500);
+        session.getCameraStatus(out);
+        session.close();
+        writer.close();
+        assertNull(writer.getError());
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void replayMirrorsTheStatusTheSessionSaw() throws Exception {
+        CameraStatus expected = new CameraStatus();
+        byte[] capture = capture(expected);
+
+        final List<String> connected = new ArrayList<>();
+        final CameraStatus mirrored = new CameraStatus();
+        SnoopReplay replay = new SnoopReplay(new SnoopReplay.Listener() {
+            @Override
+            public void onConnected(String address) {
+                connected.add(address);
+            }
+
+            @Override
+            public void onMessage(String address, UUID uuid, byte[] message, int length, long micros) {
+            }
+
+            @Override
+            public void onStatus(String address, CameraStatus status, long micros) {
+                mirrored.copyFrom(status);
+            }
+        }, false);
+        replay.replay(new ByteArrayInputStream(capture));
+
+        assertEquals(1, connected.size());
+        assertEquals(ADDRESS, connected.get(0));
+        assertTrue(replay.getStatusUpdates() > 1);
+        assertEquals(expected.mode, mirrored.mode);
+        assertEquals(expected.busy, mirrored.busy);
+        assertEquals(expected.encoding, mirrored.encoding);
+        assertEquals(expected.batteryPercent, mirrored.batteryPercent);
+        assertEquals(expected.sdRemainingKb, mirrored.sdRemainingKb);
+        assertEquals(expected.wifiEnabled, mirrored.wifiEnabled);
+    }
+
+    @Test
+    public void readerRecoversCharacteristicsValuesAndTimes() throws Exception {
+        byte[] capture = capture(new CameraStatus());
+
+        final List<String> reads = new ArrayList<>();
+        final List<String> writes = new ArrayList<>();
+        final long[] times = {Long.MIN_VALUE, 0};
+        SnoopReader reader = new SnoopReader(new ByteArrayInputStream(capture));
+        SnoopReader.Handler handler = new SnoopReader.Handler() {
+            private void at(long micros) {
+                // Monotonic, and on the wall clock the capture started at
+                assertTrue(micros >= times[0]);
+                assertTrue(micros >= WALL_MILLIS * 1000);
+                times[0] = micros;
+                times[1]++;
+            }
+
+            @Override
+            public void onConnected(int connection, String address, long micros) {
+                at(micros);
+            }
+
+            @Override
+            public void onDisconnected(int connection, long micros) {
+                at(micros);
+            }
+
+            @Override
+            public void onWrite(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+                at(micros);
+                if (UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC.equals(uuid)) {
+                    writes.add(Utils.ByteArraytoHex(data, offset, length));
+                }
+            }
+
+            @Override
+            public void onRead(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+                at(micros);
+                reads.add(uuid + " " + new String(data, offset, length));
+            }
+
+            @Override
+            public void onNotification(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+                at(micros);
+            }
+        };
+        while (reader.next(handler)) {
+        }
+
+        assertTrue(times[1] > 10);
+        assertTrue(writes.toString(), writes.contains("03 01 01 01 "));
+        assertTrue(writes.toString(), writes.contains("03 01 01 00 "));
+        assertTrue(writes.toString(), writes.contains("03 02 01 01 "));
+        assertTrue(reads.toString(), reads.contains(UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC + " GP24500000"));
+        assertTrue(reads.toString(), reads.contains(UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC + " rider-1234"));
+    }
+}
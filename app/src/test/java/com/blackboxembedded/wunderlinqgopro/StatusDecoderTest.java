@@ -0,0 +1,62 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatusDecoderTest {
+
+    private static final byte[] OPEN_GOPRO = {
+            0x17, 0x13, 0x00,
+            0x08, 0x01, 0x01,
+            0x11, 0x01, 0x01,
+            0x2B, 0x01, 0x00,
+            0x2C, 0x01, 0x00,
+            0x37, 0x01, 0x01,
+            0x60, 0x04, 0x00, 0x00, 0x03, (byte) 0xE9};
+
+    @Test
+    public void decodesOpenGoProResponse() {
+        CameraStatus status = new CameraStatus();
+        assertTrue(StatusDecoder.decode(OPEN_GOPRO, 1, OPEN_GOPRO[0] & 0xFF, status));
+        assertTrue(status.busy);
+        assertTrue(status.wifiEnabled);
+        assertTrue(status.previewAvailable);
+        assertTrue(status.openGoPro);
+        assertEquals(CameraStatus.MODE_PHOTO, status.mode);
+        assertEquals(1, status.version);
+
+        // Same response again changes nothing
+        assertTrue(StatusDecoder.decode(OPEN_GOPRO, 1, OPEN_GOPRO[0] & 0xFF, status));
+        assertEquals(1, status.version);
+    }
+
+    @Test
+    public void decodesLegacyModeInAnyOrder() {
+        byte[] data = {0x0B, 0x13, 0x00, 0x2C, 0x01, 0x01, 0x2B, 0x01, 0x00, 0x46, 0x01, 0x55};
+        CameraStatus status = new CameraStatus();
+        assertTrue(StatusDecoder.decode(data, 1, data[0] & 0xFF, status));
+        assertFalse(status.openGoPro);
+        assertEquals(CameraStatus.MODE_TIMELAPSE, status.mode);
+        assertEquals(0x55, status.batteryPercent);
+
+        // A push carrying only the submode keeps the last mode
+        byte[] push = {0x05, (byte) 0x93, 0x00, 0x2C, 0x01, 0x00};
+        assertTrue(StatusDecoder.decode(push, 1, push[0] & 0xFF, status));
+        assertEquals(CameraStatus.MODE_VIDEO, status.mode);
+        assertEquals(2, status.version);
+    }
+
+    @Test
+    public void rejectsErrorsAndTruncatedRecords() {
+        CameraStatus status = new CameraStatus();
+        byte[] error = {0x02, 0x13, 0x01};
+        assertFalse(StatusDecoder.decode(error, 1, 2, status));
+        byte[] other = {0x02, 0x12, 0x00};
+        assertFalse(StatusDecoder.decode(other, 1, 2, status));
+        byte[] truncated = {0x07, 0x13, 0x00, 0x08, 0x01, 0x01, 0x36, 0x04};
+        assertFalse(StatusDecoder.decode(truncated, 1, 7, status));
+        // Records before the truncation are still applied
+        assertTrue(status.busy);
+    }
+}
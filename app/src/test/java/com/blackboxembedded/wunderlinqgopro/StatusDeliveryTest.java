@@ -0,0 +1,91 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StatusDeliveryTest {
+
+    private static final CameraSession.Listener IGNORE = new CameraSession.Listener() {
+        @Override
+        public void onStateChanged(CameraSession session, String action) {
+        }
+
+        @Override
+        public void onDataAvailable(CameraSession session, UUID uuid, byte[] data, int length) {
+        }
+
+        @Override
+        public void onWriteSuccess(CameraSession session, UUID uuid, byte[] value) {
+        }
+
+        @Override
+        public void onCommandDropped(CameraSession session, BleCommand command, String reason) {
+        }
+
+        @Override
+        public void onQueueStalled(CameraSession session, String report) {
+        }
+    };
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    // Stands in for the main thread, runs what was handed over when asked to
+    private final List<Runnable> mainThread = new ArrayList<>();
+    private int statusEvents;
+
+    private void runMainThread() {
+        while (!mainThread.isEmpty()) {
+            mainThread.remove(0).run();
+        }
+    }
+
+    @Test
+    public void onlyChangesReachTheScreen() {
+        SimulatedCamera camera = new SimulatedCamera(scheduler, new SimulatedCamera.Config());
+        CameraSession session = new CameraSession("D0:00:00:00:12:AB", scheduler, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThread.add(command);
+            }
+        });
+        session.subscribe(new EventBus.Listener() {
+            @Override
+            public void onEvent(UUID uuid, byte[] data, int length) {
+                statusEvents++;
+            }
+        }, UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC);
+        session.connect(camera, "GoPro", IGNORE);
+        scheduler.runFor(2000);
+        runMainThread();
+        assertTrue(session.isStatusSubscribed());
+        int events = statusEvents;
+        assertTrue(events > 0);
+
+        // The camera repeats itself, nothing to redraw
+        camera.pushStatus(CameraStatus.STATUS_BATTERY_PERCENT);
+        scheduler.runFor(200);
+        runMainThread();
+        assertEquals(events, statusEvents);
+
+        camera.batteryPercent = 50;
+        camera.pushStatus(CameraStatus.STATUS_BATTERY_PERCENT);
+        scheduler.runFor(200);
+        runMainThread();
+        assertEquals(events + 1, statusEvents);
+
+        // Asked for, so answered even though nothing changed
+        session.requestCameraStatus();
+        scheduler.runFor(200);
+        runMainThread();
+        assertEquals(events + 2, statusEvents);
+        CameraStatus status = new CameraStatus();
+        session.getCameraStatus(status);
+        assertEquals(50, status.batteryPercent);
+        session.close();
+    }
+}
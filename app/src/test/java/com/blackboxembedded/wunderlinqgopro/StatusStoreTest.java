@@ -0,0 +1,68 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatusStoreTest {
+
+    private static class Screen implements StatusStore.Observer {
+        final List<Integer> changes = new ArrayList<>();
+
+        @Override
+        public void onStatusChanged(CameraStatus status, int changed) {
+            changes.add(changed);
+        }
+    }
+
+    @Test
+    public void reportsOnlyChangedFields() {
+        StatusStore store = new StatusStore();
+        Screen screen = new Screen();
+        store.observe(screen);
+        assertTrue(screen.changes.isEmpty());
+
+        CameraStatus status = new CameraStatus();
+        status.mode = CameraStatus.MODE_VIDEO;
+        status.batteryPercent = 80;
+        assertEquals(StatusStore.FIELDS_ALL, store.update(status));
+
+        // Same values under a new version, nothing to redraw
+        status.version++;
+        assertEquals(0, store.update(status));
+        assertEquals(1, screen.changes.size());
+
+        status.busy = true;
+        status.batteryPercent = 79;
+        assertEquals(StatusStore.FIELD_BUSY | StatusStore.FIELD_BATTERY, store.update(status));
+        assertEquals(2, screen.changes.size());
+        assertEquals(StatusStore.FIELD_BUSY | StatusStore.FIELD_BATTERY, (int) screen.changes.get(1));
+    }
+
+    @Test
+    public void recreatedScreenDrawsStoredState() {
+        StatusStore store = new StatusStore();
+        Screen first = new Screen();
+        store.observe(first);
+        CameraStatus status = new CameraStatus();
+        status.mode = CameraStatus.MODE_TIMELAPSE;
+        store.update(status);
+        store.removeObserver(first);
+
+        Screen second = new Screen();
+        store.observe(second);
+        assertEquals(1, second.changes.size());
+        assertEquals(StatusStore.FIELDS_ALL, (int) second.changes.get(0));
+        CameraStatus copy = new CameraStatus();
+        assertTrue(store.get(copy));
+        assertEquals(CameraStatus.MODE_TIMELAPSE, copy.mode);
+        assertEquals(1, first.changes.size());
+
+        store.clear();
+        assertFalse(store.get(copy));
+        assertEquals(StatusStore.FIELDS_ALL, store.update(status));
+    }
+}
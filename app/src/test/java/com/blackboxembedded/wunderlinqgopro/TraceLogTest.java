@@ -0,0 +1,107 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TraceLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int SEGMENT_COUNT = 4;
+
+    private static String[] export(TraceLog trace) throws Exception {
+        StringWriter out = new StringWriter();
+        trace.export(out);
+        String text = out.toString();
+        return text.isEmpty() ? new String[0] : text.split("\n");
+    }
+
+    @Test
+    public void rendersTextAndData() throws Exception {
+        File file = File.createTempFile("trace", ".bin");
+        file.deleteOnExit();
+        TraceLog trace = new TraceLog(file, SEGMENT_SIZE, SEGMENT_COUNT);
+        trace.appendText(TraceLog.CATEGORY_UI, TraceLog.EVENT_INPUT, "Shutter");
+        trace.appendData(TraceLog.CATEGORY_BLE, TraceLog.EVENT_WRITE,
+                UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, new byte[]{0x03, 0x01, 0x01, 0x01, 0x7F}, 4);
+        trace.appendData(TraceLog.CATEGORY_BLE, TraceLog.EVENT_READ,
+                UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC, null, 0);
+
+        String[] lines = export(trace);
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" UI INPUT Shutter"));
+        assertTrue(lines[1], lines[1].endsWith(" BLE WRITE <"
+                + UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC + "> 03 01 01 01 "));
+        assertTrue(lines[2], lines[2].endsWith(" BLE READ <"
+                + UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC + "> "));
+    }
+
+    @Test
+    public void concurrentWritersWrapAroundAndKeepNewestRecords() throws Exception {
+        File file = File.createTempFile("trace", ".bin");
+        file.deleteOnExit();
+        final int segments = 8;
+        final TraceLog trace = new TraceLog(file, SEGMENT_SIZE, segments);
+        final int threads = 4;
+        // Laps the ring, but the other writers can't fill a whole lap while one is stalled
+        // mid-record, which would cost that record
+        final int records = 280;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < records; i++) {
+                        trace.appendText(TraceLog.CATEGORY_APP, TraceLog.EVENT_MESSAGE, "T" + id + " " + i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        trace.appendText(TraceLog.CATEGORY_UI, TraceLog.EVENT_INPUT, "end");
+
+        String[] lines = export(trace);
+        // More was written than fits: the newest record is there and only about one lap is
+        // left, of records that take 32 bytes each
+        assertTrue(lines[lines.length - 1], lines[lines.length - 1].endsWith("UI INPUT end"));
+        assertTrue(lines.length * 32 <= SEGMENT_SIZE * segments);
+        assertTrue(lines.length * 32 > SEGMENT_SIZE * (segments - 1));
+        int[] last = new int[threads];
+        Arrays.fill(last, -1);
+        for (int n = 0; n < lines.length - 1; n++) {
+            String line = lines[n];
+            String[] parts = line.split(" ");
+            assertEquals(line, "APP", parts[2]);
+            int id = Integer.parseInt(parts[4].substring(1));
+            int i = Integer.parseInt(parts[5]);
+            // Each thread's records come out in the order it wrote them
+            assertTrue(line, i > last[id]);
+            last[id] = i;
+        }
+    }
+
+    @Test
+    public void reopenKeepsPreviousRunAndAppendsAfterIt() throws Exception {
+        File file = File.createTempFile("trace", ".bin");
+        file.deleteOnExit();
+        TraceLog first = new TraceLog(file, SEGMENT_SIZE, SEGMENT_COUNT);
+        first.appendText(TraceLog.CATEGORY_APP, TraceLog.EVENT_MESSAGE, "first run");
+        first.flush();
+
+        TraceLog second = new TraceLog(file, SEGMENT_SIZE, SEGMENT_COUNT);
+        second.appendData(TraceLog.CATEGORY_BLE, TraceLog.EVENT_NOTIFY, UUID.randomUUID(), new byte[]{0x13, 0x00}, 2);
+
+        String[] lines = export(second);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("APP MESSAGE first run"));
+        assertTrue(lines[1], lines[1].endsWith("13 00 "));
+    }
+}
@@ -0,0 +1,25 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UtilsTest {
+
+    @Test
+    public void hexMatchesFormattedOutput() {
+        byte[] bytes = new byte[256];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+            expected.append(String.format("%02X ", bytes[i]));
+        }
+        assertEquals(expected.toString(), Utils.ByteArraytoHex(bytes));
+        assertEquals("", Utils.ByteArraytoHex(null));
+        assertEquals("01 02 ", Utils.ByteArraytoHex(new byte[]{0x00, 0x01, 0x02, 0x03}, 1, 2));
+
+        char[] buffer = new char[8];
+        assertEquals(6, Utils.writeHex(new byte[]{(byte) 0xAB, 0x0C}, 0, 2, buffer, 1));
+        assertEquals("AB 0C ", new String(buffer, 1, 6));
+    }
+}
@@ -0,0 +1,77 @@
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Single threaded {@link Scheduler} on a simulated clock. Time only moves when the next task
+ * is due, so hours of BLE traffic run in milliseconds.
+ */
+class VirtualScheduler implements Scheduler {
+
+    private static class Task implements Comparable<Task> {
+        final long due;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long due, long sequence, Runnable runnable) {
+            this.due = due;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (due != other.due) {
+                return (due < other.due) ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        tasks.add(new Task(now + Math.max(0, delayMillis) * 1000000L, sequence++, task));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        Iterator<Task> it = tasks.iterator();
+        while (it.hasNext()) {
+            if (it.next().runnable == task) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    long millis() {
+        return now / 1000000L;
+    }
+
+    /**
+     * Runs every task that is due within the given simulated time and leaves the clock there.
+     */
+    void runFor(long millis) {
+        long end = now + millis * 1000000L;
+        while (!tasks.isEmpty() && tasks.peek().due <= end) {
+            Task task = tasks.poll();
+            now = task.due;
+            task.runnable.run();
+        }
+        now = end;
+    }
+}
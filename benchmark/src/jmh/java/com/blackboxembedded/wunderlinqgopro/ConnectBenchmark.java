@@ -0,0 +1,117 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What timing a connection costs: one attempt through the {@link ConnectTimeline} phase
+ * machine, on a simulated clock where every GATT round trip takes 8 to 30 ms like the
+ * unit tests' simulated camera. A cold connect exchanges the MTU before discovery, a known
+ * camera skips it. CameraSession itself needs the Android stubs, the real end to end
+ * figures come from ConnectTimelineTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConnectBenchmark {
+
+    private static final ConnectTimeline.Phase[] COLD = {
+            ConnectTimeline.Phase.LINK, ConnectTimeline.Phase.MTU, ConnectTimeline.Phase.DISCOVERED,
+            null, null, ConnectTimeline.Phase.SUBSCRIBED, null, ConnectTimeline.Phase.FIRST_STATUS};
+    private static final ConnectTimeline.Phase[] KNOWN = {
+            ConnectTimeline.Phase.LINK, ConnectTimeline.Phase.DISCOVERED,
+            null, null, ConnectTimeline.Phase.SUBSCRIBED, null, ConnectTimeline.Phase.FIRST_STATUS};
+
+    @Param({"cold", "known"})
+    public String path;
+
+    private final Random random = new Random(1);
+    private final ConnectTimeline timeline = new ConnectTimeline();
+    private final ConnectTimeline.Stats stats = new ConnectTimeline.Stats();
+    private final ConnectTimeline.Stats persisted = new ConnectTimeline.Stats();
+    private ConnectTimeline.Phase[] sequence;
+    private String saved;
+
+    @Setup
+    public void setup() {
+        sequence = "known".equals(path) ? KNOWN : COLD;
+        persisted.setStorage(new ConnectTimeline.Stats.Storage() {
+            @Override
+            public String load() {
+                return null;
+            }
+
+            @Override
+            public void save(String value) {
+                saved = value;
+            }
+        });
+        // Full rings, as after a season of rides
+        for (int i = 0; i < ConnectTimeline.Stats.SAMPLES; i++) {
+            attempt();
+            stats.record(timeline);
+            persisted.record(timeline);
+        }
+    }
+
+    private long attempt() {
+        long now = 0;
+        timeline.begin(ConnectTimeline.Phase.TAP, now);
+        timeline.mark(ConnectTimeline.Phase.CONNECT, now);
+        // One GATT round trip per step, steps without a phase are the CCC and query writes in between
+        for (ConnectTimeline.Phase phase : sequence) {
+            now += (8 + random.nextInt(23)) * 1000000L;
+            if (phase != null) {
+                timeline.mark(phase, now);
+            }
+        }
+        timeline.mark(ConnectTimeline.Phase.CONTROL_SHOWN, now);
+        return timeline.getElapsedNanos(ConnectTimeline.Phase.CONTROL_SHOWN);
+    }
+
+    @Benchmark
+    public long connect() {
+        long elapsed = attempt();
+        stats.record(timeline);
+        return elapsed;
+    }
+
+    @Benchmark
+    public int connectPersisted() {
+        // What the app does, the stats are written to preferences after every attempt
+        attempt();
+        persisted.record(timeline);
+        return saved.length();
+    }
+
+    @Benchmark
+    public String report() {
+        return stats.getReport();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing one value of each characteristic to the control screen's listener through the
+ * event bus, subscribed the way DeviceControlActivity.onResume() does it. The listener's
+ * own work is Android code and is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+    @Param({"commandResponse", "queryResponse", "wifiSsid", "wifiPassword"})
+    public String characteristic;
+
+    private final byte[] value = {0x02, 0x01, 0x00};
+
+    private EventBus bus;
+    private UUID uuid;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        // Drained by hand below, so the measurement stays on one thread
+        bus = new EventBus(64, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        });
+        EventBus.Listener listener = new EventBus.Listener() {
+            @Override
+            public void onEvent(UUID uuid, byte[] data, int length) {
+                blackhole.consume(uuid);
+                blackhole.consume(data[length - 1]);
+            }
+        };
+        UUID[] uuids = {UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC,
+                UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, UUIDDatabase.UUID_GOPRO_WIFI_SSID_CHARACTERISTIC,
+                UUIDDatabase.UUID_GOPRO_WIFI_PASSWORD_CHARACTERISTIC};
+        for (UUID subscribed : uuids) {
+            bus.subscribe(subscribed, listener);
+        }
+        switch (characteristic) {
+            case "commandResponse":
+                uuid = uuids[0];
+                break;
+            case "queryResponse":
+                uuid = uuids[1];
+                break;
+            case "wifiSsid":
+                uuid = uuids[2];
+                break;
+            default:
+                uuid = uuids[3];
+                break;
+        }
+    }
+
+    @Benchmark
+    public void dispatch() {
+        bus.publish(uuid, value, value.length);
+        bus.drain();
+    }
+}
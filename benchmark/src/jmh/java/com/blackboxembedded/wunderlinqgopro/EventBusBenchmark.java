@@ -0,0 +1,107 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One notification delivered to the activity, through the event bus and through the
+ * broadcast path it replaces.
+ *
+ * The broadcast side models only what happens in our process: a Bundle (a HashMap
+ * underneath) with the value and the UUID string, and the receiver's chain of
+ * contains() checks. The binder round trip through the system server comes on top
+ * and is not measurable on the JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBusBenchmark {
+
+    private static final UUID COMMAND_RESPONSE = UUID.fromString("b5f90073-aa8d-11e3-9046-0002a5d5c51b");
+    private static final UUID QUERY_RESPONSE = UUID.fromString("b5f90077-aa8d-11e3-9046-0002a5d5c51b");
+    private static final UUID WIFI_SSID = UUID.fromString("b5f90002-aa8d-11e3-9046-0002a5d5c51b");
+    private static final UUID WIFI_PASSWORD = UUID.fromString("b5f90003-aa8d-11e3-9046-0002a5d5c51b");
+
+    private final byte[] value = {0x13, 0x00, 0x08, 0x01, 0x00, 0x11, 0x01, 0x01, 0x60, 0x01, (byte) 0xE8};
+
+    private EventBus bus;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        this.blackhole = blackhole;
+        // Drained by hand below, so the measurement stays on one thread
+        bus = new EventBus(64, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        });
+        EventBus.Listener listener = new EventBus.Listener() {
+            @Override
+            public void onEvent(UUID uuid, byte[] data, int length) {
+                blackhole.consume(data[length - 1]);
+            }
+        };
+        bus.subscribe(COMMAND_RESPONSE, listener);
+        bus.subscribe(QUERY_RESPONSE, listener);
+        bus.subscribe(WIFI_SSID, listener);
+        bus.subscribe(WIFI_PASSWORD, listener);
+    }
+
+    @Benchmark
+    public void eventBus() {
+        bus.publish(QUERY_RESPONSE, value, value.length);
+        bus.drain();
+    }
+
+    @Benchmark
+    public void broadcastPath() {
+        // Service side of broadcastNotifyUpdate()
+        Map<String, Object> bundle = new HashMap<>();
+        bundle.put("EXTRA_BYTE_VALUE", value.clone());
+        bundle.put("EXTRA_BYTE_UUID_VALUE", QUERY_RESPONSE.toString());
+        Map<String, Object> extras = new HashMap<>(bundle);
+
+        // Receiver side, as the activity dispatched before
+        String uuid = (String) extras.get("EXTRA_BYTE_UUID_VALUE");
+        byte[] data = (byte[]) extras.get("EXTRA_BYTE_VALUE");
+        if (uuid.contains(COMMAND_RESPONSE.toString())) {
+            blackhole.consume(data[0]);
+        } else if (uuid.contains(QUERY_RESPONSE.toString())) {
+            blackhole.consume(data[data.length - 1]);
+        } else if (uuid.contains(WIFI_SSID.toString())) {
+            blackhole.consume(data[0]);
+        } else if (uuid.contains(WIFI_PASSWORD.toString())) {
+            blackhole.consume(data[0]);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name lookup for a characteristic we know and one we do not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GattAttributesBenchmark {
+
+    private final UUID known = UUID.fromString(GattAttributes.GOPRO_QUERYRESPONSE_CHARACTERISTIC);
+    private final UUID unknown = UUID.fromString("0000ffff-0000-1000-8000-00805f9b34fb");
+
+    @Benchmark
+    public String lookupKnown() {
+        return GattAttributes.lookupUUID(known, "Unknown");
+    }
+
+    @Benchmark
+    public String lookupUnknown() {
+        return GattAttributes.lookupUUID(unknown, "Unknown");
+    }
+}
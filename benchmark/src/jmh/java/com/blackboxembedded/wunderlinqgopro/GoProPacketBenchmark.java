@@ -0,0 +1,73 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing on the way out (what setCommand and setSetting pay per message) and reassembly
+ * of a multi-packet response on the way in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GoProPacketBenchmark {
+
+    private final byte[] shutterOn = {0x01, 0x01, 0x01};
+    // Long enough for an extended header and six packets at the default MTU
+    private final byte[] longMessage = new byte[100];
+
+    private List<byte[]> responsePackets;
+    private PacketAssembler assembler;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < longMessage.length; i++) {
+            longMessage[i] = (byte) i;
+        }
+        responsePackets = GoProPacket.fragment(longMessage, GoProPacket.DEFAULT_MTU);
+        assembler = new PacketAssembler(new BufferPool());
+    }
+
+    @Benchmark
+    public List<byte[]> fragmentCommand() {
+        return GoProPacket.fragment(shutterOn, 185);
+    }
+
+    @Benchmark
+    public List<byte[]> fragmentLongMessage() {
+        return GoProPacket.fragment(longMessage, GoProPacket.DEFAULT_MTU);
+    }
+
+    @Benchmark
+    public int reassembleLongMessage() {
+        for (int i = 0; i < responsePackets.size(); i++) {
+            assembler.accept(responsePackets.get(i));
+        }
+        return assembler.getLength();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the dashboard pays to know the recording state. Reading the shared snapshot is a few
+ * loads from a mapped file, checking whether anything changed is one. A request goes to the
+ * service's thread and back, modelled here with two blocking queues in place of the
+ * Messenger's message queues. Binder itself is not part of it; on a phone, MSG_PING gives
+ * the full round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RemoteControlBenchmark {
+
+    private static final String ADDRESS = "D0:00:00:00:12:AB";
+
+    /**
+     * A connected camera whose status changes whenever asked.
+     */
+    static class Camera implements RemoteControl.Camera {
+        final CameraStatus status = new CameraStatus();
+        int commands;
+
+        @Override
+        public String getAddress() {
+            return ADDRESS;
+        }
+
+        @Override
+        public int getConnectionState() {
+            // BluetoothLeService.STATE_CONNECTED
+            return 2;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void getCameraStatus(CameraStatus out) {
+            out.copyFrom(status);
+        }
+
+        @Override
+        public void setCommand(byte[] command) {
+            commands++;
+        }
+
+        @Override
+        public void setHilight() {
+            commands++;
+        }
+    }
+
+    private final Camera camera = new Camera();
+    private final Scheduler clock = new Scheduler() {
+        @Override
+        public void post(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+    private final StatusSnapshot.Entry entry = new StatusSnapshot.Entry();
+    private final BlockingQueue<int[]> requests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<int[]> replies = new LinkedBlockingQueue<>();
+    private final int[] ping = {RemoteControl.MSG_PING, 0, 0};
+    private final int[] shutter = {RemoteControl.MSG_SHUTTER, 1, 0};
+    private File file;
+    private RemoteControl remote;
+    private StatusSnapshot dashboard;
+    private Thread service;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("remote_status", null);
+        int size = StatusSnapshot.size(StatusSnapshot.DEFAULT_SLOTS);
+        MappedByteBuffer shared;
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.setLength(size);
+            shared = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        remote = new RemoteControl(new RemoteControl.Target() {
+            @Override
+            public RemoteControl.Camera getCamera(String address) {
+                return camera;
+            }
+
+            @Override
+            public List<? extends RemoteControl.Camera> getCameras() {
+                return Collections.singletonList(camera);
+            }
+
+            @Override
+            public void setGroupCommand(byte[] command) {
+                camera.setCommand(command);
+            }
+        }, StatusSnapshot.format(shared, StatusSnapshot.DEFAULT_SLOTS), clock);
+        remote.publish(camera);
+        dashboard = new StatusSnapshot(shared.duplicate());
+
+        service = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        int[] request = requests.take();
+                        int result = remote.handle(request[0], request[1], null);
+                        replies.put(new int[]{RemoteControl.MSG_RESULT, result, request[2]});
+                    }
+                } catch (InterruptedException e) {
+                    // Done
+                }
+            }
+        });
+        service.setDaemon(true);
+        service.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.interrupt();
+        file.delete();
+    }
+
+    @Benchmark
+    public int publish() {
+        // A status push that changed something
+        camera.status.version++;
+        camera.status.encoding = !camera.status.encoding;
+        remote.publish(camera);
+        return dashboard.getSequence(0);
+    }
+
+    @Benchmark
+    public boolean readSnapshot() {
+        return dashboard.read(0, entry) && entry.isRecording();
+    }
+
+    @Benchmark
+    public int pollSequence() {
+        return dashboard.getSequence(0);
+    }
+
+    @Benchmark
+    public int roundTripPing() throws InterruptedException {
+        requests.put(ping);
+        return replies.take()[1];
+    }
+
+    @Benchmark
+    public int roundTripShutter() throws InterruptedException {
+        requests.put(shutter);
+        return replies.take()[1];
+    }
+}
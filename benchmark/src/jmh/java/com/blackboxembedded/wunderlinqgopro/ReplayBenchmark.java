@@ -0,0 +1,132 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembly and status decoding of a whole capture at full speed. Point it at a real
+ * capture with -Dreplay.capture=wunderlinq-gopro.btsnoop, otherwise it replays a synthetic
+ * ride: a camera pushing status once a second for ten minutes over a 23 byte MTU, with a
+ * shutter command and its response every half minute.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReplayBenchmark {
+
+    // BluetoothLeService.CMD_SHUTTER, the service is not part of this module
+    private static final byte SHUTTER = 0x01;
+
+    private byte[] capture;
+
+    @Setup
+    public void setup() throws IOException {
+        String path = System.getProperty("replay.capture");
+        capture = (path != null) ? Files.readAllBytes(Paths.get(path)) : syntheticRide();
+    }
+
+    static byte[] syntheticRide() throws IOException {
+        byte[] push = {
+                (byte) StatusDecoder.QUERY_STATUS_PUSH, 0x00,
+                0x08, 0x01, 0x00,
+                0x0A, 0x01, 0x00,
+                0x11, 0x01, 0x00,
+                0x36, 0x04, 0x01, (byte) 0xDC, (byte) 0xD6, 0x50,
+                0x37, 0x01, 0x00,
+                0x46, 0x01, 0x57,
+                0x60, 0x04, 0x00, 0x00, 0x03, (byte) 0xE8};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnoopWriter writer = new SnoopWriter(out, 1700000000000L, 0);
+        long nanos = 0;
+        int connection = writer.connected("D0:00:00:00:12:AB", nanos);
+        for (int second = 0; second < 600; second++) {
+            nanos = second * 1000000000L;
+            // Battery and SD card count down, so most pushes change the mirrored status
+            push[16] = (byte) second;
+            push[22] = (byte) (87 - second / 60);
+            List<byte[]> packets = GoProPacket.fragment(push, GoProPacket.DEFAULT_MTU);
+            for (byte[] packet : packets) {
+                nanos += 7500000;
+                writer.notification(connection, UUIDDatabase.UUID_GOPRO_QUERYRESPONSE_CHARACTERISTIC, packet, nanos);
+            }
+            if (second % 30 == 0) {
+                byte[] shutter = {0x03, SHUTTER, 0x01, (byte) ((second / 30) & 1)};
+                writer.writeRequest(connection, UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, shutter, true, nanos);
+                writer.writeResponse(connection, UUIDDatabase.UUID_GOPRO_COMMAND_CHARACTERISTIC, 0, nanos + 30000000);
+                writer.notification(connection, UUIDDatabase.UUID_GOPRO_COMMANDRESPONSE_CHARACTERISTIC,
+                        new byte[]{0x02, SHUTTER, 0x00}, nanos + 45000000);
+            }
+        }
+        writer.disconnected(connection, 0x13, nanos + 1000000000L);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public long replay() throws Exception {
+        SnoopReplay replay = new SnoopReplay(null, false);
+        replay.replay(new ByteArrayInputStream(capture));
+        return replay.getStatusUpdates();
+    }
+
+    @Benchmark
+    public long readOnly() throws Exception {
+        // Parsing alone, to tell file reading apart from reassembly and decoding
+        SnoopReader reader = new SnoopReader(new ByteArrayInputStream(capture));
+        SnoopReader.Handler ignore = new SnoopReader.Handler() {
+            @Override
+            public void onConnected(int connection, String address, long micros) {
+            }
+
+            @Override
+            public void onDisconnected(int connection, long micros) {
+            }
+
+            @Override
+            public void onWrite(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+            }
+
+            @Override
+            public void onRead(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+            }
+
+            @Override
+            public void onNotification(int connection, UUID uuid, byte[] data, int offset, int length, long micros) {
+            }
+        };
+        while (reader.next(ignore)) {
+        }
+        return reader.getRecords();
+    }
+}
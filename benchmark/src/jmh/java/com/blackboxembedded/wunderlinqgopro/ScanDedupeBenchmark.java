@@ -0,0 +1,65 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one repeated scan result in the scan screen's {@link DeviceList}. Every
+ * advertisement of a camera already listed takes this path. The list holds plain objects
+ * in place of Device, which wraps a BluetoothDevice and is only stored, never compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanDedupeBenchmark {
+
+    // Devices already in the list
+    @Param({"5", "50"})
+    public int devices;
+
+    private final DeviceList<Object> list = new DeviceList<>();
+    private final Object device = new Object();
+    private String lastAddress;
+
+    @Setup
+    public void setup() {
+        String address = null;
+        for (int i = 0; i < devices; i++) {
+            address = String.format(Locale.ENGLISH, "D4:D9:19:00:%02X:%02X", i >> 8, i & 0xFF);
+            list.add(address, new Object());
+        }
+        lastAddress = address;
+    }
+
+    @Benchmark
+    public boolean addKnownDevice() {
+        // A new string per scan result, as BluetoothDevice.getAddress() hands out
+        return list.add(new String(lastAddress), device);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode cost of a status query response. Run with the gc profiler, the decoder is
+ * expected to report no allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatusDecoderBenchmark {
+
+    // Response to the query sent by BluetoothLeService.requestCameraStatus() on an OpenGoPro camera
+    private final byte[] openGoPro = {
+            0x17, 0x13, 0x00,
+            0x08, 0x01, 0x00,
+            0x11, 0x01, 0x01,
+            0x2B, 0x01, 0x00,
+            0x2C, 0x01, 0x00,
+            0x37, 0x01, 0x01,
+            0x60, 0x04, 0x00, 0x00, 0x03, (byte) 0xE9};
+
+    // Same query answered by a camera without preset groups
+    private final byte[] legacy = {
+            0x0E, 0x13, 0x00,
+            0x08, 0x01, 0x00,
+            0x11, 0x01, 0x01,
+            0x2B, 0x01, 0x00,
+            0x2C, 0x01, 0x01};
+
+    private CameraStatus status;
+
+    @Setup
+    public void setup() {
+        status = new CameraStatus();
+    }
+
+    @Benchmark
+    public boolean decodeOpenGoPro() {
+        return StatusDecoder.decode(openGoPro, 1, openGoPro[0] & 0xFF, status);
+    }
+
+    @Benchmark
+    public boolean decodeLegacy() {
+        return StatusDecoder.decode(legacy, 1, legacy[0] & 0xFF, status);
+    }
+
+    @Benchmark
+    public CameraStatus decodeAllocating() {
+        // What the activity did before, a new object per response
+        CameraStatus fresh = new CameraStatus();
+        StatusDecoder.decode(openGoPro, 1, openGoPro[0] & 0xFF, fresh);
+        return fresh;
+    }
+}
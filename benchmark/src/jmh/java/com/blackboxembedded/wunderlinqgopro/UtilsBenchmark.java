@@ -0,0 +1,64 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex formatting, run for every value logged on the GATT path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UtilsBenchmark {
+
+    // A command, a status response and a full MTU of data
+    @Param({"3", "24", "182"})
+    public int length;
+
+    private byte[] value;
+    private final char[] buffer = new char[3 * 182];
+
+    @Setup
+    public void setup() {
+        value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte) (i * 31);
+        }
+    }
+
+    @Benchmark
+    public String byteArrayToHex() {
+        return Utils.ByteArraytoHex(value);
+    }
+
+    @Benchmark
+    public int writeHex() {
+        // What the protocol log does, into a buffer that is reused
+        return Utils.writeHex(value, 0, value.length, buffer, 0);
+    }
+}
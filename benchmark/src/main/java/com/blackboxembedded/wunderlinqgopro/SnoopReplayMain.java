@@ -0,0 +1,76 @@
+/*
+WunderLINQ Client Application
+Copyright (C) 2020  Keith Conger, Black Box Embedded, LLC
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package com.blackboxembedded.wunderlinqgopro;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Prints a capture replayed by {@link SnoopReplay}. Lives here so the app does not ship it.
+ */
+public class SnoopReplayMain {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SnoopReplayMain <capture.btsnoop> [--realtime]");
+            System.exit(2);
+        }
+        boolean realtime = args.length > 1 && "--realtime".equals(args[1]);
+        final long[] first = {-1};
+        SnoopReplay replay = new SnoopReplay(new SnoopReplay.Listener() {
+            @Override
+            public void onConnected(String address) {
+                System.out.println("Connected " + address);
+            }
+
+            @Override
+            public void onMessage(String address, UUID uuid, byte[] message, int length, long micros) {
+                System.out.println(String.format(Locale.ENGLISH, "%10.3f %s %s %s", seconds(micros),
+                        address, GattAttributes.lookupUUID(uuid, uuid.toString()),
+                        Utils.ByteArraytoHex(message, 0, length)));
+            }
+
+            @Override
+            public void onStatus(String address, CameraStatus status, long micros) {
+                System.out.println(String.format(Locale.ENGLISH,
+                        "%10.3f %s status: mode %02X busy %b encoding %b battery %d%% sd %d KB",
+                        seconds(micros), address, status.mode, status.busy, status.encoding,
+                        status.batteryPercent, status.sdRemainingKb));
+            }
+
+            private double seconds(long micros) {
+                if (first[0] < 0) {
+                    first[0] = micros;
+                }
+                return (micros - first[0]) / 1e6;
+            }
+        }, realtime);
+        long start = System.nanoTime();
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            replay.replay(in);
+        } finally {
+            in.close();
+        }
+        System.out.println(String.format(Locale.ENGLISH, "%d packets, %d messages, %d status updates in %.1f ms",
+                replay.getPackets(), replay.getMessages(), replay.getStatusUpdates(),
+                (System.nanoTime() - start) / 1e6));
+    }
+}